@@ -0,0 +1,70 @@
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import bptree.bench.TreeHandle;
+
+/**
+ * Default-package bridge that lets the benchmarks in bptree.bench drive a
+ * BPTree<Long, Long>.
+ * 
+ * @author Wally Estenson
+ */
+public class BPTreeHandle implements TreeHandle {
+
+	private final BPTree<Long, Long> tree;
+
+	/**
+	 * Public constructor, called reflectively from TreeHandle.create
+	 * 
+	 * @param branchingFactor
+	 */
+	public BPTreeHandle(int branchingFactor) {
+		tree = new BPTree<>(branchingFactor);
+	}
+
+	/**
+	 * Public constructor, called reflectively from TreeHandle.createSized
+	 * 
+	 * @param internalBytes target internal node size
+	 * @param leafBytes     target leaf size
+	 */
+	public BPTreeHandle(int internalBytes, int leafBytes) {
+		tree = new BPTree<>(NodeSizing.forNodeBytes(Long.BYTES, Long.BYTES,
+				internalBytes, leafBytes));
+	}
+
+	@Override
+	public void insert(Long key, Long value) {
+		tree.insert(key, value);
+	}
+
+	@Override
+	public void insertAll(Collection<Map.Entry<Long, Long>> entries) {
+		tree.insertAll(entries);
+	}
+
+	@Override
+	public Long get(Long key) {
+		return tree.get(key);
+	}
+
+	@Override
+	public List<Long> rangeSearch(Long key, String comparator) {
+		return tree.rangeSearch(key, comparator);
+	}
+
+	@Override
+	public long sumRange(Long key, String comparator, long limit) {
+		long sum = 0;
+		RangeCursor<Long, Long> cursor = tree.cursor(key, comparator, 0, limit);
+		while (cursor.advance())
+			sum += cursor.getValue();
+		return sum;
+	}
+
+	@Override
+	public int size() {
+		return tree.size();
+	}
+}
@@ -0,0 +1,61 @@
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import bptree.bench.TreeHandle;
+
+/**
+ * Default-package bridge that lets the benchmarks in bptree.bench drive a
+ * ConcurrentBPTree<Long, Long>. The concurrent tree has no batched insert or
+ * cursor, so those go through insert and rangeSearch.
+ *
+ * @author Wally Estenson
+ */
+public class ConcurrentBPTreeHandle implements TreeHandle {
+
+	private final ConcurrentBPTree<Long, Long> tree;
+
+	/**
+	 * Public constructor, called reflectively from TreeHandle.createConcurrent
+	 *
+	 * @param branchingFactor
+	 */
+	public ConcurrentBPTreeHandle(int branchingFactor) {
+		tree = new ConcurrentBPTree<>(branchingFactor);
+	}
+
+	@Override
+	public void insert(Long key, Long value) {
+		tree.insert(key, value);
+	}
+
+	@Override
+	public void insertAll(Collection<Map.Entry<Long, Long>> entries) {
+		for (Map.Entry<Long, Long> entry : entries)
+			tree.insert(entry.getKey(), entry.getValue());
+	}
+
+	@Override
+	public Long get(Long key) {
+		return tree.get(key);
+	}
+
+	@Override
+	public List<Long> rangeSearch(Long key, String comparator) {
+		return tree.rangeSearch(key, comparator);
+	}
+
+	@Override
+	public long sumRange(Long key, String comparator, long limit) {
+		long sum = 0;
+		List<Long> values = tree.rangeSearch(key, comparator);
+		for (int i = 0; i < values.size() && i < limit; i++)
+			sum += values.get(i);
+		return sum;
+	}
+
+	@Override
+	public int size() {
+		return tree.size();
+	}
+}
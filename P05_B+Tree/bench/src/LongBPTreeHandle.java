@@ -0,0 +1,61 @@
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import bptree.bench.TreeHandle;
+
+/**
+ * Default-package bridge that lets the benchmarks in bptree.bench drive a
+ * LongBPTree<Long>. Keys are unboxed on the way in, so the tree itself never
+ * holds a Long key.
+ *
+ * @author Wally Estenson
+ */
+public class LongBPTreeHandle implements TreeHandle {
+
+	private final LongBPTree<Long> tree;
+
+	/**
+	 * Public constructor, called reflectively from TreeHandle.createPrimitive
+	 *
+	 * @param branchingFactor
+	 */
+	public LongBPTreeHandle(int branchingFactor) {
+		tree = new LongBPTree<>(branchingFactor);
+	}
+
+	@Override
+	public void insert(Long key, Long value) {
+		tree.insert(key.longValue(), value);
+	}
+
+	@Override
+	public void insertAll(Collection<Map.Entry<Long, Long>> entries) {
+		for (Map.Entry<Long, Long> entry : entries)
+			tree.insert(entry.getKey().longValue(), entry.getValue());
+	}
+
+	@Override
+	public Long get(Long key) {
+		return tree.get(key.longValue());
+	}
+
+	@Override
+	public List<Long> rangeSearch(Long key, String comparator) {
+		return tree.rangeSearch(key.longValue(), comparator);
+	}
+
+	@Override
+	public long sumRange(Long key, String comparator, long limit) {
+		long sum = 0;
+		List<Long> values = tree.rangeSearch(key.longValue(), comparator);
+		for (int i = 0; i < values.size() && i < limit; i++)
+			sum += values.get(i);
+		return sum;
+	}
+
+	@Override
+	public int size() {
+		return tree.size();
+	}
+}
@@ -0,0 +1,39 @@
+package bptree.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar. Accepts the usual JMH command line (include
+ * patterns, -p overrides, -rf json, ...) and always attaches the gc profiler
+ * so allocation rates are reported next to throughput and latency. -h, -l,
+ * -lp, -lprof and -lrf print what they print with JMH's own main and run
+ * nothing.
+ * 
+ * @author Wally Estenson
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		Runner runner = new Runner(new OptionsBuilder()
+				.parent(commandLine)
+				.addProfiler(GCProfiler.class)
+				.build());
+
+		if (commandLine.shouldHelp())
+			commandLine.showHelp();
+		else if (commandLine.shouldList())
+			runner.list();
+		else if (commandLine.shouldListWithParams())
+			runner.listWithParams(commandLine);
+		else if (commandLine.shouldListProfilers())
+			commandLine.listProfilers();
+		else if (commandLine.shouldListResultFormats())
+			commandLine.listResultFormats();
+		else
+			runner.run();
+	}
+}
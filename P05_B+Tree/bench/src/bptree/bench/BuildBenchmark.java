@@ -0,0 +1,40 @@
+package bptree.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Builds a whole tree of size keys from empty with BPTree.insert. Divide
+ * size by the reported time for the per-key insert rate.
+ * 
+ * @author Wally Estenson
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class BuildBenchmark extends TreeBenchmark {
+
+	private Long[] keys;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		keys = distribution.insertionOrder(size, SEED);
+	}
+
+	@Benchmark
+	public TreeHandle build() {
+		TreeHandle tree = TreeHandle.create(branchingFactor);
+		for (Long key : keys)
+			tree.insert(key, key);
+		return tree;
+	}
+}
@@ -0,0 +1,99 @@
+package bptree.bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Mixed get/insert workload on one shared tree, comparing ConcurrentBPTree
+ * with a BPTree behind a single lock. Gets follow the key distribution over
+ * the prefilled keys; inserts add fresh random keys, so the tree grows but no
+ * posting list does.
+ *
+ * Runs on 32 threads by default; use -t to pick another count, or
+ * ScalingRunner to sweep 1 to 64 threads in one go.
+ *
+ * @author Wally Estenson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx8g" })
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(32)
+public class ConcurrentBenchmark {
+
+	@Param({ "LOCKED", "CONCURRENT" })
+	public String implementation;
+
+	@Param({ "32", "128", "512" })
+	public int branchingFactor;
+
+	@Param({ "1000000" })
+	public int size;
+
+	@Param({ "RANDOM", "ZIPFIAN" })
+	public KeyDistribution distribution;
+
+	// share of operations that are gets, in percent
+	@Param({ "100", "90", "50", "0" })
+	public int readPercent;
+
+	private TreeHandle tree;
+	private Long[] probes;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		tree = implementation.equals("CONCURRENT")
+				? TreeHandle.createConcurrent(branchingFactor)
+				: new LockedTreeHandle(TreeHandle.create(branchingFactor));
+		for (Long key : KeyDistribution.RANDOM.insertionOrder(size,
+				TreeBenchmark.SEED))
+			tree.insert(key, key);
+		probes = distribution.probes(TreeBenchmark.PROBES, size,
+				TreeBenchmark.SEED + 1);
+	}
+
+	/**
+	 * Per-thread random stream and probe position
+	 */
+	@State(Scope.Thread)
+	public static class Worker {
+
+		SplittableRandom random;
+		int cursor;
+
+		@Setup(Level.Trial)
+		public void setUp(ThreadParams threads) {
+			random = new SplittableRandom(
+					TreeBenchmark.SEED + threads.getThreadIndex());
+			cursor = random.nextInt(TreeBenchmark.PROBES);
+		}
+	}
+
+	@Benchmark
+	public Long mixed(Worker worker) {
+		if (worker.random.nextInt(100) < readPercent)
+			return tree.get(
+					probes[worker.cursor++ & (TreeBenchmark.PROBES - 1)]);
+
+		Long key = worker.random.nextLong();
+		tree.insert(key, key);
+		return key;
+	}
+}
@@ -0,0 +1,28 @@
+package bptree.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * Point lookups with BPTree.get against a fully populated tree
+ * 
+ * @author Wally Estenson
+ */
+public class GetBenchmark extends TreeBenchmark {
+
+	private TreeHandle tree;
+	private Long[] probes;
+	private int cursor;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		tree = populatedTree();
+		probes = probes();
+	}
+
+	@Benchmark
+	public Long get() {
+		return tree.get(probes[cursor++ & (PROBES - 1)]);
+	}
+}
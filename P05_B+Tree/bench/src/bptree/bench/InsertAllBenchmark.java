@@ -0,0 +1,81 @@
+package bptree.bench;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * One batch of batchSize entries per operation, inserted either with
+ * BPTree.insertAll or with one BPTree.insert per entry, so the two scores
+ * compare directly. Trees and keys are set up as in InsertBenchmark, and the
+ * tree is rebuilt outside the measurement once every batch has been inserted,
+ * so each measured batch holds only new keys.
+ * 
+ * @author Wally Estenson
+ */
+public class InsertAllBenchmark extends TreeBenchmark {
+
+	@Param({ "100", "1000", "10000" })
+	public int batchSize;
+
+	private Long[] evenKeys;
+	private List<List<Map.Entry<Long, Long>>> batches;
+
+	private TreeHandle tree;
+	private int cursor;
+
+	@Setup(Level.Trial)
+	public void setUpKeys() {
+		Long[] order = distribution.insertionOrder(size, SEED);
+		evenKeys = new Long[size];
+		batches = new ArrayList<List<Map.Entry<Long, Long>>>();
+
+		List<Map.Entry<Long, Long>> batch = new ArrayList<Map.Entry<Long, Long>>();
+		for (int i = 0; i < size; i++) {
+			evenKeys[i] = 2 * order[i];
+
+			Long oddKey = 2 * order[i] + 1;
+			batch.add(new AbstractMap.SimpleImmutableEntry<Long, Long>(oddKey,
+					oddKey));
+			if (batch.size() == batchSize || i == size - 1) {
+				batches.add(batch);
+				batch = new ArrayList<Map.Entry<Long, Long>>();
+			}
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void setUpTree() {
+		tree = TreeHandle.create(branchingFactor);
+		for (Long key : evenKeys)
+			tree.insert(key, key);
+		cursor = 0;
+	}
+
+	@Setup(Level.Invocation)
+	public void refillTree() {
+		if (cursor == batches.size())
+			setUpTree();
+	}
+
+	@Benchmark
+	public void insertAll() {
+		tree.insertAll(nextBatch());
+	}
+
+	@Benchmark
+	public void insertEach() {
+		for (Map.Entry<Long, Long> entry : nextBatch())
+			tree.insert(entry.getKey(), entry.getValue());
+	}
+
+	private List<Map.Entry<Long, Long>> nextBatch() {
+		return batches.get(cursor++);
+	}
+}
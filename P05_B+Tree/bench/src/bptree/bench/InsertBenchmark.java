@@ -0,0 +1,56 @@
+package bptree.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * Single BPTree.insert calls into a tree of about size entries. Each
+ * iteration starts from a tree holding the even keys 0, 2, .., 2(size-1) and
+ * inserts the odd keys in distribution order, so inserts land between
+ * existing entries and cause real splits. Once every odd key has been used
+ * the tree is rebuilt outside the measurement, so every measured call inserts
+ * a new key rather than appending to an existing key's posting list. The
+ * check costs a per-invocation setup call, which JMH keeps out of the score.
+ * 
+ * @author Wally Estenson
+ */
+public class InsertBenchmark extends TreeBenchmark {
+
+	private Long[] evenKeys;
+	private Long[] oddKeys;
+
+	private TreeHandle tree;
+	private int cursor;
+
+	@Setup(Level.Trial)
+	public void setUpKeys() {
+		Long[] order = distribution.insertionOrder(size, SEED);
+		evenKeys = new Long[size];
+		oddKeys = new Long[size];
+		for (int i = 0; i < size; i++) {
+			evenKeys[i] = 2 * order[i];
+			oddKeys[i] = 2 * order[i] + 1;
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void setUpTree() {
+		tree = TreeHandle.create(branchingFactor);
+		for (Long key : evenKeys)
+			tree.insert(key, key);
+		cursor = 0;
+	}
+
+	@Setup(Level.Invocation)
+	public void refillTree() {
+		if (cursor == oddKeys.length)
+			setUpTree();
+	}
+
+	@Benchmark
+	public void insert() {
+		Long key = oddKeys[cursor++];
+		tree.insert(key, key);
+	}
+}
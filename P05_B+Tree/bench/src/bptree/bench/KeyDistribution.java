@@ -0,0 +1,93 @@
+package bptree.bench;
+
+import java.util.Random;
+
+/**
+ * Orders in which the benchmarks insert and probe keys. Every key is a Long
+ * in [0, n) and arrays are boxed up front so boxing stays out of the
+ * measured loops.
+ * 
+ * @author Wally Estenson
+ */
+public enum KeyDistribution {
+
+	// ascending keys, the best case for the rightmost-leaf insert path
+	SEQUENTIAL,
+
+	// uniformly shuffled keys
+	RANDOM,
+
+	// a few hot keys take most of the operations
+	ZIPFIAN;
+
+	/**
+	 * Returns n keys to insert. SEQUENTIAL and RANDOM yield every key in
+	 * [0, n) exactly once; ZIPFIAN repeats hot keys, so a tree built from it
+	 * holds fewer than n entries.
+	 * 
+	 * @param n    key space size
+	 * @param seed for RANDOM and ZIPFIAN
+	 * @return keys in insertion order
+	 */
+	public Long[] insertionOrder(int n, long seed) {
+		Long[] keys = new Long[n];
+
+		switch (this) {
+		case SEQUENTIAL:
+			for (int i = 0; i < n; i++)
+				keys[i] = (long) i;
+			break;
+
+		case RANDOM:
+			for (int i = 0; i < n; i++)
+				keys[i] = (long) i;
+			Random random = new Random(seed);
+			for (int i = n - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				Long swap = keys[i];
+				keys[i] = keys[j];
+				keys[j] = swap;
+			}
+			break;
+
+		case ZIPFIAN:
+			ZipfianGenerator zipf = new ZipfianGenerator(n, seed);
+			for (int i = 0; i < n; i++)
+				keys[i] = zipf.next();
+			break;
+		}
+		return keys;
+	}
+
+	/**
+	 * Returns count lookup keys drawn from [0, n)
+	 * 
+	 * @param count number of probes, a power of two so callers can mask
+	 * @param n     key space size
+	 * @param seed  for RANDOM and ZIPFIAN
+	 * @return probe keys
+	 */
+	public Long[] probes(int count, int n, long seed) {
+		Long[] keys = new Long[count];
+
+		switch (this) {
+		case SEQUENTIAL:
+			for (int i = 0; i < count; i++)
+				keys[i] = (long) (i % n);
+			break;
+
+		case RANDOM:
+			Random random = new Random(seed);
+			for (int i = 0; i < count; i++)
+				keys[i] = (long) random.nextInt(n);
+			break;
+
+		case ZIPFIAN:
+			ZipfianGenerator zipf = new ZipfianGenerator(n, seed);
+			for (int i = 0; i < count; i++)
+				keys[i] = zipf.next();
+			break;
+		}
+		return keys;
+	}
+}
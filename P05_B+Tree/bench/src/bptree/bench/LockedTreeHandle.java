@@ -0,0 +1,56 @@
+package bptree.bench;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializes every call to another handle through one lock. Wrapped around a
+ * plain BPTree it is the coarse-grained baseline ConcurrentBPTree is measured
+ * against.
+ *
+ * @author Wally Estenson
+ */
+public class LockedTreeHandle implements TreeHandle {
+
+	private final TreeHandle tree;
+
+	/**
+	 * Public constructor
+	 *
+	 * @param tree handle to guard
+	 */
+	public LockedTreeHandle(TreeHandle tree) {
+		this.tree = tree;
+	}
+
+	@Override
+	public synchronized void insert(Long key, Long value) {
+		tree.insert(key, value);
+	}
+
+	@Override
+	public synchronized void insertAll(Collection<Map.Entry<Long, Long>> entries) {
+		tree.insertAll(entries);
+	}
+
+	@Override
+	public synchronized Long get(Long key) {
+		return tree.get(key);
+	}
+
+	@Override
+	public synchronized List<Long> rangeSearch(Long key, String comparator) {
+		return tree.rangeSearch(key, comparator);
+	}
+
+	@Override
+	public synchronized long sumRange(Long key, String comparator, long limit) {
+		return tree.sumRange(key, comparator, limit);
+	}
+
+	@Override
+	public synchronized int size() {
+		return tree.size();
+	}
+}
@@ -0,0 +1,50 @@
+package bptree.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * Point lookups and range scans with internal nodes and leaves sized apart,
+ * as internal/leaf bytes for NodeSizing.forNodeBytes, against UNIFORM nodes
+ * of the branchingFactor parameter. Lookups follow the internal node size,
+ * scans mostly the leaf size. The branchingFactor parameter only applies to
+ * UNIFORM, so narrow it, e.g. -p branchingFactor=64.
+ * 
+ * @author Wally Estenson
+ */
+public class NodeSizingBenchmark extends TreeBenchmark {
+
+	// values read by each range scan
+	static final int SCAN = 1000;
+
+	@Param({ "UNIFORM", "128/4096", "512/1024", "512/4096", "4096/4096" })
+	public String nodeBytes;
+
+	private TreeHandle tree;
+	private Long[] probes;
+	private int cursor;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		if (nodeBytes.equals("UNIFORM"))
+			tree = populatedTree();
+		else {
+			String[] sizes = nodeBytes.split("/");
+			tree = populatedTree(TreeHandle.createSized(
+					Integer.parseInt(sizes[0]), Integer.parseInt(sizes[1])));
+		}
+		probes = probes();
+	}
+
+	@Benchmark
+	public Long get() {
+		return tree.get(probes[cursor++ & (PROBES - 1)]);
+	}
+
+	@Benchmark
+	public long scan() {
+		return tree.sumRange(probes[cursor++ & (PROBES - 1)], ">=", SCAN);
+	}
+}
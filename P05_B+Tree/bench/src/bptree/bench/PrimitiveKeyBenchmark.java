@@ -0,0 +1,35 @@
+package bptree.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * Point lookups on BPTree<Long, Long> with boxed keys against LongBPTree<Long>
+ * with keys in long[] node arrays, over the same populated key set
+ *
+ * @author Wally Estenson
+ */
+public class PrimitiveKeyBenchmark extends TreeBenchmark {
+
+	@Param({ "BOXED", "PRIMITIVE" })
+	public String keys;
+
+	private TreeHandle tree;
+	private Long[] probes;
+	private int cursor;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		tree = populatedTree(keys.equals("PRIMITIVE")
+				? TreeHandle.createPrimitive(branchingFactor)
+				: TreeHandle.create(branchingFactor));
+		probes = probes();
+	}
+
+	@Benchmark
+	public Long get() {
+		return tree.get(probes[cursor++ & (PROBES - 1)]);
+	}
+}
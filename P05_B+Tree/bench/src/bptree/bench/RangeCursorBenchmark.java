@@ -0,0 +1,51 @@
+package bptree.bench;
+
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * Reads the first limit values of a range search, either lazily through a
+ * cursor or by materializing the whole rangeSearch list first. The gap grows
+ * with the range size, which for "<=" and ">=" is on average half the tree.
+ * 
+ * @author Wally Estenson
+ */
+public class RangeCursorBenchmark extends TreeBenchmark {
+
+	@Param({ "<=", ">=" })
+	public String comparator;
+
+	@Param({ "1", "100", "10000" })
+	public int limit;
+
+	private TreeHandle tree;
+	private Long[] probes;
+	private int cursor;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		tree = populatedTree();
+		probes = probes();
+	}
+
+	@Benchmark
+	public long cursor() {
+		return tree.sumRange(probes[cursor++ & (PROBES - 1)], comparator,
+				limit);
+	}
+
+	@Benchmark
+	public long materialized() {
+		List<Long> values = tree.rangeSearch(probes[cursor++ & (PROBES - 1)],
+				comparator);
+
+		long sum = 0;
+		for (int i = 0; i < Math.min(limit, values.size()); i++)
+			sum += values.get(i);
+		return sum;
+	}
+}
@@ -0,0 +1,36 @@
+package bptree.bench;
+
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * BPTree.rangeSearch with each comparator against a fully populated tree.
+ * "<=" and ">=" return on average half the tree, so their cost is dominated
+ * by the result size.
+ * 
+ * @author Wally Estenson
+ */
+public class RangeSearchBenchmark extends TreeBenchmark {
+
+	@Param({ "<=", "==", ">=" })
+	public String comparator;
+
+	private TreeHandle tree;
+	private Long[] probes;
+	private int cursor;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		tree = populatedTree();
+		probes = probes();
+	}
+
+	@Benchmark
+	public List<Long> rangeSearch() {
+		return tree.rangeSearch(probes[cursor++ & (PROBES - 1)], comparator);
+	}
+}
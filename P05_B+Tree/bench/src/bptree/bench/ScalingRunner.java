@@ -0,0 +1,33 @@
+package bptree.bench;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs ConcurrentBenchmark once per thread count from 1 to 64, so both
+ * implementations' scaling curves come out of one invocation:
+ *
+ * java -cp benchmarks.jar bptree.bench.ScalingRunner [JMH options]
+ *
+ * Other JMH options (-p overrides, -rf json, ...) apply to every run.
+ *
+ * @author Wally Estenson
+ */
+public class ScalingRunner {
+
+	private static final int[] THREADS = { 1, 2, 4, 8, 16, 32, 64 };
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		for (int threads : THREADS) {
+			Options options = new OptionsBuilder()
+					.parent(commandLine)
+					.include(ConcurrentBenchmark.class.getSimpleName())
+					.threads(threads)
+					.build();
+			new Runner(options).run();
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package bptree.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parameters and defaults shared by every tree benchmark. Throughput and
+ * SampleTime (latency percentiles) are both reported, and BenchmarkRunner
+ * adds the gc profiler for allocation rates.
+ * 
+ * The full parameter matrix is large; narrow it from the command line, e.g.
+ * -p branchingFactor=128 -p size=1000000.
+ * 
+ * @author Wally Estenson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx8g" })
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public abstract class TreeBenchmark {
+
+	// seed for key orders and probes so every fork sees the same workload
+	static final long SEED = 42;
+
+	// number of precomputed probe keys, a power of two
+	static final int PROBES = 1 << 16;
+
+	@Param({ "3", "8", "32", "128", "512", "1024" })
+	public int branchingFactor;
+
+	@Param({ "1000", "10000", "100000", "1000000", "10000000" })
+	public int size;
+
+	@Param({ "SEQUENTIAL", "RANDOM", "ZIPFIAN" })
+	public KeyDistribution distribution;
+
+	/**
+	 * Builds a tree holding every key in [0, size), inserted in random order
+	 * so leaf occupancy is typical. The distribution parameter shapes the
+	 * operations measured against it, not its contents.
+	 * 
+	 * @return populated tree
+	 */
+	TreeHandle populatedTree() {
+		return populatedTree(TreeHandle.create(branchingFactor));
+	}
+
+	/**
+	 * Fills an empty tree the same way as populatedTree()
+	 * 
+	 * @param tree empty tree of any implementation
+	 * @return the tree, populated
+	 */
+	TreeHandle populatedTree(TreeHandle tree) {
+		for (Long key : KeyDistribution.RANDOM.insertionOrder(size, SEED))
+			tree.insert(key, key);
+		return tree;
+	}
+
+	/**
+	 * Returns PROBES lookup keys in [0, size) following the distribution
+	 */
+	Long[] probes() {
+		return distribution.probes(PROBES, size, SEED + 1);
+	}
+}
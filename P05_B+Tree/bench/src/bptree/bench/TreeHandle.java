@@ -0,0 +1,111 @@
+package bptree.bench;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The tree operations the benchmarks drive. BPTree lives in the default
+ * package, which JMH benchmarks (and any other named package) cannot refer
+ * to, so the default-package BPTreeHandle implements this interface and is
+ * loaded reflectively once per trial.
+ * 
+ * @author Wally Estenson
+ */
+public interface TreeHandle {
+
+	/**
+	 * @see BPTree#insert(Comparable, Object)
+	 */
+	void insert(Long key, Long value);
+
+	/**
+	 * @see BPTree#insertAll(Collection)
+	 */
+	void insertAll(Collection<Map.Entry<Long, Long>> entries);
+
+	/**
+	 * @see BPTree#get(Comparable)
+	 */
+	Long get(Long key);
+
+	/**
+	 * @see BPTree#rangeSearch(Comparable, String)
+	 */
+	List<Long> rangeSearch(Long key, String comparator);
+
+	/**
+	 * Sums the values of at most limit entries of a range search, read
+	 * through a lazy cursor
+	 * 
+	 * @see BPTree#cursor(Comparable, String, long, long)
+	 */
+	long sumRange(Long key, String comparator, long limit);
+
+	/**
+	 * @see BPTree#size()
+	 */
+	int size();
+
+	/**
+	 * Creates an empty BPTree<Long, Long> behind a handle
+	 * 
+	 * @param branchingFactor of the new tree
+	 * @return handle to the tree
+	 */
+	static TreeHandle create(int branchingFactor) {
+		return create("BPTreeHandle", branchingFactor);
+	}
+
+	/**
+	 * Creates an empty ConcurrentBPTree<Long, Long> behind a handle
+	 * 
+	 * @param branchingFactor of the new tree
+	 * @return handle to the tree
+	 */
+	static TreeHandle createConcurrent(int branchingFactor) {
+		return create("ConcurrentBPTreeHandle", branchingFactor);
+	}
+
+	/**
+	 * Creates an empty LongBPTree<Long> behind a handle
+	 * 
+	 * @param branchingFactor of the new tree
+	 * @return handle to the tree
+	 */
+	static TreeHandle createPrimitive(int branchingFactor) {
+		return create("LongBPTreeHandle", branchingFactor);
+	}
+
+	/**
+	 * Creates an empty BPTree<Long, Long> with nodes sized by
+	 * NodeSizing.forNodeBytes behind a handle
+	 * 
+	 * @param internalBytes target internal node size
+	 * @param leafBytes     target leaf size
+	 * @return handle to the tree
+	 */
+	static TreeHandle createSized(int internalBytes, int leafBytes) {
+		try {
+			return (TreeHandle) Class.forName("BPTreeHandle")
+					.getConstructor(int.class, int.class)
+					.newInstance(internalBytes, leafBytes);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(
+					"BPTreeHandle is not on the classpath", e);
+		}
+	}
+
+	/**
+	 * Loads a default-package handle class by name
+	 */
+	private static TreeHandle create(String handle, int branchingFactor) {
+		try {
+			return (TreeHandle) Class.forName(handle).getConstructor(int.class)
+					.newInstance(branchingFactor);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(handle + " is not on the classpath",
+					e);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package bptree.bench;
+
+import java.util.Random;
+
+/**
+ * Draws items from [0, n) with a Zipfian popularity distribution, using the
+ * rejection-free method from Gray et al., "Quickly Generating Billion-Record
+ * Synthetic Databases" (as used by YCSB). Ranks are scrambled with a hash so
+ * the popular items are spread across the key space instead of bunching up
+ * in the leftmost leaves.
+ * 
+ * @author Wally Estenson
+ */
+public class ZipfianGenerator {
+
+	// skew used by YCSB; 0 is uniform, values near 1 are heavily skewed
+	public static final double DEFAULT_THETA = 0.99;
+
+	private final long n;
+	private final double theta;
+	private final double zetaN;
+	private final double alpha;
+	private final double eta;
+	private final Random random;
+
+	/**
+	 * Public constructor
+	 * 
+	 * @param n    number of distinct items
+	 * @param seed for the underlying random source
+	 */
+	public ZipfianGenerator(long n, long seed) {
+		if (n <= 0)
+			throw new IllegalArgumentException("Illegal item count: " + n);
+
+		this.n = n;
+		this.theta = DEFAULT_THETA;
+		this.random = new Random(seed);
+
+		double zeta2 = zeta(2, theta);
+		zetaN = zeta(n, theta);
+		alpha = 1.0 / (1.0 - theta);
+		eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / zetaN);
+	}
+
+	/**
+	 * Returns the next item
+	 * 
+	 * @return item in [0, n)
+	 */
+	public long next() {
+		return scramble(nextRank());
+	}
+
+	/**
+	 * Returns the popularity rank of the next item, 0 being the most popular
+	 */
+	private long nextRank() {
+		double u = random.nextDouble();
+		double uz = u * zetaN;
+
+		if (uz < 1.0)
+			return 0;
+		if (uz < 1.0 + Math.pow(0.5, theta))
+			return 1;
+
+		long rank = (long) (n * Math.pow(eta * u - eta + 1, alpha));
+		return Math.min(rank, n - 1);
+	}
+
+	/**
+	 * Maps a rank to an item with the 64-bit FNV-1a hash
+	 */
+	private long scramble(long rank) {
+		long hash = 0xCBF29CE484222325L;
+		for (int i = 0; i < 8; i++) {
+			hash ^= (rank >>> (i * 8)) & 0xFF;
+			hash *= 0x100000001B3L;
+		}
+		return Math.floorMod(hash, n);
+	}
+
+	/**
+	 * Computes the generalized harmonic number sum(1 / i^theta) for i in 1..n
+	 */
+	private static double zeta(long n, double theta) {
+		double sum = 0;
+		for (long i = 1; i <= n; i++)
+			sum += 1 / Math.pow(i, theta);
+		return sum;
+	}
+}
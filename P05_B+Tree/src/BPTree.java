@@ -1,9 +1,23 @@
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.DoubleSummaryStatistics;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
 import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.ToDoubleBiFunction;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Implementation of a B+ tree to allow efficient access to many different
@@ -22,106 +36,1425 @@ import java.util.Queue;
  */
 public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 
+	// Nodes with at least this many keys are searched with the branch-light
+	// binary search, which trades early exits for predictable loop trips
+	private static final int BRANCH_LIGHT_SEARCH_THRESHOLD = 64;
+
+	// insertAll merges a leaf with its slice of a batch in one pass, unless the
+	// leaf holds this many times more entries than the slice
+	private static final int SPARSE_BATCH_RATIO = 8;
+
+	// Returned by Node.remove when nothing matched, since null is a valid value
+	private static final Object NOT_FOUND = new Object();
+
+	// What Node.remove takes out of a key's values
+	private enum Removal {
+		FIRST, MATCHING, ALL
+	}
+
+	// Bulk loads pack nodes completely unless told otherwise
+	public static final double DEFAULT_FILL_FACTOR = 1.0;
+
 	// Root of the tree
 	private Node root;
 	private int size;
 
-	// Branching factor is the number of children nodes
-	// for internal nodes of the tree
-	private int branchingFactor;
+	// Branching factor is the number of children nodes
+	// for internal nodes of the tree
+	private int branchingFactor;
+
+	// Most keys a leaf holds before it splits, branchingFactor - 1 unless
+	// sized separately
+	private int leafCapacity;
+
+	// Recorded by every operation while enabled; null keeps the hot paths to
+	// a single check
+	private TreeMetrics metrics;
+
+	// Answers repeated gets while enabled; null costs get a single check
+	private LookupCache<K, V> cache;
+
+	/**
+	 * Public constructor
+	 * 
+	 * @param branchingFactor
+	 */
+	public BPTree(int branchingFactor) {
+		this(branchingFactor, branchingFactor - 1);
+	}
+
+	/**
+	 * Public constructor with leaves sized apart from internal nodes. Small
+	 * internal nodes keep each step of a descent within a few cache lines,
+	 * while long leaves make range scans follow fewer links.
+	 * 
+	 * @param branchingFactor most children of an internal node, at least 3
+	 * @param leafCapacity    most keys of a leaf, at least 2
+	 */
+	public BPTree(int branchingFactor, int leafCapacity) {
+		if (branchingFactor <= 2) {
+			throw new IllegalArgumentException(
+					"Illegal branching factor: " + branchingFactor);
+		} else if (leafCapacity <= 1) {
+			throw new IllegalArgumentException(
+					"Illegal leaf capacity: " + leafCapacity);
+		} else {
+			this.branchingFactor = branchingFactor;
+			this.leafCapacity = leafCapacity;
+			root = new LeafNode();
+			size = 0;
+		}
+	}
+
+	/**
+	 * Public constructor with node sizes picked by NodeSizing, e.g.
+	 * new BPTree<>(NodeSizing.forNodeBytes(8, 8, NodeSizing.PAGE_BYTES))
+	 * 
+	 * @param sizing branching factor and leaf capacity
+	 */
+	public BPTree(NodeSizing sizing) {
+		this(sizing.getBranchingFactor(), sizing.getLeafCapacity());
+	}
+
+	/**
+	 * Bulk load constructor that builds the tree bottom-up in O(N) from
+	 * entries sorted by key, packing every node completely. Entries with an
+	 * equal key are kept in input order, as with insert.
+	 * 
+	 * For unsorted input, sort it first with ExternalSort.sort(...).
+	 * 
+	 * @param branchingFactor
+	 * @param sortedEntries   entries in ascending key order
+	 */
+	public BPTree(int branchingFactor,
+			Iterator<? extends Map.Entry<K, V>> sortedEntries) {
+		this(branchingFactor, sortedEntries, DEFAULT_FILL_FACTOR);
+	}
+
+	/**
+	 * Bulk load constructor that builds the tree bottom-up in O(N) from
+	 * entries sorted by key. Leaves are filled left to right up to fillFactor
+	 * of their capacity and linked as they are filled, then each internal
+	 * level is built over the one below it. A fill factor below 1 leaves room
+	 * for later inserts before nodes split.
+	 * 
+	 * For unsorted input, sort it first with ExternalSort.sort(...).
+	 * 
+	 * @param branchingFactor
+	 * @param sortedEntries   entries in ascending key order, e.g. from
+	 *                        stream.iterator()
+	 * @param fillFactor      fraction of each node to fill, in (0, 1]
+	 * @throws IllegalArgumentException if the entries are null, contain a null
+	 *                                  key or are out of order
+	 */
+	public BPTree(int branchingFactor,
+			Iterator<? extends Map.Entry<K, V>> sortedEntries,
+			double fillFactor) {
+		this(branchingFactor, branchingFactor - 1, sortedEntries, fillFactor);
+	}
+
+	/**
+	 * Bulk load constructor with leaves sized apart from internal nodes, as
+	 * the bulk load constructor above
+	 * 
+	 * @param branchingFactor most children of an internal node, at least 3
+	 * @param leafCapacity    most keys of a leaf, at least 2
+	 * @param sortedEntries   entries in ascending key order
+	 * @param fillFactor      fraction of each node to fill, in (0, 1]
+	 * @throws IllegalArgumentException if the entries are null, contain a null
+	 *                                  key or are out of order
+	 */
+	public BPTree(int branchingFactor, int leafCapacity,
+			Iterator<? extends Map.Entry<K, V>> sortedEntries,
+			double fillFactor) {
+		this(branchingFactor, leafCapacity);
+
+		if (sortedEntries == null)
+			throw new IllegalArgumentException();
+		if (!(fillFactor > 0 && fillFactor <= 1))
+			throw new IllegalArgumentException(
+					"Illegal fill factor: " + fillFactor);
+
+		bulkLoad(sortedEntries, fillFactor);
+	}
+
+	/**
+	 * Inserts the key and value in the appropriate nodes in the tree If the key
+	 * is null, throw IllegalArgumentException
+	 * 
+	 * Note: key-value pairs with duplicate keys can be inserted into the tree.
+	 * The values of a key share one leaf slot in insertion order, so
+	 * duplicates do not take up node fanout.
+	 * 
+	 * @param key
+	 * @param value
+	 */
+	@Override
+	public void insert(K key, V value) {
+
+		// do not allow null key
+		if (key == null)
+			throw new IllegalArgumentException();
+
+		if (cache != null)
+			cache.inserted(key);
+
+		TreeMetrics metrics = this.metrics;
+		if (metrics == null) {
+			// insert node by utilizing methods within internalNode and leadNode
+			// clases
+			root.insert(key, value);
+			return;
+		}
+
+		long start = System.nanoTime();
+		root.insert(key, value);
+		metrics.insertNanos.record(System.nanoTime() - start);
+		metrics.inserts.increment();
+	}
+
+	/**
+	 * Inserts a batch of key-value pairs. The batch is sorted by key and routed
+	 * through the tree as one run: each internal node hands every child its
+	 * slice of the run once, leaves merge their slice in a single pass, and
+	 * nodes that overflow are only split after the whole slice below them is
+	 * in. Entries with a key that is already present are added after its
+	 * existing values, as with insert.
+	 * 
+	 * If any key is null, throw IllegalArgumentException without inserting
+	 * anything.
+	 * 
+	 * @param entries key-value pairs in any order
+	 */
+	public void insertAll(Collection<? extends Map.Entry<K, V>> entries) {
+
+		if (entries == null)
+			throw new IllegalArgumentException();
+
+		List<Map.Entry<K, V>> sorted = new ArrayList<Map.Entry<K, V>>(entries);
+		for (Map.Entry<K, V> entry : sorted)
+			if (entry.getKey() == null)
+				throw new IllegalArgumentException();
+
+		if (sorted.isEmpty())
+			return;
+
+		// stable, so equal keys keep their batch order; linear when the batch
+		// is already sorted
+		sorted.sort(Map.Entry.comparingByKey());
+
+		if (cache != null)
+			for (Map.Entry<K, V> entry : sorted)
+				cache.inserted(entry.getKey());
+
+		root.insertAll(sorted, 0, sorted.size());
+		if (metrics != null)
+			metrics.inserts.add(sorted.size());
+
+		// grow new levels on top until the root fits
+		while (root.isOverflow()) {
+			if (metrics != null)
+				metrics.rootSplits.increment();
+
+			InternalNode root2 = new InternalNode();
+			root2.children.add(root);
+
+			for (Node sibling : root.splitEvenly()) {
+				root2.keys.add(sibling.getFirstLeafKey());
+				root2.children.add(sibling);
+			}
+			root2.entries = root2.countEntries();
+			root = root2;
+		}
+	}
+
+	/**
+	 * Gets the values that satisfy the given range search arguments.
+	 * 
+	 * Value of comparator can be one of these: "<=", "==", ">=", and beyond
+	 * the interface also "<" and ">"
+	 * 
+	 * Example: If given key = 2.5 and comparator = ">=": return all the values
+	 * with the corresponding keys >= 2.5
+	 * 
+	 * If key is null or not found, return empty list. If comparator is null,
+	 * empty, or not according to required form, return empty list.
+	 * 
+	 * @param key        to be searched
+	 * @param comparator is a string
+	 * @return list of values that are the result of the range search; if
+	 *         nothing found, return empty list
+	 */
+	@Override
+	public List<V> rangeSearch(K key, String comparator) {
+
+		TreeMetrics metrics = this.metrics;
+		long start = metrics == null ? 0 : System.nanoTime();
+		List<V> filtered = new ArrayList<V>();
+
+		// drain a cursor over the range; invalid arguments give an empty one
+		LeafCursor cursor = openCursor(key, comparator);
+		while (cursor.advance())
+			filtered.add(cursor.getValue());
+
+		if (metrics != null)
+			recordRangeSearch(metrics, start, cursor);
+		return filtered;
+	}
+
+	/**
+	 * Gets the values of all keys between low and high, in key order. The
+	 * search descends once to low and walks the leaves until it passes high,
+	 * so its cost follows the size of the result rather than of the tree.
+	 * 
+	 * Example: rangeSearch(200.0, true, 400.0, false) returns the values with
+	 * keys in [200, 400).
+	 * 
+	 * A null bound leaves that side of the range open. If low is above high,
+	 * return empty list.
+	 * 
+	 * @param low           lower bound, or null for none
+	 * @param lowInclusive  whether a key equal to low is in range
+	 * @param high          upper bound, or null for none
+	 * @param highInclusive whether a key equal to high is in range
+	 * @return list of values in range; if nothing found, return empty list
+	 */
+	public List<V> rangeSearch(K low, boolean lowInclusive, K high,
+			boolean highInclusive) {
+
+		TreeMetrics metrics = this.metrics;
+		long start = metrics == null ? 0 : System.nanoTime();
+		List<V> filtered = new ArrayList<V>();
+
+		LeafCursor cursor = openCursor(low, lowInclusive, high, highInclusive);
+		while (cursor.advance())
+			filtered.add(cursor.getValue());
+
+		if (metrics != null)
+			recordRangeSearch(metrics, start, cursor);
+		return filtered;
+	}
+
+	/**
+	 * Records the latency of a range search and the leaves its cursor read
+	 * 
+	 * @param start nanoTime when the search began
+	 */
+	private static void recordRangeSearch(TreeMetrics metrics, long start,
+			BPTree<?, ?>.LeafCursor cursor) {
+		metrics.rangeSearchNanos.record(System.nanoTime() - start);
+		metrics.rangeSearchLeaves.record(cursor.leaves);
+	}
+
+	/**
+	 * Opens a lazy cursor over the entries with keys between low and high
+	 * 
+	 * @see #rangeSearch(Comparable, boolean, Comparable, boolean)
+	 * @return cursor over the entries in range
+	 */
+	public RangeCursor<K, V> cursor(K low, boolean lowInclusive, K high,
+			boolean highInclusive) {
+		return openCursor(low, lowInclusive, high, highInclusive);
+	}
+
+	/**
+	 * Opens a lazy cursor over the same entries rangeSearch would return, in
+	 * key order. Nothing is read until the cursor advances.
+	 * 
+	 * If key is null, or comparator is null or not one of "<", "<=", "==",
+	 * ">=", ">", the cursor is empty.
+	 * 
+	 * @param key        to be searched
+	 * @param comparator is a string
+	 * @return cursor over the matching entries
+	 */
+	public RangeCursor<K, V> cursor(K key, String comparator) {
+		return openCursor(key, comparator);
+	}
+
+	/**
+	 * Opens a lazy cursor over the matching entries that skips the first
+	 * offset of them and ends after limit more.
+	 * 
+	 * @param key        to be searched
+	 * @param comparator is a string
+	 * @param offset     number of matching entries to skip
+	 * @param limit      maximum number of entries to return
+	 * @return cursor over the matching entries
+	 * @throws IllegalArgumentException if offset or limit is negative
+	 */
+	public RangeCursor<K, V> cursor(K key, String comparator, long offset,
+			long limit) {
+
+		if (offset < 0 || limit < 0)
+			throw new IllegalArgumentException(
+					"Illegal offset or limit: " + offset + ", " + limit);
+
+		LeafCursor cursor = openRange(key, comparator,
+				(low, lowInclusive, high, highInclusive) -> openCursor(low,
+						lowInclusive, high, highInclusive, offset, limit));
+		return cursor != null ? cursor : new LeafCursor(null, 0, null, false);
+	}
+
+	/**
+	 * Opens a lazy cursor over the entries with keys between low and high
+	 * that skips the first offset of them and ends after limit more. The
+	 * cursor is positioned from the subtree counts in O(log N), whatever the
+	 * offset, so deep pages cost as little as the first.
+	 * 
+	 * @param low           lower bound, or null for none
+	 * @param lowInclusive  whether a key equal to low is in range
+	 * @param high          upper bound, or null for none
+	 * @param highInclusive whether a key equal to high is in range
+	 * @param offset        number of entries in range to skip
+	 * @param limit         maximum number of entries to return
+	 * @return cursor over the entries in range
+	 * @throws IllegalArgumentException if offset or limit is negative
+	 */
+	public RangeCursor<K, V> cursor(K low, boolean lowInclusive, K high,
+			boolean highInclusive, long offset, long limit) {
+
+		if (offset < 0 || limit < 0)
+			throw new IllegalArgumentException(
+					"Illegal offset or limit: " + offset + ", " + limit);
+
+		return openCursor(low, lowInclusive, high, highInclusive, offset,
+				limit);
+	}
+
+	/**
+	 * Returns the values rangeSearch would return as a lazy sequential stream.
+	 * Short-circuiting operations such as findFirst, limit or anyMatch stop
+	 * the leaf walk early. The stream splits like parallelStream if it is
+	 * made parallel.
+	 * 
+	 * @param key        to be searched
+	 * @param comparator is a string
+	 * @return stream of the matching values in key order
+	 */
+	public Stream<V> stream(K key, String comparator) {
+		return StreamSupport.stream(spliterator(key, comparator), false);
+	}
+
+	/**
+	 * Returns the values rangeSearch would return as a parallel stream
+	 * 
+	 * @param key        to be searched
+	 * @param comparator is a string
+	 * @return parallel stream of the matching values, ordered by key
+	 * @see #spliterator(Comparable, boolean, Comparable, boolean)
+	 */
+	public Stream<V> parallelStream(K key, String comparator) {
+		return StreamSupport.stream(spliterator(key, comparator), true);
+	}
+
+	/**
+	 * Returns the values of all keys between low and high as a parallel
+	 * stream, for aggregations over large ranges
+	 * 
+	 * @param low           lower bound, or null for none
+	 * @param lowInclusive  whether a key equal to low is in range
+	 * @param high          upper bound, or null for none
+	 * @param highInclusive whether a key equal to high is in range
+	 * @return parallel stream of the values in range, ordered by key
+	 * @see #spliterator(Comparable, boolean, Comparable, boolean)
+	 */
+	public Stream<V> parallelStream(K low, boolean lowInclusive, K high,
+			boolean highInclusive) {
+		return StreamSupport.stream(
+				spliterator(low, lowInclusive, high, highInclusive), true);
+	}
+
+	/**
+	 * Returns a spliterator over the same values rangeSearch would return
+	 * 
+	 * @param key        to be searched
+	 * @param comparator is a string
+	 * @return spliterator over the matching values, empty if the arguments
+	 *         are invalid
+	 * @see #spliterator(Comparable, boolean, Comparable, boolean)
+	 */
+	public Spliterator<V> spliterator(K key, String comparator) {
+		RangeSpliterator spliterator = openRange(key, comparator,
+				this::openSpliterator);
+		return spliterator != null ? spliterator
+				: new RangeSpliterator(null, false, null, false, null);
+	}
+
+	/**
+	 * Returns a spliterator over the values of all keys between low and high.
+	 * It splits along the tree rather than the leaf chain: the range is cut
+	 * at the separator in the middle of the children of the highest internal
+	 * node it spans, so each half is a run of whole subtrees that can be
+	 * scanned without touching the other's leaves. A range inside a single
+	 * child moves down to that child first, and one that ends up in a single
+	 * leaf no longer splits. Each part is then read through the leaf chain of
+	 * its subtrees.
+	 * 
+	 * The tree must not be modified while the spliterator is in use.
+	 * 
+	 * @param low           lower bound, or null for none
+	 * @param lowInclusive  whether a key equal to low is in range
+	 * @param high          upper bound, or null for none
+	 * @param highInclusive whether a key equal to high is in range
+	 * @return ordered spliterator over the values in range
+	 */
+	public Spliterator<V> spliterator(K low, boolean lowInclusive, K high,
+			boolean highInclusive) {
+		return openSpliterator(low, lowInclusive, high, highInclusive);
+	}
+
+	/**
+	 * Creates a spliterator over the range, starting from the root
+	 * 
+	 * @return spliterator over the values in range
+	 */
+	private RangeSpliterator openSpliterator(K low, boolean lowInclusive,
+			K high, boolean highInclusive) {
+		return new RangeSpliterator(low, lowInclusive, high, highInclusive,
+				root);
+	}
+
+	/**
+	 * Counts the values of all keys between low and high in O(log N), as the
+	 * difference of the positions of the two bounds
+	 * 
+	 * @see #rangeSearch(Comparable, boolean, Comparable, boolean)
+	 * @return number of values in range
+	 */
+	public long count(K low, boolean lowInclusive, K high,
+			boolean highInclusive) {
+		int start = low == null ? 0 : position(low, !lowInclusive);
+		int end = high == null ? size : position(high, highInclusive);
+		return Math.max(0, end - start);
+	}
+
+	/**
+	 * Returns the number of values with keys below the key, which is the
+	 * position rangeSearch(key, "&gt;=") would start at in a scan of the whole
+	 * tree. The key does not have to be in the tree.
+	 * 
+	 * @param key to rank
+	 * @return number of values with smaller keys
+	 * @throws IllegalArgumentException if key is null
+	 */
+	public int rank(K key) {
+		if (key == null)
+			throw new IllegalArgumentException();
+
+		return position(key, false);
+	}
+
+	/**
+	 * Returns the value at a position of the tree in key order, counting every
+	 * value of a duplicate key, in O(log N). select(0) is the value of the
+	 * smallest key.
+	 * 
+	 * @param index position, from 0 to size() - 1
+	 * @return value at index
+	 * @throws IndexOutOfBoundsException if index is out of range
+	 */
+	public V select(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException(
+					"Index " + index + " of " + size);
+
+		LeafCursor cursor = openCursorAt(index, null, false);
+		cursor.advance();
+		return cursor.getValue();
+	}
+
+	/**
+	 * Returns the entry with the greatest key at or below the key, e.g. the
+	 * closest item at or below a calorie count, with one descent. As with
+	 * get, the entry holds the first value of its key.
+	 * 
+	 * @param key to search from
+	 * @return entry, or null if every key is above key
+	 * @throws IllegalArgumentException if key is null
+	 */
+	public Map.Entry<K, V> floor(K key) {
+		return below(key, true);
+	}
+
+	/**
+	 * Returns the entry with the greatest key strictly below the key
+	 * 
+	 * @param key to search from
+	 * @return entry, or null if no key is below key
+	 * @throws IllegalArgumentException if key is null
+	 * @see #floor(Comparable)
+	 */
+	public Map.Entry<K, V> lower(K key) {
+		return below(key, false);
+	}
+
+	/**
+	 * Returns the entry with the smallest key at or above the key
+	 * 
+	 * @param key to search from
+	 * @return entry, or null if every key is below key
+	 * @throws IllegalArgumentException if key is null
+	 * @see #floor(Comparable)
+	 */
+	public Map.Entry<K, V> ceiling(K key) {
+		return above(key, true);
+	}
+
+	/**
+	 * Returns the entry with the smallest key strictly above the key
+	 * 
+	 * @param key to search from
+	 * @return entry, or null if no key is above key
+	 * @throws IllegalArgumentException if key is null
+	 * @see #floor(Comparable)
+	 */
+	public Map.Entry<K, V> higher(K key) {
+		return above(key, false);
+	}
+
+	/**
+	 * Returns the entry with the smallest key
+	 * 
+	 * @return entry, or null if the tree is empty
+	 * @see #floor(Comparable)
+	 */
+	public Map.Entry<K, V> first() {
+		if (size == 0)
+			return null;
+
+		return entryAt(root.getFirstLeaf(), 0);
+	}
+
+	/**
+	 * Returns the entry with the greatest key
+	 * 
+	 * @return entry, or null if the tree is empty
+	 * @see #floor(Comparable)
+	 */
+	public Map.Entry<K, V> last() {
+		if (size == 0)
+			return null;
+
+		Node node = root;
+		while (node instanceof BPTree.InternalNode) {
+			List<Node> children = ((InternalNode) node).children;
+			node = children.get(children.size() - 1);
+		}
+		return entryAt((LeafNode) node, node.getSize() - 1);
+	}
+
+	/**
+	 * Returns the n entries whose keys are nearest to the key, for keys that
+	 * are numbers, e.g. the items closest to a calorie count on either side
+	 * 
+	 * @param key to search around, a Number
+	 * @param n   most entries to return
+	 * @return entries nearest first
+	 * @throws IllegalArgumentException if key is null or not a Number, or n
+	 *                                  is negative
+	 * @see #nearest(Comparable, int, ToDoubleBiFunction)
+	 */
+	public List<Map.Entry<K, V>> nearest(K key, int n) {
+		if (key != null && !(key instanceof Number))
+			throw new IllegalArgumentException(
+					"Keys that are not numbers need a distance");
+
+		return nearest(key, n, (a, b) -> Math
+				.abs(((Number) a).doubleValue() - ((Number) b).doubleValue()));
+	}
+
+	/**
+	 * Returns the n entries whose keys are nearest to the key, counting every
+	 * value of a duplicate key, in O(log N + n). The candidates are the n
+	 * entries on each side of the key, which are read forward from where they
+	 * start and merged by distance.
+	 * 
+	 * @param key      to search around
+	 * @param n        most entries to return
+	 * @param distance between the key and another key, growing as keys move
+	 *                 away from it in either direction
+	 * @return entries nearest first; at equal distance the smaller key first
+	 * @throws IllegalArgumentException if key or distance is null, or n is
+	 *                                  negative
+	 */
+	public List<Map.Entry<K, V>> nearest(K key, int n,
+			ToDoubleBiFunction<? super K, ? super K> distance) {
+		if (key == null || distance == null)
+			throw new IllegalArgumentException();
+		if (n < 0)
+			throw new IllegalArgumentException("Illegal count: " + n);
+
+		List<Map.Entry<K, V>> nearest = new ArrayList<Map.Entry<K, V>>(
+				Math.min(n, size));
+		if (n == 0 || size == 0)
+			return nearest;
+
+		int below = position(key, false);
+		int start = Math.max(0, below - n);
+		List<Map.Entry<K, V>> left = collect(
+				below > start ? openCursorAt(start, key, false) : null,
+				below - start);
+		List<Map.Entry<K, V>> right = collect(openCursor(key, true, null, true),
+				n);
+
+		// the closest candidates on each side are the inner ends
+		int i = left.size() - 1;
+		int j = 0;
+		while (nearest.size() < n && (i >= 0 || j < right.size())) {
+			if (j == right.size() || i >= 0
+					&& distance.applyAsDouble(key, left.get(i).getKey()) <= distance
+							.applyAsDouble(key, right.get(j).getKey()))
+				nearest.add(left.get(i--));
+			else
+				nearest.add(right.get(j++));
+		}
+		return nearest;
+	}
+
+	/**
+	 * Returns a read-only NavigableMap view of the tree that maps each key to
+	 * its first value, as get does. Lookups and navigation take one descent,
+	 * iterating in key order walks the leaf chain, and iterating in
+	 * descending order takes a descent per key. The view follows later
+	 * changes to the tree.
+	 * 
+	 * @return map view
+	 */
+	public NavigableMap<K, V> asNavigableMap() {
+		return new NavigableTreeView<K, V>(this, null, false, null, false,
+				false);
+	}
+
+	/**
+	 * Finds the greatest key below the key, or also equal to it. Descending
+	 * to the key's leaf remembers the last subtree passed on the left, whose
+	 * rightmost leaf holds the answer if the key's leaf does not.
+	 */
+	private Map.Entry<K, V> below(K key, boolean inclusive) {
+		if (key == null)
+			throw new IllegalArgumentException();
+
+		Node left = null;
+		Node node = root;
+		while (node instanceof BPTree.InternalNode) {
+			InternalNode internal = (InternalNode) node;
+			int childIndex = internal.getChildIndex(key);
+			if (childIndex > 0)
+				left = internal.children.get(childIndex - 1);
+			node = internal.children.get(childIndex);
+		}
+
+		LeafNode leaf = (LeafNode) node;
+		int index = leaf.findIndex(key);
+		int at = index >= 0 ? (inclusive ? index : index - 1) : -index - 2;
+		if (at >= 0)
+			return entryAt(leaf, at);
+		if (left == null)
+			return null;
+
+		while (left instanceof BPTree.InternalNode) {
+			List<Node> children = ((InternalNode) left).children;
+			left = children.get(children.size() - 1);
+		}
+		return entryAt((LeafNode) left, left.getSize() - 1);
+	}
+
+	/**
+	 * Finds the smallest key above the key, or also equal to it, in the key's
+	 * leaf or else at the start of the next one
+	 */
+	private Map.Entry<K, V> above(K key, boolean inclusive) {
+		if (key == null)
+			throw new IllegalArgumentException();
+
+		LeafNode leaf = root.findLeaf(key);
+		int index = leaf.findIndex(key);
+		int at = index >= 0 ? (inclusive ? index : index + 1) : -index - 1;
+		if (at == leaf.getSize()) {
+			leaf = leaf.next;
+			at = 0;
+		}
+		return leaf == null ? null : entryAt(leaf, at);
+	}
+
+	/**
+	 * Returns the key at an index of a leaf with its first value
+	 */
+	private Map.Entry<K, V> entryAt(LeafNode leaf, int index) {
+		return new AbstractMap.SimpleImmutableEntry<K, V>(leaf.keys.get(index),
+				leaf.getValue(index, 0));
+	}
+
+	/**
+	 * Reads up to limit entries from a cursor
+	 * 
+	 * @param cursor to read, or null for none
+	 */
+	private List<Map.Entry<K, V>> collect(LeafCursor cursor, int limit) {
+		List<Map.Entry<K, V>> entries = new ArrayList<Map.Entry<K, V>>();
+		while (cursor != null && entries.size() < limit && cursor.advance())
+			entries.add(new AbstractMap.SimpleImmutableEntry<K, V>(
+					cursor.getKey(), cursor.getValue()));
+		return entries;
+	}
+
+	/**
+	 * Counts the values with keys below the key, or also those equal to it,
+	 * adding up the children left of the path to its leaf
+	 * 
+	 * @param inclusive whether values of an equal key count
+	 * @return number of values before the key
+	 */
+	private int position(K key, boolean inclusive) {
+		int count = 0;
+
+		Node node = root;
+		while (node instanceof BPTree.InternalNode) {
+			InternalNode internal = (InternalNode) node;
+			int childIndex = internal.getChildIndex(key);
+			for (int i = 0; i < childIndex; i++)
+				count += internal.children.get(i).entries;
+			node = internal.children.get(childIndex);
+		}
+
+		LeafNode leaf = (LeafNode) node;
+		int index = leaf.findIndex(key);
+		int end = index < 0 ? -index - 1 : inclusive ? index + 1 : index;
+		for (int i = 0; i < end; i++)
+			count += leaf.getValueCount(i);
+		return count;
+	}
+
+	/**
+	 * Computes the count, sum, minimum, maximum and average of a numeric
+	 * field of the values between low and high, scanning the range in
+	 * parallel and without collecting the values
+	 * 
+	 * Example: summarize(100.0, true, 200.0, true, FoodItem::getProtein)
+	 * 
+	 * @param low           lower bound, or null for none
+	 * @param lowInclusive  whether a key equal to low is in range
+	 * @param high          upper bound, or null for none
+	 * @param highInclusive whether a key equal to high is in range
+	 * @param field         numeric field of a value
+	 * @return statistics of the field over the range
+	 */
+	public DoubleSummaryStatistics summarize(K low, boolean lowInclusive,
+			K high, boolean highInclusive, ToDoubleFunction<? super V> field) {
+		return parallelStream(low, lowInclusive, high, highInclusive)
+				.mapToDouble(field).summaryStatistics();
+	}
+
+	/**
+	 * Returns the values rangeSearch would return as a lazy iterator
+	 * 
+	 * @param key        to be searched
+	 * @param comparator is a string
+	 * @return iterator over the matching values in key order
+	 */
+	public Iterator<V> iterator(K key, String comparator) {
+		return Spliterators
+				.iterator(openCursor(key, comparator));
+	}
+
+	/**
+	 * Positions a cursor for a comparator search
+	 * 
+	 * @return cursor, empty if the arguments are invalid
+	 */
+	private LeafCursor openCursor(K key, String comparator) {
+		LeafCursor cursor = openRange(key, comparator, this::openCursor);
+		return cursor != null ? cursor : new LeafCursor(null, 0, null, false);
+	}
+
+	/**
+	 * Opens a range that lies between two bounds, such as a cursor
+	 * 
+	 * @param <R> what is opened
+	 */
+	private interface RangeOpener<K, R> {
+		R open(K low, boolean lowInclusive, K high, boolean highInclusive);
+	}
+
+	/**
+	 * Opens the range of a comparator search
+	 * 
+	 * @param opener opens the range between its bounds
+	 * @return range, or null if the arguments are invalid
+	 */
+	private <R> R openRange(K key, String comparator,
+			RangeOpener<K, R> opener) {
+
+		// must have valid key and comparator arguments
+		if (key == null || comparator == null)
+			return null;
+
+		// each comparator is a range with one or both ends at the key
+		if (comparator.contentEquals("<"))
+			return opener.open(null, false, key, false);
+		else if (comparator.contentEquals("<="))
+			return opener.open(null, false, key, true);
+		else if (comparator.contentEquals("=="))
+			return opener.open(key, true, key, true);
+		else if (comparator.contentEquals(">="))
+			return opener.open(key, true, null, false);
+		else if (comparator.contentEquals(">"))
+			return opener.open(key, false, null, false);
+		else
+			return null;
+	}
+
+	/**
+	 * Positions a cursor offset entries into a range
+	 * 
+	 * @return cursor that stops after high or limit entries
+	 */
+	private LeafCursor openCursor(K low, boolean lowInclusive, K high,
+			boolean highInclusive, long offset, long limit) {
+
+		// past the end of the range the cursor is empty, which also keeps it
+		// from starting in the middle of the values of a key beyond high
+		long start = (low == null ? 0 : position(low, !lowInclusive)) + offset;
+		int end = high == null ? size : position(high, highInclusive);
+		if (start >= end)
+			return new LeafCursor(null, 0, null, false);
+
+		LeafCursor cursor = openCursorAt((int) start, high, highInclusive);
+		cursor.remaining = limit;
+		return cursor;
+	}
+
+	/**
+	 * Positions a cursor on the entry at a position of the tree, going down
+	 * past the children whose counts add up to it
+	 * 
+	 * @param position of an entry, below size
+	 * @return cursor that stops after high
+	 */
+	private LeafCursor openCursorAt(int position, K high,
+			boolean highInclusive) {
+		int skip = position;
+
+		Node node = root;
+		while (node instanceof BPTree.InternalNode) {
+			List<Node> children = ((InternalNode) node).children;
+			int childIndex = 0;
+			while (skip >= children.get(childIndex).entries)
+				skip -= children.get(childIndex++).entries;
+			node = children.get(childIndex);
+		}
+
+		LeafNode leaf = (LeafNode) node;
+		int index = 0;
+		while (skip >= leaf.getValueCount(index))
+			skip -= leaf.getValueCount(index++);
+
+		LeafCursor cursor = new LeafCursor(leaf, index, high, highInclusive);
+		cursor.run = skip;
+		return cursor;
+	}
+
+	/**
+	 * Positions a cursor on the first entry at or after low
+	 * 
+	 * @return cursor that stops after high
+	 */
+	private LeafCursor openCursor(K low, boolean lowInclusive, K high,
+			boolean highInclusive) {
+		return openCursor(root, low, lowInclusive, high, highInclusive);
+	}
+
+	/**
+	 * Positions a cursor on the first entry at or after low in a subtree that
+	 * holds low, or whose leftmost leaf starts the range if low is null
+	 * 
+	 * @return cursor that stops after high, possibly beyond the subtree
+	 */
+	private LeafCursor openCursor(Node subtree, K low, boolean lowInclusive,
+			K high, boolean highInclusive) {
+
+		// open ranges start at the leftmost leaf
+		if (low == null)
+			return new LeafCursor(subtree.getFirstLeaf(), 0, high,
+					highInclusive);
+
+		// otherwise at the leaf that would hold low
+		LeafNode leaf = subtree.findLeaf(low);
+		int index = leaf.findIndex(low);
+
+		if (index < 0)
+			index = -index - 1;
+		else if (!lowInclusive)
+			index++;
+
+		return new LeafCursor(leaf, index, high, highInclusive);
+	}
+
+	/**
+	 * Returns the value of the first leaf with a matching key. If key is null,
+	 * return null. If key is not found, return null. For a duplicate key this
+	 * is the value that was inserted first.
+	 *
+	 * @param key to find
+	 * @return value of the first leaf matching key
+	 */
+	@Override
+	public V get(K key) {
+		if (key == null)
+			return null;
+
+		TreeMetrics metrics = this.metrics;
+		if (metrics == null)
+			return cache == null ? root.getHelper(key) : cachedGet(key);
+
+		long start = System.nanoTime();
+		V value = cache == null ? root.getHelper(key) : cachedGet(key);
+		metrics.getNanos.record(System.nanoTime() - start);
+		return value;
+	}
+
+	/**
+	 * Answers get from the cache, or from the tree and caches the result
+	 */
+	@SuppressWarnings("unchecked")
+	private V cachedGet(K key) {
+		Object cached = cache.get(key);
+		if (cached != LookupCache.MISS)
+			return (V) cached;
+
+		V value = root.getHelper(key);
+		cache.put(key, value);
+		return value;
+	}
+
+	/**
+	 * Looks up a batch of keys together. The keys are sorted and routed
+	 * through the tree as one run, as with insertAll: each internal node on
+	 * the way is searched once for all the keys below it, and each leaf
+	 * resolves its keys in a single pass, so keys that share a path or a
+	 * leaf do not descend from the root again.
+	 * 
+	 * With metrics enabled, every non-null key counts as a get, but the batch
+	 * is not timed.
+	 * 
+	 * @param keys to find, in any order and possibly repeated
+	 * @return for each key in iteration order, what get would return
+	 */
+	public List<V> getAll(Collection<? extends K> keys) {
+		if (keys == null)
+			throw new IllegalArgumentException();
+
+		List<V> results = new ArrayList<V>(
+				Collections.<V>nCopies(keys.size(), null));
+
+		// pair every key with its place in the results
+		List<Map.Entry<K, Integer>> probes = new ArrayList<Map.Entry<K, Integer>>(
+				keys.size());
+		int position = 0;
+		int lookups = 0;
+		for (K key : keys) {
+			if (key != null) {
+				lookups++;
+				if (!cachedGetAll(key, position, results))
+					probes.add(new AbstractMap.SimpleImmutableEntry<K, Integer>(
+							key, position));
+			}
+			position++;
+		}
+
+		if (metrics != null)
+			metrics.batchGets.add(lookups);
+
+		if (probes.isEmpty())
+			return results;
+
+		probes.sort(Map.Entry.comparingByKey());
+		root.getAll(probes, 0, probes.size(), results);
+
+		if (cache != null)
+			for (Map.Entry<K, Integer> probe : probes)
+				cache.put(probe.getKey(), results.get(probe.getValue()));
+		return results;
+	}
+
+	/**
+	 * Looks up an array of keys together
+	 * 
+	 * @param keys to find, in any order and possibly repeated
+	 * @return for each key in order, what get would return
+	 * @see #getAll(Collection)
+	 */
+	public List<V> getAll(K[] keys) {
+		if (keys == null)
+			throw new IllegalArgumentException();
+
+		return getAll(Arrays.asList(keys));
+	}
+
+	/**
+	 * Answers one key of getAll from the cache, if it holds the key
+	 * 
+	 * @return whether the result was filled in
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean cachedGetAll(K key, int position, List<V> results) {
+		if (cache == null)
+			return false;
+
+		Object cached = cache.get(key);
+		if (cached == LookupCache.MISS)
+			return false;
+
+		results.set(position, (V) cached);
+		return true;
+	}
+
+	/**
+	 * Removes the first value of the key from the tree, the one get returns.
+	 * Nodes that fall below half full borrow an entry from a sibling or merge
+	 * with it, and the root shrinks when it is left with a single child, so
+	 * the tree stays balanced and its size follows the live entries. If key is
+	 * null or not found, return null.
+	 * 
+	 * @param key to remove
+	 * @return value that was removed, or null if nothing was removed
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(K key) {
+		if (key == null)
+			return null;
+
+		Object removed = removeHelper(key, null, Removal.FIRST);
+		return removed == NOT_FOUND ? null : (V) removed;
+	}
+
+	/**
+	 * Removes one occurrence of the value from the key's values
+	 * 
+	 * @param key   to remove
+	 * @param value that the key must be mapped to
+	 * @return true if the entry was removed
+	 * @see #remove(Comparable)
+	 */
+	public boolean remove(K key, V value) {
+		if (key == null)
+			return false;
+
+		return removeHelper(key, value, Removal.MATCHING) != NOT_FOUND;
+	}
+
+	/**
+	 * Removes the key together with all of its values
+	 * 
+	 * @param key to remove
+	 * @return values that were removed in insertion order; if nothing found,
+	 *         return empty list
+	 * @see #remove(Comparable)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<V> removeAll(K key) {
+		if (key == null)
+			return new ArrayList<V>();
+
+		Object removed = removeHelper(key, null, Removal.ALL);
+		if (removed == NOT_FOUND)
+			return new ArrayList<V>();
+		else if (removed instanceof Postings)
+			return new ArrayList<V>((Collection<V>) removed);
+		else
+			return new ArrayList<V>(Arrays.asList((V) removed));
+	}
+
+	/**
+	 * Removes from the root down and shrinks the root afterwards
+	 * 
+	 * @return removed value (the whole slot for Removal.ALL), or NOT_FOUND
+	 */
+	private Object removeHelper(K key, V value, Removal removal) {
+		Object removed = root.remove(key, value, removal);
+		if (metrics != null && removed != NOT_FOUND)
+			metrics.removes.increment();
+		if (cache != null && removed != NOT_FOUND)
+			cache.invalidate(key);
+
+		// a root left with one child hands its place to that child
+		while (root instanceof BPTree.InternalNode
+				&& ((InternalNode) root).children.size() == 1)
+			root = ((InternalNode) root).children.get(0);
+
+		return removed;
+	}
+
+	/**
+	 * Return the number of leaves in the tree. Every value counts, including
+	 * each value of a duplicate key.
+	 *
+	 * @return number of leaves
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the branching factor of the tree
+	 * 
+	 * @return branching factor
+	 */
+	public int getBranchingFactor() {
+		return branchingFactor;
+	}
+
+	/**
+	 * Returns the most keys a leaf holds before it splits
+	 * 
+	 * @return leaf capacity
+	 */
+	public int getLeafCapacity() {
+		return leafCapacity;
+	}
+
+	/**
+	 * Starts recording metrics: latencies of insert, get and rangeSearch,
+	 * splits, key comparisons and leaves per range scan. Until then, and after
+	 * disableMetrics, every operation skips the recording with a single null
+	 * check. Enabling metrics that are already enabled keeps their counts.
+	 * 
+	 * @return metrics of this tree, which can be registered with JMX or
+	 *         published to a MetricsSink
+	 */
+	public TreeMetrics enableMetrics() {
+		if (metrics == null)
+			metrics = new TreeMetrics(this::getStatistics);
+		return metrics;
+	}
+
+	/**
+	 * Stops recording metrics. The metrics object keeps what it recorded, and
+	 * stays registered with JMX until it is unregistered.
+	 */
+	public void disableMetrics() {
+		metrics = null;
+	}
 
 	/**
-	 * Public constructor
+	 * Returns the metrics being recorded
 	 * 
-	 * @param branchingFactor
+	 * @return metrics, or null if they are not enabled
 	 */
-	public BPTree(int branchingFactor) {
-		if (branchingFactor <= 2) {
-			throw new IllegalArgumentException(
-					"Illegal branching factor: " + branchingFactor);
-		} else {
-			this.branchingFactor = branchingFactor;
-			root = new LeafNode();
-			size = 0;
-		}
+	public TreeMetrics getMetrics() {
+		return metrics;
 	}
 
 	/**
-	 * Inserts the key and value in the appropriate nodes in the tree If the key
-	 * is null, throw IllegalArgumentException
+	 * Puts a bounded cache of get results in front of the tree, so that
+	 * repeated gets of a key cost one hash probe instead of a descent. Writes
+	 * keep it up to date, and keys are evicted by CLOCK once it is full. A
+	 * cache of the same capacity that is already enabled is kept with its
+	 * contents; a different capacity starts an empty one.
 	 * 
-	 * Note: key-value pairs with duplicate keys should be able to be inserted
-	 * into the tree. However, I realizes this too late, so duplicates currently
-	 * cannot be entered.
+	 * The cache finds keys by equals and hashCode, so only enable it for keys
+	 * whose compareTo is consistent with equals. With keys like BigDecimal,
+	 * where 1.0 and 1.00 are the same key to the tree but not equal, a write
+	 * under one spelling leaves the other's cached result stale.
 	 * 
-	 * @param key
-	 * @param value
+	 * @param capacity most keys to cache
+	 * @return cache of this tree, with its hit rate
 	 */
-	@Override
-	public void insert(K key, V value) {
-
-		// do not allow null key
-		if (key == null)
-			throw new IllegalArgumentException();
+	public LookupCache<K, V> enableCache(int capacity) {
+		if (cache == null || cache.getCapacity() != capacity)
+			cache = new LookupCache<K, V>(capacity);
+		return cache;
+	}
 
-		// insert node by utilizing methods within internalNode and leadNode
-		// clases
-		root.insert(key, value);
+	/**
+	 * Stops caching gets and drops the cache
+	 */
+	public void disableCache() {
+		cache = null;
 	}
 
 	/**
-	 * Gets the values that satisfy the given range search arguments.
-	 * 
-	 * Value of comparator can be one of these: "<=", "==", ">="
-	 * 
-	 * Example: If given key = 2.5 and comparator = ">=": return all the values
-	 * with the corresponding keys >= 2.5
+	 * Returns the cache in front of get
 	 * 
-	 * If key is null or not found, return empty list. If comparator is null,
-	 * empty, or not according to required form, return empty list.
+	 * @return cache, or null if it is not enabled
+	 */
+	public LookupCache<K, V> getCache() {
+		return cache;
+	}
+
+	/**
+	 * Walks the tree level by level and counts its nodes and keys. This
+	 * visits every node, so it is meant for occasional inspection, e.g. to
+	 * see how full the nodes of a given branching factor end up.
 	 * 
-	 * @param key        to be searched
-	 * @param comparator is a string
-	 * @return list of values that are the result of the range search; if
-	 *         nothing found, return empty list
+	 * @return height, nodes and keys per level, and occupancy
 	 */
-	@Override
-	public List<V> rangeSearch(K key, String comparator) {
+	public TreeStatistics getStatistics() {
+		List<Long> nodes = new ArrayList<Long>();
+		List<Long> keys = new ArrayList<Long>();
+
+		List<Node> level = new ArrayList<Node>(Arrays.asList(root));
+		while (!level.isEmpty()) {
+			List<Node> nextLevel = new ArrayList<Node>();
+			long levelKeys = 0;
+
+			for (Node node : level) {
+				levelKeys += node.getSize();
+				if (node instanceof BPTree.InternalNode)
+					nextLevel.addAll(((InternalNode) node).children);
+			}
 
-		// must have valid comparator argument
-		if (!comparator.contentEquals(">=") && !comparator.contentEquals("==")
-				&& !comparator.contentEquals("<="))
-			return new ArrayList<V>();
+			nodes.add((long) level.size());
+			keys.add(levelKeys);
+			level = nextLevel;
+		}
 
-		// utilize methods within internalNode and leafNode classes for
-		// rangeSearch
-		else
-			return root.rangeSearch(key, comparator);
+		long[] nodesPerLevel = new long[nodes.size()];
+		long[] keysPerLevel = new long[keys.size()];
+		for (int i = 0; i < nodesPerLevel.length; i++) {
+			nodesPerLevel[i] = nodes.get(i);
+			keysPerLevel[i] = keys.get(i);
+		}
+		return new TreeStatistics(branchingFactor, leafCapacity, size,
+				nodesPerLevel, keysPerLevel);
 	}
 
 	/**
-	 * Returns the value of the first leaf with a matching key. If key is null,
-	 * return null. If key is not found, return null.
-	 *
-	 * @param key to find
-	 * @return value of the first leaf matching key
+	 * Binary searches a slice of a sorted batch
+	 * 
+	 * @return index of the first entry in [from, to) whose key is not below
+	 *         key, or to if there is none
 	 */
-	@Override
-	public V get(K key) {
-		if (key == null)
-			return null;
-
-		return root.getHelper(key);
+	private <T> int lowerBound(List<Map.Entry<K, T>> entries, int from,
+			int to, K key) {
+		int low = from;
+		int high = to;
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (entries.get(mid).getKey().compareTo(key) < 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
 	}
 
 	/**
-	 * Return the number of leaves in the tree.
-	 *
-	 * @return number of leaves
+	 * Fills leaves from the sorted entries and stacks internal levels on top of
+	 * them until a single root remains
+	 * 
+	 * @param sortedEntries entries in ascending key order
+	 * @param fillFactor    fraction of each node to fill
 	 */
-	@Override
-	public int size() {
-		return size;
+	private void bulkLoad(Iterator<? extends Map.Entry<K, V>> sortedEntries,
+			double fillFactor) {
+
+		// leaves hold at most leafCapacity entries, internal nodes at most
+		// branchingFactor children and never fewer than three so that an
+		// evenly divided level cannot leave a node with a single child
+		int leafFill = Math.max(1, (int) (leafCapacity * fillFactor));
+		int internalFill = Math.min(branchingFactor,
+				Math.max(3, (int) (branchingFactor * fillFactor)));
+
+		List<Node> level = new ArrayList<Node>();
+		List<K> firstKeys = new ArrayList<K>();
+
+		LeafNode leaf = (LeafNode) root;
+		level.add(leaf);
+		K previous = null;
+
+		while (sortedEntries.hasNext()) {
+			Map.Entry<K, V> entry = sortedEntries.next();
+			K key = entry.getKey();
+
+			if (key == null)
+				throw new IllegalArgumentException();
+
+			if (previous != null) {
+				int comparison = previous.compareTo(key);
+
+				if (comparison > 0)
+					throw new IllegalArgumentException(
+							"Bulk load input is not sorted: " + key + " after "
+									+ previous);
+
+				// equal keys add to the last slot's values, as with insert
+				if (comparison == 0) {
+					int last = leaf.getSize() - 1;
+					leaf.values.set(last,
+							appendValue(leaf.values.get(last), entry.getValue()));
+					leaf.entries++;
+					size++;
+					continue;
+				}
+			}
+
+			// start the next leaf once this one holds its share
+			if (leaf.getSize() == leafFill) {
+				LeafNode next = new LeafNode();
+				leaf.next = next;
+				leaf = next;
+				level.add(leaf);
+			}
+
+			if (leaf.getSize() == 0)
+				firstKeys.add(key);
+
+			leaf.keys.add(key);
+			leaf.values.add(entry.getValue());
+			leaf.entries++;
+			size++;
+			previous = key;
+		}
+
+		// even out a short last leaf with its left neighbour
+		if (level.size() > 1 && leaf.getSize() < (leafFill + 1) / 2) {
+			LeafNode left = (LeafNode) level.get(level.size() - 2);
+			int end = left.getSize();
+			int from = end - (end - leaf.getSize()) / 2;
+
+			leaf.keys.addAll(0, left.keys.subList(from, end));
+			leaf.values.addAll(0, left.values.subList(from, end));
+			left.keys.subList(from, end).clear();
+			left.values.subList(from, end).clear();
+			firstKeys.set(firstKeys.size() - 1, leaf.keys.get(0));
+			left.entries = left.countEntries();
+			leaf.entries = leaf.countEntries();
+		}
+
+		// build internal levels until only the root is left
+		while (level.size() > 1) {
+			List<Node> parents = new ArrayList<Node>();
+			List<K> parentFirstKeys = new ArrayList<K>();
+
+			// divide the level evenly between as few parents as fit
+			int count = level.size();
+			int groups = (count + internalFill - 1) / internalFill;
+
+			for (int group = 0; group < groups; group++) {
+				int from = (int) ((long) count * group / groups);
+				int to = (int) ((long) count * (group + 1) / groups);
+
+				InternalNode parent = new InternalNode();
+				for (int i = from; i < to; i++) {
+					parent.children.add(level.get(i));
+					if (i > from)
+						parent.keys.add(firstKeys.get(i));
+				}
+				parent.entries = parent.countEntries();
+
+				parents.add(parent);
+				parentFirstKeys.add(firstKeys.get(from));
+			}
+
+			level = parents;
+			firstKeys = parentFirstKeys;
+		}
+
+		root = level.get(0);
 	}
 
 	/**
@@ -172,6 +1505,10 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 		// List of keys
 		List<K> keys;
 
+		// Values in this subtree, each value of a duplicate key counted, so
+		// positions can be found without walking the leaves
+		int entries;
+
 		/**
 		 * Package constructor
 		 */
@@ -202,6 +1539,15 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 		 */
 		abstract K getFirstLeafKey();
 
+		/**
+		 * Counts the values in this subtree from the children's counts, or
+		 * from the slots of a leaf, for nodes whose contents were moved
+		 * around wholesale
+		 * 
+		 * @return values in this subtree
+		 */
+		abstract int countEntries();
+
 		/**
 		 * Gets the new sibling created after splitting the node
 		 * 
@@ -209,12 +1555,50 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 		 */
 		abstract Node split();
 
-		/*
-		 * (non-Javadoc)
+		/**
+		 * Splits an overflowing node into as few nodes as fit, sharing the
+		 * entries evenly. This node keeps the first share.
+		 * 
+		 * @return the new right siblings in key order
+		 */
+		abstract List<Node> splitEvenly();
+
+		/**
+		 * Inserts a slice of a sorted batch into this subtree without splitting
+		 * this node; the caller splits it afterwards if it overflows.
+		 * 
+		 * @param entries sorted batch
+		 * @param from    first entry of the slice
+		 * @param to      end of the slice, exclusive
+		 */
+		abstract void insertAll(List<Map.Entry<K, V>> entries, int from,
+				int to);
+
+		/**
+		 * Looks up a slice of sorted probes in this subtree
+		 * 
+		 * @param probes  keys sorted, each with its place in the results
+		 * @param from    first probe of the slice
+		 * @param to      end of the slice, exclusive
+		 * @param results receives the first value of each key found
+		 */
+		abstract void getAll(List<Map.Entry<K, Integer>> probes, int from,
+				int to, List<V> results);
+
+		/**
+		 * Gets the leaf whose key range would hold the key
+		 * 
+		 * @param key to route
+		 * @return leaf node
+		 */
+		abstract LeafNode findLeaf(K key);
+
+		/**
+		 * Gets the leftmost leaf of this subtree
 		 * 
-		 * @see BPTree#rangeSearch(java.lang.Object, java.lang.String)
+		 * @return leaf node
 		 */
-		abstract List<V> rangeSearch(K key, String comparator);
+		abstract LeafNode getFirstLeaf();
 
 		/**
 		 * Check if node is overflow based on branch factor
@@ -223,6 +1607,60 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 		 */
 		abstract boolean isOverflow();
 
+		/**
+		 * Check if node is less than half full based on branch factor. Only
+		 * the root may stay that way.
+		 * 
+		 * @return boolean
+		 */
+		abstract boolean isUnderflow();
+
+		/**
+		 * Check if node can give an entry to a sibling without underflowing
+		 * 
+		 * @return boolean
+		 */
+		abstract boolean canLend();
+
+		/**
+		 * Removes the key from this subtree, rebalancing the children that
+		 * underflow on the way back up. This node itself is rebalanced by its
+		 * parent.
+		 * 
+		 * @param key     to remove
+		 * @param value   to remove, for Removal.MATCHING
+		 * @param removal which of the key's values to remove
+		 * @return removed value (the whole slot for Removal.ALL), or NOT_FOUND
+		 */
+		abstract Object remove(K key, V value, Removal removal);
+
+		/**
+		 * Moves the last entry of the left sibling to the front of this node
+		 * 
+		 * @param left      sibling of the same type
+		 * @param separator parent key between the two nodes
+		 * @return the new parent key between the two nodes
+		 */
+		abstract K borrowFromLeft(Node left, K separator);
+
+		/**
+		 * Moves the first entry of the right sibling to the end of this node
+		 * 
+		 * @param right     sibling of the same type
+		 * @param separator parent key between the two nodes
+		 * @return the new parent key between the two nodes
+		 */
+		abstract K borrowFromRight(Node right, K separator);
+
+		/**
+		 * Moves every entry of the right sibling into this node; the caller
+		 * drops the right sibling and the separator from the parent
+		 * 
+		 * @param right     sibling of the same type
+		 * @param separator parent key between the two nodes
+		 */
+		abstract void mergeWithRight(Node right, K separator);
+
 		/**
 		 * Converts keys to string for testing purposes
 		 */
@@ -238,6 +1676,9 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 		 */
 		public void rootOverflow(Node node) {
 
+			if (metrics != null)
+				metrics.rootSplits.increment();
+
 			// split the root
 			Node node2 = node.split();
 
@@ -250,46 +1691,94 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 
 			// add the split node as a child of the new root
 			root2.children.add(node2);
+			root2.entries = root2.countEntries();
 
 			// set the new root node
 			root = root2;
 		}
 
 		/**
-		 * Helper method for finding the correct index of a node that is being
-		 * inserted and does not already exist in the tree
+		 * Binary searches the keys of this node. This is the routing primitive
+		 * used by every node operation.
 		 * 
-		 * @param Key of node to be inserted
+		 * @param key to search for
+		 * @return index of the key if it exists, otherwise (-(insertion point)
+		 *         - 1) like Collections.binarySearch
 		 */
-		public int getNewIndex(K key) {
-
-			int index = -1;
+		int findIndex(K key) {
 
-			// iterator on list of key for current node
-			Iterator<K> keysIterator = keys.listIterator();
-			boolean found = false;
+			// large fanouts use the branch-light loop
+			if (keys.size() >= BRANCH_LIGHT_SEARCH_THRESHOLD)
+				return findIndexBranchLight(key);
 
-			while (keysIterator.hasNext() && !found) {
+			int low = 0;
+			int high = keys.size() - 1;
+			int comparisons = 0;
 
-				K currentNode = keysIterator.next();
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int comparison = keys.get(mid).compareTo(key);
+				comparisons++;
 
-				int currentNodeIndex = keys.indexOf(currentNode);
-
-				// find position between larger and smaller keys
-				if (currentNode.compareTo(key) > 0) {
-					index = currentNodeIndex;
-					found = true;
+				if (comparison < 0)
+					low = mid + 1;
+				else if (comparison > 0)
+					high = mid - 1;
+				else {
+					countComparisons(comparisons);
+					return mid;
 				}
 			}
 
-			// if the node to be inserted is larger than any other node in the
-			// list, get the index at the end
-			if (!found) {
-				index = keys.size();
-				found = true;
+			countComparisons(comparisons);
+
+			// key does not exist, return where it would be inserted
+			return -(low + 1);
+		}
+
+		/**
+		 * Binary search that always runs ceil(log2 m) halving steps and picks
+		 * the next half with a conditional move instead of an early exit, so the
+		 * loop branch stays predictable on large nodes.
+		 * 
+		 * @param key to search for
+		 * @return same contract as findIndex
+		 */
+		int findIndexBranchLight(K key) {
+
+			int n = keys.size();
+			if (n == 0)
+				return -1;
+
+			// base ends on the last key <= key, or on 0 if every key is larger
+			int base = 0;
+			int comparisons = 1;
+			while (n > 1) {
+				int half = n >>> 1;
+				base = keys.get(base + half).compareTo(key) <= 0 ? base + half
+						: base;
+				n -= half;
+				comparisons++;
 			}
 
-			return index;
+			countComparisons(comparisons);
+			int comparison = keys.get(base).compareTo(key);
+			if (comparison == 0)
+				return base;
+			else if (comparison < 0)
+				return -(base + 2);
+			else
+				return -(base + 1);
+		}
+
+		/**
+		 * Adds the comparisons of a node search to the metrics, if enabled
+		 * 
+		 * @param comparisons made by the search
+		 */
+		void countComparisons(int comparisons) {
+			if (metrics != null)
+				metrics.comparisons.add(comparisons);
 		}
 
 		/**
@@ -330,6 +1819,18 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 			return children.get(0).getFirstLeafKey();
 		}
 
+		/**
+		 * (non-Javadoc)
+		 * 
+		 * @see BPTree.Node#countEntries()
+		 */
+		int countEntries() {
+			int count = 0;
+			for (Node child : children)
+				count += child.entries;
+			return count;
+		}
+
 		/**
 		 * (non-Javadoc)
 		 * 
@@ -346,24 +1847,148 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 		/**
 		 * (non-Javadoc)
 		 * 
-		 * @see BPTree.Node#insert(java.lang.Comparable, java.lang.Object)
+		 * @see BPTree.Node#isUnderflow()
 		 */
-		void insert(K key, V value) {
+		boolean isUnderflow() {
+			return children.size() < (branchingFactor + 1) / 2;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * 
+		 * @see BPTree.Node#canLend()
+		 */
+		boolean canLend() {
+			return children.size() > (branchingFactor + 1) / 2;
+		}
 
-			// get index of key to be inserted
-			int index = keys.indexOf(key);
-			int childIndex;
+		/**
+		 * (non-Javadoc)
+		 * 
+		 * @see BPTree.Node#remove(java.lang.Comparable, java.lang.Object,
+		 *      BPTree.Removal)
+		 */
+		Object remove(K key, V value, Removal removal) {
 
-			// index will be positive if the key already exists
-			if (index >= 0)
-				childIndex = index + 1;
+			int childIndex = getChildIndex(key);
+			Node child = children.get(childIndex);
+			Object removed = child.remove(key, value, removal);
+			if (removed == NOT_FOUND)
+				return removed;
 
-			// otherwise the key does not exist and we must find where it should
-			// exist
+			if (removal == Removal.ALL && removed instanceof Postings)
+				entries -= ((Postings) removed).size();
 			else
-				childIndex = getNewIndex(key);
+				entries--;
+
+			if (child.isUnderflow())
+				rebalance(childIndex);
+
+			return removed;
+		}
+
+		/**
+		 * Brings an underflowing child back to half full by borrowing from a
+		 * sibling that can spare an entry, or else merging with a sibling
+		 * 
+		 * @param childIndex index of the underflowing child
+		 */
+		void rebalance(int childIndex) {
+
+			Node child = children.get(childIndex);
+			Node left = childIndex > 0 ? children.get(childIndex - 1) : null;
+			Node right = childIndex + 1 < children.size()
+					? children.get(childIndex + 1)
+					: null;
+
+			if (left != null && left.canLend()) {
+				keys.set(childIndex - 1,
+						child.borrowFromLeft(left, keys.get(childIndex - 1)));
+				recount(left, child);
+			}
+
+			else if (right != null && right.canLend()) {
+				keys.set(childIndex,
+						child.borrowFromRight(right, keys.get(childIndex)));
+				recount(child, right);
+			}
+
+			// neither sibling can lend, so the two fit in one node
+			else if (left != null) {
+				left.mergeWithRight(child, keys.get(childIndex - 1));
+				left.entries += child.entries;
+				keys.remove(childIndex - 1);
+				children.remove(childIndex);
+			}
+
+			else if (right != null) {
+				child.mergeWithRight(right, keys.get(childIndex));
+				child.entries += right.entries;
+				keys.remove(childIndex);
+				children.remove(childIndex + 1);
+			}
+		}
+
+		/**
+		 * Recounts two siblings after one lent the other an entry
+		 */
+		private void recount(Node left, Node right) {
+			int total = left.entries + right.entries;
+			left.entries = left.countEntries();
+			right.entries = total - left.entries;
+		}
+
+		/**
+		 * (non-Javadoc) The separator comes down in front of the borrowed
+		 * child and the left sibling's last key goes up in its place
+		 * 
+		 * @see BPTree.Node#borrowFromLeft(BPTree.Node, java.lang.Comparable)
+		 */
+		K borrowFromLeft(Node left, K separator) {
+			InternalNode sibling = (InternalNode) left;
+
+			keys.add(0, separator);
+			children.add(0, sibling.children.remove(sibling.children.size() - 1));
+			return sibling.keys.remove(sibling.keys.size() - 1);
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * 
+		 * @see BPTree.Node#borrowFromRight(BPTree.Node, java.lang.Comparable)
+		 */
+		K borrowFromRight(Node right, K separator) {
+			InternalNode sibling = (InternalNode) right;
+
+			keys.add(separator);
+			children.add(sibling.children.remove(0));
+			return sibling.keys.remove(0);
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * 
+		 * @see BPTree.Node#mergeWithRight(BPTree.Node, java.lang.Comparable)
+		 */
+		void mergeWithRight(Node right, K separator) {
+			InternalNode sibling = (InternalNode) right;
+
+			keys.add(separator);
+			keys.addAll(sibling.keys);
+			children.addAll(sibling.children);
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * 
+		 * @see BPTree.Node#insert(java.lang.Comparable, java.lang.Object)
+		 */
+		void insert(K key, V value) {
+
+			Node node = children.get(getChildIndex(key));
 
-			Node node = children.get(childIndex);
+			// counted first, since a new root above counts this node
+			entries++;
 
 			// insert the node at correct position
 			node.insert(key, value);
@@ -375,7 +2000,7 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 				Node splitNode = node.split();
 
 				// index of the split node
-				int splitNodeIndex = keys.indexOf(splitNode.getFirstLeafKey());
+				int splitNodeIndex = findIndex(splitNode.getFirstLeafKey());
 
 				// new index of the split node
 				int newSplitNodeIndex;
@@ -393,8 +2018,7 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 				else {
 
 					// create new index where node should be
-					newSplitNodeIndex = getNewIndex(
-							splitNode.getFirstLeafKey());
+					newSplitNodeIndex = -splitNodeIndex - 1;
 					// add keys to the list
 					keys.add(newSplitNodeIndex, splitNode.getFirstLeafKey());
 					// add children to the list
@@ -415,6 +2039,9 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 		 */
 		Node split() {
 
+			if (metrics != null)
+				metrics.internalSplits.increment();
+
 			int begining = this.getSize() / 2 +1;
 			int keyEnd = this.getSize();
 			int valueEnd = keyEnd + 1;
@@ -429,51 +2056,158 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 				node.keys.add(k);
 			}
 
-			// add second half of old children to new node
-			List<Node> childrenList = children.subList(begining, valueEnd);
-			for (int i = 0; i < childrenList.size(); i++) {
-				Node n = childrenList.get(i);
-				node.children.add(n);
+			// add second half of old children to new node
+			List<Node> childrenList = children.subList(begining, valueEnd);
+			for (int i = 0; i < childrenList.size(); i++) {
+				Node n = childrenList.get(i);
+				node.children.add(n);
+			}
+		
+
+			// clear the parts of the original nodes keys and children that we
+			// just moved
+			keys.subList(begining - 1, keyEnd).clear();
+			children.subList(begining, valueEnd).clear();
+
+			node.entries = node.countEntries();
+			entries -= node.entries;
+			return node;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * 
+		 * @see BPTree.Node#splitEvenly()
+		 */
+		List<Node> splitEvenly() {
+
+			// every share gets at least two children since the count exceeds
+			// a branching factor of three or more
+			int count = children.size();
+			int shares = (count + branchingFactor - 1) / branchingFactor;
+			List<Node> siblings = new ArrayList<Node>();
+
+			for (int share = 1; share < shares; share++) {
+				int from = (int) ((long) count * share / shares);
+				int to = (int) ((long) count * (share + 1) / shares);
+
+				InternalNode node = new InternalNode();
+				node.children.addAll(children.subList(from, to));
+				node.keys.addAll(keys.subList(from, to - 1));
+				node.entries = node.countEntries();
+				siblings.add(node);
+			}
+
+			// the key in front of each moved share goes up to the parent
+			int end = (int) ((long) count / shares);
+			keys.subList(end - 1, keys.size()).clear();
+			children.subList(end, count).clear();
+			entries = countEntries();
+
+			if (metrics != null)
+				metrics.internalSplits.add(siblings.size());
+			return siblings;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * 
+		 * @see BPTree.Node#insertAll(List, int, int)
+		 */
+		void insertAll(List<Map.Entry<K, V>> entries, int from, int to) {
+
+			this.entries += to - from;
+
+			int i = from;
+			while (i < to) {
+
+				// the child for the next entry takes everything below its
+				// right separator
+				int childIndex = getChildIndex(entries.get(i).getKey());
+				int end = to;
+				if (childIndex < keys.size())
+					end = lowerBound(entries, i, to, keys.get(childIndex));
+
+				Node child = children.get(childIndex);
+				child.insertAll(entries, i, end);
+
+				// split the child once its whole slice is in
+				if (child.isOverflow()) {
+					List<Node> siblings = child.splitEvenly();
+					for (int j = 0; j < siblings.size(); j++) {
+						Node sibling = siblings.get(j);
+						keys.add(childIndex + j, sibling.getFirstLeafKey());
+						children.add(childIndex + j + 1, sibling);
+					}
+				}
+
+				i = end;
 			}
-		
-
-			// clear the parts of the original nodes keys and children that we
-			// just moved
-			keys.subList(begining - 1, keyEnd).clear();
-			children.subList(begining, valueEnd).clear();
-			return node;
 		}
 
 		/**
 		 * (non-Javadoc)
 		 * 
-		 * @see BPTree.Node#rangeSearch(java.lang.Comparable, java.lang.String)
+		 * @see BPTree.Node#getAll(List, int, int, List)
 		 */
-		List<V> rangeSearch(K key, String comparator) {
+		void getAll(List<Map.Entry<K, Integer>> probes, int from, int to,
+				List<V> results) {
+
+			int i = from;
+			while (i < to) {
 
-			// get the first child of the node
-			Node child = children.get(0);
+				// the child for the next probe takes everything below its
+				// right separator
+				int childIndex = getChildIndex(probes.get(i).getKey());
+				int end = to;
+				if (childIndex < keys.size())
+					end = lowerBound(probes, i, to, keys.get(childIndex));
 
-			// call the leafNode method
-			return child.rangeSearch(key, comparator);
+				children.get(childIndex).getAll(probes, i, end, results);
+				i = end;
+			}
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * 
+		 * @see BPTree.Node#findLeaf(java.lang.Comparable)
+		 */
+		LeafNode findLeaf(K key) {
+			return children.get(getChildIndex(key)).findLeaf(key);
+		}
 
+		/**
+		 * (non-Javadoc)
+		 * 
+		 * @see BPTree.Node#getFirstLeaf()
+		 */
+		LeafNode getFirstLeaf() {
+			return children.get(0).getFirstLeaf();
 		}
 
 		V getHelper(K key) {
 
-			// get child of node to be inserted
+			// get child that would hold the key
+			Node child = children.get(getChildIndex(key));
+			return child.getHelper(key);
+
+		}
 
-			int index = keys.indexOf(key);
-			int childIndex;
+		/**
+		 * Gets the index of the child whose subtree would hold the key. Keys
+		 * equal to a separator live in the subtree to its right.
+		 * 
+		 * @param key to route
+		 * @return index into children
+		 */
+		int getChildIndex(K key) {
+			int index = findIndex(key);
 
 			if (index >= 0)
-				childIndex = index + 1;
+				return index + 1;
 			else
-				childIndex = getNewIndex(key);
-
-			Node child = children.get(childIndex);
-			return child.getHelper(key);
-
+				return -index - 1;
 		}
 
 	} // End of class InternalNode
@@ -487,8 +2221,9 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 	 */
 	private class LeafNode extends Node {
 
-		// List of values
-		List<V> values;
+		// List of values, one slot per key: the value itself, or Postings
+		// when the key has several
+		List<Object> values;
 
 		// Reference to the next leaf node
 		LeafNode next;
@@ -498,7 +2233,7 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 		 */
 		LeafNode() {
 			super();
-			values = new ArrayList<V>();
+			values = new ArrayList<Object>();
 		}
 
 		/**
@@ -516,13 +2251,157 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 		 * @see BPTree.Node#isOverflow()
 		 */
 		boolean isOverflow() {
-			if (values.size() > (branchingFactor - 1))
+			if (values.size() > leafCapacity)
 				return true;
 
 			else
 				return false;
 		}
 
+		/**
+		 * (non-Javadoc)
+		 * 
+		 * @see BPTree.Node#isUnderflow()
+		 */
+		boolean isUnderflow() {
+			return values.size() < (leafCapacity + 1) / 2;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * 
+		 * @see BPTree.Node#canLend()
+		 */
+		boolean canLend() {
+			return values.size() > (leafCapacity + 1) / 2;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * 
+		 * @see BPTree.Node#remove(Comparable, Object, BPTree.Removal)
+		 */
+		Object remove(K key, V value, Removal removal) {
+
+			int index = findIndex(key);
+			if (index < 0)
+				return NOT_FOUND;
+
+			// the whole slot goes
+			if (removal == Removal.ALL) {
+				size -= getValueCount(index);
+				entries -= getValueCount(index);
+				keys.remove(index);
+				return values.remove(index);
+			}
+
+			// otherwise a single value, the first unless one must match
+			int run = 0;
+			if (removal == Removal.MATCHING) {
+				while (run < getValueCount(index)
+						&& !Objects.equals(getValue(index, run), value))
+					run++;
+				if (run == getValueCount(index))
+					return NOT_FOUND;
+			}
+
+			V removed = getValue(index, run);
+			Object slot = values.get(index);
+
+			// the key stays as long as it has values left
+			if (slot instanceof Postings) {
+				Postings postings = (Postings) slot;
+				postings.remove(run);
+				if (postings.size() == 1)
+					values.set(index, postings.get(0));
+			} else {
+				keys.remove(index);
+				values.remove(index);
+			}
+
+			size--;
+			entries--;
+			return removed;
+		}
+
+		/**
+		 * Returns the number of values of the key at index
+		 * 
+		 * @param index of the key
+		 * @return number of values
+		 */
+		int getValueCount(int index) {
+			Object slot = values.get(index);
+			return slot instanceof Postings ? ((Postings) slot).size() : 1;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * 
+		 * @see BPTree.Node#countEntries()
+		 */
+		int countEntries() {
+			int count = 0;
+			for (int i = 0; i < values.size(); i++)
+				count += getValueCount(i);
+			return count;
+		}
+
+		/**
+		 * Returns one of the values of the key at index
+		 * 
+		 * @param index of the key
+		 * @param run   position among the key's values, in insertion order
+		 * @return value
+		 */
+		@SuppressWarnings("unchecked")
+		V getValue(int index, int run) {
+			Object slot = values.get(index);
+			if (slot instanceof Postings)
+				return (V) ((Postings) slot).get(run);
+			return (V) slot;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * 
+		 * @see BPTree.Node#borrowFromLeft(BPTree.Node, Comparable)
+		 */
+		K borrowFromLeft(Node left, K separator) {
+			LeafNode sibling = (LeafNode) left;
+			int last = sibling.getSize() - 1;
+
+			keys.add(0, sibling.keys.remove(last));
+			values.add(0, sibling.values.remove(last));
+			return keys.get(0);
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * 
+		 * @see BPTree.Node#borrowFromRight(BPTree.Node, Comparable)
+		 */
+		K borrowFromRight(Node right, K separator) {
+			LeafNode sibling = (LeafNode) right;
+
+			keys.add(sibling.keys.remove(0));
+			values.add(sibling.values.remove(0));
+			return sibling.keys.get(0);
+		}
+
+		/**
+		 * (non-Javadoc) Also takes over the sibling's place in the leaf chain
+		 * 
+		 * @see BPTree.Node#mergeWithRight(BPTree.Node, Comparable)
+		 */
+		void mergeWithRight(Node right, K separator) {
+			LeafNode sibling = (LeafNode) right;
+
+			keys.addAll(sibling.keys);
+			values.addAll(sibling.values);
+			next = sibling.next;
+		}
+
 		/**
 		 * (non-Javadoc)
 		 * 
@@ -530,23 +2409,24 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 		 */
 		void insert(K key, V value) {
 
-			int preIndex = keys.indexOf(key);
+			int preIndex = findIndex(key);
 			int newIndex;
 
 			// if the preIndex is greater than 0, then the index exists
 			if (preIndex >= 0) {
 				newIndex = preIndex;
-				// replace the current node with new node
-				values.set(newIndex, value);
+				// add the value after the key's existing values
+				values.set(newIndex, appendValue(values.get(newIndex), value));
 			}
 
 			// if the key doesn't already exist, add a new node
 			else {
-				newIndex = getNewIndex(key);
+				newIndex = -preIndex - 1;
 				keys.add(newIndex, key); // add new key to list
 				values.add(newIndex, value); // add new value to list
-				size++;
 			}
+			size++;
+			entries++;
 
 			// if insert causes root overflow, call method within abstract class
 			if (root.isOverflow()) {
@@ -561,67 +2441,202 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 		 */
 		Node split() {
 
+			if (metrics != null)
+				metrics.leafSplits.increment();
+
 			LeafNode node = new LeafNode();
 
 			int begining = this.getSize() / 2;
 
-	        // transfer key values pairs to new node
-	        for (int i=begining; i<keys.size(); i=i) {
-	        
-	        //add second half of old values to new node
-	        node.values.add(this.values.get(begining));
-	        node.keys.add(this.keys.get(begining));
-
-	        //clear the old values from the originial node
-	        this.values.remove(begining);
-	        this.keys.remove(begining);
-	        }
+			// move the second half to the new node in one block each, since
+			// removing one pair at a time shifts a long leaf over and over
+			node.keys.addAll(keys.subList(begining, keys.size()));
+			node.values.addAll(values.subList(begining, values.size()));
+			keys.subList(begining, keys.size()).clear();
+			values.subList(begining, values.size()).clear();
 
 			node.next = next;
 			next = node;
+
+			node.entries = node.countEntries();
+			entries -= node.entries;
 			return node;
 		}
 
 		/**
 		 * (non-Javadoc)
 		 * 
-		 * @see BPTree.Node#rangeSearch(Comparable, String)
+		 * @see BPTree.Node#splitEvenly()
 		 */
-		List<V> rangeSearch(K key, String comparator) {
-			List<V> filtered = new ArrayList<V>();
-			LeafNode node = this;
-			
-			// work through the nodes in the graph
-			while (node != null) {
+		List<Node> splitEvenly() {
+
+			int count = keys.size();
+			int shares = (count + leafCapacity - 1) / leafCapacity;
+			List<Node> siblings = new ArrayList<Node>();
+			LeafNode last = this;
+
+			for (int share = 1; share < shares; share++) {
+				int from = (int) ((long) count * share / shares);
+				int to = (int) ((long) count * (share + 1) / shares);
+
+				LeafNode node = new LeafNode();
+				node.keys.addAll(keys.subList(from, to));
+				node.values.addAll(values.subList(from, to));
+				node.entries = node.countEntries();
+
+				// link the new leaf into the chain
+				node.next = last.next;
+				last.next = node;
+				last = node;
+				siblings.add(node);
+			}
 
-				// work through each set of keys for each node
-				for (int i = 0; i < node.keys.size(); i++) {
+			int end = (int) ((long) count / shares);
+			keys.subList(end, count).clear();
+			values.subList(end, count).clear();
+			entries = countEntries();
 
-					K key2 = node.keys.get(i);
+			if (metrics != null)
+				metrics.leafSplits.add(siblings.size());
+			return siblings;
+		}
+
+		/**
+		 * (non-Javadoc) Small slices are placed one entry at a time, larger
+		 * ones are merged with the existing entries in one pass
+		 * 
+		 * @see BPTree.Node#insertAll(List, int, int)
+		 */
+		void insertAll(List<Map.Entry<K, V>> entries, int from, int to) {
 
-					int comparison = key.compareTo(key2);
+			this.entries += to - from;
 
-					// check comparator matches up with comparison
-					if (comparator.contentEquals("==") && comparison == 0) {
-						filtered.add(get(key2));
-					}
+			if ((to - from) * SPARSE_BATCH_RATIO < keys.size()) {
+				insertSparse(entries, from, to);
+				return;
+			}
 
-					// check comparator matches up with comparison
-					else if (comparator.contentEquals("<=")
-							&& comparison >= 0) {
-						filtered.add(get(key2));
-					}
+			List<K> mergedKeys = new ArrayList<K>(keys.size() + to - from);
+			List<Object> mergedValues = new ArrayList<Object>(
+					keys.size() + to - from);
+
+			int i = 0;
+			int j = from;
+			while (i < keys.size() || j < to) {
+
+				int comparison;
+				if (j == to)
+					comparison = -1;
+				else if (i == keys.size())
+					comparison = 1;
+				else
+					comparison = keys.get(i).compareTo(entries.get(j).getKey());
+
+				if (comparison < 0) {
+					mergedKeys.add(keys.get(i));
+					mergedValues.add(values.get(i));
+					i++;
+				}
+
+				// the batch entry joins an existing key's values
+				else if (comparison == 0) {
+					mergedKeys.add(keys.get(i));
+					mergedValues.add(
+							appendValue(values.get(i), entries.get(j).getValue()));
+					size++;
+					i++;
+					j++;
+				}
 
-					// check comparator matches up with comparison
-					else if (comparator.contentEquals(">=")
-							&& comparison <= 0) {
-						filtered.add(get(key2));
+				// a new key, unless the batch repeats the last one
+				else {
+					Map.Entry<K, V> entry = entries.get(j);
+					int last = mergedKeys.size() - 1;
+					if (last >= 0
+							&& mergedKeys.get(last).compareTo(entry.getKey()) == 0)
+						mergedValues.set(last,
+								appendValue(mergedValues.get(last), entry.getValue()));
+					else {
+						mergedKeys.add(entry.getKey());
+						mergedValues.add(entry.getValue());
 					}
+					size++;
+					j++;
+				}
+			}
+
+			keys = mergedKeys;
+			values = mergedValues;
+		}
+
+		/**
+		 * Places each entry of a small slice with a binary search that starts
+		 * after the previous one, shifting the lists in place instead of
+		 * rebuilding them
+		 */
+		private void insertSparse(List<Map.Entry<K, V>> entries, int from,
+				int to) {
+
+			int low = 0;
+			for (int j = from; j < to; j++) {
+				Map.Entry<K, V> entry = entries.get(j);
+				int index = Collections.binarySearch(
+						keys.subList(low, keys.size()), entry.getKey());
+
+				if (index >= 0) {
+					low += index;
+					values.set(low, appendValue(values.get(low), entry.getValue()));
+				} else {
+					low += -index - 1;
+					keys.add(low, entry.getKey());
+					values.add(low, entry.getValue());
 				}
-				// move on to the next node
-				node = node.next;
+				size++;
+			}
+		}
+
+		/**
+		 * (non-Javadoc) Searches for each probe after the key the previous one
+		 * stopped at. Stepping through the keys one by one instead would read
+		 * every key object of the leaf, which costs more than the searches
+		 * unless the probes outnumber the keys.
+		 * 
+		 * @see BPTree.Node#getAll(List, int, int, List)
+		 */
+		void getAll(List<Map.Entry<K, Integer>> probes, int from, int to,
+				List<V> results) {
+
+			int low = 0;
+			for (int j = from; j < to && low < keys.size(); j++) {
+				Map.Entry<K, Integer> probe = probes.get(j);
+				int index = Collections.binarySearch(
+						keys.subList(low, keys.size()), probe.getKey());
+
+				// a repeated probe finds the same key again
+				if (index >= 0) {
+					low += index;
+					results.set(probe.getValue(), getValue(low, 0));
+				} else
+					low += -index - 1;
 			}
-			return filtered;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * 
+		 * @see BPTree.Node#findLeaf(Comparable)
+		 */
+		LeafNode findLeaf(K key) {
+			return this;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * 
+		 * @see BPTree.Node#getFirstLeaf()
+		 */
+		LeafNode getFirstLeaf() {
+			return this;
 		}
 
 		/**
@@ -630,14 +2645,352 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 		 * @return value of specified key
 		 */
 		V getHelper(K key) {
-			int index = keys.indexOf(key);
+			int index = findIndex(key);
 
 			if (index >= 0)
-				return values.get(index);
+				return getValue(index, 0);
 
 			else
 				return null;
 		}
 
 	} // End of class LeafNode
+
+	/**
+	 * Adds a value to a leaf slot
+	 * 
+	 * @param slot  a single value or Postings
+	 * @param value to add after the slot's values
+	 * @return the slot holding both
+	 */
+	private static Object appendValue(Object slot, Object value) {
+		if (slot instanceof Postings) {
+			((Postings) slot).add(value);
+			return slot;
+		}
+		return new Postings(slot, value);
+	}
+
+	/**
+	 * The values of a key that was inserted more than once, in insertion order.
+	 * A leaf stores a key's only value directly and switches its slot to a
+	 * Postings list on the second, so unique keys cost no extra objects and
+	 * duplicates never repeat the key.
+	 * 
+	 * @author Wally Estenson
+	 */
+	private static final class Postings extends ArrayList<Object> {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Package constructor
+		 * 
+		 * @param first  value of the key
+		 * @param second value of the key
+		 */
+		Postings(Object first, Object second) {
+			super(4);
+			add(first);
+			add(second);
+		}
+	}
+
+	/**
+	 * Spliterator over a key range that splits along the tree, see
+	 * spliterator(K, boolean, K, boolean). Until it is split or read, the range
+	 * lies within the children from..to of node, or within node if it is a
+	 * leaf. Reading opens a LeafCursor at the start of the range, after which
+	 * it no longer splits.
+	 * 
+	 * @author Wally Estenson
+	 */
+	private class RangeSpliterator implements Spliterator<V> {
+
+		// range left to read; low moves up as prefixes are split off
+		K low;
+		boolean lowInclusive;
+		final K high;
+		final boolean highInclusive;
+
+		// subtree of the range, null once reading starts or if it is empty
+		Node node;
+		int from;
+		int to;
+
+		// set once reading starts, with the estimate at that point
+		LeafCursor cursor;
+		long estimate;
+
+		/**
+		 * Package constructor
+		 * 
+		 * @param node subtree that holds the range, or null for an empty
+		 *             spliterator
+		 */
+		RangeSpliterator(K low, boolean lowInclusive, K high,
+				boolean highInclusive, Node node) {
+			this.low = low;
+			this.lowInclusive = lowInclusive;
+			this.high = high;
+			this.highInclusive = highInclusive;
+			this.node = node;
+			narrow();
+		}
+
+		/**
+		 * Narrows from..to to the children of node that hold keys in range,
+		 * and drops the node if none do
+		 */
+		void narrow() {
+			if (!(node instanceof BPTree.InternalNode))
+				return;
+
+			InternalNode internal = (InternalNode) node;
+			from = low == null ? 0 : internal.getChildIndex(low);
+			to = internal.children.size();
+
+			// the child right of a separator equal to an exclusive high only
+			// holds keys out of range
+			if (high != null) {
+				int index = internal.findIndex(high);
+				if (index < 0)
+					to = -index;
+				else
+					to = highInclusive ? index + 2 : index + 1;
+			}
+
+			if (to <= from)
+				node = null;
+		}
+
+		/**
+		 * (non-Javadoc) Splits off the first half of the children of the
+		 * highest node that the range spans more than one child of
+		 * 
+		 * @see java.util.Spliterator#trySplit()
+		 */
+		@Override
+		public Spliterator<V> trySplit() {
+			if (node == null)
+				return null;
+
+			// move down while the range lies within a single child
+			while (node instanceof BPTree.InternalNode && to - from == 1) {
+				InternalNode internal = (InternalNode) node;
+				node = internal.children.get(from);
+				narrow();
+			}
+
+			// a single leaf is read in one go
+			if (!(node instanceof BPTree.InternalNode))
+				return null;
+
+			InternalNode internal = (InternalNode) node;
+			int middle = (from + to) >>> 1;
+			K separator = internal.keys.get(middle - 1);
+
+			RangeSpliterator prefix = new RangeSpliterator(low, lowInclusive,
+					separator, false, internal);
+
+			// keys from the separator on are left here
+			low = separator;
+			lowInclusive = true;
+			from = middle;
+			return prefix;
+		}
+
+		/**
+		 * Opens the cursor over the range on first use
+		 * 
+		 * @return cursor
+		 */
+		LeafCursor cursor() {
+			if (cursor == null) {
+				estimate = estimateSize();
+
+				if (node == null)
+					cursor = new LeafCursor(null, 0, null, false);
+				else {
+					Node start = node instanceof BPTree.InternalNode
+							? ((InternalNode) node).children.get(from)
+							: node;
+					cursor = openCursor(start, low, lowInclusive, high,
+							highInclusive);
+				}
+				node = null;
+			}
+			return cursor;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super V> action) {
+			return cursor().tryAdvance(action);
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super V> action) {
+			LeafCursor cursor = cursor();
+			while (cursor.advance())
+				action.accept(cursor.value);
+		}
+
+		/**
+		 * (non-Javadoc) Entries below the children in range, from their
+		 * subtree counts; only the first and last child may hold entries out
+		 * of range
+		 * 
+		 * @see java.util.Spliterator#estimateSize()
+		 */
+		@Override
+		public long estimateSize() {
+			if (cursor != null)
+				return cursor.leaf == null ? 0 : estimate;
+			if (node == null)
+				return 0;
+			if (!(node instanceof BPTree.InternalNode))
+				return node.entries;
+
+			List<Node> children = ((InternalNode) node).children;
+			long entries = 0;
+			for (int i = from; i < to; i++)
+				entries += children.get(i).entries;
+			return entries;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED;
+		}
+	} // End of class RangeSpliterator
+
+	/**
+	 * Cursor that walks the leaf chain from a starting position until it passes
+	 * an optional upper bound. It doubles as the spliterator behind iterator;
+	 * it never splits, since the leaf chain can only be walked in order.
+	 * 
+	 * @author Wally Estenson
+	 */
+	private class LeafCursor implements RangeCursor<K, V>, Spliterator<V> {
+
+		// position of the next entry, leaf is null once the cursor is done;
+		// run is the position among the values of the key at index
+		LeafNode leaf;
+		int index;
+		int run;
+
+		// entries after high (or equal to it, if exclusive) end the range;
+		// null means the range runs to the last leaf
+		final K high;
+		final boolean highInclusive;
+
+		// entries left before the limit ends the range, see cursor(..., limit)
+		long remaining;
+
+		// leaves read so far, for the range scan metrics
+		int leaves;
+
+		// current entry
+		boolean positioned;
+		K key;
+		V value;
+
+		/**
+		 * Package constructor
+		 * 
+		 * @param leaf          leaf of the first candidate entry, null for an
+		 *                      empty cursor
+		 * @param index         index of the first candidate entry in leaf
+		 * @param high          upper bound, or null for none
+		 * @param highInclusive whether an entry equal to high is in range
+		 */
+		LeafCursor(LeafNode leaf, int index, K high, boolean highInclusive) {
+			this.leaf = leaf;
+			this.index = index;
+			this.high = high;
+			this.highInclusive = highInclusive;
+			this.remaining = Long.MAX_VALUE;
+			this.leaves = leaf == null ? 0 : 1;
+		}
+
+		@Override
+		public boolean advance() {
+			positioned = false;
+
+			if (remaining <= 0)
+				leaf = null;
+
+			// step over exhausted leaves
+			while (leaf != null && index >= leaf.getSize()) {
+				leaf = leaf.next;
+				index = 0;
+				if (leaf != null)
+					leaves++;
+			}
+
+			if (leaf == null)
+				return false;
+
+			K next = leaf.keys.get(index);
+
+			// keys are in order, so the first one past high ends the range
+			if (high != null && run == 0) {
+				int comparison = next.compareTo(high);
+				if (comparison > 0 || (comparison == 0 && !highInclusive)) {
+					leaf = null;
+					return false;
+				}
+			}
+
+			key = next;
+			value = leaf.getValue(index, run);
+
+			// move to the key's next value, or on to the next key
+			if (++run == leaf.getValueCount(index)) {
+				run = 0;
+				index++;
+			}
+			remaining--;
+			positioned = true;
+			return true;
+		}
+
+		@Override
+		public K getKey() {
+			if (!positioned)
+				throw new IllegalStateException();
+			return key;
+		}
+
+		@Override
+		public V getValue() {
+			if (!positioned)
+				throw new IllegalStateException();
+			return value;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super V> action) {
+			if (!advance())
+				return false;
+
+			action.accept(value);
+			return true;
+		}
+
+		@Override
+		public Spliterator<V> trySplit() {
+			return null;
+		}
+
+		@Override
+		public long estimateSize() {
+			return leaf == null ? 0 : Long.MAX_VALUE;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED;
+		}
+	} // End of class LeafCursor
 } // End of class BPTree
@@ -1,8 +1,16 @@
 import static org.junit.Assert.fail;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.DoubleSummaryStatistics;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
 
 import org.junit.Assert;
 import org.junit.jupiter.api.AfterEach;
@@ -43,6 +51,17 @@ public class BPTree_Tests {
 		return new BPTree<>(3);
 	}
 
+	/**
+	 * Lists the values of a key-to-values map in the order rangeSearch
+	 * returns them: by key, then by insertion.
+	 */
+	private static List<Double> flatten(Map<Double, List<Double>> expected) {
+		List<Double> values = new ArrayList<>();
+		for (List<Double> keyValues : expected.values())
+			values.addAll(keyValues);
+		return values;
+	}
+
 
 
 	/**
@@ -231,4 +250,992 @@ public class BPTree_Tests {
 				fail("Unexpected exception AVL 000: " + e.getMessage());
 			}
 	}
+
+	/**
+	 * Insert shuffled keys and check that every comparator returns exactly the
+	 * values of the matching keys, in key order.
+	 */
+	@Test
+	void testBALST_006_range_search_matches_sorted_map() {
+
+		try {
+
+			Random rnd = new Random(6);
+			TreeMap<Double, Double> expected = new TreeMap<>();
+
+			for (int i = 0; i < 500; i++) {
+				Double key = (double) rnd.nextInt(1000);
+				if (expected.containsKey(key))
+					continue;
+				bptree.insert(key, key * 2);
+				expected.put(key, key * 2);
+			}
+
+			for (double key = -1.0; key <= 1001.0; key += 50.0) {
+				Assert.assertEquals(
+						new ArrayList<>(expected.headMap(key, true).values()),
+						bptree.rangeSearch(key, "<="));
+				Assert.assertEquals(
+						new ArrayList<>(expected.tailMap(key, true).values()),
+						bptree.rangeSearch(key, ">="));
+			}
+
+			for (Double key : expected.keySet())
+				Assert.assertEquals(Arrays.asList(key * 2),
+						bptree.rangeSearch(key, "=="));
+
+			Assert.assertTrue(bptree.rangeSearch(0.5, "==").isEmpty());
+			Assert.assertTrue(bptree.rangeSearch(null, ">=").isEmpty());
+			Assert.assertTrue(bptree.rangeSearch(1.0, null).isEmpty());
+			Assert.assertTrue(bptree.rangeSearch(1.0, "!=").isEmpty());
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 006: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Insert shuffled keys into trees small and large enough to use both node
+	 * search loops, then look up present and missing keys.
+	 */
+	@Test
+	void testBALST_007_get_with_small_and_large_fanout() {
+
+		try {
+
+			for (int branchingFactor : new int[] { 3, 4, 64, 65, 256 }) {
+				BPTree<Double, Double> tree = new BPTree<>(branchingFactor);
+				List<Double> keys = new ArrayList<>();
+				for (int i = 0; i < 2000; i++)
+					keys.add((double) i);
+				Collections.shuffle(keys, new Random(branchingFactor));
+
+				for (Double key : keys)
+					tree.insert(key, -key);
+
+				Assert.assertEquals(2000, tree.size());
+				for (Double key : keys) {
+					Assert.assertEquals(Double.valueOf(-key), tree.get(key));
+					Assert.assertNull(tree.get(key + 0.5));
+				}
+				Assert.assertNull(tree.get(-1.0));
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 007: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Bulk load sorted entries at several branching and fill factors and check
+	 * lookups, range searches and later inserts against a sorted map.
+	 */
+	@Test
+	void testBALST_008_bulk_load_sorted() {
+
+		try {
+
+			for (int branchingFactor : new int[] { 3, 4, 5, 16, 100 }) {
+				for (double fillFactor : new double[] { 0.1, 0.5, 0.7, 1.0 }) {
+					for (int n : new int[] { 0, 1, 2, 7, 100, 1234 }) {
+
+						TreeMap<Double, Double> expected = new TreeMap<>();
+						for (int i = 0; i < n; i++)
+							expected.put((double) i, (double) -i);
+
+						BPTree<Double, Double> tree = new BPTree<>(
+								branchingFactor, expected.entrySet().iterator(),
+								fillFactor);
+
+						Assert.assertEquals(n, tree.size());
+						for (Double key : expected.keySet())
+							Assert.assertEquals(expected.get(key), tree.get(key));
+						Assert.assertEquals(
+								new ArrayList<>(expected.values()),
+								tree.rangeSearch(-1.0, ">="));
+						Assert.assertEquals(
+								new ArrayList<>(expected.headMap(n / 2.0, true)
+										.values()),
+								tree.rangeSearch(n / 2.0, "<="));
+
+						// the loaded tree keeps working with insert
+						for (int i = 0; i < n; i++) {
+							tree.insert(i + 0.5, 1.0);
+							expected.put(i + 0.5, 1.0);
+						}
+						Assert.assertEquals(
+								new ArrayList<>(expected.values()),
+								tree.rangeSearch(-1.0, ">="));
+						for (Double key : expected.keySet())
+							Assert.assertEquals(expected.get(key), tree.get(key));
+					}
+				}
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 008: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Bulk load shuffled entries, with repeated keys, through the external
+	 * sort with runs small enough to spill, and reject unsorted input.
+	 */
+	@Test
+	void testBALST_009_bulk_load_external_sort() {
+
+		try {
+
+			Random rnd = new Random(9);
+			List<Map.Entry<Double, Double>> entries = new ArrayList<>();
+			TreeMap<Double, List<Double>> expected = new TreeMap<>();
+			for (int i = 0; i < 5000; i++) {
+				Double key = (double) rnd.nextInt(3000);
+				entries.add(new AbstractMap.SimpleEntry<>(key, (double) i));
+				expected.computeIfAbsent(key, k -> new ArrayList<>())
+						.add((double) i);
+			}
+
+			BPTree<Double, Double> tree = new BPTree<>(8,
+					ExternalSort.sort(entries.iterator(), 700));
+
+			Assert.assertEquals(entries.size(), tree.size());
+			Assert.assertEquals(flatten(expected), tree.rangeSearch(0.0, ">="));
+
+			Collections.shuffle(entries, rnd);
+			try {
+				new BPTree<>(8, entries.iterator());
+				fail("unsorted bulk load input was accepted");
+			} catch (IllegalArgumentException expectedException) {
+				// expected
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 009: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Insert random batches, some with repeated keys, into trees that start
+	 * empty or bulk loaded, mixed with single inserts, and compare against a
+	 * sorted map.
+	 */
+	@Test
+	void testBALST_010_insert_all_batches() {
+
+		try {
+
+			for (int branchingFactor : new int[] { 3, 4, 7, 64 }) {
+				Random rnd = new Random(branchingFactor);
+				BPTree<Double, Double> tree = new BPTree<>(branchingFactor);
+				TreeMap<Double, List<Double>> expected = new TreeMap<>();
+				int count = 0;
+
+				for (int batch = 0; batch < 30; batch++) {
+					List<Map.Entry<Double, Double>> entries = new ArrayList<>();
+					int batchSize = rnd.nextInt(batch % 10 == 0 ? 3000 : 60);
+
+					for (int i = 0; i < batchSize; i++) {
+						Double key = (double) rnd.nextInt(5000);
+						Double value = rnd.nextDouble();
+						entries.add(new AbstractMap.SimpleEntry<>(key, value));
+						expected.computeIfAbsent(key, k -> new ArrayList<>())
+								.add(value);
+					}
+					tree.insertAll(entries);
+
+					Double key = (double) rnd.nextInt(5000);
+					tree.insert(key, -1.0);
+					expected.computeIfAbsent(key, k -> new ArrayList<>()).add(-1.0);
+
+					count += batchSize + 1;
+					Assert.assertEquals(count, tree.size());
+				}
+
+				Assert.assertEquals(flatten(expected), tree.rangeSearch(-1.0, ">="));
+				for (Double key : expected.keySet())
+					Assert.assertEquals(expected.get(key).get(0), tree.get(key));
+			}
+
+			try {
+				bptree.insertAll(Arrays.asList(
+						new AbstractMap.SimpleEntry<Double, Double>(1.0, 1.0),
+						new AbstractMap.SimpleEntry<Double, Double>(null, 1.0)));
+				fail("null key was accepted");
+			} catch (IllegalArgumentException expectedException) {
+				Assert.assertEquals(0, bptree.size());
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 010: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Walk cursors, iterators and streams over the same ranges as rangeSearch,
+	 * including offsets, limits and early termination.
+	 */
+	@Test
+	void testBALST_011_range_cursor_and_stream() {
+
+		try {
+
+			for (int i = 0; i < 200; i++)
+				bptree.insert((double) i, (double) i * 10);
+
+			for (String comparator : new String[] { "<=", "==", ">=" }) {
+				for (double key : new double[] { -5.0, 0.0, 50.0, 50.5, 199.0, 300.0 }) {
+
+					List<Double> expected = bptree.rangeSearch(key, comparator);
+
+					List<Double> keys = new ArrayList<>();
+					List<Double> values = new ArrayList<>();
+					RangeCursor<Double, Double> cursor = bptree.cursor(key,
+							comparator);
+					while (cursor.advance()) {
+						keys.add(cursor.getKey());
+						values.add(cursor.getValue());
+					}
+					Assert.assertEquals(expected, values);
+					for (int i = 0; i < keys.size(); i++)
+						Assert.assertEquals(keys.get(i) * 10, values.get(i), 0.0);
+					Assert.assertFalse(cursor.advance());
+
+					List<Double> iterated = new ArrayList<>();
+					bptree.iterator(key, comparator).forEachRemaining(iterated::add);
+					Assert.assertEquals(expected, iterated);
+
+					Assert.assertEquals(expected, bptree.stream(key, comparator)
+							.collect(Collectors.toList()));
+
+					// offset and limit select a window of the range
+					List<Double> window = new ArrayList<>();
+					cursor = bptree.cursor(key, comparator, 3, 7);
+					while (cursor.advance())
+						window.add(cursor.getValue());
+					Assert.assertEquals(expected.subList(
+							Math.min(3, expected.size()),
+							Math.min(10, expected.size())), window);
+				}
+			}
+
+			Assert.assertEquals(Double.valueOf(500.0),
+					bptree.stream(50.0, ">=").findFirst().get());
+			Assert.assertFalse(bptree.cursor(null, ">=").advance());
+			Assert.assertFalse(bptree.cursor(1.0, "!=").advance());
+
+			try {
+				bptree.cursor(1.0, ">=").getValue();
+				fail("getValue before advance was accepted");
+			} catch (IllegalStateException expectedException) {
+				// expected
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 011: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Compare two-sided ranges with every combination of inclusive bounds, and
+	 * the strict comparators, against a sorted map.
+	 */
+	@Test
+	void testBALST_012_bounded_range_search() {
+
+		try {
+
+			Random rnd = new Random(12);
+			TreeMap<Double, Double> expected = new TreeMap<>();
+			for (int i = 0; i < 400; i++) {
+				Double key = (double) rnd.nextInt(600);
+				if (expected.containsKey(key))
+					continue;
+				bptree.insert(key, -key);
+				expected.put(key, -key);
+			}
+
+			for (int i = 0; i < 200; i++) {
+				double low = rnd.nextInt(700) - 50;
+				double high = low + rnd.nextInt(100) - 10;
+
+				for (boolean lowInclusive : new boolean[] { true, false }) {
+					for (boolean highInclusive : new boolean[] { true, false }) {
+						List<Double> values = new ArrayList<>();
+						if (low <= high && (low != high || lowInclusive && highInclusive))
+							values.addAll(expected.subMap(low, lowInclusive, high,
+									highInclusive).values());
+
+						Assert.assertEquals(values, bptree.rangeSearch(low,
+								lowInclusive, high, highInclusive));
+					}
+				}
+
+				Assert.assertEquals(
+						new ArrayList<>(expected.headMap(low, false).values()),
+						bptree.rangeSearch(low, "<"));
+				Assert.assertEquals(
+						new ArrayList<>(expected.tailMap(low, false).values()),
+						bptree.rangeSearch(low, ">"));
+				Assert.assertEquals(
+						new ArrayList<>(expected.headMap(high, true).values()),
+						bptree.rangeSearch(null, false, high, true));
+			}
+
+			Assert.assertEquals(new ArrayList<>(expected.values()),
+					bptree.rangeSearch(null, false, null, false));
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 012: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Mix random inserts and removes, compare against a sorted map, then
+	 * remove everything and reuse the empty tree.
+	 */
+	@Test
+	void testBALST_013_remove_with_rebalancing() {
+
+		try {
+
+			for (int branchingFactor : new int[] { 3, 4, 5, 8, 64 }) {
+				Random rnd = new Random(branchingFactor);
+				BPTree<Double, Double> tree = new BPTree<>(branchingFactor);
+				TreeMap<Double, Double> expected = new TreeMap<>();
+
+				for (int step = 0; step < 20000; step++) {
+					Double key = (double) rnd.nextInt(1000);
+					if (rnd.nextInt(10) < (step < 10000 ? 6 : 3)) {
+						if (expected.containsKey(key))
+							continue;
+						tree.insert(key, (double) step);
+						expected.put(key, (double) step);
+					} else
+						Assert.assertEquals(expected.remove(key), tree.remove(key));
+					Assert.assertEquals(expected.size(), tree.size());
+				}
+
+				Assert.assertEquals(new ArrayList<>(expected.values()),
+						tree.rangeSearch(-1.0, ">="));
+				for (Double key : expected.keySet())
+					Assert.assertEquals(expected.get(key), tree.get(key));
+
+				// remove(key, value) only matches the current value
+				Double key = expected.firstKey();
+				Assert.assertFalse(tree.remove(key, expected.get(key) + 1));
+				Assert.assertTrue(tree.remove(key, expected.remove(key)));
+
+				for (Double remaining : expected.keySet())
+					tree.remove(remaining);
+				Assert.assertEquals(0, tree.size());
+				Assert.assertTrue(tree.rangeSearch(-1.0, ">=").isEmpty());
+				Assert.assertNull(tree.remove(1.0));
+
+				tree.insert(1.0, 1.0);
+				Assert.assertEquals(Double.valueOf(1.0), tree.get(1.0));
+			}
+
+			Assert.assertNull(bptree.remove(null));
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 013: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Insert many values per key and check that get, rangeSearch, size and
+	 * the remove variants see every one of them, and that a heavily repeated
+	 * key does not grow the tree.
+	 */
+	@Test
+	void testBALST_014_duplicate_keys() {
+
+		try {
+
+			for (int i = 0; i < 1000; i++)
+				bptree.insert(5.0, (double) i);
+
+			// one key with a thousand values is still a single leaf
+			Assert.assertEquals(1, bptree.toString().trim().split("\n").length);
+			Assert.assertEquals(1000, bptree.size());
+			Assert.assertEquals(Double.valueOf(0.0), bptree.get(5.0));
+			Assert.assertEquals(1000, bptree.rangeSearch(5.0, "==").size());
+
+			Random rnd = new Random(14);
+			TreeMap<Double, List<Double>> expected = new TreeMap<>();
+			expected.put(5.0, new ArrayList<>(bptree.rangeSearch(5.0, "==")));
+			for (int i = 0; i < 3000; i++) {
+				Double key = (double) rnd.nextInt(50);
+				bptree.insert(key, (double) i);
+				expected.computeIfAbsent(key, k -> new ArrayList<>())
+						.add((double) i);
+			}
+
+			Assert.assertEquals(4000, bptree.size());
+			Assert.assertEquals(flatten(expected), bptree.rangeSearch(-1.0, ">="));
+			Assert.assertEquals(flatten(expected.headMap(20.0, true)),
+					bptree.rangeSearch(20.0, "<="));
+			for (Double key : expected.keySet()) {
+				Assert.assertEquals(expected.get(key), bptree.rangeSearch(key, "=="));
+				Assert.assertEquals(expected.get(key).get(0), bptree.get(key));
+			}
+
+			// remove takes the first value, remove(key, value) a given one and
+			// removeAll the rest
+			Double key = expected.firstKey();
+			List<Double> keyValues = expected.get(key);
+			Assert.assertEquals(keyValues.remove(0), bptree.remove(key));
+			Double last = keyValues.remove(keyValues.size() - 1);
+			Assert.assertTrue(bptree.remove(key, last));
+			Assert.assertFalse(bptree.remove(key, last));
+			Assert.assertEquals(keyValues, bptree.rangeSearch(key, "=="));
+			Assert.assertEquals(keyValues, bptree.removeAll(key));
+			expected.remove(key);
+			Assert.assertNull(bptree.get(key));
+			Assert.assertTrue(bptree.removeAll(key).isEmpty());
+
+			int count = 0;
+			for (List<Double> values : expected.values())
+				count += values.size();
+			Assert.assertEquals(count, bptree.size());
+
+			for (Double remaining : new ArrayList<>(expected.keySet()))
+				Assert.assertEquals(expected.remove(remaining),
+						bptree.removeAll(remaining));
+			Assert.assertEquals(0, bptree.size());
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 014: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Check the levels, node counts and occupancy reported by getStatistics
+	 * against a bulk loaded tree whose shape is known
+	 */
+	@Test
+	void testBALST_015_statistics() {
+
+		try {
+
+			TreeStatistics empty = new BPTree<Integer, Integer>(3).getStatistics();
+			Assert.assertEquals(1, empty.getHeight());
+			Assert.assertEquals(0, empty.getLeafOccupancy(), 0);
+
+			// 1000 entries in leaves of 9, 112 leaves spread evenly over 12
+			// parents, 12 parents over 2 more, and the root
+			List<Map.Entry<Integer, Integer>> entries = new ArrayList<>();
+			for (int i = 0; i < 1000; i++)
+				entries.add(new AbstractMap.SimpleEntry<>(i, i));
+			BPTree<Integer, Integer> tree = new BPTree<>(10, entries.iterator());
+
+			TreeStatistics statistics = tree.getStatistics();
+			Assert.assertEquals(4, statistics.getHeight());
+			Assert.assertEquals(1000, statistics.getSize());
+			Assert.assertArrayEquals(new long[] { 1, 2, 12, 112 },
+					statistics.getNodesPerLevel());
+			Assert.assertArrayEquals(new long[] { 1, 10, 100, 1000 },
+					statistics.getKeysPerLevel());
+			Assert.assertEquals(127, statistics.getNodeCount());
+			Assert.assertEquals(112, statistics.getLeafCount());
+			Assert.assertEquals(1000.0 / (112 * 9),
+					statistics.getLeafOccupancy(), 1e-9);
+			Assert.assertEquals(1111.0 / (127 * 9),
+					statistics.getAverageOccupancy(), 1e-9);
+			Assert.assertEquals(5, statistics.toString().split("\n").length);
+
+			// random inserts leave leaves between half and completely full
+			Random rnd = new Random(15);
+			for (int i = 0; i < 20000; i++)
+				bptree.insert(rnd.nextDouble(), (double) i);
+			statistics = bptree.getStatistics();
+			Assert.assertTrue(statistics.getLeafOccupancy() >= 0.5);
+			Assert.assertTrue(statistics.getLeafOccupancy() <= 1.0);
+			Assert.assertTrue(statistics.getAverageOccupancy() > 0);
+			Assert.assertEquals(statistics.getLeafCount(),
+					bptree.toString().trim().split("\n")[statistics.getHeight() - 1]
+							.split("\\[").length - 1);
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 015: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Split range spliterators down to single leaves and check that the parts
+	 * are disjoint, in key order and together cover the range, and that
+	 * parallel streams and the aggregates agree with rangeSearch
+	 */
+	@Test
+	void testBALST_016_parallel_range_scan() {
+
+		try {
+
+			Random rnd = new Random(16);
+			for (int i = 0; i < 20000; i++)
+				bptree.insert((double) rnd.nextInt(5000), (double) i);
+
+			double[][] ranges = { { 0, 5000 }, { 1000, 1001 }, { 1234.5, 4321 },
+					{ 2500, 2500 }, { 3000, 1000 }, { -10, 10 } };
+			for (double[] range : ranges) {
+				for (boolean inclusive : new boolean[] { true, false }) {
+					List<Double> expected = bptree.rangeSearch(range[0],
+							inclusive, range[1], inclusive);
+
+					// split every part as far as it goes, left to right
+					List<Spliterator<Double>> parts = new ArrayList<>();
+					parts.add(bptree.spliterator(range[0], inclusive, range[1],
+							inclusive));
+					for (int i = 0; i < parts.size(); i++) {
+						Spliterator<Double> prefix = parts.get(i).trySplit();
+						if (prefix != null) {
+							parts.add(i, prefix);
+							i--;
+						}
+					}
+					if (expected.size() > 1000)
+						Assert.assertTrue(parts.size() > 100);
+
+					List<Double> scanned = new ArrayList<>();
+					for (Spliterator<Double> part : parts) {
+						Assert.assertNull(part.trySplit());
+						part.forEachRemaining(scanned::add);
+						Assert.assertEquals(0, part.estimateSize());
+					}
+					Assert.assertEquals(expected, scanned);
+
+					Assert.assertEquals(expected,
+							bptree.parallelStream(range[0], inclusive, range[1],
+									inclusive).collect(Collectors.toList()));
+					Assert.assertEquals(expected.size(), bptree.count(range[0],
+							inclusive, range[1], inclusive));
+
+					DoubleSummaryStatistics statistics = bptree.summarize(range[0],
+							inclusive, range[1], inclusive, value -> value);
+					Assert.assertEquals(expected.size(), statistics.getCount());
+					Assert.assertEquals(
+							expected.stream().mapToDouble(value -> value).sum(),
+							statistics.getSum(), 1e-6);
+					if (!expected.isEmpty())
+						Assert.assertEquals(Collections.max(expected),
+								statistics.getMax(), 0);
+				}
+			}
+
+			for (String comparator : new String[] { "<", "<=", "==", ">=", ">" })
+				Assert.assertEquals(bptree.rangeSearch(2000.0, comparator),
+						bptree.parallelStream(2000.0, comparator)
+								.collect(Collectors.toList()));
+			Assert.assertEquals(0, bptree.parallelStream(null, ">=").count());
+			Assert.assertEquals(0, bptree.parallelStream(1.0, "!=").count());
+
+			// the whole tree splits first at the root
+			Spliterator<Double> all = bptree.spliterator(null, true, null, true);
+			long estimate = all.estimateSize();
+			Assert.assertEquals(bptree.size(), estimate);
+			Spliterator<Double> prefix = all.trySplit();
+			Assert.assertEquals(estimate,
+					prefix.estimateSize() + all.estimateSize(), 1);
+
+			// on a skewed tree the halves are sized by their subtree counts,
+			// which are exact when the range is whole subtrees
+			BPTree<Integer, Integer> skewed = new BPTree<>(4);
+			for (int i = 0; i < 10000; i++)
+				skewed.insert(i, i);
+			for (int i = 5000; i < 10000; i++)
+				if (i % 50 != 0)
+					skewed.remove(i);
+			Spliterator<Integer> rest = skewed.spliterator(null, true, null,
+					true);
+			Spliterator<Integer> first = rest.trySplit();
+			long firstEstimate = first.estimateSize();
+			long restEstimate = rest.estimateSize();
+			long[] counted = new long[2];
+			first.forEachRemaining(value -> counted[0]++);
+			rest.forEachRemaining(value -> counted[1]++);
+			Assert.assertEquals(counted[0], firstEstimate);
+			Assert.assertEquals(counted[1], restEstimate);
+			Assert.assertEquals(skewed.size(), counted[0] + counted[1]);
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 016: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Check rank, select, count and offset cursors against a sorted list of
+	 * the entries while inserts, batches and removes change the subtree
+	 * counts, and on a bulk loaded tree
+	 */
+	@Test
+	void testBALST_017_order_statistics() {
+
+		try {
+
+			Random rnd = new Random(17);
+			TreeMap<Double, List<Double>> expected = new TreeMap<>();
+			BPTree<Double, Double> wide = new BPTree<>(16);
+
+			for (int round = 0; round < 6; round++) {
+				for (BPTree<Double, Double> tree : Arrays.asList(bptree, wide)) {
+					Random ops = new Random(round);
+					for (int i = 0; i < 1500; i++) {
+						Double key = (double) ops.nextInt(700);
+						if (ops.nextInt(3) > 0)
+							tree.insert(key, (double) i);
+						else if (ops.nextBoolean())
+							tree.remove(key);
+						else
+							tree.removeAll(key);
+					}
+					List<Map.Entry<Double, Double>> batch = new ArrayList<>();
+					for (int i = 0; i < 300; i++)
+						batch.add(new AbstractMap.SimpleEntry<>(
+								(double) ops.nextInt(700), -1.0 - i));
+					tree.insertAll(batch);
+				}
+
+				// replay the same operations on the model
+				Random ops = new Random(round);
+				for (int i = 0; i < 1500; i++) {
+					Double key = (double) ops.nextInt(700);
+					int op = ops.nextInt(3);
+					if (op > 0)
+						expected.computeIfAbsent(key, k -> new ArrayList<>())
+								.add((double) i);
+					else if (ops.nextBoolean()) {
+						if (expected.containsKey(key)) {
+							expected.get(key).remove(0);
+							if (expected.get(key).isEmpty())
+								expected.remove(key);
+						}
+					} else
+						expected.remove(key);
+				}
+				List<Map.Entry<Double, Double>> batch = new ArrayList<>();
+				for (int i = 0; i < 300; i++)
+					batch.add(new AbstractMap.SimpleEntry<>(
+							(double) ops.nextInt(700), -1.0 - i));
+				batch.sort(Map.Entry.comparingByKey());
+				for (Map.Entry<Double, Double> entry : batch)
+					expected.computeIfAbsent(entry.getKey(), k -> new ArrayList<>())
+							.add(entry.getValue());
+
+				List<Double> all = flatten(expected);
+				for (BPTree<Double, Double> tree : Arrays.asList(bptree, wide)) {
+					Assert.assertEquals(all.size(), tree.size());
+					Assert.assertEquals(all.size(), tree.count(null, true, null, true));
+
+					for (int i = 0; i < all.size(); i += 1 + rnd.nextInt(20))
+						Assert.assertEquals(all.get(i), tree.select(i));
+
+					for (int i = 0; i < 100; i++) {
+						double low = rnd.nextInt(720) - 10 + (i % 2) * 0.5;
+						double high = low + rnd.nextInt(200);
+						int below = flatten(expected.headMap(low, false)).size();
+						Assert.assertEquals(below, tree.rank(low));
+
+						boolean inclusive = rnd.nextBoolean();
+						List<Double> range = flatten(
+								expected.subMap(low, inclusive, high, inclusive));
+						Assert.assertEquals(range.size(),
+								tree.count(low, inclusive, high, inclusive));
+
+						// a page from the middle of the range
+						int offset = rnd.nextInt(range.size() + 5);
+						int limit = rnd.nextInt(30);
+						RangeCursor<Double, Double> cursor = tree.cursor(low,
+								inclusive, high, inclusive, offset, limit);
+						List<Double> page = new ArrayList<>();
+						while (cursor.advance())
+							page.add(cursor.getValue());
+						Assert.assertEquals(range.subList(
+								Math.min(offset, range.size()),
+								Math.min(offset + limit, range.size())), page);
+					}
+				}
+			}
+
+			Assert.assertEquals(0, bptree.count(5.0, true, 1.0, true));
+			try {
+				bptree.select(bptree.size());
+				fail("selected past the end");
+			} catch (IndexOutOfBoundsException expectedException) {
+			}
+
+			// subtree counts of a bulk loaded tree, duplicates included
+			List<Map.Entry<Integer, Integer>> sorted = new ArrayList<>();
+			for (int i = 0; i < 5000; i++)
+				sorted.add(new AbstractMap.SimpleEntry<>(i / 3, i));
+			BPTree<Integer, Integer> loaded = new BPTree<>(7, sorted.iterator(),
+					0.7);
+			Assert.assertEquals(1500, loaded.rank(500));
+			Assert.assertEquals(Integer.valueOf(4321), loaded.select(4321));
+			Assert.assertEquals(30, loaded.count(100, true, 109, true));
+			Assert.assertEquals(Integer.valueOf(4999),
+					loaded.select(loaded.size() - 1));
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 017: " + e.getMessage());
+		}
+	}
+
+
+	/**
+	 * Leaves sized apart from internal nodes split, merge and bulk load by
+	 * their own capacity, and NodeSizing works the sizes out from bytes
+	 */
+	@Test
+	void testBALST_018_leaf_capacity() {
+
+		try {
+
+			NodeSizing page = NodeSizing.forNodeBytes(8, 8, NodeSizing.PAGE_BYTES);
+			Assert.assertEquals(256, page.getBranchingFactor());
+			Assert.assertEquals(256, page.getLeafCapacity());
+			NodeSizing mixed = NodeSizing.forNodeBytes(8, 8, 100, 4096);
+			Assert.assertEquals(8, mixed.getBranchingFactor());
+			Assert.assertEquals(256, mixed.getLeafCapacity());
+			NodeSizing tiny = NodeSizing.forNodeBytes(100, 100, 1);
+			Assert.assertEquals(3, tiny.getBranchingFactor());
+			Assert.assertEquals(2, tiny.getLeafCapacity());
+			try {
+				new BPTree<Integer, Integer>(4, 1);
+				fail("accepted a leaf capacity of 1");
+			} catch (IllegalArgumentException expected) {
+			}
+
+			for (NodeSizing sizing : Arrays.asList(new NodeSizing(3, 50),
+					new NodeSizing(50, 2), new NodeSizing(4, 9), mixed)) {
+				BPTree<Integer, Integer> tree = new BPTree<>(sizing);
+				Assert.assertEquals(sizing.getBranchingFactor(),
+						tree.getBranchingFactor());
+				Assert.assertEquals(sizing.getLeafCapacity(),
+						tree.getLeafCapacity());
+
+				TreeMap<Integer, List<Integer>> expected = new TreeMap<>();
+				Random ops = new Random(sizing.getLeafCapacity());
+				for (int i = 0; i < 6000; i++) {
+					Integer key = ops.nextInt(1500);
+					if (ops.nextInt(3) > 0) {
+						tree.insert(key, i);
+						expected.computeIfAbsent(key, k -> new ArrayList<>())
+								.add(i);
+					} else {
+						tree.removeAll(key);
+						expected.remove(key);
+					}
+				}
+				List<Map.Entry<Integer, Integer>> batch = new ArrayList<>();
+				for (int i = 0; i < 2000; i++)
+					batch.add(new AbstractMap.SimpleEntry<>(1500 + i / 2, i));
+				tree.insertAll(batch);
+				for (Map.Entry<Integer, Integer> entry : batch)
+					expected.computeIfAbsent(entry.getKey(), k -> new ArrayList<>())
+							.add(entry.getValue());
+
+				List<Integer> all = new ArrayList<>();
+				for (List<Integer> values : expected.values())
+					all.addAll(values);
+				Assert.assertEquals(all, tree.rangeSearch(0, ">="));
+				Assert.assertEquals(expected.get(expected.firstKey()).get(0),
+						tree.select(0));
+				Assert.assertEquals(all.size() - 2000, tree.rank(1500));
+
+				// no level holds more keys than its nodes have slots
+				TreeStatistics statistics = tree.getStatistics();
+				Assert.assertEquals(sizing.getLeafCapacity(),
+						statistics.getLeafCapacity());
+				for (int level = 0; level < statistics.getHeight(); level++)
+					Assert.assertTrue(statistics.getOccupancy(level) <= 1);
+			}
+
+			// bulk loads fill leaves to their own capacity
+			List<Map.Entry<Integer, Integer>> sorted = new ArrayList<>();
+			for (int i = 0; i < 4000; i++)
+				sorted.add(new AbstractMap.SimpleEntry<>(i, i));
+			BPTree<Integer, Integer> loaded = new BPTree<>(4, 40,
+					sorted.iterator(), 1.0);
+			TreeStatistics statistics = loaded.getStatistics();
+			Assert.assertEquals(100, statistics.getLeafCount());
+			Assert.assertEquals(1.0, statistics.getLeafOccupancy(), 0);
+			Assert.assertEquals(Integer.valueOf(1234), loaded.get(1234));
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 018: " + e.getMessage());
+		}
+	}
+
+
+	/**
+	 * getAll answers every key, in the order given, as get would, for sparse
+	 * and dense batches, repeated, absent and null keys, with and without a
+	 * cache
+	 */
+	@Test
+	void testBALST_019_get_all() {
+
+		try {
+
+			Random rnd = new Random(19);
+			BPTree<Integer, Integer> tree = new BPTree<>(5, 12);
+			for (int i = 0; i < 20000; i++)
+				tree.insert(rnd.nextInt(10000) * 2, i);
+
+			for (int batchSize : new int[] { 1, 7, 300, 5000, 40000 }) {
+				List<Integer> keys = new ArrayList<>();
+				for (int i = 0; i < batchSize; i++)
+					keys.add(i % 97 == 5 ? null : rnd.nextInt(20100) - 50);
+
+				List<Integer> expected = new ArrayList<>();
+				for (Integer key : keys)
+					expected.add(tree.get(key));
+				Assert.assertEquals(expected, tree.getAll(keys));
+				Assert.assertEquals(expected,
+						tree.getAll(keys.toArray(new Integer[0])));
+			}
+
+			// cached keys and missed keys land in their own places
+			LookupCache<Integer, Integer> cache = tree.enableCache(100);
+			List<Integer> keys = Arrays.asList(4, 3, 4, 10, 3, 19998, 20000);
+			tree.get(10);
+			List<Integer> expected = new ArrayList<>();
+			for (Integer key : keys)
+				expected.add(tree.get(key));
+			cache.clear();
+			cache.resetStatistics();
+			tree.get(10);
+			Assert.assertEquals(expected, tree.getAll(keys));
+			Assert.assertEquals(expected, tree.getAll(keys));
+			Assert.assertEquals(1 + 7, cache.getHits());
+			tree.disableCache();
+
+			Assert.assertTrue(tree.getAll(new ArrayList<Integer>()).isEmpty());
+			Assert.assertEquals(Arrays.asList((Integer) null),
+					new BPTree<Integer, Integer>(3).getAll(new Integer[] { 1 }));
+			try {
+				tree.getAll((List<Integer>) null);
+				fail("accepted null keys");
+			} catch (IllegalArgumentException expectedException) {
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 019: " + e.getMessage());
+		}
+	}
+
+
+	/**
+	 * floor, lower, ceiling, higher, first and last agree with a TreeMap, and
+	 * nearest with a brute force ranking, through inserts and removals
+	 */
+	@Test
+	void testBALST_020_navigation() {
+
+		try {
+
+			Assert.assertNull(bptree.first());
+			Assert.assertNull(bptree.floor(1.0));
+			Assert.assertTrue(bptree.nearest(1.0, 3).isEmpty());
+
+			Random rnd = new Random(20);
+			BPTree<Integer, Integer> tree = new BPTree<>(4, 5);
+			TreeMap<Integer, List<Integer>> expected = new TreeMap<>();
+			for (int i = 0; i < 6000; i++) {
+				int key = rnd.nextInt(3000) * 2;
+				if (rnd.nextInt(4) > 0) {
+					tree.insert(key, i);
+					expected.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+				} else {
+					tree.removeAll(key);
+					expected.remove(key);
+				}
+			}
+
+			Assert.assertEquals(expected.firstKey(), tree.first().getKey());
+			Assert.assertEquals(expected.lastEntry().getValue().get(0),
+					tree.last().getValue());
+
+			for (int probe = -5; probe < 6005; probe++) {
+				assertEntry(expected.floorEntry(probe), tree.floor(probe));
+				assertEntry(expected.lowerEntry(probe), tree.lower(probe));
+				assertEntry(expected.ceilingEntry(probe), tree.ceiling(probe));
+				assertEntry(expected.higherEntry(probe), tree.higher(probe));
+			}
+
+			// every value is a candidate; nearest first, smaller key on ties
+			List<Integer> keys = new ArrayList<>();
+			for (Map.Entry<Integer, List<Integer>> entry : expected.entrySet())
+				for (int i = 0; i < entry.getValue().size(); i++)
+					keys.add(entry.getKey());
+			for (int i = 0; i < 200; i++) {
+				int probe = rnd.nextInt(6200) - 100;
+				int n = rnd.nextInt(40);
+				List<Integer> ranked = new ArrayList<>(keys);
+				ranked.sort((a, b) -> Math.abs(a - probe) != Math.abs(b - probe)
+						? Integer.compare(Math.abs(a - probe), Math.abs(b - probe))
+						: Integer.compare(a, b));
+
+				List<Integer> nearest = new ArrayList<>();
+				for (Map.Entry<Integer, Integer> entry : tree.nearest(probe, n)) {
+					nearest.add(entry.getKey());
+					Assert.assertTrue(
+							expected.get(entry.getKey()).contains(entry.getValue()));
+				}
+				Assert.assertEquals(ranked.subList(0, Math.min(n, ranked.size())),
+						nearest);
+			}
+
+			// keys that are not numbers need a distance
+			BPTree<String, Integer> words = new BPTree<>(3);
+			for (String word : new String[] { "b", "bbbb", "bbbbbbb", "bbbbbbbbb" })
+				words.insert(word, word.length());
+			List<Map.Entry<String, Integer>> closest = words.nearest("bbbbb", 2,
+					(a, b) -> Math.abs(a.length() - b.length()));
+			Assert.assertEquals("bbbb", closest.get(0).getKey());
+			Assert.assertEquals("bbbbbbb", closest.get(1).getKey());
+			try {
+				words.nearest("b", 1);
+				fail("found the nearest strings without a distance");
+			} catch (IllegalArgumentException expectedException) {
+			}
+			try {
+				tree.floor(null);
+				fail("accepted a null key");
+			} catch (IllegalArgumentException expectedException) {
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 020: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Checks a navigation result against the model's entry and first value
+	 */
+	private static void assertEntry(Map.Entry<Integer, List<Integer>> expected,
+			Map.Entry<Integer, Integer> actual) {
+		if (expected == null) {
+			Assert.assertNull(actual);
+			return;
+		}
+		Assert.assertEquals(expected.getKey(), actual.getKey());
+		Assert.assertEquals(expected.getValue().get(0), actual.getValue());
+	}
 }
\ No newline at end of file
@@ -0,0 +1,424 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Page file read through a fixed budget of page frames, for trees larger than
+ * memory. Unlike MappedPageStore, which leaves residency to the operating
+ * system, the pool decides which pages stay in memory. Pinned pages are never
+ * evicted. Among the rest, CLOCK gives every page a second chance after it
+ * was used, so the internal pages touched by every descent stay resident
+ * while cold leaves cycle through. Dirty pages are written back when they
+ * are evicted or flushed.
+ *
+ * The file format is the one of MappedPageStore, so a file written through
+ * either store opens with the other. Like a mapped file, the file is not
+ * consistent between flushes: evictions write dirty pages into it at any
+ * time, so a crash can leave a split half written under an old header.
+ * LoggedPageStore logs changes before the pool can evict them, and redoes
+ * them on open.
+ *
+ * @author Wally Estenson
+ */
+public class BufferPool implements PageStore {
+
+	// Fewest frames accepted; an insert pins a root-to-leaf path plus a split
+	// sibling, and the tree keeps its meta page pinned
+	public static final int MIN_FRAMES = 16;
+
+	private static final int FREE = -1;
+
+	private final FileChannel channel;
+	private final int pageSize;
+
+	// frames[f] holds page framePage[f], or nothing if FREE
+	private final ByteBuffer[] frames;
+	private final int[] framePage;
+	private final int[] pinCount;
+	private final boolean[] dirty;
+	private final boolean[] referenced;
+
+	// page id to frame, for resident pages
+	private final Map<Integer, Integer> pageTable;
+
+	// next frame the clock looks at
+	private int hand;
+
+	private int pageCount;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long writeBacks;
+
+	/**
+	 * Opens the file, or creates it if it does not exist or is empty
+	 *
+	 * @param file         path of the page file
+	 * @param pageSize     bytes per page; must match an existing file
+	 * @param memoryBudget bytes of page frames, at least MIN_FRAMES pages
+	 * @throws IOException              if the file cannot be opened
+	 * @throws IllegalArgumentException if the file is not a page file of this
+	 *                                  page size, or the budget is too small
+	 */
+	public BufferPool(Path file, int pageSize, long memoryBudget)
+			throws IOException {
+		if (pageSize < MappedPageStore.HEADER_PAGE_COUNT + Integer.BYTES)
+			throw new IllegalArgumentException("Illegal page size: " + pageSize);
+
+		long frameCount = memoryBudget / pageSize;
+		if (frameCount < MIN_FRAMES || frameCount * pageSize > Integer.MAX_VALUE)
+			throw new IllegalArgumentException(
+					"Illegal memory budget: " + memoryBudget);
+
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.pageSize = pageSize;
+
+		int count = (int) frameCount;
+		this.frames = new ByteBuffer[count];
+		this.framePage = new int[count];
+		this.pinCount = new int[count];
+		this.dirty = new boolean[count];
+		this.referenced = new boolean[count];
+		this.pageTable = new HashMap<Integer, Integer>();
+		Arrays.fill(framePage, FREE);
+
+		ByteBuffer memory = ByteBuffer.allocateDirect(count * pageSize);
+		for (int f = 0; f < count; f++) {
+			memory.limit(f * pageSize + pageSize).position(f * pageSize);
+			frames[f] = memory.slice();
+		}
+
+		try {
+			ByteBuffer header = ByteBuffer.allocate(pageSize);
+			if (channel.size() == 0) {
+				pageCount = 0;
+				writeHeader();
+			} else {
+				readFully(header, 0);
+				if (header.getInt(MappedPageStore.HEADER_MAGIC) != MappedPageStore.MAGIC)
+					throw new IllegalArgumentException(file + " is not a page file");
+				if (header.getInt(MappedPageStore.HEADER_PAGE_SIZE) != pageSize)
+					throw new IllegalArgumentException(file + " has "
+							+ header.getInt(MappedPageStore.HEADER_PAGE_SIZE)
+							+ " byte pages, not " + pageSize);
+				pageCount = header.getInt(MappedPageStore.HEADER_PAGE_COUNT);
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see PageStore#pageSize()
+	 */
+	@Override
+	public int pageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see PageStore#pageCount()
+	 */
+	@Override
+	public int pageCount() {
+		return pageCount;
+	}
+
+	/**
+	 * (non-Javadoc) The new page gets a frame without reading the file
+	 *
+	 * @see PageStore#allocate()
+	 */
+	@Override
+	public int allocate() {
+
+		// the id only counts once it has a frame, or flush would record a
+		// page that was never written
+		int id = pageCount;
+		int frame = claimFrame(id);
+		pageCount++;
+
+		ByteBuffer page = frames[frame];
+		for (int i = 0; i < pageSize; i += Long.BYTES)
+			page.putLong(i, 0);
+		dirty[frame] = true;
+		referenced[frame] = true;
+		return id;
+	}
+
+	/**
+	 * (non-Javadoc) A miss evicts the next unpinned, unreferenced frame
+	 *
+	 * @see PageStore#pin(int)
+	 */
+	@Override
+	public ByteBuffer pin(int id) {
+		if (id < 0 || id >= pageCount)
+			throw new IndexOutOfBoundsException("Page " + id + " of " + pageCount);
+
+		Integer resident = pageTable.get(id);
+		int frame;
+		if (resident != null) {
+			hits++;
+			frame = resident;
+		} else {
+			misses++;
+			frame = claimFrame(id);
+			try {
+				ByteBuffer page = frames[frame].duplicate();
+				page.clear();
+				int read = readFully(page, pageOffset(id));
+				for (int i = read; i < pageSize; i++)
+					frames[frame].put(i, (byte) 0);
+			} catch (IOException e) {
+				releaseFrame(frame);
+				throw new IllegalStateException("Cannot read page " + id, e);
+			}
+		}
+
+		pinCount[frame]++;
+		referenced[frame] = true;
+		return frames[frame];
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see PageStore#unpin(int)
+	 */
+	@Override
+	public void unpin(int id) {
+		Integer frame = pageTable.get(id);
+		if (frame == null || pinCount[frame] == 0)
+			throw new IllegalStateException("Page " + id + " is not pinned");
+
+		pinCount[frame]--;
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see PageStore#markDirty(int)
+	 */
+	@Override
+	public void markDirty(int id) {
+		Integer frame = pageTable.get(id);
+		if (frame == null)
+			throw new IllegalStateException("Page " + id + " is not resident");
+
+		dirty[frame] = true;
+	}
+
+	/**
+	 * (non-Javadoc) Dirty pages first, then the header, so a header never
+	 * counts pages that are not on disk
+	 *
+	 * @see PageStore#flush()
+	 */
+	@Override
+	public void flush() throws IOException {
+		for (int f = 0; f < frames.length; f++)
+			if (framePage[f] != FREE && dirty[f])
+				writeBack(f);
+		channel.force(false);
+
+		writeHeader();
+	}
+
+	/**
+	 * (non-Javadoc) Flushes and closes the file
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!channel.isOpen())
+			return;
+
+		try {
+			flush();
+		} finally {
+			pageTable.clear();
+			Arrays.fill(framePage, FREE);
+			channel.close();
+		}
+	}
+
+	/**
+	 * Returns the number of pins served from a resident frame
+	 *
+	 * @return hits
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of pins that had to read the file
+	 *
+	 * @return misses
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of pages evicted to free a frame
+	 *
+	 * @return evictions
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the number of dirty pages written to the file, on eviction or
+	 * flush
+	 *
+	 * @return write-backs
+	 */
+	public long getWriteBacks() {
+		return writeBacks;
+	}
+
+	/**
+	 * Returns the number of page frames in the pool
+	 *
+	 * @return frame count
+	 */
+	public int getFrameCount() {
+		return frames.length;
+	}
+
+	/**
+	 * Returns the number of frames holding a pinned page
+	 *
+	 * @return pinned frames
+	 */
+	public int getPinnedFrames() {
+		int pinned = 0;
+		for (int count : pinCount)
+			if (count > 0)
+				pinned++;
+		return pinned;
+	}
+
+	/**
+	 * Finds a frame for a page with CLOCK: free frames are taken first, a
+	 * referenced frame loses its reference bit and is passed over once, and
+	 * pinned frames are skipped. The page is entered in the page table.
+	 *
+	 * @param id of the page that will occupy the frame
+	 * @return frame index
+	 */
+	private int claimFrame(int id) {
+
+		// two sweeps clear every reference bit, so a third finds a victim
+		for (int step = 0; step < 2 * frames.length + 1; step++) {
+			int frame = hand;
+			hand = (hand + 1) % frames.length;
+
+			if (framePage[frame] != FREE) {
+				if (pinCount[frame] > 0)
+					continue;
+				if (referenced[frame]) {
+					referenced[frame] = false;
+					continue;
+				}
+
+				if (dirty[frame]) {
+					try {
+						writeBack(frame);
+					} catch (IOException e) {
+						throw new IllegalStateException(
+								"Cannot write page " + framePage[frame], e);
+					}
+				}
+				evictions++;
+				releaseFrame(frame);
+			}
+
+			framePage[frame] = id;
+			pageTable.put(id, frame);
+			return frame;
+		}
+
+		throw new IllegalStateException(
+				"All " + frames.length + " frames are pinned");
+	}
+
+	/**
+	 * Empties a frame without writing it back
+	 */
+	private void releaseFrame(int frame) {
+		pageTable.remove(framePage[frame]);
+		framePage[frame] = FREE;
+		pinCount[frame] = 0;
+		dirty[frame] = false;
+		referenced[frame] = false;
+	}
+
+	/**
+	 * Writes a frame to its page in the file
+	 */
+	private void writeBack(int frame) throws IOException {
+		ByteBuffer page = frames[frame].duplicate();
+		page.clear();
+		long offset = pageOffset(framePage[frame]);
+		while (page.hasRemaining())
+			offset += channel.write(page, offset);
+
+		dirty[frame] = false;
+		writeBacks++;
+	}
+
+	/**
+	 * Writes the header page and forces it to disk
+	 */
+	private void writeHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(pageSize);
+		header.putInt(MappedPageStore.HEADER_MAGIC, MappedPageStore.MAGIC);
+		header.putInt(MappedPageStore.HEADER_PAGE_SIZE, pageSize);
+		header.putInt(MappedPageStore.HEADER_PAGE_COUNT, pageCount);
+
+		long offset = 0;
+		while (header.hasRemaining())
+			offset += channel.write(header, offset);
+		channel.force(false);
+	}
+
+	/**
+	 * Reads from offset until the buffer is full or the file ends
+	 *
+	 * @return bytes read
+	 */
+	private int readFully(ByteBuffer buffer, long offset) throws IOException {
+		int total = 0;
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, offset + total);
+			if (read < 0)
+				break;
+			total += read;
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the file offset of a page, after the header page
+	 */
+	private long pageOffset(int id) {
+		return (long) pageSize * (id + 1);
+	}
+}
@@ -0,0 +1,834 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe B+ tree for many concurrent readers and writers, using
+ * optimistic lock coupling (Leis et al., "The ART of Practical
+ * Synchronization"). Every node carries a version latch. Readers never take a
+ * latch: they note a node's version, read it, and check that the version did
+ * not move, starting over from the root if it did. Writers read the same way
+ * and only latch the leaf they change, plus the parent when a node has to be
+ * split. Full nodes are split on the way down, so a split never has to climb
+ * back up the tree.
+ *
+ * Duplicate keys are kept like in BPTree: a key's values share one leaf slot,
+ * which switches to an immutable posting array on the second value so that
+ * readers always see a complete one. Range searches are not atomic snapshots;
+ * they return every entry that was present for the whole search, plus any
+ * subset of those inserted meanwhile.
+ *
+ * @author Wally Estenson
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public class ConcurrentBPTree<K extends Comparable<K>, V>
+		implements BPTreeADT<K, V> {
+
+	// Version bit held while a node is write latched; unlocking adds it once
+	// more, which clears it and leaves a new version
+	private static final long LOCKED = 2;
+
+	// Returned in place of a version when a reader has to start over; odd, so
+	// it is never a real version
+	private static final long RESTART = 1;
+
+	// Returned in place of an index when a reader saw a half-written node
+	private static final int RESTART_INDEX = Integer.MIN_VALUE;
+
+	private static final VarHandle VERSION;
+
+	static {
+		try {
+			VERSION = MethodHandles.lookup().findVarHandle(
+					ConcurrentBPTree.Node.class, "version", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	// Root of the tree; replaced only while the old root is write latched
+	private volatile Node root;
+
+	private final LongAdder size;
+
+	// Branching factor is the number of children nodes
+	// for internal nodes of the tree
+	private final int branchingFactor;
+
+	/**
+	 * Public constructor
+	 *
+	 * @param branchingFactor
+	 */
+	public ConcurrentBPTree(int branchingFactor) {
+		if (branchingFactor <= 2)
+			throw new IllegalArgumentException(
+					"Illegal branching factor: " + branchingFactor);
+
+		this.branchingFactor = branchingFactor;
+		this.size = new LongAdder();
+		this.root = new LeafNode();
+	}
+
+	/**
+	 * Inserts the key and value in the appropriate nodes in the tree If the key
+	 * is null, throw IllegalArgumentException
+	 *
+	 * Note: key-value pairs with duplicate keys can be inserted into the tree.
+	 *
+	 * @param key
+	 * @param value
+	 */
+	@Override
+	public void insert(K key, V value) {
+
+		// do not allow null key
+		if (key == null)
+			throw new IllegalArgumentException();
+
+		while (!tryInsert(key, value))
+			Thread.onSpinWait();
+
+		size.increment();
+	}
+
+	/**
+	 * One optimistic pass of insert
+	 *
+	 * @return false if the pass has to be restarted
+	 */
+	private boolean tryInsert(K key, V value) {
+
+		Node node = root;
+		long version = node.readLockOrRestart();
+		if (version == RESTART || node != root)
+			return false;
+
+		InternalNode parent = null;
+		long parentVersion = 0;
+
+		while (node instanceof ConcurrentBPTree.InternalNode) {
+			InternalNode internal = (InternalNode) node;
+
+			// split full nodes on the way down so the parent always has room
+			if (internal.isFull()) {
+				splitNode(internal, version, parent, parentVersion);
+				return false;
+			}
+
+			if (parent != null && !parent.validate(parentVersion))
+				return false;
+
+			int childIndex = internal.getChildIndex(key);
+			if (childIndex == RESTART_INDEX)
+				return false;
+
+			Node child = internal.getChild(childIndex);
+			if (child == null || !internal.validate(version))
+				return false;
+
+			parent = internal;
+			parentVersion = version;
+			node = child;
+			version = node.readLockOrRestart();
+			if (version == RESTART)
+				return false;
+		}
+
+		LeafNode leaf = (LeafNode) node;
+		int index = leaf.findIndex(key);
+		if (index == RESTART_INDEX)
+			return false;
+
+		// a new key needs room in the leaf
+		if (index < 0 && leaf.isFull()) {
+			splitNode(leaf, version, parent, parentVersion);
+			return false;
+		}
+
+		if (!leaf.upgradeToWriteLock(version))
+			return false;
+
+		// the parent must not have split this leaf away since we left it
+		if (parent != null && !parent.validate(parentVersion)) {
+			leaf.writeUnlock();
+			return false;
+		}
+
+		leaf.insertAt(index, key, value);
+		leaf.writeUnlock();
+		return true;
+	}
+
+	/**
+	 * Splits a full node while holding its latch and its parent's, then lets
+	 * the caller restart. The root is split by giving the tree a new root.
+	 */
+	private void splitNode(Node node, long version, InternalNode parent,
+			long parentVersion) {
+
+		if (parent != null && !parent.upgradeToWriteLock(parentVersion))
+			return;
+
+		if (!node.upgradeToWriteLock(version)) {
+			if (parent != null)
+				parent.writeUnlock();
+			return;
+		}
+
+		// without a parent the node has to still be the root
+		if (parent == null && node != root) {
+			node.writeUnlock();
+			return;
+		}
+
+		Node sibling = node.split();
+		Object separator = node.getSeparator(sibling);
+
+		if (parent != null)
+			parent.insertChild(separator, sibling);
+		else {
+			InternalNode root2 = new InternalNode();
+			root2.keys[0] = separator;
+			root2.children[0] = node;
+			root2.children[1] = sibling;
+			root2.count = 1;
+			root = root2;
+		}
+
+		node.writeUnlock();
+		if (parent != null)
+			parent.writeUnlock();
+	}
+
+	/**
+	 * Gets the values that satisfy the given range search arguments.
+	 *
+	 * Value of comparator can be one of these: "<=", "==", ">=", and beyond
+	 * the interface also "<" and ">"
+	 *
+	 * If key is null or not found, return empty list. If comparator is null,
+	 * empty, or not according to required form, return empty list.
+	 *
+	 * @param key        to be searched
+	 * @param comparator is a string
+	 * @return list of values that are the result of the range search; if
+	 *         nothing found, return empty list
+	 */
+	@Override
+	public List<V> rangeSearch(K key, String comparator) {
+
+		// must have valid key and comparator arguments
+		if (key == null || comparator == null)
+			return new ArrayList<V>();
+
+		if (comparator.contentEquals("<"))
+			return rangeSearch(null, false, key, false);
+		else if (comparator.contentEquals("<="))
+			return rangeSearch(null, false, key, true);
+		else if (comparator.contentEquals("=="))
+			return rangeSearch(key, true, key, true);
+		else if (comparator.contentEquals(">="))
+			return rangeSearch(key, true, null, false);
+		else if (comparator.contentEquals(">"))
+			return rangeSearch(key, false, null, false);
+		else
+			return new ArrayList<V>();
+	}
+
+	/**
+	 * Gets the values of all keys between low and high, in key order. Each
+	 * leaf is read optimistically and its entries are only kept once its
+	 * version checks out; if it does not, the search descends again to just
+	 * after the last key it kept.
+	 *
+	 * A null bound leaves that side of the range open.
+	 *
+	 * @param low           lower bound, or null for none
+	 * @param lowInclusive  whether a key equal to low is in range
+	 * @param high          upper bound, or null for none
+	 * @param highInclusive whether a key equal to high is in range
+	 * @return list of values in range; if nothing found, return empty list
+	 */
+	public List<V> rangeSearch(K low, boolean lowInclusive, K high,
+			boolean highInclusive) {
+
+		List<V> filtered = new ArrayList<V>();
+		List<V> leafValues = new ArrayList<V>();
+
+		// where to pick up after the entries kept so far
+		K resume = low;
+		boolean resumeInclusive = lowInclusive;
+
+		long[] leafVersion = new long[1];
+
+		restart: while (true) {
+			LeafNode leaf = findLeaf(resume, leafVersion);
+			if (leaf == null)
+				continue;
+
+			long version = leafVersion[0];
+
+			while (true) {
+				leafValues.clear();
+				boolean done = false;
+				K last = null;
+
+				int count = leaf.count;
+				int index = 0;
+				if (resume != null) {
+					index = leaf.findIndex(resume);
+					if (index == RESTART_INDEX)
+						continue restart;
+					if (index < 0)
+						index = -index - 1;
+					else if (!resumeInclusive)
+						index++;
+				}
+
+				for (; index < count; index++) {
+					@SuppressWarnings("unchecked")
+					K next = (K) leaf.keys[index];
+					if (next == null)
+						continue restart;
+
+					if (high != null) {
+						int comparison = next.compareTo(high);
+						if (comparison > 0 || (comparison == 0 && !highInclusive)) {
+							done = true;
+							break;
+						}
+					}
+
+					leaf.addValues(index, leafValues);
+					last = next;
+				}
+
+				LeafNode nextLeaf = leaf.next;
+
+				// only keep what was read from an unchanged leaf
+				if (!leaf.validate(version))
+					continue restart;
+
+				filtered.addAll(leafValues);
+				if (last != null) {
+					resume = last;
+					resumeInclusive = false;
+				}
+
+				if (done || nextLeaf == null)
+					return filtered;
+
+				leaf = nextLeaf;
+				version = leaf.readLockOrRestart();
+				if (version == RESTART)
+					continue restart;
+			}
+		}
+	}
+
+	/**
+	 * Returns the value of the first leaf with a matching key. If key is null,
+	 * return null. If key is not found, return null. For a duplicate key this
+	 * is the value that was inserted first.
+	 *
+	 * @param key to find
+	 * @return value of the first leaf matching key
+	 */
+	@Override
+	public V get(K key) {
+		if (key == null)
+			return null;
+
+		long[] leafVersion = new long[1];
+
+		while (true) {
+			LeafNode leaf = findLeaf(key, leafVersion);
+			if (leaf == null)
+				continue;
+
+			long version = leafVersion[0];
+
+			int index = leaf.findIndex(key);
+			if (index == RESTART_INDEX)
+				continue;
+
+			V value = index >= 0 ? leaf.getFirstValue(index) : null;
+			if (leaf.validate(version))
+				return value;
+		}
+	}
+
+	/**
+	 * Descends optimistically to the leaf whose key range holds the key
+	 *
+	 * @param key     to route, or null for the leftmost leaf
+	 * @param version receives the leaf version checked against its parent;
+	 *                a version read later could postdate a split that moved
+	 *                the key to a new sibling
+	 * @return leaf, or null if the descent has to be restarted; the caller
+	 *         still has to validate what it reads from the leaf
+	 */
+	private LeafNode findLeaf(K key, long[] version) {
+
+		Node node = root;
+		long nodeVersion = node.readLockOrRestart();
+		if (nodeVersion == RESTART || node != root)
+			return null;
+
+		while (node instanceof ConcurrentBPTree.InternalNode) {
+			InternalNode internal = (InternalNode) node;
+
+			int childIndex = key == null ? 0 : internal.getChildIndex(key);
+			if (childIndex == RESTART_INDEX)
+				return null;
+
+			Node child = internal.getChild(childIndex);
+			if (child == null || !internal.validate(nodeVersion))
+				return null;
+
+			// the child must not have split since the parent was read
+			long childVersion = child.readLockOrRestart();
+			if (childVersion == RESTART || !internal.validate(nodeVersion))
+				return null;
+
+			node = child;
+			nodeVersion = childVersion;
+		}
+
+		version[0] = nodeVersion;
+		return (LeafNode) node;
+	}
+
+	/**
+	 * Return the number of leaves in the tree. Every value counts, including
+	 * each value of a duplicate key.
+	 *
+	 * @return number of leaves
+	 */
+	@Override
+	public int size() {
+		return (int) size.sum();
+	}
+
+	/**
+	 * Returns a string representation for the tree, in the same format as
+	 * BPTree. Only meaningful while no writer is active.
+	 *
+	 * @return a string representation
+	 */
+	@Override
+	public String toString() {
+		Queue<List<Node>> queue = new LinkedList<List<Node>>();
+		queue.add(Arrays.asList(root));
+		StringBuilder sb = new StringBuilder();
+		while (!queue.isEmpty()) {
+			Queue<List<Node>> nextQueue = new LinkedList<List<Node>>();
+			while (!queue.isEmpty()) {
+				List<Node> nodes = queue.remove();
+				sb.append('{');
+				Iterator<Node> it = nodes.iterator();
+				while (it.hasNext()) {
+					Node node = it.next();
+					sb.append(node.toString());
+					if (it.hasNext())
+						sb.append(", ");
+					if (node instanceof ConcurrentBPTree.InternalNode)
+						nextQueue.add(((InternalNode) node).getChildren());
+				}
+				sb.append('}');
+				if (!queue.isEmpty())
+					sb.append(", ");
+				else {
+					sb.append('\n');
+				}
+			}
+			queue = nextQueue;
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Node with a version latch over fixed-size key arrays. Readers may see a
+	 * node halfway through a change, so everything they read is checked
+	 * against the version before it is used.
+	 *
+	 * @author Wally Estenson
+	 */
+	private abstract class Node {
+
+		// version latch, only accessed through VERSION
+		@SuppressWarnings("unused")
+		private long version;
+
+		// number of keys in use
+		int count;
+
+		// keys[0..count) in ascending order
+		final Object[] keys;
+
+		/**
+		 * Package constructor
+		 *
+		 * @param capacity number of key slots
+		 */
+		Node(int capacity) {
+			keys = new Object[capacity];
+		}
+
+		/**
+		 * Reads the version before an optimistic read
+		 *
+		 * @return version, or RESTART if a writer holds the latch
+		 */
+		long readLockOrRestart() {
+			long version = (long) VERSION.getAcquire(this);
+			return (version & LOCKED) != 0 ? RESTART : version;
+		}
+
+		/**
+		 * Checks after an optimistic read that nothing was written meanwhile
+		 *
+		 * @param version from readLockOrRestart
+		 * @return true if everything read since is consistent
+		 */
+		boolean validate(long version) {
+			VarHandle.acquireFence();
+			return (long) VERSION.getAcquire(this) == version;
+		}
+
+		/**
+		 * Takes the write latch if the node is still at the version read
+		 *
+		 * @param version from readLockOrRestart
+		 * @return true if the latch is now held
+		 */
+		boolean upgradeToWriteLock(long version) {
+			return VERSION.compareAndSet(this, version, version + LOCKED);
+		}
+
+		/**
+		 * Releases the write latch and publishes a new version
+		 */
+		void writeUnlock() {
+			long version = (long) VERSION.get(this);
+			VERSION.setRelease(this, version + LOCKED);
+		}
+
+		/**
+		 * Binary searches keys[0..count)
+		 *
+		 * @param key to search for
+		 * @return index of the key if it exists, otherwise (-(insertion
+		 *         point) - 1), or RESTART_INDEX if a slot was not written yet
+		 */
+		@SuppressWarnings("unchecked")
+		int findIndex(K key) {
+			int low = 0;
+			int high = Math.min(count, keys.length) - 1;
+
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				K midKey = (K) keys[mid];
+				if (midKey == null)
+					return RESTART_INDEX;
+
+				int comparison = midKey.compareTo(key);
+				if (comparison < 0)
+					low = mid + 1;
+				else if (comparison > 0)
+					high = mid - 1;
+				else
+					return mid;
+			}
+			return -(low + 1);
+		}
+
+		/**
+		 * Check if the node has no room for another key
+		 *
+		 * @return boolean
+		 */
+		abstract boolean isFull();
+
+		/**
+		 * Moves the upper half of this node into a new right sibling. Called
+		 * with this node write latched.
+		 *
+		 * @return the new sibling
+		 */
+		abstract Node split();
+
+		/**
+		 * Gets the parent key that goes between this node and the sibling it
+		 * just split off
+		 *
+		 * @param sibling from split
+		 * @return separator
+		 */
+		abstract Object getSeparator(Node sibling);
+
+		/**
+		 * Converts keys to string for testing purposes
+		 */
+		public String toString() {
+			return Arrays.asList(keys).subList(0, count).toString();
+		}
+	} // End of class Node
+
+	/**
+	 * Internal node holding count keys and count + 1 children
+	 *
+	 * @author Wally Estenson
+	 */
+	private class InternalNode extends Node {
+
+		// children[0..count]
+		final Object[] children;
+
+		// key that moved up to the parent in the last split
+		Object pushedUp;
+
+		/**
+		 * Package constructor
+		 */
+		InternalNode() {
+			super(branchingFactor - 1);
+			children = new Object[branchingFactor];
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see ConcurrentBPTree.Node#isFull()
+		 */
+		boolean isFull() {
+			return count >= branchingFactor - 1;
+		}
+
+		/**
+		 * Gets the index of the child whose subtree would hold the key
+		 *
+		 * @param key to route
+		 * @return index into children, or RESTART_INDEX
+		 */
+		int getChildIndex(K key) {
+			int index = findIndex(key);
+
+			if (index == RESTART_INDEX)
+				return RESTART_INDEX;
+			else if (index >= 0)
+				return index + 1;
+			else
+				return -index - 1;
+		}
+
+		/**
+		 * Adds a separator and the child to its right. Called with this node
+		 * write latched and known not to be full.
+		 *
+		 * @param separator smallest key of the child's subtree
+		 * @param child     new child
+		 */
+		@SuppressWarnings("unchecked")
+		void insertChild(Object separator, Node child) {
+			int index = -findIndex((K) separator) - 1;
+
+			System.arraycopy(keys, index, keys, index + 1, count - index);
+			System.arraycopy(children, index + 1, children, index + 2,
+					count - index);
+			keys[index] = separator;
+			children[index + 1] = child;
+			count++;
+		}
+
+		/**
+		 * (non-Javadoc) The middle key moves up to the parent
+		 *
+		 * @see ConcurrentBPTree.Node#split()
+		 */
+		Node split() {
+			InternalNode node = new InternalNode();
+			int middle = count / 2;
+
+			node.count = count - middle - 1;
+			System.arraycopy(keys, middle + 1, node.keys, 0, node.count);
+			System.arraycopy(children, middle + 1, node.children, 0,
+					node.count + 1);
+
+			pushedUp = keys[middle];
+			count = middle;
+			return node;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see ConcurrentBPTree.Node#getSeparator(ConcurrentBPTree.Node)
+		 */
+		Object getSeparator(Node sibling) {
+			return pushedUp;
+		}
+
+		/**
+		 * Returns the child at index, or null if a concurrent split has not
+		 * filled it in yet
+		 */
+		@SuppressWarnings("unchecked")
+		Node getChild(int index) {
+			return (Node) children[index];
+		}
+
+		/**
+		 * Returns the children in use, for toString
+		 */
+		List<Node> getChildren() {
+			List<Node> list = new ArrayList<Node>();
+			for (int i = 0; i <= count; i++)
+				list.add(getChild(i));
+			return list;
+		}
+	} // End of class InternalNode
+
+	/**
+	 * Leaf node holding count keys and their value slots
+	 *
+	 * @author Wally Estenson
+	 */
+	private class LeafNode extends Node {
+
+		// values[i] is the only value of keys[i], or Postings
+		final Object[] values;
+
+		// Reference to the next leaf node
+		LeafNode next;
+
+		/**
+		 * Package constructor
+		 */
+		LeafNode() {
+			super(branchingFactor - 1);
+			values = new Object[branchingFactor - 1];
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see ConcurrentBPTree.Node#isFull()
+		 */
+		boolean isFull() {
+			return count >= branchingFactor - 1;
+		}
+
+		/**
+		 * Adds the value under the key. Called with this leaf write latched.
+		 *
+		 * @param index from findIndex under the same version
+		 * @param key   to insert
+		 * @param value to insert
+		 */
+		void insertAt(int index, K key, V value) {
+
+			// an existing key gets a new posting array with the value added
+			if (index >= 0) {
+				values[index] = Postings.append(values[index], value);
+				return;
+			}
+
+			index = -index - 1;
+			System.arraycopy(keys, index, keys, index + 1, count - index);
+			System.arraycopy(values, index, values, index + 1, count - index);
+			keys[index] = key;
+			values[index] = value;
+			count++;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see ConcurrentBPTree.Node#split()
+		 */
+		Node split() {
+			LeafNode node = new LeafNode();
+			int middle = count / 2;
+
+			node.count = count - middle;
+			System.arraycopy(keys, middle, node.keys, 0, node.count);
+			System.arraycopy(values, middle, node.values, 0, node.count);
+			node.next = next;
+
+			next = node;
+			count = middle;
+			return node;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see ConcurrentBPTree.Node#getSeparator(ConcurrentBPTree.Node)
+		 */
+		Object getSeparator(Node sibling) {
+			return sibling.keys[0];
+		}
+
+		/**
+		 * Returns the first value of the key at index
+		 */
+		@SuppressWarnings("unchecked")
+		V getFirstValue(int index) {
+			Object slot = values[index];
+			if (slot instanceof Postings)
+				return (V) ((Postings) slot).values[0];
+			return (V) slot;
+		}
+
+		/**
+		 * Adds every value of the key at index to the list
+		 */
+		@SuppressWarnings("unchecked")
+		void addValues(int index, List<V> list) {
+			Object slot = values[index];
+			if (slot instanceof Postings) {
+				for (Object value : ((Postings) slot).values)
+					list.add((V) value);
+			} else
+				list.add((V) slot);
+		}
+	} // End of class LeafNode
+
+	/**
+	 * Immutable values of a key that was inserted more than once. Writers swap
+	 * in a longer copy, so an optimistic reader never sees a partial one.
+	 *
+	 * @author Wally Estenson
+	 */
+	private static final class Postings {
+
+		final Object[] values;
+
+		Postings(Object[] values) {
+			this.values = values;
+		}
+
+		/**
+		 * Returns a slot holding the old slot's values followed by value
+		 */
+		static Postings append(Object slot, Object value) {
+			if (slot instanceof Postings) {
+				Object[] old = ((Postings) slot).values;
+				Object[] values = Arrays.copyOf(old, old.length + 1);
+				values[old.length] = value;
+				return new Postings(values);
+			}
+			return new Postings(new Object[] { slot, value });
+		}
+	}
+}
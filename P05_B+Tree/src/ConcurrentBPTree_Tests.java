@@ -0,0 +1,216 @@
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test Class for ConcurrentBPTree.java
+ *
+ *
+ * @author Wally Estenson
+ */
+public class ConcurrentBPTree_Tests {
+
+	/**
+	 * Runs the task on several threads at once and waits for all of them
+	 *
+	 * @return failures thrown by any of the threads
+	 */
+	private static List<Throwable> runConcurrently(int threads,
+			ThreadTask task) throws InterruptedException {
+		ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> workers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			int thread = t;
+			Thread worker = new Thread(() -> {
+				try {
+					start.await();
+					task.run(thread);
+				} catch (Throwable e) {
+					failures.add(e);
+				}
+			});
+			worker.start();
+			workers.add(worker);
+		}
+		start.countDown();
+		for (Thread worker : workers)
+			worker.join();
+		return new ArrayList<>(failures);
+	}
+
+	private interface ThreadTask {
+		void run(int thread) throws Exception;
+	}
+
+	/**
+	 * Single-threaded behaviour matches BPTree: duplicates kept in insertion
+	 * order, range comparators, null handling
+	 */
+	@Test
+	void testBALST_001_matches_bptree_single_threaded() {
+
+		try {
+
+			for (int branchingFactor : new int[] { 3, 4, 5, 16 }) {
+				Random rnd = new Random(branchingFactor);
+				ConcurrentBPTree<Double, Double> tree = new ConcurrentBPTree<>(
+						branchingFactor);
+				TreeMap<Double, List<Double>> expected = new TreeMap<>();
+
+				for (int i = 0; i < 3000; i++) {
+					Double key = (double) rnd.nextInt(1000);
+					tree.insert(key, (double) i);
+					expected.computeIfAbsent(key, k -> new ArrayList<>())
+							.add((double) i);
+				}
+
+				Assert.assertEquals(3000, tree.size());
+				for (Map.Entry<Double, List<Double>> entry : expected.entrySet())
+					Assert.assertEquals(entry.getValue().get(0),
+							tree.get(entry.getKey()));
+				Assert.assertNull(tree.get(1000.0));
+
+				for (String comparator : new String[] { "<", "<=", "==", ">=",
+						">" }) {
+					Double key = (double) rnd.nextInt(1000);
+					Map<Double, List<Double>> range;
+					switch (comparator) {
+					case "<":
+						range = expected.headMap(key, false);
+						break;
+					case "<=":
+						range = expected.headMap(key, true);
+						break;
+					case "==":
+						range = expected.subMap(key, true, key, true);
+						break;
+					case ">=":
+						range = expected.tailMap(key, true);
+						break;
+					default:
+						range = expected.tailMap(key, false);
+					}
+					List<Double> values = new ArrayList<>();
+					for (List<Double> keyValues : range.values())
+						values.addAll(keyValues);
+					Assert.assertEquals(values, tree.rangeSearch(key, comparator));
+				}
+			}
+
+			ConcurrentBPTree<Double, Double> tree = new ConcurrentBPTree<>(3);
+			Assert.assertTrue(tree.rangeSearch(1.0, ">=").isEmpty());
+			Assert.assertTrue(tree.rangeSearch(null, ">=").isEmpty());
+			Assert.assertTrue(tree.rangeSearch(1.0, "!=").isEmpty());
+			Assert.assertNull(tree.get(null));
+
+			try {
+				tree.insert(null, 1.0);
+				fail("insert accepted a null key");
+			} catch (IllegalArgumentException expectedException) {
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 001: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Writers insert disjoint keys while readers look up keys that are known
+	 * to be in already and scan ranges that must stay sorted
+	 */
+	@Test
+	void testBALST_002_concurrent_inserts_and_reads() {
+
+		try {
+
+			int writers = 4;
+			int readers = 4;
+			int perWriter = 20000;
+
+			for (int branchingFactor : new int[] { 3, 8, 64 }) {
+				ConcurrentBPTree<Integer, Integer> tree = new ConcurrentBPTree<>(
+						branchingFactor);
+
+				// highest index each writer has finished inserting
+				AtomicInteger[] progress = new AtomicInteger[writers];
+				for (int w = 0; w < writers; w++)
+					progress[w] = new AtomicInteger(-1);
+
+				List<Throwable> failures = runConcurrently(writers + readers,
+						thread -> {
+							if (thread < writers) {
+								// keys interleave so every writer hits every leaf
+								Random rnd = new Random(thread);
+								for (int i = 0; i < perWriter; i++) {
+									int key = i * writers + thread;
+									tree.insert(key, key);
+									if (rnd.nextInt(8) == 0)
+										tree.insert(key, -key - 1);
+									progress[thread].set(i);
+								}
+								return;
+							}
+
+							Random rnd = new Random(thread);
+							for (int round = 0; round < 20000; round++) {
+								int writer = rnd.nextInt(writers);
+								int done = progress[writer].get();
+								if (done >= 0) {
+									int key = rnd.nextInt(done + 1) * writers + writer;
+									Assert.assertEquals(Integer.valueOf(key),
+											tree.get(key));
+								}
+
+								if (round % 500 == 0) {
+									List<Integer> scan = tree.rangeSearch(
+											rnd.nextInt(writers * perWriter), ">=");
+									int previous = Integer.MIN_VALUE;
+									for (Integer value : scan) {
+										int key = value >= 0 ? value : -value - 1;
+										Assert.assertTrue(key >= previous);
+										previous = key;
+									}
+								}
+							}
+						});
+
+				for (Throwable failure : failures)
+					failure.printStackTrace();
+				Assert.assertTrue(failures.isEmpty());
+
+				int total = writers * perWriter;
+				List<Integer> all = tree.rangeSearch(0, ">=");
+				Assert.assertEquals(tree.size(), all.size());
+				Assert.assertTrue(all.size() > total);
+
+				int distinct = 0;
+				int previous = -1;
+				for (Integer value : all) {
+					if (value >= 0) {
+						Assert.assertEquals(previous + 1, (int) value);
+						previous = value;
+						distinct++;
+					} else
+						Assert.assertEquals(previous, -value - 1);
+				}
+				Assert.assertEquals(total, distinct);
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 002: " + e.getMessage());
+		}
+	}
+}
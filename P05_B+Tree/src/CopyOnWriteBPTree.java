@@ -0,0 +1,871 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * B+ tree whose nodes are never changed once they are reachable. An insert
+ * copies the path from the root to its leaf, splitting copies where BPTree
+ * would split nodes, and publishes the new root together with the new size
+ * as one immutable version. Everything off the path is shared with the
+ * previous version.
+ *
+ * Readers take the current version and never look at anything else, so they
+ * take no lock and every search sees one consistent tree, however many
+ * inserts happen meanwhile. snapshot() hands out the current version as a
+ * read-only tree for as long as a caller needs it, at the cost of a single
+ * object. Writers are serialized among themselves, but never wait for
+ * readers.
+ *
+ * Leaves have no next links, since a copied leaf would need a copied
+ * predecessor all the way back to the first leaf; range searches walk the
+ * leaves with a stack of the internal nodes above them instead. Nodes that
+ * no version or snapshot can reach any more are left to the garbage
+ * collector, so closing a snapshot is all it takes to free what only it was
+ * keeping.
+ *
+ * Duplicate keys share one leaf slot, as in ConcurrentBPTree.
+ *
+ * @author Wally Estenson
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public class CopyOnWriteBPTree<K extends Comparable<K>, V>
+		implements BPTreeADT<K, V> {
+
+	// Latest version; replaced whole by writers
+	private volatile Version current;
+
+	// Serializes writers
+	private final Object writeLock = new Object();
+
+	// Snapshots handed out and not closed yet
+	private final AtomicInteger openSnapshots;
+
+	// Branching factor is the number of children nodes
+	// for internal nodes of the tree
+	private final int branchingFactor;
+
+	/**
+	 * Public constructor
+	 *
+	 * @param branchingFactor
+	 */
+	public CopyOnWriteBPTree(int branchingFactor) {
+		if (branchingFactor <= 2)
+			throw new IllegalArgumentException(
+					"Illegal branching factor: " + branchingFactor);
+
+		this.branchingFactor = branchingFactor;
+		this.openSnapshots = new AtomicInteger();
+		this.current = new Version(new LeafNode(new Object[0], new Object[0]),
+				0);
+	}
+
+	/**
+	 * Inserts the key and value in the appropriate nodes in the tree If the key
+	 * is null, throw IllegalArgumentException
+	 *
+	 * Note: key-value pairs with duplicate keys can be inserted into the tree.
+	 * Readers and snapshots see the insert all at once, or not at all.
+	 *
+	 * @param key
+	 * @param value
+	 */
+	@Override
+	public void insert(K key, V value) {
+
+		// do not allow null key
+		if (key == null)
+			throw new IllegalArgumentException();
+
+		synchronized (writeLock) {
+			Version version = current;
+			Node root = version.root.insert(key, value);
+
+			// grow the tree by one level when the root splits
+			if (root.isOverflow()) {
+				Node[] halves = root.split();
+				root = new InternalNode(
+						new Object[] { halves[1].getFirstLeafKey() },
+						new Object[] { halves[0], halves[1] });
+			}
+
+			current = new Version(root, version.size + 1);
+		}
+	}
+
+	/**
+	 * Returns a read-only view of the tree as it is now, unaffected by later
+	 * inserts. Taking one copies nothing. Close it when done, so the nodes
+	 * only it still reaches can be reclaimed.
+	 *
+	 * @return snapshot of the current version
+	 */
+	public Snapshot snapshot() {
+		openSnapshots.incrementAndGet();
+		return new Snapshot(current);
+	}
+
+	/**
+	 * Returns the number of snapshots that were taken and not closed
+	 *
+	 * @return open snapshots
+	 */
+	public int getOpenSnapshots() {
+		return openSnapshots.get();
+	}
+
+	/**
+	 * (non-Javadoc) Searches the version current when called
+	 *
+	 * @see BPTreeADT#rangeSearch(java.lang.Comparable, java.lang.String)
+	 */
+	@Override
+	public List<V> rangeSearch(K key, String comparator) {
+		return current.rangeSearch(key, comparator);
+	}
+
+	/**
+	 * Gets the values of all keys between low and high, in key order, from
+	 * the version current when called
+	 *
+	 * @see BPTree#rangeSearch(Comparable, boolean, Comparable, boolean)
+	 * @return list of values in range; if nothing found, return empty list
+	 */
+	public List<V> rangeSearch(K low, boolean lowInclusive, K high,
+			boolean highInclusive) {
+		return current.rangeSearch(low, lowInclusive, high, highInclusive);
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see BPTreeADT#get(java.lang.Comparable)
+	 */
+	@Override
+	public V get(K key) {
+		return current.get(key);
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see BPTreeADT#size()
+	 */
+	@Override
+	public int size() {
+		return current.size;
+	}
+
+	/**
+	 * Returns a string representation for the tree, in the same format as
+	 * BPTree
+	 *
+	 * @return a string representation
+	 */
+	@Override
+	public String toString() {
+		return current.toString();
+	}
+
+	/**
+	 * Read-only view of one version of the tree. Inserting into a snapshot
+	 * throws UnsupportedOperationException, and using it after close throws
+	 * IllegalStateException.
+	 *
+	 * @author Wally Estenson
+	 */
+	public final class Snapshot implements BPTreeADT<K, V>, AutoCloseable {
+
+		// null once closed; closing swaps it out, so only one close counts
+		private final AtomicReference<Version> version;
+
+		/**
+		 * Private constructor
+		 */
+		private Snapshot(Version version) {
+			this.version = new AtomicReference<Version>(version);
+		}
+
+		/**
+		 * Returns the version, if the snapshot is still open
+		 */
+		private Version version() {
+			Version open = version.get();
+			if (open == null)
+				throw new IllegalStateException("Snapshot is closed");
+			return open;
+		}
+
+		/**
+		 * (non-Javadoc) Snapshots are read-only
+		 *
+		 * @see BPTreeADT#insert(java.lang.Comparable, java.lang.Object)
+		 */
+		@Override
+		public void insert(K key, V value) {
+			throw new UnsupportedOperationException("Snapshot is read-only");
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see BPTreeADT#rangeSearch(java.lang.Comparable, java.lang.String)
+		 */
+		@Override
+		public List<V> rangeSearch(K key, String comparator) {
+			return version().rangeSearch(key, comparator);
+		}
+
+		/**
+		 * Gets the values of all keys between low and high, in key order
+		 *
+		 * @see BPTree#rangeSearch(Comparable, boolean, Comparable, boolean)
+		 * @return list of values in range; if nothing found, return empty list
+		 */
+		public List<V> rangeSearch(K low, boolean lowInclusive, K high,
+				boolean highInclusive) {
+			return version().rangeSearch(low, lowInclusive, high, highInclusive);
+		}
+
+		/**
+		 * Opens a lazy cursor over the entries with keys between low and high.
+		 * The cursor stays valid while the tree changes, but not after the
+		 * snapshot is closed.
+		 *
+		 * @see BPTree#cursor(Comparable, boolean, Comparable, boolean)
+		 * @return cursor over the entries in range
+		 */
+		public RangeCursor<K, V> cursor(K low, boolean lowInclusive, K high,
+				boolean highInclusive) {
+			return version().new PathCursor(low, lowInclusive, high,
+					highInclusive);
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see BPTreeADT#get(java.lang.Comparable)
+		 */
+		@Override
+		public V get(K key) {
+			return version().get(key);
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see BPTreeADT#size()
+		 */
+		@Override
+		public int size() {
+			return version().size;
+		}
+
+		/**
+		 * (non-Javadoc) Releases the version; closing again does nothing
+		 *
+		 * @see java.lang.AutoCloseable#close()
+		 */
+		@Override
+		public void close() {
+			if (version.getAndSet(null) != null)
+				openSnapshots.decrementAndGet();
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return version().toString();
+		}
+	} // End of class Snapshot
+
+	/**
+	 * Root and size of the tree after one insert. Never changes.
+	 *
+	 * @author Wally Estenson
+	 */
+	private final class Version {
+
+		final Node root;
+		final int size;
+
+		/**
+		 * Package constructor
+		 */
+		Version(Node root, int size) {
+			this.root = root;
+			this.size = size;
+		}
+
+		/**
+		 * Returns the first value of the key, or null
+		 */
+		V get(K key) {
+			if (key == null)
+				return null;
+
+			Node node = root;
+			while (node instanceof CopyOnWriteBPTree.InternalNode) {
+				InternalNode internal = (InternalNode) node;
+				node = internal.getChild(internal.getChildIndex(key));
+			}
+
+			LeafNode leaf = (LeafNode) node;
+			int index = leaf.findIndex(key);
+			return index >= 0 ? leaf.getFirstValue(index) : null;
+		}
+
+		/**
+		 * Maps a comparator search to a range search
+		 */
+		List<V> rangeSearch(K key, String comparator) {
+
+			// must have valid key and comparator arguments
+			if (key == null || comparator == null)
+				return new ArrayList<V>();
+
+			if (comparator.contentEquals("<"))
+				return rangeSearch(null, false, key, false);
+			else if (comparator.contentEquals("<="))
+				return rangeSearch(null, false, key, true);
+			else if (comparator.contentEquals("=="))
+				return rangeSearch(key, true, key, true);
+			else if (comparator.contentEquals(">="))
+				return rangeSearch(key, true, null, false);
+			else if (comparator.contentEquals(">"))
+				return rangeSearch(key, false, null, false);
+			else
+				return new ArrayList<V>();
+		}
+
+		/**
+		 * Drains a cursor over the range
+		 */
+		List<V> rangeSearch(K low, boolean lowInclusive, K high,
+				boolean highInclusive) {
+
+			List<V> filtered = new ArrayList<V>();
+
+			// a cursor from above high ends at its first key
+			PathCursor cursor = new PathCursor(low, lowInclusive, high,
+					highInclusive);
+			while (cursor.advance())
+				filtered.add(cursor.getValue());
+
+			return filtered;
+		}
+
+		/**
+		 * Returns a string representation for the version, in the same format
+		 * as BPTree
+		 *
+		 * @return a string representation
+		 */
+		@Override
+		public String toString() {
+			Queue<List<Node>> queue = new LinkedList<List<Node>>();
+			queue.add(Arrays.asList(root));
+			StringBuilder sb = new StringBuilder();
+			while (!queue.isEmpty()) {
+				Queue<List<Node>> nextQueue = new LinkedList<List<Node>>();
+				while (!queue.isEmpty()) {
+					List<Node> nodes = queue.remove();
+					sb.append('{');
+					Iterator<Node> it = nodes.iterator();
+					while (it.hasNext()) {
+						Node node = it.next();
+						sb.append(node.toString());
+						if (it.hasNext())
+							sb.append(", ");
+						if (node instanceof CopyOnWriteBPTree.InternalNode)
+							nextQueue.add(((InternalNode) node).getChildren());
+					}
+					sb.append('}');
+					if (!queue.isEmpty())
+						sb.append(", ");
+					else {
+						sb.append('\n');
+					}
+				}
+				queue = nextQueue;
+			}
+			return sb.toString();
+		}
+
+		/**
+		 * Cursor over the entries of this version in a key range. It keeps the
+		 * internal nodes above the current leaf and the child taken in each,
+		 * and finds the next leaf by climbing to the nearest one with a child
+		 * further right.
+		 *
+		 * @author Wally Estenson
+		 */
+		private final class PathCursor implements RangeCursor<K, V> {
+
+			// internal nodes above the leaf, from the root down, and the index
+			// of the child taken in each
+			private final InternalNode[] path;
+			private final int[] pathIndex;
+
+			private final K high;
+			private final boolean highInclusive;
+
+			// leaf and index of the next key, null once the range is used up
+			private LeafNode leaf;
+			private int index;
+
+			// values of the current key still to return, past valueIndex
+			private Object[] postings;
+			private int valueIndex;
+
+			private K key;
+			private V value;
+			private boolean positioned;
+
+			/**
+			 * Descends to the first key in range
+			 */
+			@SuppressWarnings({ "unchecked", "rawtypes" })
+			PathCursor(K low, boolean lowInclusive, K high,
+					boolean highInclusive) {
+				this.high = high;
+				this.highInclusive = highInclusive;
+
+				int depth = 0;
+				for (Node node = root; node instanceof CopyOnWriteBPTree.InternalNode; node = ((InternalNode) node)
+						.getChild(0))
+					depth++;
+
+				path = (InternalNode[]) new CopyOnWriteBPTree.InternalNode[depth];
+				pathIndex = new int[depth];
+
+				Node node = root;
+				for (int level = 0; level < depth; level++) {
+					InternalNode internal = (InternalNode) node;
+					int childIndex = low == null ? 0 : internal.getChildIndex(low);
+					path[level] = internal;
+					pathIndex[level] = childIndex;
+					node = internal.getChild(childIndex);
+				}
+
+				leaf = (LeafNode) node;
+				if (low != null) {
+					index = leaf.findIndex(low);
+					if (index < 0)
+						index = -index - 1;
+					else if (!lowInclusive)
+						index++;
+				}
+			}
+
+			/**
+			 * (non-Javadoc)
+			 *
+			 * @see RangeCursor#advance()
+			 */
+			@Override
+			@SuppressWarnings("unchecked")
+			public boolean advance() {
+
+				// more values of the same key
+				if (postings != null && valueIndex < postings.length) {
+					value = (V) postings[valueIndex++];
+					return true;
+				}
+
+				while (leaf != null && index >= leaf.keys.length) {
+					leaf = nextLeaf();
+					index = 0;
+				}
+
+				if (leaf == null) {
+					positioned = false;
+					return false;
+				}
+
+				K next = (K) leaf.keys[index];
+				if (high != null) {
+					int comparison = next.compareTo(high);
+					if (comparison > 0 || (comparison == 0 && !highInclusive)) {
+						leaf = null;
+						positioned = false;
+						return false;
+					}
+				}
+
+				key = next;
+				Object slot = leaf.values[index++];
+				if (slot instanceof Postings) {
+					postings = ((Postings) slot).values;
+					valueIndex = 1;
+					value = (V) postings[0];
+				} else {
+					postings = null;
+					value = (V) slot;
+				}
+				positioned = true;
+				return true;
+			}
+
+			/**
+			 * Climbs to the nearest internal node with a child right of the
+			 * path and descends to that child's leftmost leaf
+			 *
+			 * @return next leaf, or null after the last one
+			 */
+			private LeafNode nextLeaf() {
+				for (int level = path.length - 1; level >= 0; level--) {
+					if (pathIndex[level] + 1 < path[level].children.length) {
+						Node node = path[level].getChild(++pathIndex[level]);
+						for (int below = level + 1; below < path.length; below++) {
+							path[below] = (InternalNode) node;
+							pathIndex[below] = 0;
+							node = path[below].getChild(0);
+						}
+						return (LeafNode) node;
+					}
+				}
+				return null;
+			}
+
+			/**
+			 * (non-Javadoc)
+			 *
+			 * @see RangeCursor#getKey()
+			 */
+			@Override
+			public K getKey() {
+				if (!positioned)
+					throw new IllegalStateException("No current entry");
+				return key;
+			}
+
+			/**
+			 * (non-Javadoc)
+			 *
+			 * @see RangeCursor#getValue()
+			 */
+			@Override
+			public V getValue() {
+				if (!positioned)
+					throw new IllegalStateException("No current entry");
+				return value;
+			}
+		} // End of class PathCursor
+	} // End of class Version
+
+	/**
+	 * Node over a key array of exactly its key count. A node is built whole
+	 * and its arrays are never written afterwards, so versions can share it.
+	 *
+	 * @author Wally Estenson
+	 */
+	private abstract class Node {
+
+		final Object[] keys;
+
+		/**
+		 * Package constructor
+		 */
+		Node(Object[] keys) {
+			this.keys = keys;
+		}
+
+		/**
+		 * Returns a copy of this subtree with the key and value added. The copy
+		 * may overflow; the caller splits it.
+		 *
+		 * @param key   to insert
+		 * @param value to insert
+		 * @return new node
+		 */
+		abstract Node insert(K key, V value);
+
+		/**
+		 * Checks whether the node holds more than it may
+		 *
+		 * @return true if the node has to be split
+		 */
+		abstract boolean isOverflow();
+
+		/**
+		 * Splits an overflowing node at the same point BPTree does
+		 *
+		 * @return left and right half
+		 */
+		abstract Node[] split();
+
+		/**
+		 * Gets the first leaf key of the subtree
+		 *
+		 * @return first leaf key
+		 */
+		abstract Object getFirstLeafKey();
+
+		/**
+		 * Binary searches the keys
+		 *
+		 * @param key to find
+		 * @return index of the key, or (-(insertion point) - 1)
+		 */
+		@SuppressWarnings("unchecked")
+		int findIndex(K key) {
+			int low = 0;
+			int high = keys.length - 1;
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				int comparison = ((K) keys[middle]).compareTo(key);
+				if (comparison < 0)
+					low = middle + 1;
+				else if (comparison > 0)
+					high = middle - 1;
+				else
+					return middle;
+			}
+			return -(low + 1);
+		}
+
+		/**
+		 * Converts keys to string for testing purposes
+		 */
+		public String toString() {
+			return Arrays.asList(keys).toString();
+		}
+	} // End of class Node
+
+	/**
+	 * Internal node holding keys.length + 1 children
+	 *
+	 * @author Wally Estenson
+	 */
+	private class InternalNode extends Node {
+
+		final Object[] children;
+
+		/**
+		 * Package constructor
+		 */
+		InternalNode(Object[] keys, Object[] children) {
+			super(keys);
+			this.children = children;
+		}
+
+		/**
+		 * Returns the child at index
+		 */
+		@SuppressWarnings("unchecked")
+		Node getChild(int index) {
+			return (Node) children[index];
+		}
+
+		/**
+		 * Gets the index of the child whose subtree would hold the key
+		 *
+		 * @param key to route
+		 * @return index into children
+		 */
+		int getChildIndex(K key) {
+			int index = findIndex(key);
+			return index >= 0 ? index + 1 : -index - 1;
+		}
+
+		/**
+		 * (non-Javadoc) Copies this node with the new child, and with the
+		 * child's halves if it overflowed
+		 *
+		 * @see CopyOnWriteBPTree.Node#insert(Comparable, Object)
+		 */
+		Node insert(K key, V value) {
+			int childIndex = getChildIndex(key);
+			Node child = getChild(childIndex).insert(key, value);
+
+			if (!child.isOverflow()) {
+				Object[] copy = children.clone();
+				copy[childIndex] = child;
+				return new InternalNode(keys, copy);
+			}
+
+			Node[] halves = child.split();
+			Object[] copy = insertAt(children, childIndex + 1, halves[1]);
+			copy[childIndex] = halves[0];
+			return new InternalNode(
+					insertAt(keys, childIndex, halves[1].getFirstLeafKey()), copy);
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see CopyOnWriteBPTree.Node#isOverflow()
+		 */
+		boolean isOverflow() {
+			return children.length > branchingFactor;
+		}
+
+		/**
+		 * (non-Javadoc) The middle key moves up to the parent
+		 *
+		 * @see CopyOnWriteBPTree.Node#split()
+		 */
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Node[] split() {
+			int begining = keys.length / 2 + 1;
+			return new CopyOnWriteBPTree.Node[] {
+					new InternalNode(Arrays.copyOfRange(keys, 0, begining - 1),
+							Arrays.copyOfRange(children, 0, begining)),
+					new InternalNode(
+							Arrays.copyOfRange(keys, begining, keys.length),
+							Arrays.copyOfRange(children, begining,
+									children.length)) };
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see CopyOnWriteBPTree.Node#getFirstLeafKey()
+		 */
+		Object getFirstLeafKey() {
+			return getChild(0).getFirstLeafKey();
+		}
+
+		/**
+		 * Returns the children, for toString
+		 */
+		List<Node> getChildren() {
+			List<Node> list = new ArrayList<Node>();
+			for (int i = 0; i < children.length; i++)
+				list.add(getChild(i));
+			return list;
+		}
+	} // End of class InternalNode
+
+	/**
+	 * Leaf node holding keys and their value slots
+	 *
+	 * @author Wally Estenson
+	 */
+	private class LeafNode extends Node {
+
+		// values[i] is the only value of keys[i], or Postings
+		final Object[] values;
+
+		/**
+		 * Package constructor
+		 */
+		LeafNode(Object[] keys, Object[] values) {
+			super(keys);
+			this.values = values;
+		}
+
+		/**
+		 * (non-Javadoc) A duplicate key shares the key array with this leaf
+		 *
+		 * @see CopyOnWriteBPTree.Node#insert(Comparable, Object)
+		 */
+		Node insert(K key, V value) {
+			int index = findIndex(key);
+
+			if (index >= 0) {
+				Object[] copy = values.clone();
+				copy[index] = Postings.append(values[index], value);
+				return new LeafNode(keys, copy);
+			}
+
+			index = -index - 1;
+			return new LeafNode(insertAt(keys, index, key),
+					insertAt(values, index, value));
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see CopyOnWriteBPTree.Node#isOverflow()
+		 */
+		boolean isOverflow() {
+			return keys.length > branchingFactor - 1;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see CopyOnWriteBPTree.Node#split()
+		 */
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Node[] split() {
+			int begining = keys.length / 2;
+			return new CopyOnWriteBPTree.Node[] {
+					new LeafNode(Arrays.copyOfRange(keys, 0, begining),
+							Arrays.copyOfRange(values, 0, begining)),
+					new LeafNode(Arrays.copyOfRange(keys, begining, keys.length),
+							Arrays.copyOfRange(values, begining, values.length)) };
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see CopyOnWriteBPTree.Node#getFirstLeafKey()
+		 */
+		Object getFirstLeafKey() {
+			return keys[0];
+		}
+
+		/**
+		 * Returns the first value of the key at index
+		 */
+		@SuppressWarnings("unchecked")
+		V getFirstValue(int index) {
+			Object slot = values[index];
+			if (slot instanceof Postings)
+				return (V) ((Postings) slot).values[0];
+			return (V) slot;
+		}
+	} // End of class LeafNode
+
+	/**
+	 * Returns a copy of the array with the element inserted at index
+	 */
+	private static Object[] insertAt(Object[] array, int index, Object element) {
+		Object[] copy = new Object[array.length + 1];
+		System.arraycopy(array, 0, copy, 0, index);
+		copy[index] = element;
+		System.arraycopy(array, index, copy, index + 1, array.length - index);
+		return copy;
+	}
+
+	/**
+	 * Immutable values of a key that was inserted more than once
+	 *
+	 * @author Wally Estenson
+	 */
+	private static final class Postings {
+
+		final Object[] values;
+
+		Postings(Object[] values) {
+			this.values = values;
+		}
+
+		/**
+		 * Returns a slot holding the old slot's values followed by value
+		 */
+		static Postings append(Object slot, Object value) {
+			if (slot instanceof Postings) {
+				Object[] old = ((Postings) slot).values;
+				Object[] values = Arrays.copyOf(old, old.length + 1);
+				values[old.length] = value;
+				return new Postings(values);
+			}
+			return new Postings(new Object[] { slot, value });
+		}
+	}
+}
@@ -0,0 +1,195 @@
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test Class for CopyOnWriteBPTree.java, checked against BPTree
+ *
+ *
+ * @author Wally Estenson
+ */
+public class CopyOnWriteBPTree_Tests {
+
+	private static final String[] COMPARATORS = { "<", "<=", "==", ">=", ">" };
+
+	/**
+	 * Same structure and searches as BPTree, duplicates included, and a
+	 * snapshot that keeps showing the tree as it was when it was taken
+	 */
+	@Test
+	void testBALST_001_matches_bptree_and_snapshot_is_frozen() {
+
+		try {
+
+			for (int branchingFactor : new int[] { 3, 4, 5, 16, 128 }) {
+				Random rnd = new Random(branchingFactor);
+				CopyOnWriteBPTree<Integer, Integer> tree = new CopyOnWriteBPTree<>(
+						branchingFactor);
+				BPTree<Integer, Integer> expected = new BPTree<>(branchingFactor);
+				BPTree<Integer, Integer> frozen = new BPTree<>(branchingFactor);
+				CopyOnWriteBPTree<Integer, Integer>.Snapshot snapshot = null;
+
+				for (int i = 0; i < 5000; i++) {
+					Integer key = rnd.nextInt(2000) - 1000;
+					tree.insert(key, i);
+					expected.insert(key, i);
+					if (i < 2500)
+						frozen.insert(key, i);
+					if (i == 2499)
+						snapshot = tree.snapshot();
+				}
+
+				Assert.assertEquals(expected.size(), tree.size());
+				Assert.assertEquals(expected.toString(), tree.toString());
+				Assert.assertEquals(frozen.size(), snapshot.size());
+				Assert.assertEquals(frozen.toString(), snapshot.toString());
+
+				for (int key = -1001; key <= 1001; key++) {
+					Assert.assertEquals(expected.get(key), tree.get(key));
+					Assert.assertEquals(frozen.get(key), snapshot.get(key));
+					if (key % 97 == 0)
+						for (String comparator : COMPARATORS) {
+							Assert.assertEquals(expected.rangeSearch(key, comparator),
+									tree.rangeSearch(key, comparator));
+							Assert.assertEquals(frozen.rangeSearch(key, comparator),
+									snapshot.rangeSearch(key, comparator));
+						}
+				}
+
+				Assert.assertEquals(expected.rangeSearch(-100, true, 100, false),
+						tree.rangeSearch(-100, true, 100, false));
+				Assert.assertEquals(frozen.rangeSearch(100, false, -100, true),
+						snapshot.rangeSearch(100, false, -100, true));
+
+				RangeCursor<Integer, Integer> cursor = snapshot.cursor(null, true,
+						null, true);
+				RangeCursor<Integer, Integer> frozenCursor = frozen.cursor(null, true,
+						null, true);
+				while (frozenCursor.advance()) {
+					Assert.assertTrue(cursor.advance());
+					Assert.assertEquals(frozenCursor.getKey(), cursor.getKey());
+					Assert.assertEquals(frozenCursor.getValue(), cursor.getValue());
+				}
+				Assert.assertFalse(cursor.advance());
+
+				Assert.assertEquals(1, tree.getOpenSnapshots());
+				snapshot.close();
+				snapshot.close();
+				Assert.assertEquals(0, tree.getOpenSnapshots());
+				try {
+					snapshot.get(0);
+					fail("read a closed snapshot");
+				} catch (IllegalStateException expectedException) {
+				}
+			}
+
+			CopyOnWriteBPTree<Integer, Integer> tree = new CopyOnWriteBPTree<>(3);
+			try (CopyOnWriteBPTree<Integer, Integer>.Snapshot snapshot = tree
+					.snapshot()) {
+				Assert.assertTrue(snapshot.rangeSearch(0, ">=").isEmpty());
+				snapshot.insert(1, 1);
+				fail("inserted into a snapshot");
+			} catch (UnsupportedOperationException expectedException) {
+			}
+			Assert.assertNull(tree.get(null));
+			Assert.assertTrue(tree.rangeSearch(null, ">=").isEmpty());
+			Assert.assertTrue(tree.rangeSearch(0, "!=").isEmpty());
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 001: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Scans of snapshots taken while a writer inserts always see exactly the
+	 * snapshot's entries, in order, once each
+	 */
+	@Test
+	void testBALST_002_snapshot_scans_during_inserts() {
+
+		try {
+
+			CopyOnWriteBPTree<Integer, Integer> tree = new CopyOnWriteBPTree<>(8);
+			int count = 50000;
+			List<Integer> keys = new ArrayList<Integer>();
+			for (int i = 0; i < count; i++)
+				keys.add(i);
+			Collections.shuffle(keys, new Random(2));
+
+			AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+			Thread writer = new Thread(() -> {
+				for (Integer key : keys)
+					tree.insert(key, -key);
+			});
+
+			List<Thread> readers = new ArrayList<Thread>();
+			for (int r = 0; r < 3; r++) {
+				readers.add(new Thread(() -> {
+					try {
+						while (writer.isAlive()) {
+							try (CopyOnWriteBPTree<Integer, Integer>.Snapshot snapshot = tree
+									.snapshot()) {
+								RangeCursor<Integer, Integer> cursor = snapshot
+										.cursor(null, true, null, true);
+								int seen = 0;
+								int previous = -1;
+								while (cursor.advance()) {
+									Assert.assertTrue(cursor.getKey() > previous);
+									Assert.assertEquals(-cursor.getKey(),
+											(int) cursor.getValue());
+									previous = cursor.getKey();
+									seen++;
+								}
+								Assert.assertEquals(snapshot.size(), seen);
+							}
+						}
+					} catch (Throwable t) {
+						failure.compareAndSet(null, t);
+					}
+				}));
+			}
+
+			writer.start();
+			for (Thread reader : readers)
+				reader.start();
+			writer.join();
+			for (Thread reader : readers)
+				reader.join();
+
+			if (failure.get() != null)
+				throw new AssertionError(failure.get());
+
+			Assert.assertEquals(count, tree.size());
+			Assert.assertEquals(0, tree.getOpenSnapshots());
+			Assert.assertEquals(count, tree.rangeSearch(0, ">=").size());
+
+			// threads racing to close the same snapshots count each close once
+			List<CopyOnWriteBPTree<Integer, Integer>.Snapshot> snapshots = new ArrayList<>();
+			for (int i = 0; i < 2000; i++)
+				snapshots.add(tree.snapshot());
+			Thread[] closers = new Thread[4];
+			for (int c = 0; c < closers.length; c++) {
+				closers[c] = new Thread(() -> {
+					for (CopyOnWriteBPTree<Integer, Integer>.Snapshot snapshot : snapshots)
+						snapshot.close();
+				});
+				closers[c].start();
+			}
+			for (Thread closer : closers)
+				closer.join();
+			Assert.assertEquals(0, tree.getOpenSnapshots());
+
+		} catch (Throwable e) {
+			e.printStackTrace();
+			fail("Unexpected exception 002: " + e.getMessage());
+		}
+	}
+}
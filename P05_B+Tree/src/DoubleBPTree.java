@@ -0,0 +1,179 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * B+ tree specialized for double keys. Each key is stored as a long whose
+ * signed order is the order of Double.compareTo, so this is a LongBPTree
+ * underneath: keys sit unboxed in long[] node arrays and compare as longs.
+ * Like Double.compareTo, -0.0 sorts before 0.0 and NaN sorts after positive
+ * infinity.
+ *
+ * Behaves like BPTree<Double, V>: duplicate keys share a leaf slot in
+ * insertion order, and rangeSearch takes the same comparators.
+ *
+ * @author Wally Estenson
+ *
+ * @param <V> value
+ */
+public class DoubleBPTree<V> implements BPTreeADT<Double, V> {
+
+	private final LongBPTree<V> tree;
+
+	/**
+	 * Public constructor
+	 *
+	 * @param branchingFactor
+	 */
+	public DoubleBPTree(int branchingFactor) {
+		tree = new LongBPTree<V>(branchingFactor);
+	}
+
+	/**
+	 * Maps a double to a long with the same order. Positive doubles already
+	 * order like their bits; negative ones get every bit but the sign flipped
+	 * so that larger magnitudes come out smaller.
+	 *
+	 * @param key double key
+	 * @return long key
+	 */
+	static long encode(double key) {
+		long bits = Double.doubleToLongBits(key);
+		return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+	}
+
+	/**
+	 * Inverse of encode
+	 *
+	 * @param key long key
+	 * @return double key
+	 */
+	static double decode(long key) {
+		return Double.longBitsToDouble(key ^ ((key >> 63) & Long.MAX_VALUE));
+	}
+
+	/**
+	 * Inserts the key and value in the appropriate nodes in the tree If the key
+	 * is null, throw IllegalArgumentException
+	 *
+	 * @param key
+	 * @param value
+	 */
+	@Override
+	public void insert(Double key, V value) {
+
+		// do not allow null key
+		if (key == null)
+			throw new IllegalArgumentException();
+
+		insert(key.doubleValue(), value);
+	}
+
+	/**
+	 * Inserts the key and value in the appropriate nodes in the tree
+	 *
+	 * Note: key-value pairs with duplicate keys can be inserted into the tree.
+	 *
+	 * @param key
+	 * @param value
+	 */
+	public void insert(double key, V value) {
+		tree.insert(encode(key), value);
+	}
+
+	/**
+	 * Gets the values that satisfy the given range search arguments.
+	 *
+	 * Value of comparator can be one of these: "<", "<=", "==", ">=", ">"
+	 *
+	 * If key is null, return empty list. If comparator is null, empty, or not
+	 * according to required form, return empty list.
+	 *
+	 * @param key        to be searched
+	 * @param comparator is a string
+	 * @return list of values that are the result of the range search; if
+	 *         nothing found, return empty list
+	 */
+	@Override
+	public List<V> rangeSearch(Double key, String comparator) {
+
+		// must have valid key argument
+		if (key == null)
+			return new ArrayList<V>();
+
+		return rangeSearch(key.doubleValue(), comparator);
+	}
+
+	/**
+	 * Primitive form of rangeSearch(Double, String)
+	 *
+	 * @param key        to be searched
+	 * @param comparator is a string
+	 * @return list of values that are the result of the range search; if
+	 *         nothing found, return empty list
+	 */
+	public List<V> rangeSearch(double key, String comparator) {
+		return tree.rangeSearch(encode(key), comparator);
+	}
+
+	/**
+	 * Gets the values of all keys between low and high, in key order. Use
+	 * Double.NEGATIVE_INFINITY or Double.NaN, inclusive, for an open side.
+	 *
+	 * @param low           lower bound
+	 * @param lowInclusive  whether a key equal to low is in range
+	 * @param high          upper bound
+	 * @param highInclusive whether a key equal to high is in range
+	 * @return list of values in range; if nothing found, return empty list
+	 */
+	public List<V> rangeSearch(double low, boolean lowInclusive, double high,
+			boolean highInclusive) {
+		return tree.rangeSearch(encode(low), lowInclusive, encode(high),
+				highInclusive);
+	}
+
+	/**
+	 * Returns the value of the first leaf with a matching key. If key is null,
+	 * return null. If key is not found, return null.
+	 *
+	 * @param key to find
+	 * @return value of the first leaf matching key
+	 */
+	@Override
+	public V get(Double key) {
+		if (key == null)
+			return null;
+
+		return get(key.doubleValue());
+	}
+
+	/**
+	 * Primitive form of get(Double)
+	 *
+	 * @param key to find
+	 * @return value of the first leaf matching key, or null
+	 */
+	public V get(double key) {
+		return tree.get(encode(key));
+	}
+
+	/**
+	 * Return the number of leaves in the tree
+	 *
+	 * @return number of leaves
+	 */
+	@Override
+	public int size() {
+		return tree.size();
+	}
+
+	/**
+	 * Returns a string representation for the tree, in the same format as
+	 * BPTree.
+	 *
+	 * @return a string representation
+	 */
+	@Override
+	public String toString() {
+		return tree.toString(key -> Double.toString(decode(key)));
+	}
+}
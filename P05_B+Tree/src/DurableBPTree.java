@@ -0,0 +1,475 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * BPTree whose changes are recorded in a WriteAheadLog before they are
+ * acknowledged. The tree itself stays in memory; the log is the only thing
+ * written to disk, and opening the tree replays it. A crash can therefore
+ * never leave a half-done split behind: splits and merges are redone from the
+ * logged operations instead of being persisted themselves.
+ *
+ * Each insert or remove is appended to the log under the tree's lock, then
+ * committed outside it, so concurrent writers append while another one is
+ * syncing and share its next fsync. Only after its commit is a change applied
+ * to the tree, in the order of the log, so readers never see a change whose
+ * log write failed. With syncEvery 1 a commit is durable, and readers never
+ * see a change a crash could lose either. With syncEvery above 1 a commit
+ * returns, and the change is applied and visible, before it is durable, and a
+ * crash loses at most the last syncEvery - 1 changes; sync makes everything
+ * durable on demand. If a commit fails, the tree refuses every further
+ * change, and reopening it replays what reached the log.
+ *
+ * The log grows with every change until checkpoint replaces it with one
+ * insert per live entry, written to a new file that is moved over the old one
+ * atomically, so a crash leaves either the old log or the new one. The
+ * directory is synced after the move, before the new log takes any commits.
+ *
+ * Log records hold an operation byte, the key and, for operations that have
+ * one, the value, each written by its Serializer behind a length:
+ *
+ * <pre>
+ * 0  operation     byte
+ * 1  key length    int
+ * 5  key
+ * .  value length  int, -1 for a null value
+ * .  value
+ * </pre>
+ *
+ * @author Wally Estenson
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public class DurableBPTree<K extends Comparable<K>, V>
+		implements BPTreeADT<K, V>, Closeable {
+
+	// Logged operations
+	private static final byte INSERT = 1;
+	private static final byte REMOVE = 2;
+	private static final byte REMOVE_VALUE = 3;
+	private static final byte REMOVE_ALL = 4;
+
+	private static final int NULL_VALUE = -1;
+
+	private final Path file;
+	private final int branchingFactor;
+	private final int syncEvery;
+	private final Serializer<K> keySerializer;
+	private final Serializer<V> valueSerializer;
+
+	// guards tree and log replacement
+	private final Object lock = new Object();
+
+	private final BPTree<K, V> tree;
+	private WriteAheadLog log;
+
+	// changes given a place in the log, and changes applied to the tree; both
+	// count in log order
+	private long logged;
+	private long applied;
+
+	// a commit failed, so the log may hold changes the tree does not
+	private boolean failed;
+
+	/**
+	 * Opens the tree logged in file, replaying every change in it, or starts
+	 * an empty one. Every change is durable before it returns.
+	 *
+	 * @param file            path of the log
+	 * @param branchingFactor of the tree in memory
+	 * @param keySerializer   writes keys into the log
+	 * @param valueSerializer writes values into the log
+	 * @throws IOException if the log cannot be read
+	 */
+	public DurableBPTree(Path file, int branchingFactor,
+			Serializer<K> keySerializer, Serializer<V> valueSerializer)
+			throws IOException {
+		this(file, branchingFactor, keySerializer, valueSerializer,
+				WriteAheadLog.DEFAULT_SYNC_EVERY);
+	}
+
+	/**
+	 * Opens the tree logged in file, replaying every change in it, or starts
+	 * an empty one
+	 *
+	 * @param file            path of the log
+	 * @param branchingFactor of the tree in memory
+	 * @param keySerializer   writes keys into the log
+	 * @param valueSerializer writes values into the log
+	 * @param syncEvery       changes waiting before a commit syncs the log
+	 * @throws IOException if the log cannot be read
+	 */
+	public DurableBPTree(Path file, int branchingFactor,
+			Serializer<K> keySerializer, Serializer<V> valueSerializer,
+			int syncEvery) throws IOException {
+		if (file == null || keySerializer == null || valueSerializer == null)
+			throw new IllegalArgumentException();
+
+		this.file = file;
+		this.branchingFactor = branchingFactor;
+		this.syncEvery = syncEvery;
+		this.keySerializer = keySerializer;
+		this.valueSerializer = valueSerializer;
+		this.tree = new BPTree<K, V>(branchingFactor);
+
+		// a checkpoint that did not get to its move
+		Files.deleteIfExists(checkpointFile());
+
+		this.log = new WriteAheadLog(file, syncEvery, this::replay);
+	}
+
+	/**
+	 * Applies a logged change to the tree
+	 */
+	private void replay(ByteBuffer record) {
+		byte operation = record.get(0);
+		int keyLength = record.getInt(1);
+		K key = keySerializer.read(record, 5, keyLength);
+
+		V value = null;
+		if (operation == INSERT || operation == REMOVE_VALUE) {
+			int valueLength = record.getInt(5 + keyLength);
+			if (valueLength != NULL_VALUE)
+				value = valueSerializer.read(record, 9 + keyLength, valueLength);
+		}
+
+		if (operation == INSERT)
+			tree.insert(key, value);
+		else if (operation == REMOVE)
+			tree.remove(key);
+		else if (operation == REMOVE_VALUE)
+			tree.remove(key, value);
+		else if (operation == REMOVE_ALL)
+			tree.removeAll(key);
+		else
+			throw new IllegalStateException(
+					"Unknown log operation " + operation + " in " + file);
+	}
+
+	/**
+	 * Encodes a change for the log
+	 *
+	 * @param hasValue whether the operation carries a value
+	 */
+	private ByteBuffer record(byte operation, K key, boolean hasValue,
+			V value) {
+		int keyLength = keySerializer.size(key);
+		int valueLength = !hasValue ? 0
+				: value == null ? NULL_VALUE : valueSerializer.size(value);
+
+		ByteBuffer record = ByteBuffer.allocate(5 + keyLength
+				+ (hasValue ? 4 + Math.max(valueLength, 0) : 0));
+		record.put(0, operation);
+		record.putInt(1, keyLength);
+		keySerializer.write(record, 5, key);
+		if (hasValue) {
+			record.putInt(5 + keyLength, valueLength);
+			if (value != null)
+				valueSerializer.write(record, 9 + keyLength, value);
+		}
+		return record;
+	}
+
+	/**
+	 * Logs a change, commits it as far as syncEvery asks and only then applies
+	 * it to the tree, after every change logged before it. A change that would
+	 * do nothing is not logged, unless changes logged before it are still
+	 * waiting to be applied and may make it do something.
+	 *
+	 * @param record  encoded change
+	 * @param changes whether the change does anything to the tree as it is
+	 * @param apply   applies the change and returns its result
+	 * @param none    result of a change that does nothing
+	 * @return result of apply, or none
+	 */
+	private <R> R change(ByteBuffer record, BooleanSupplier changes,
+			Supplier<R> apply, R none) {
+		WriteAheadLog target;
+		long lsn;
+		long ticket;
+		synchronized (lock) {
+			checkUsable();
+			if (applied == logged && !changes.getAsBoolean())
+				return none;
+			target = log;
+			lsn = target.append(record);
+			ticket = ++logged;
+		}
+
+		// the log is the one the change was appended to, which a checkpoint
+		// may have closed and replaced since
+		try {
+			target.commit(lsn);
+		} catch (IOException e) {
+			synchronized (lock) {
+				failed = true;
+				lock.notifyAll();
+			}
+			throw new IllegalStateException("Cannot write the log " + file, e);
+		}
+
+		synchronized (lock) {
+			// a change cannot give up its turn, or every later one would wait
+			boolean interrupted = false;
+			while (applied != ticket - 1 && !failed) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			checkUsable();
+
+			try {
+				return apply.get();
+			} finally {
+				applied = ticket;
+				lock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Refuses to go on once a commit failed
+	 */
+	private void checkUsable() {
+		if (failed)
+			throw new IllegalStateException(
+					"The log " + file + " failed; reopen the tree to recover");
+	}
+
+	/**
+	 * (non-Javadoc) Logs the entry; returns once it is committed
+	 *
+	 * @see BPTreeADT#insert(java.lang.Comparable, java.lang.Object)
+	 */
+	@Override
+	public void insert(K key, V value) {
+		if (key == null)
+			throw new IllegalArgumentException();
+
+		change(record(INSERT, key, true, value), () -> true, () -> {
+			tree.insert(key, value);
+			return null;
+		}, null);
+	}
+
+	/**
+	 * Removes the first value of the key, and logs the removal if anything
+	 * was removed
+	 *
+	 * @param key to remove
+	 * @return value that was removed, or null if nothing was removed
+	 * @see BPTree#remove(Comparable)
+	 */
+	public V remove(K key) {
+		if (key == null)
+			return null;
+
+		return change(record(REMOVE, key, false, null),
+				() -> tree.count(key, true, key, true) > 0, () -> tree.remove(key),
+				null);
+	}
+
+	/**
+	 * Removes one occurrence of the value from the key's values, and logs the
+	 * removal if anything was removed
+	 *
+	 * @param key   to remove
+	 * @param value that the key must be mapped to
+	 * @return true if the entry was removed
+	 * @see BPTree#remove(Comparable, Object)
+	 */
+	public boolean remove(K key, V value) {
+		if (key == null)
+			return false;
+
+		return change(record(REMOVE_VALUE, key, true, value),
+				() -> tree.rangeSearch(key, true, key, true).contains(value),
+				() -> tree.remove(key, value), false);
+	}
+
+	/**
+	 * Removes the key together with all of its values, and logs the removal
+	 * if anything was removed
+	 *
+	 * @param key to remove
+	 * @return values that were removed in insertion order; if nothing found,
+	 *         return empty list
+	 * @see BPTree#removeAll(Comparable)
+	 */
+	public List<V> removeAll(K key) {
+		if (key == null)
+			return tree.removeAll(null);
+
+		return change(record(REMOVE_ALL, key, false, null),
+				() -> tree.count(key, true, key, true) > 0,
+				() -> tree.removeAll(key), new ArrayList<V>());
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see BPTreeADT#get(java.lang.Comparable)
+	 */
+	@Override
+	public V get(K key) {
+		synchronized (lock) {
+			return tree.get(key);
+		}
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see BPTreeADT#rangeSearch(java.lang.Comparable, java.lang.String)
+	 */
+	@Override
+	public List<V> rangeSearch(K key, String comparator) {
+		synchronized (lock) {
+			return tree.rangeSearch(key, comparator);
+		}
+	}
+
+	/**
+	 * Gets the values of all keys between low and high, in key order
+	 *
+	 * @see BPTree#rangeSearch(Comparable, boolean, Comparable, boolean)
+	 * @return list of values in range; if nothing found, return empty list
+	 */
+	public List<V> rangeSearch(K low, boolean lowInclusive, K high,
+			boolean highInclusive) {
+		synchronized (lock) {
+			return tree.rangeSearch(low, lowInclusive, high, highInclusive);
+		}
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see BPTreeADT#size()
+	 */
+	@Override
+	public int size() {
+		synchronized (lock) {
+			return tree.size();
+		}
+	}
+
+	/**
+	 * Makes every change so far durable, whatever syncEvery is
+	 *
+	 * @throws IOException if the log cannot be written
+	 */
+	public void sync() throws IOException {
+		log.sync();
+	}
+
+	/**
+	 * Replaces the log with one insert per live entry, so the log and the
+	 * time to reopen follow the size of the tree instead of its history.
+	 * Changes wait for the checkpoint to finish, and it waits for the changes
+	 * already logged to be applied.
+	 *
+	 * @throws IOException if the new log cannot be written
+	 */
+	public void checkpoint() throws IOException {
+		synchronized (lock) {
+			while (applied != logged && !failed) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted waiting for changes", e);
+				}
+			}
+			checkUsable();
+
+			Path checkpoint = checkpointFile();
+			Files.deleteIfExists(checkpoint);
+
+			try (WriteAheadLog compacted = new WriteAheadLog(checkpoint,
+					Integer.MAX_VALUE)) {
+				RangeCursor<K, V> cursor = tree.cursor(null, true, null, true);
+				while (cursor.advance())
+					compacted.append(record(INSERT, cursor.getKey(), true,
+							cursor.getValue()));
+			}
+
+			log.close();
+			Files.move(checkpoint, file, StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+
+			// the move is only durable once the directory is, and commits to
+			// the new log must not outlive a move that a crash undoes
+			try (FileChannel directory = FileChannel.open(
+					file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+				directory.force(true);
+			}
+			log = new WriteAheadLog(file, syncEvery);
+		}
+	}
+
+	/**
+	 * Returns the log, for its sync statistics
+	 *
+	 * @return write-ahead log
+	 */
+	public WriteAheadLog getLog() {
+		synchronized (lock) {
+			return log;
+		}
+	}
+
+	/**
+	 * Returns the branching factor of the tree in memory
+	 *
+	 * @return branching factor
+	 */
+	public int getBranchingFactor() {
+		return branchingFactor;
+	}
+
+	/**
+	 * Path a checkpoint is written to before it replaces the log
+	 */
+	private Path checkpointFile() {
+		return file.resolveSibling(file.getFileName() + ".checkpoint");
+	}
+
+	/**
+	 * (non-Javadoc) Syncs and closes the log
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (lock) {
+			log.close();
+		}
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		synchronized (lock) {
+			return tree.toString();
+		}
+	}
+}
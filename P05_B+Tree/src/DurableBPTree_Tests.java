@@ -0,0 +1,268 @@
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test Class for DurableBPTree.java and WriteAheadLog.java, checked against
+ * BPTree
+ *
+ *
+ * @author Wally Estenson
+ */
+public class DurableBPTree_Tests {
+
+	/**
+	 * Inserts and all three kinds of remove survive a reopen, before and
+	 * after a checkpoint
+	 */
+	@Test
+	void testBALST_001_reopen_replays_inserts_and_removes(
+			@TempDir Path directory) {
+
+		try {
+
+			Path file = directory.resolve("tree.log");
+			Random rnd = new Random(1);
+			BPTree<Long, String> expected = new BPTree<>(4);
+
+			for (int session = 0; session < 4; session++) {
+				try (DurableBPTree<Long, String> tree = new DurableBPTree<>(file, 4,
+						Serializer.LONG, Serializer.STRING, 16)) {
+
+					Assert.assertEquals(expected.rangeSearch(Long.MIN_VALUE, ">="),
+							tree.rangeSearch(Long.MIN_VALUE, ">="));
+					Assert.assertEquals(expected.size(), tree.size());
+
+					for (int i = 0; i < 2000; i++) {
+						Long key = (long) rnd.nextInt(500);
+						String value = i % 10 == 0 ? null : session + ":" + i;
+						switch (rnd.nextInt(5)) {
+						case 0:
+							Assert.assertEquals(expected.remove(key), tree.remove(key));
+							break;
+						case 1:
+							String old = expected.get(key);
+							Assert.assertEquals(expected.remove(key, old),
+									tree.remove(key, old));
+							break;
+						case 2:
+							Assert.assertEquals(expected.removeAll(key),
+									tree.removeAll(key));
+							break;
+						default:
+							tree.insert(key, value);
+							expected.insert(key, value);
+						}
+					}
+
+					Assert.assertEquals(expected.rangeSearch(100L, true, 400L, false),
+							tree.rangeSearch(100L, true, 400L, false));
+
+					// the second session ends with a checkpoint, which shrinks the
+					// log to the live entries
+					if (session == 1) {
+						long before = Files.size(file);
+						tree.checkpoint();
+						Assert.assertTrue(Files.size(file) < before);
+						Assert.assertFalse(Files
+								.exists(directory.resolve("tree.log.checkpoint")));
+					}
+				}
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 001: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * A log cut off in the middle of a record, or with a damaged last record,
+	 * reopens with the records before it
+	 */
+	@Test
+	void testBALST_002_torn_tail_is_dropped(@TempDir Path directory) {
+
+		try {
+
+			Path file = directory.resolve("tree.log");
+			List<Long> sizes = new ArrayList<Long>();
+			try (DurableBPTree<Integer, String> tree = new DurableBPTree<>(file, 8,
+					Serializer.INTEGER, Serializer.STRING)) {
+				for (int i = 0; i < 100; i++) {
+					tree.insert(i, "value " + i);
+					sizes.add(Files.size(file));
+				}
+			}
+
+			// a torn write: the last record is missing its final bytes
+			try (FileChannel channel = FileChannel.open(file,
+					StandardOpenOption.WRITE)) {
+				channel.truncate(sizes.get(99) - 3);
+			}
+			try (DurableBPTree<Integer, String> tree = new DurableBPTree<>(file, 8,
+					Serializer.INTEGER, Serializer.STRING)) {
+				Assert.assertEquals(99, tree.size());
+				Assert.assertNull(tree.get(99));
+				Assert.assertEquals("value 98", tree.get(98));
+				Assert.assertEquals((long) sizes.get(98), Files.size(file));
+				tree.insert(99, "again");
+			}
+
+			// a damaged record: one flipped byte in the last value
+			try (FileChannel channel = FileChannel.open(file,
+					StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				ByteBuffer last = ByteBuffer.allocate(1);
+				channel.read(last, channel.size() - 1);
+				last.put(0, (byte) (last.get(0) ^ 1)).position(0);
+				channel.write(last, channel.size() - 1);
+			}
+			try (DurableBPTree<Integer, String> tree = new DurableBPTree<>(file, 8,
+					Serializer.INTEGER, Serializer.STRING)) {
+				Assert.assertEquals(99, tree.size());
+				Assert.assertNull(tree.get(99));
+				tree.insert(99, "once more");
+			}
+
+			// a file that grew before its data reached the disk: zeroed record
+			// headers look like empty records with a valid checksum
+			long whole = Files.size(file);
+			try (FileChannel channel = FileChannel.open(file,
+					StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+				channel.write(ByteBuffer.allocate(64));
+			}
+			try (DurableBPTree<Integer, String> tree = new DurableBPTree<>(file, 8,
+					Serializer.INTEGER, Serializer.STRING)) {
+				Assert.assertEquals(100, tree.size());
+				Assert.assertEquals("once more", tree.get(99));
+				Assert.assertEquals(whole, Files.size(file));
+			}
+
+			try {
+				Files.write(directory.resolve("other"), new byte[] { 1, 2, 3, 4, 5 });
+				new WriteAheadLog(directory.resolve("other"), 1).close();
+				fail("opened a file that is not a log");
+			} catch (IOException expectedException) {
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 002: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Concurrent writers each wait for their own insert to be durable, and
+	 * share fsyncs doing so; syncEvery batches a single writer's fsyncs
+	 */
+	@Test
+	void testBALST_003_group_commit(@TempDir Path directory) {
+
+		try {
+
+			Path file = directory.resolve("tree.log");
+			int threads = 8;
+			int perThread = 500;
+			try (DurableBPTree<Integer, Integer> tree = new DurableBPTree<>(file, 16,
+					Serializer.INTEGER, Serializer.INTEGER)) {
+				List<Thread> writers = new ArrayList<Thread>();
+				for (int t = 0; t < threads; t++) {
+					int first = t * perThread;
+					writers.add(new Thread(() -> {
+						for (int i = first; i < first + perThread; i++)
+							tree.insert(i, -i);
+					}));
+				}
+				for (Thread writer : writers)
+					writer.start();
+				for (Thread writer : writers)
+					writer.join();
+
+				WriteAheadLog log = tree.getLog();
+				Assert.assertEquals(threads * perThread, log.getAppends());
+				Assert.assertTrue(log.getSyncs() <= log.getAppends());
+			}
+
+			try (DurableBPTree<Integer, Integer> tree = new DurableBPTree<>(file, 16,
+					Serializer.INTEGER, Serializer.INTEGER, 100)) {
+				Assert.assertEquals(threads * perThread, tree.size());
+				for (int i = 0; i < threads * perThread; i++)
+					Assert.assertEquals(Integer.valueOf(-i), tree.get(i));
+
+				for (int i = 0; i < 1000; i++)
+					tree.insert(-i - 1, i);
+				Assert.assertEquals(10, tree.getLog().getSyncs());
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 003: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * A change whose commit fails never reaches the tree, the tree refuses
+	 * later changes, and reopening it shows only what the log holds
+	 */
+	@Test
+	void testBALST_004_failed_commit_is_not_applied(@TempDir Path directory) {
+
+		try {
+
+			Path file = directory.resolve("tree.log");
+			try (DurableBPTree<Integer, Integer> tree = new DurableBPTree<>(file, 4,
+					Serializer.INTEGER, Serializer.INTEGER)) {
+				for (int i = 0; i < 10; i++)
+					tree.insert(i, i);
+
+				// the next write fails under the tree
+				tree.getLog().close();
+				try {
+					tree.insert(10, 10);
+					fail("acknowledged an insert the log did not take");
+				} catch (IllegalStateException expected) {
+				}
+				Assert.assertNull(tree.get(10));
+				Assert.assertEquals(10, tree.size());
+
+				try {
+					tree.remove(3);
+					fail("changed a tree whose log failed");
+				} catch (IllegalStateException expected) {
+				}
+				Assert.assertEquals(Integer.valueOf(3), tree.get(3));
+			}
+
+			try (DurableBPTree<Integer, Integer> tree = new DurableBPTree<>(file, 4,
+					Serializer.INTEGER, Serializer.INTEGER)) {
+				Assert.assertEquals(10, tree.size());
+				Assert.assertNull(tree.get(10));
+
+				// nothing to remove logs nothing
+				long appends = tree.getLog().getAppends();
+				Assert.assertNull(tree.remove(42));
+				Assert.assertFalse(tree.remove(3, 4));
+				Assert.assertTrue(tree.removeAll(42).isEmpty());
+				Assert.assertEquals(appends, tree.getLog().getAppends());
+				Assert.assertTrue(tree.remove(3, 3));
+				Assert.assertEquals(appends + 1, tree.getLog().getAppends());
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 004: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,223 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts key-value entries by key for the BPTree bulk load constructor when
+ * the input is too large to sort in memory. Entries are cut into runs of a
+ * fixed size, each run is sorted and spilled to a temporary file with Java
+ * serialization, and the runs are merged back lazily as the bulk load reads
+ * them. Input that fits in a single run never touches the disk.
+ * 
+ * The sort is stable, so entries with an equal key reach the bulk load in
+ * input order, just as repeated inserts would store them.
+ * 
+ * @author Wally Estenson
+ */
+public class ExternalSort {
+
+	// Entries held in memory per run unless told otherwise
+	public static final int DEFAULT_RUN_SIZE = 1 << 20;
+
+	// ObjectOutputStream remembers every object it writes until reset
+	private static final int RESET_INTERVAL = 1024;
+
+	/**
+	 * Sorts entries by key using runs of DEFAULT_RUN_SIZE
+	 * 
+	 * @see #sort(Iterator, int)
+	 */
+	public static <K extends Comparable<K>, V> Iterator<Map.Entry<K, V>> sort(
+			Iterator<? extends Map.Entry<K, V>> entries) throws IOException {
+		return sort(entries, DEFAULT_RUN_SIZE);
+	}
+
+	/**
+	 * Sorts entries by key. Keys and values must be Serializable once the input
+	 * is larger than one run. Temporary files are deleted as soon as the
+	 * merge has read them.
+	 * 
+	 * @param entries entries in any order, without null keys
+	 * @param runSize number of entries sorted in memory at a time
+	 * @return iterator over the entries in ascending key order
+	 * @throws IOException if a run cannot be written
+	 */
+	public static <K extends Comparable<K>, V> Iterator<Map.Entry<K, V>> sort(
+			Iterator<? extends Map.Entry<K, V>> entries, int runSize)
+			throws IOException {
+
+		if (entries == null)
+			throw new IllegalArgumentException();
+		if (runSize <= 0)
+			throw new IllegalArgumentException("Illegal run size: " + runSize);
+
+		List<Map.Entry<K, V>> run = new ArrayList<Map.Entry<K, V>>();
+		List<File> runFiles = new ArrayList<File>();
+
+		try {
+			while (entries.hasNext()) {
+				Map.Entry<K, V> entry = entries.next();
+				if (entry.getKey() == null)
+					throw new IllegalArgumentException();
+
+				run.add(new AbstractMap.SimpleImmutableEntry<K, V>(entry));
+
+				if (run.size() == runSize) {
+					runFiles.add(spill(run));
+					run.clear();
+				}
+			}
+
+			run.sort(Map.Entry.comparingByKey());
+
+			// everything fit in one run
+			if (runFiles.isEmpty())
+				return run.iterator();
+
+			if (!run.isEmpty())
+				runFiles.add(spill(run));
+
+			return new MergeIterator<K, V>(runFiles);
+
+		} catch (IOException | RuntimeException e) {
+			for (File file : runFiles)
+				file.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Sorts a run and writes it to a new temporary file
+	 * 
+	 * @param run entries to write
+	 * @return the run file
+	 */
+	private static <K extends Comparable<K>, V> File spill(
+			List<Map.Entry<K, V>> run) throws IOException {
+
+		run.sort(Map.Entry.comparingByKey());
+
+		File file = File.createTempFile("bptree-run", ".bin");
+		file.deleteOnExit();
+
+		try (ObjectOutputStream out = new ObjectOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(run.size());
+			for (int i = 0; i < run.size(); i++) {
+				out.writeObject(run.get(i).getKey());
+				out.writeObject(run.get(i).getValue());
+				if (i % RESET_INTERVAL == RESET_INTERVAL - 1)
+					out.reset();
+			}
+		} catch (IOException e) {
+			file.delete();
+			throw e;
+		}
+		return file;
+	}
+
+	/**
+	 * Reads one spilled run back in order
+	 */
+	private static class RunReader<K extends Comparable<K>, V> {
+
+		final int index;
+		final File file;
+		final ObjectInputStream in;
+		int remaining;
+		Map.Entry<K, V> head;
+
+		RunReader(int index, File file) throws IOException {
+			this.index = index;
+			this.file = file;
+			in = new ObjectInputStream(
+					new BufferedInputStream(new FileInputStream(file)));
+			remaining = in.readInt();
+			advance();
+		}
+
+		/**
+		 * Reads the next entry into head, or sets head to null and removes the
+		 * file once the run is used up
+		 */
+		@SuppressWarnings("unchecked")
+		void advance() throws IOException {
+			if (remaining == 0) {
+				head = null;
+				in.close();
+				file.delete();
+				return;
+			}
+
+			try {
+				K key = (K) in.readObject();
+				V value = (V) in.readObject();
+				head = new AbstractMap.SimpleImmutableEntry<K, V>(key, value);
+				remaining--;
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			}
+		}
+	}
+
+	/**
+	 * K-way merge over the run files. Ties go to the earlier run, which keeps
+	 * the sort stable.
+	 */
+	private static class MergeIterator<K extends Comparable<K>, V>
+			implements Iterator<Map.Entry<K, V>> {
+
+		private final PriorityQueue<RunReader<K, V>> queue;
+
+		MergeIterator(List<File> runFiles) throws IOException {
+			queue = new PriorityQueue<RunReader<K, V>>(runFiles.size(),
+					(a, b) -> {
+						int comparison = a.head.getKey().compareTo(b.head.getKey());
+						return comparison != 0 ? comparison
+								: Integer.compare(a.index, b.index);
+					});
+
+			for (int i = 0; i < runFiles.size(); i++) {
+				RunReader<K, V> reader = new RunReader<K, V>(i, runFiles.get(i));
+				if (reader.head != null)
+					queue.add(reader);
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !queue.isEmpty();
+		}
+
+		@Override
+		public Map.Entry<K, V> next() {
+			RunReader<K, V> reader = queue.poll();
+			if (reader == null)
+				throw new NoSuchElementException();
+
+			Map.Entry<K, V> entry = reader.head;
+			try {
+				reader.advance();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			if (reader.head != null)
+				queue.add(reader);
+			return entry;
+		}
+	}
+}
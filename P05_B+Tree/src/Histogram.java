@@ -0,0 +1,155 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative longs, such as latencies in nanoseconds or leaves
+ * per range scan, in log-linear buckets: values below SUB_BUCKETS get a bucket
+ * each, and every power of two above is cut into SUB_BUCKETS equal buckets.
+ * A percentile is therefore off by at most 1/SUB_BUCKETS of its value, with a
+ * fixed array of counters whatever the range of the values.
+ *
+ * Recording takes no lock, so any number of threads may record at once.
+ *
+ * @author Wally Estenson
+ */
+public class Histogram {
+
+	// Buckets per power of two
+	public static final int SUB_BUCKETS = 8;
+
+	private static final int SUB_BITS = 3;
+
+	// exact buckets, then SUB_BUCKETS for each exponent from SUB_BITS to 62
+	private static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BITS);
+
+	private final AtomicLongArray counts;
+	private final AtomicLong total;
+
+	/**
+	 * Public constructor
+	 */
+	public Histogram() {
+		this.counts = new AtomicLongArray(BUCKETS);
+		this.total = new AtomicLong();
+	}
+
+	/**
+	 * Records a value; negative values count as 0
+	 *
+	 * @param value to record
+	 */
+	public void record(long value) {
+		value = Math.max(value, 0);
+		counts.incrementAndGet(bucket(value));
+		total.addAndGet(value);
+	}
+
+	/**
+	 * Returns the number of recorded values
+	 *
+	 * @return count
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++)
+			count += counts.get(i);
+		return count;
+	}
+
+	/**
+	 * Returns the sum of the recorded values
+	 *
+	 * @return total
+	 */
+	public long getTotal() {
+		return total.get();
+	}
+
+	/**
+	 * Returns the mean of the recorded values, exact rather than bucketed
+	 *
+	 * @return mean, or 0 if nothing was recorded
+	 */
+	public double getMean() {
+		long count = getCount();
+		return count == 0 ? 0 : (double) total.get() / count;
+	}
+
+	/**
+	 * Returns the value below which the given percentage of the recorded
+	 * values lie, as the upper end of the bucket it falls in
+	 *
+	 * @param percentile in [0, 100]
+	 * @return percentile, or 0 if nothing was recorded
+	 */
+	public long getPercentile(double percentile) {
+		if (!(percentile >= 0 && percentile <= 100))
+			throw new IllegalArgumentException(
+					"Illegal percentile: " + percentile);
+
+		long[] snapshot = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++)
+			count += snapshot[i] = counts.get(i);
+		if (count == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank)
+				return upperBound(i);
+		}
+		return upperBound(BUCKETS - 1);
+	}
+
+	/**
+	 * Forgets every recorded value. Values recorded during the reset may or
+	 * may not survive it.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++)
+			counts.set(i, 0);
+		total.set(0);
+	}
+
+	/**
+	 * Returns the bucket of a value
+	 */
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+
+		// the top SUB_BITS bits below the leading one pick the sub-bucket
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Returns the largest value that falls in a bucket
+	 */
+	static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		int sub = bucket % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BITS);
+		long lower = (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+		return lower + (width - 1);
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "count=" + getCount() + ", mean=" + Math.round(getMean())
+				+ ", p50=" + getPercentile(50) + ", p99=" + getPercentile(99)
+				+ ", max=" + getPercentile(100);
+	}
+}
@@ -0,0 +1,462 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * PageStore that makes the changes to another store crash safe with a
+ * WriteAheadLog, for trees in a MappedPageStore or BufferPool. Neither can
+ * keep half of a change off the disk by itself: the operating system writes
+ * mapped pages back whenever it likes, and the pool writes dirty pages when
+ * it evicts them, so a crash between flushes can leave a split with only some
+ * of its pages on disk.
+ *
+ * Pages pinned during a change, from beginChange to endChange, are copies
+ * held here rather than the pages of the store below. endChange compares
+ * every copy written to with the store's page, logs the byte ranges that
+ * differ as one record, and commits it; only once the record is durable are
+ * the copies written into the store. The store therefore never holds a byte
+ * that is not in the log. With syncEvery above 1 the copies wait here, and
+ * are read from here, until a later commit or flush makes them durable.
+ *
+ * Opening redoes every record of the log against the store. The ranges hold
+ * the bytes as they were after each change, so redoing them in order repairs
+ * a page whatever mix of old and new bytes a crash left in it, and redoing a
+ * record twice does no harm. flush writes everything into the store, flushes
+ * it and then empties the log; that checkpoint is what keeps the log short.
+ *
+ * A record holds the page count after the change and the ranges:
+ *
+ * <pre>
+ * 0  page count  int
+ * 4  page        int, then per range to the end of the record
+ * 8  offset      int
+ * 12 length      int
+ * 16 bytes
+ * </pre>
+ *
+ * A change that never reaches endChange, because the tree threw in the middle
+ * of it, is neither logged nor written to the store, and the store refuses
+ * further changes until it is reopened. Like the tree, the store is not
+ * thread safe.
+ *
+ * @author Wally Estenson
+ */
+public class LoggedPageStore implements PageStore {
+
+	// Range header; equal bytes shorter than it between two ranges are cheaper
+	// to log than a second range
+	private static final int RANGE_HEADER = 3 * Integer.BYTES;
+
+	private final PageStore store;
+	private final WriteAheadLog log;
+
+	// copies of pages pinned during a change or waiting for the log
+	private final Map<Integer, Copy> copies;
+
+	// record being built by endChange
+	private ByteBuffer record;
+
+	// a change is open; lsn of the last record whose copies are not in the
+	// store yet
+	private boolean changing;
+	private long pendingLsn;
+
+	// the log could not be written, or a change did not end
+	private boolean failed;
+	private boolean closed;
+
+	private long redone;
+
+	/**
+	 * A page as the tree sees it, ahead of the store
+	 */
+	private static final class Copy {
+		ByteBuffer page;
+		int pins;
+
+		// written during the open change
+		boolean dirty;
+
+		// logged, not yet written to the store
+		boolean pending;
+	}
+
+	/**
+	 * Opens the log, redoes it against the store and empties it. Every change
+	 * is durable before endChange returns.
+	 *
+	 * @param store   pages of the tree, e.g. a MappedPageStore or BufferPool
+	 * @param logFile path of the log
+	 * @throws IOException if the log or the store cannot be written
+	 */
+	public LoggedPageStore(PageStore store, Path logFile) throws IOException {
+		this(store, logFile, WriteAheadLog.DEFAULT_SYNC_EVERY);
+	}
+
+	/**
+	 * Opens the log, redoes it against the store and empties it
+	 *
+	 * @param store     pages of the tree, e.g. a MappedPageStore or BufferPool
+	 * @param logFile   path of the log
+	 * @param syncEvery changes waiting before a commit syncs the log
+	 * @throws IOException if the log or the store cannot be written
+	 */
+	public LoggedPageStore(PageStore store, Path logFile, int syncEvery)
+			throws IOException {
+		if (store == null || logFile == null)
+			throw new IllegalArgumentException();
+
+		this.store = store;
+		this.copies = new HashMap<Integer, Copy>();
+		this.record = ByteBuffer.allocate(store.pageSize());
+		this.log = new WriteAheadLog(logFile, syncEvery, this::redo);
+
+		try {
+			if (redone > 0) {
+				store.flush();
+				log.reset();
+			}
+		} catch (IOException | RuntimeException e) {
+			log.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes the ranges of a logged change into the store
+	 */
+	private void redo(ByteBuffer logged) {
+		int pageCount = logged.getInt(0);
+		while (store.pageCount() < pageCount)
+			store.allocate();
+
+		for (int at = Integer.BYTES; at < logged.limit();) {
+			int id = logged.getInt(at);
+			int offset = logged.getInt(at + 4);
+			int length = logged.getInt(at + 8);
+			at += RANGE_HEADER;
+
+			ByteBuffer bytes = logged.duplicate();
+			bytes.limit(at + length).position(at);
+			ByteBuffer page = store.pin(id);
+			ByteBuffer target = page.duplicate();
+			target.position(offset);
+			target.put(bytes);
+			store.markDirty(id);
+			store.unpin(id);
+			at += length;
+		}
+		redone++;
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see PageStore#pageSize()
+	 */
+	@Override
+	public int pageSize() {
+		return store.pageSize();
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see PageStore#pageCount()
+	 */
+	@Override
+	public int pageCount() {
+		return store.pageCount();
+	}
+
+	/**
+	 * (non-Javadoc) The store zeroes the page right away; it is past every
+	 * page count in the log, so nothing refers to it until a change that
+	 * uses it is logged
+	 *
+	 * @see PageStore#allocate()
+	 */
+	@Override
+	public int allocate() {
+		checkUsable();
+		return store.allocate();
+	}
+
+	/**
+	 * (non-Javadoc) Pages with a copy are served from it; during a change
+	 * every other page gets one too, and outside a change the store's page
+	 * is returned for reading
+	 *
+	 * @see PageStore#pin(int)
+	 */
+	@Override
+	public ByteBuffer pin(int id) {
+		checkUsable();
+
+		Copy copy = copies.get(id);
+		if (copy == null) {
+			if (!changing)
+				return store.pin(id);
+
+			copy = new Copy();
+			ByteBuffer page = store.pin(id);
+			copy.page = ByteBuffer.allocate(page.capacity()).order(page.order());
+			copy.page.put(page.duplicate().clear()).clear();
+			store.unpin(id);
+			copies.put(id, copy);
+		}
+
+		copy.pins++;
+		return copy.page;
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see PageStore#unpin(int)
+	 */
+	@Override
+	public void unpin(int id) {
+		Copy copy = copies.get(id);
+		if (copy == null || copy.pins == 0) {
+			store.unpin(id);
+			return;
+		}
+
+		copy.pins--;
+		if (copy.pins == 0 && !copy.dirty && !copy.pending)
+			copies.remove(id);
+	}
+
+	/**
+	 * (non-Javadoc) Only pages pinned during the open change can be written
+	 *
+	 * @see PageStore#markDirty(int)
+	 */
+	@Override
+	public void markDirty(int id) {
+		Copy copy = copies.get(id);
+		if (!changing || copy == null)
+			throw new IllegalStateException(
+					"Page " + id + " was not pinned during a change");
+
+		copy.dirty = true;
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see PageStore#beginChange()
+	 */
+	@Override
+	public void beginChange() {
+		checkUsable();
+		if (changing) {
+			failed = true;
+			throw new IllegalStateException("An earlier change did not end");
+		}
+		changing = true;
+	}
+
+	/**
+	 * (non-Javadoc) Logs the ranges the change wrote and commits them; once
+	 * they are durable, writes every waiting copy into the store
+	 *
+	 * @see PageStore#endChange()
+	 */
+	@Override
+	public void endChange() {
+		checkUsable();
+		if (!changing)
+			throw new IllegalStateException("No change is open");
+		changing = false;
+
+		record.clear();
+		record.putInt(store.pageCount());
+		for (Map.Entry<Integer, Copy> entry : copies.entrySet()) {
+			Copy copy = entry.getValue();
+			if (!copy.dirty)
+				continue;
+
+			int id = entry.getKey();
+			ByteBuffer page = store.pin(id);
+			try {
+				logRanges(id, copy.page, page);
+			} finally {
+				store.unpin(id);
+			}
+			copy.dirty = false;
+			copy.pending = true;
+		}
+
+		if (record.position() > Integer.BYTES) {
+			record.flip();
+			pendingLsn = log.append(record);
+			try {
+				log.commit(pendingLsn);
+			} catch (IOException e) {
+				failed = true;
+				throw new IllegalStateException("Cannot write the page log", e);
+			}
+		}
+
+		if (log.getDurableLsn() >= pendingLsn)
+			writeCopies();
+		else
+			copies.values()
+					.removeIf(copy -> copy.pins == 0 && !copy.pending);
+	}
+
+	/**
+	 * Adds the runs of bytes where a copy differs from the store's page to
+	 * the record, merging runs that are closer than a range header
+	 */
+	private void logRanges(int id, ByteBuffer copy, ByteBuffer page) {
+		int size = copy.capacity();
+		int at = 0;
+		while (at < size) {
+			ByteBuffer from = copy.duplicate();
+			from.limit(size).position(at);
+			ByteBuffer to = page.duplicate();
+			to.limit(size).position(at);
+			int mismatch = from.mismatch(to);
+			if (mismatch < 0)
+				return;
+
+			int start = at + mismatch;
+			int end = start + 1;
+			for (int i = end, same = 0; i < size && same < RANGE_HEADER; i++) {
+				if (copy.get(i) != page.get(i)) {
+					end = i + 1;
+					same = 0;
+				} else
+					same++;
+			}
+
+			if (record.remaining() < RANGE_HEADER + end - start) {
+				ByteBuffer grown = ByteBuffer.allocate(Math.max(
+						2 * record.capacity(),
+						record.position() + RANGE_HEADER + end - start));
+				record.flip();
+				record = grown.put(record);
+			}
+			record.putInt(id).putInt(start).putInt(end - start);
+			from.limit(end).position(start);
+			record.put(from);
+			at = end;
+		}
+	}
+
+	/**
+	 * Writes every logged copy into the store, keeping only the copies that
+	 * are still pinned
+	 */
+	private void writeCopies() {
+		Iterator<Map.Entry<Integer, Copy>> it = copies.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Integer, Copy> entry = it.next();
+			Copy copy = entry.getValue();
+			if (copy.pending) {
+				int id = entry.getKey();
+				ByteBuffer page = store.pin(id);
+				page.duplicate().clear().put(copy.page.duplicate().clear());
+				store.markDirty(id);
+				store.unpin(id);
+				copy.pending = false;
+			}
+			if (copy.pins == 0)
+				it.remove();
+		}
+	}
+
+	/**
+	 * (non-Javadoc) Syncs the log, writes every copy into the store, flushes
+	 * the store and empties the log
+	 *
+	 * @see PageStore#flush()
+	 */
+	@Override
+	public void flush() throws IOException {
+		checkUsable();
+		if (changing)
+			throw new IllegalStateException("Cannot flush during a change");
+
+		try {
+			log.sync();
+		} catch (IOException e) {
+			failed = true;
+			throw e;
+		}
+		writeCopies();
+		store.flush();
+		log.reset();
+		pendingLsn = 0;
+	}
+
+	/**
+	 * Returns the number of logged changes redone when the store was opened
+	 *
+	 * @return changes redone
+	 */
+	public long getRedone() {
+		return redone;
+	}
+
+	/**
+	 * Returns the log, for its sync statistics
+	 *
+	 * @return write-ahead log
+	 */
+	public WriteAheadLog getLog() {
+		return log;
+	}
+
+	/**
+	 * Returns the store the pages are written to
+	 *
+	 * @return page store
+	 */
+	public PageStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Refuses to go on after a failed log write or an unfinished change,
+	 * since the copies may then hold changes the log does not
+	 */
+	private void checkUsable() {
+		if (closed)
+			throw new IllegalStateException("The store is closed");
+		if (failed)
+			throw new IllegalStateException(
+					"The page log failed; reopen the store to recover");
+	}
+
+	/**
+	 * (non-Javadoc) Flushes, unless the log failed, and closes the log and
+	 * the store. A store that failed reopens from its log.
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+
+		try {
+			if (!failed && !changing)
+				flush();
+		} finally {
+			closed = true;
+			copies.clear();
+			try {
+				log.close();
+			} finally {
+				store.close();
+			}
+		}
+	}
+}
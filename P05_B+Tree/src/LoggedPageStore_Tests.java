@@ -0,0 +1,179 @@
+import static org.junit.Assert.fail;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test Class for LoggedPageStore.java
+ *
+ *
+ * @author Wally Estenson
+ */
+public class LoggedPageStore_Tests {
+
+	/**
+	 * A page file torn by a crash, holding any mix of the bytes of its last
+	 * flush and of later inserts, is repaired from the log when it is opened
+	 */
+	@Test
+	void testBALST_001_torn_page_file_is_redone(@TempDir Path directory) {
+
+		try {
+
+			Path file = directory.resolve("tree.pages");
+			Path log = directory.resolve("tree.log");
+			Random rnd = new Random(15);
+			BPTree<Long, String> expected = new BPTree<>(8);
+
+			LoggedPageStore store = new LoggedPageStore(
+					new MappedPageStore(file, 512, 8), log);
+			try (PagedBPTree<Long, String> tree = new PagedBPTree<>(store,
+					Serializer.LONG, Serializer.STRING)) {
+				insert(tree, expected, rnd, 3000);
+				tree.flush();
+				Assert.assertEquals(4, Files.size(log));
+				byte[] flushed = Files.readAllBytes(file);
+
+				// splits after the flush reach the mapped file, which a crash
+				// may have written back page by page, or not at all
+				insert(tree, expected, rnd, 3000);
+				byte[] current = Files.readAllBytes(file);
+				Assert.assertTrue(current.length > flushed.length);
+
+				for (int crash = 0; crash < 3; crash++) {
+					byte[] torn = Arrays.copyOf(current, current.length);
+					for (int at = 0; at < torn.length; at += 512)
+						if (rnd.nextBoolean())
+							for (int i = at; i < at + 512; i++)
+								torn[i] = i < flushed.length ? flushed[i] : 0;
+
+					Path crashed = directory.resolve("crashed" + crash);
+					Files.createDirectory(crashed);
+					Files.write(crashed.resolve("tree.pages"), torn);
+					Files.copy(log, crashed.resolve("tree.log"));
+
+					LoggedPageStore reopened = new LoggedPageStore(
+							new MappedPageStore(crashed.resolve("tree.pages"), 512,
+									8),
+							crashed.resolve("tree.log"));
+					Assert.assertEquals(3000, reopened.getRedone());
+					try (PagedBPTree<Long, String> copy = new PagedBPTree<>(
+							reopened, Serializer.LONG, Serializer.STRING)) {
+						Assert.assertEquals(expected.size(), copy.size());
+						Assert.assertEquals(expected.rangeSearch(0L, ">="),
+								copy.rangeSearch(0L, ">="));
+					}
+				}
+			}
+
+			// closing flushed and emptied the log
+			LoggedPageStore reopened = new LoggedPageStore(
+					new MappedPageStore(file, 512, 8), log);
+			Assert.assertEquals(0, reopened.getRedone());
+			try (PagedBPTree<Long, String> tree = new PagedBPTree<>(reopened,
+					Serializer.LONG, Serializer.STRING)) {
+				Assert.assertEquals(expected.rangeSearch(0L, ">="),
+						tree.rangeSearch(0L, ">="));
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 001: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Over a buffer pool with group commit, evictions never write a change
+	 * that is not logged, a crash loses at most the unsynced tail, and pages
+	 * cannot be changed outside a change
+	 */
+	@Test
+	void testBALST_002_buffer_pool_group_commit(@TempDir Path directory) {
+
+		try {
+
+			Path file = directory.resolve("tree.pages");
+			Path log = directory.resolve("tree.log");
+			Random rnd = new Random(16);
+			List<Long> keys = new ArrayList<>();
+
+			BufferPool pool = new BufferPool(file, 512, 16 * 512);
+			LoggedPageStore store = new LoggedPageStore(pool, log, 50);
+			PagedBPTree<Long, String> tree = new PagedBPTree<>(store,
+					Serializer.LONG, Serializer.STRING);
+			BPTree<Long, String> expected = new BPTree<>(8);
+			for (int i = 0; i < 5000; i++) {
+				long key = rnd.nextInt(2000);
+				keys.add(key);
+				tree.insert(key, "v" + i);
+				expected.insert(key, "v" + i);
+			}
+			Assert.assertTrue(pool.getEvictions() > 0);
+			Assert.assertTrue(store.getLog().getSyncs() < 5000 / 40);
+			for (long key = 0; key < 2000; key += 13)
+				Assert.assertEquals(expected.get(key), tree.get(key));
+
+			try {
+				store.markDirty(1);
+				fail("changed a page outside a change");
+			} catch (IllegalStateException expectedException) {
+			}
+
+			// crash: whatever the pool wrote, and the log as far as it got
+			Path crashed = directory.resolve("crashed");
+			Files.createDirectory(crashed);
+			Files.copy(file, crashed.resolve("tree.pages"));
+			Files.copy(log, crashed.resolve("tree.log"));
+			tree.close();
+
+			try (PagedBPTree<Long, String> copy = new PagedBPTree<>(
+					new LoggedPageStore(
+							new BufferPool(crashed.resolve("tree.pages"), 512,
+									16 * 512),
+							crashed.resolve("tree.log")),
+					Serializer.LONG, Serializer.STRING)) {
+				int size = copy.size();
+				Assert.assertTrue(size > 5000 - 50 && size <= 5000);
+
+				BPTree<Long, String> prefix = new BPTree<>(8);
+				for (int i = 0; i < size; i++)
+					prefix.insert(keys.get(i), "v" + i);
+				Assert.assertEquals(prefix.rangeSearch(0L, ">="),
+						copy.rangeSearch(0L, ">="));
+			}
+
+			// the cleanly closed file opens without its log, through either store
+			try (PagedBPTree<Long, String> copy = new PagedBPTree<>(
+					new MappedPageStore(file, 512), Serializer.LONG,
+					Serializer.STRING)) {
+				Assert.assertEquals(expected.rangeSearch(0L, ">="),
+						copy.rangeSearch(0L, ">="));
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 002: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Inserts random entries into the tree and the expected tree
+	 */
+	private static void insert(PagedBPTree<Long, String> tree,
+			BPTree<Long, String> expected, Random rnd, int count) {
+		for (int i = 0; i < count; i++) {
+			Long key = (long) rnd.nextInt(5000);
+			String value = "value-" + expected.size();
+			tree.insert(key, value);
+			expected.insert(key, value);
+		}
+	}
+}
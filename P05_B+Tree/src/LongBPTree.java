@@ -0,0 +1,615 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.function.LongFunction;
+
+/**
+ * B+ tree specialized for long keys. Nodes keep their keys in a long[] and
+ * leaves keep values in a parallel Object[], so a key costs 8 bytes inside its
+ * node instead of a reference plus a Long object, and node searches are
+ * primitive binary searches over one contiguous array.
+ *
+ * Behaves like BPTree<Long, V>: duplicate keys share a leaf slot in insertion
+ * order, and rangeSearch takes the same comparators. The boxed BPTreeADT
+ * methods are kept for drop-in use; the primitive overloads avoid boxing.
+ *
+ * @author Wally Estenson
+ *
+ * @param <V> value
+ */
+public class LongBPTree<V> implements BPTreeADT<Long, V> {
+
+	// Root of the tree
+	private Node root;
+	private int size;
+
+	// Branching factor is the number of children nodes
+	// for internal nodes of the tree
+	private final int branchingFactor;
+
+	/**
+	 * Public constructor
+	 *
+	 * @param branchingFactor
+	 */
+	public LongBPTree(int branchingFactor) {
+		if (branchingFactor <= 2)
+			throw new IllegalArgumentException(
+					"Illegal branching factor: " + branchingFactor);
+
+		this.branchingFactor = branchingFactor;
+		root = new LeafNode();
+		size = 0;
+	}
+
+	/**
+	 * Inserts the key and value in the appropriate nodes in the tree If the key
+	 * is null, throw IllegalArgumentException
+	 *
+	 * @param key
+	 * @param value
+	 */
+	@Override
+	public void insert(Long key, V value) {
+
+		// do not allow null key
+		if (key == null)
+			throw new IllegalArgumentException();
+
+		insert(key.longValue(), value);
+	}
+
+	/**
+	 * Inserts the key and value in the appropriate nodes in the tree
+	 *
+	 * Note: key-value pairs with duplicate keys can be inserted into the tree.
+	 * The values of a key share one leaf slot in insertion order.
+	 *
+	 * @param key
+	 * @param value
+	 */
+	public void insert(long key, V value) {
+
+		root.insert(key, value);
+		size++;
+
+		// grow the tree by one level when the root splits
+		if (root.isOverflow()) {
+			Node sibling = root.split();
+
+			InternalNode root2 = new InternalNode();
+			root2.keys[0] = sibling.getFirstLeafKey();
+			root2.children[0] = root;
+			root2.children[1] = sibling;
+			root2.count = 1;
+			root = root2;
+		}
+	}
+
+	/**
+	 * Gets the values that satisfy the given range search arguments.
+	 *
+	 * Value of comparator can be one of these: "<", "<=", "==", ">=", ">"
+	 *
+	 * If key is null, return empty list. If comparator is null, empty, or not
+	 * according to required form, return empty list.
+	 *
+	 * @param key        to be searched
+	 * @param comparator is a string
+	 * @return list of values that are the result of the range search; if
+	 *         nothing found, return empty list
+	 */
+	@Override
+	public List<V> rangeSearch(Long key, String comparator) {
+
+		// must have valid key argument
+		if (key == null)
+			return new ArrayList<V>();
+
+		return rangeSearch(key.longValue(), comparator);
+	}
+
+	/**
+	 * Primitive form of rangeSearch(Long, String)
+	 *
+	 * @param key        to be searched
+	 * @param comparator is a string
+	 * @return list of values that are the result of the range search; if
+	 *         nothing found, return empty list
+	 */
+	public List<V> rangeSearch(long key, String comparator) {
+
+		if (comparator == null)
+			return new ArrayList<V>();
+		else if (comparator.contentEquals("<"))
+			return rangeSearch(Long.MIN_VALUE, true, key, false);
+		else if (comparator.contentEquals("<="))
+			return rangeSearch(Long.MIN_VALUE, true, key, true);
+		else if (comparator.contentEquals("=="))
+			return rangeSearch(key, true, key, true);
+		else if (comparator.contentEquals(">="))
+			return rangeSearch(key, true, Long.MAX_VALUE, true);
+		else if (comparator.contentEquals(">"))
+			return rangeSearch(key, false, Long.MAX_VALUE, true);
+		else
+			return new ArrayList<V>();
+	}
+
+	/**
+	 * Gets the values of all keys between low and high, in key order. The
+	 * search descends once to low and walks the leaves until it passes high.
+	 * Use Long.MIN_VALUE or Long.MAX_VALUE, inclusive, for an open side.
+	 *
+	 * @param low           lower bound
+	 * @param lowInclusive  whether a key equal to low is in range
+	 * @param high          upper bound
+	 * @param highInclusive whether a key equal to high is in range
+	 * @return list of values in range; if nothing found, return empty list
+	 */
+	public List<V> rangeSearch(long low, boolean lowInclusive, long high,
+			boolean highInclusive) {
+
+		List<V> filtered = new ArrayList<V>();
+
+		LeafNode leaf = root.findLeaf(low);
+		int index = leaf.findIndex(low);
+		if (index < 0)
+			index = -index - 1;
+		else if (!lowInclusive)
+			index++;
+
+		while (leaf != null) {
+			for (; index < leaf.count; index++) {
+				long key = leaf.keys[index];
+				if (key > high || (key == high && !highInclusive))
+					return filtered;
+				leaf.addValues(index, filtered);
+			}
+			leaf = leaf.next;
+			index = 0;
+		}
+
+		return filtered;
+	}
+
+	/**
+	 * Returns the value of the first leaf with a matching key. If key is null,
+	 * return null. If key is not found, return null. For a duplicate key this
+	 * is the value that was inserted first.
+	 *
+	 * @param key to find
+	 * @return value of the first leaf matching key
+	 */
+	@Override
+	public V get(Long key) {
+		if (key == null)
+			return null;
+
+		return get(key.longValue());
+	}
+
+	/**
+	 * Primitive form of get(Long)
+	 *
+	 * @param key to find
+	 * @return value of the first leaf matching key, or null
+	 */
+	public V get(long key) {
+		LeafNode leaf = root.findLeaf(key);
+		int index = leaf.findIndex(key);
+
+		return index >= 0 ? leaf.getFirstValue(index) : null;
+	}
+
+	/**
+	 * Return the number of leaves in the tree. Every value counts, including
+	 * each value of a duplicate key.
+	 *
+	 * @return number of leaves
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns a string representation for the tree, in the same format as
+	 * BPTree.
+	 *
+	 * @return a string representation
+	 */
+	@Override
+	public String toString() {
+		return toString(Long::toString);
+	}
+
+	/**
+	 * Returns a string representation for the tree with each key written by
+	 * keyFormat, for wrappers that store other keys as longs
+	 *
+	 * @param keyFormat writes one key
+	 * @return a string representation
+	 */
+	String toString(LongFunction<String> keyFormat) {
+		Queue<List<Node>> queue = new LinkedList<List<Node>>();
+		queue.add(Arrays.asList(root));
+		StringBuilder sb = new StringBuilder();
+		while (!queue.isEmpty()) {
+			Queue<List<Node>> nextQueue = new LinkedList<List<Node>>();
+			while (!queue.isEmpty()) {
+				List<Node> nodes = queue.remove();
+				sb.append('{');
+				Iterator<Node> it = nodes.iterator();
+				while (it.hasNext()) {
+					Node node = it.next();
+					sb.append(node.toString(keyFormat));
+					if (it.hasNext())
+						sb.append(", ");
+					if (node instanceof LongBPTree.InternalNode)
+						nextQueue.add(((InternalNode) node).getChildren());
+				}
+				sb.append('}');
+				if (!queue.isEmpty())
+					sb.append(", ");
+				else {
+					sb.append('\n');
+				}
+			}
+			queue = nextQueue;
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Any type of node in the tree. Keys live in keys[0..count); the array has
+	 * one spare slot so a node can overflow by one before it is split.
+	 *
+	 * @author Wally Estenson
+	 */
+	private abstract class Node {
+
+		// keys[0..count) in ascending order
+		final long[] keys;
+		int count;
+
+		/**
+		 * Package constructor
+		 */
+		Node() {
+			keys = new long[branchingFactor];
+		}
+
+		/**
+		 * Binary searches keys[0..count)
+		 *
+		 * @param key to search for
+		 * @return index of the key if it exists, otherwise (-(insertion point)
+		 *         - 1) like Arrays.binarySearch
+		 */
+		int findIndex(long key) {
+			return Arrays.binarySearch(keys, 0, count, key);
+		}
+
+		/**
+		 * Inserts key and value in the appropriate leaf node, splitting
+		 * children that overflow. This node itself is split by its parent.
+		 *
+		 * @param key
+		 * @param value
+		 */
+		abstract void insert(long key, V value);
+
+		/**
+		 * Gets the first leaf key of the subtree
+		 *
+		 * @return key
+		 */
+		abstract long getFirstLeafKey();
+
+		/**
+		 * Moves the upper half of this node into a new right sibling
+		 *
+		 * @return Node
+		 */
+		abstract Node split();
+
+		/**
+		 * Gets the leaf whose key range would hold the key
+		 *
+		 * @param key to route
+		 * @return leaf node
+		 */
+		abstract LeafNode findLeaf(long key);
+
+		/**
+		 * Check if node is overflow based on branch factor
+		 *
+		 * @return boolean
+		 */
+		abstract boolean isOverflow();
+
+		/**
+		 * Converts keys to string for testing purposes
+		 */
+		String toString(LongFunction<String> keyFormat) {
+			StringBuilder sb = new StringBuilder("[");
+			for (int i = 0; i < count; i++) {
+				if (i > 0)
+					sb.append(", ");
+				sb.append(keyFormat.apply(keys[i]));
+			}
+			return sb.append(']').toString();
+		}
+	} // End of abstract class Node
+
+	/**
+	 * Internal node holding count keys and count + 1 children
+	 *
+	 * @author Wally Estenson
+	 */
+	private class InternalNode extends Node {
+
+		// children[0..count]
+		final Object[] children;
+
+		/**
+		 * Package constructor
+		 */
+		InternalNode() {
+			super();
+			children = new Object[branchingFactor + 1];
+		}
+
+		/**
+		 * Returns the child at index
+		 */
+		@SuppressWarnings("unchecked")
+		Node getChild(int index) {
+			return (Node) children[index];
+		}
+
+		/**
+		 * Gets the index of the child whose subtree would hold the key
+		 */
+		int getChildIndex(long key) {
+			int index = findIndex(key);
+			return index >= 0 ? index + 1 : -index - 1;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see LongBPTree.Node#getFirstLeafKey()
+		 */
+		long getFirstLeafKey() {
+			return getChild(0).getFirstLeafKey();
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see LongBPTree.Node#isOverflow()
+		 */
+		boolean isOverflow() {
+			return count + 1 > branchingFactor;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see LongBPTree.Node#findLeaf(long)
+		 */
+		LeafNode findLeaf(long key) {
+			return getChild(getChildIndex(key)).findLeaf(key);
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see LongBPTree.Node#insert(long, Object)
+		 */
+		void insert(long key, V value) {
+
+			int childIndex = getChildIndex(key);
+			Node child = getChild(childIndex);
+			child.insert(key, value);
+
+			// if inserted node caused overflow, we must split
+			if (child.isOverflow()) {
+				Node sibling = child.split();
+
+				System.arraycopy(keys, childIndex, keys, childIndex + 1,
+						count - childIndex);
+				System.arraycopy(children, childIndex + 1, children,
+						childIndex + 2, count - childIndex);
+				keys[childIndex] = sibling.getFirstLeafKey();
+				children[childIndex + 1] = sibling;
+				count++;
+			}
+		}
+
+		/**
+		 * (non-Javadoc) The middle key moves up to the parent
+		 *
+		 * @see LongBPTree.Node#split()
+		 */
+		Node split() {
+
+			int begining = count / 2 + 1;
+
+			// create new split node with the second half of keys and children
+			InternalNode node = new InternalNode();
+			node.count = count - begining;
+			System.arraycopy(keys, begining, node.keys, 0, node.count);
+			System.arraycopy(children, begining, node.children, 0,
+					node.count + 1);
+
+			// drop the moved children so they are not kept alive twice
+			Arrays.fill(children, begining, count + 1, null);
+			count = begining - 1;
+			return node;
+		}
+
+		/**
+		 * Returns the children in use, for toString
+		 */
+		List<Node> getChildren() {
+			List<Node> list = new ArrayList<Node>();
+			for (int i = 0; i <= count; i++)
+				list.add(getChild(i));
+			return list;
+		}
+	} // End of class InternalNode
+
+	/**
+	 * Leaf node holding count keys and their value slots
+	 *
+	 * @author Wally Estenson
+	 */
+	private class LeafNode extends Node {
+
+		// values[i] is the only value of keys[i], or Postings
+		final Object[] values;
+
+		// Reference to the next leaf node
+		LeafNode next;
+
+		/**
+		 * Package constructor
+		 */
+		LeafNode() {
+			super();
+			values = new Object[branchingFactor];
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see LongBPTree.Node#getFirstLeafKey()
+		 */
+		long getFirstLeafKey() {
+			return keys[0];
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see LongBPTree.Node#isOverflow()
+		 */
+		boolean isOverflow() {
+			return count > branchingFactor - 1;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see LongBPTree.Node#findLeaf(long)
+		 */
+		LeafNode findLeaf(long key) {
+			return this;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see LongBPTree.Node#insert(long, Object)
+		 */
+		void insert(long key, V value) {
+
+			int index = findIndex(key);
+
+			// add the value after the key's existing values
+			if (index >= 0) {
+				values[index] = Postings.append(values[index], value);
+				return;
+			}
+
+			index = -index - 1;
+			System.arraycopy(keys, index, keys, index + 1, count - index);
+			System.arraycopy(values, index, values, index + 1, count - index);
+			keys[index] = key;
+			values[index] = value;
+			count++;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see LongBPTree.Node#split()
+		 */
+		Node split() {
+
+			LeafNode node = new LeafNode();
+			int begining = count / 2;
+
+			// transfer key values pairs to new node
+			node.count = count - begining;
+			System.arraycopy(keys, begining, node.keys, 0, node.count);
+			System.arraycopy(values, begining, node.values, 0, node.count);
+
+			// clear the old values from the original node
+			Arrays.fill(values, begining, count, null);
+			count = begining;
+
+			node.next = next;
+			next = node;
+			return node;
+		}
+
+		/**
+		 * Returns the first value of the key at index
+		 */
+		@SuppressWarnings("unchecked")
+		V getFirstValue(int index) {
+			Object slot = values[index];
+			if (slot instanceof Postings)
+				return (V) ((Postings) slot).get(0);
+			return (V) slot;
+		}
+
+		/**
+		 * Adds every value of the key at index to the list
+		 */
+		@SuppressWarnings("unchecked")
+		void addValues(int index, List<V> list) {
+			Object slot = values[index];
+			if (slot instanceof Postings) {
+				for (Object value : (Postings) slot)
+					list.add((V) value);
+			} else
+				list.add((V) slot);
+		}
+	} // End of class LeafNode
+
+	/**
+	 * Values of a key that was inserted more than once, in insertion order.
+	 * A distinct class so that a list stored as a single value is never
+	 * mistaken for one.
+	 *
+	 * @author Wally Estenson
+	 */
+	private static final class Postings extends ArrayList<Object> {
+
+		private static final long serialVersionUID = 1L;
+
+		Postings(Object first, Object second) {
+			super(2);
+			add(first);
+			add(second);
+		}
+
+		/**
+		 * Returns the slot with value added after the slot's values
+		 */
+		static Object append(Object slot, Object value) {
+			if (slot instanceof Postings) {
+				((Postings) slot).add(value);
+				return slot;
+			}
+			return new Postings(slot, value);
+		}
+	}
+}
@@ -0,0 +1,122 @@
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test Class for LongBPTree.java and DoubleBPTree.java, checked against
+ * BPTree with boxed keys
+ *
+ *
+ * @author Wally Estenson
+ */
+public class LongBPTree_Tests {
+
+	private static final String[] COMPARATORS = { "<", "<=", "==", ">=", ">" };
+
+	/**
+	 * Same structure, lookups and range searches as BPTree<Long, Long>,
+	 * duplicates included
+	 */
+	@Test
+	void testBALST_001_long_keys_match_bptree() {
+
+		try {
+
+			for (int branchingFactor : new int[] { 3, 4, 5, 16, 128 }) {
+				Random rnd = new Random(branchingFactor);
+				LongBPTree<Long> tree = new LongBPTree<>(branchingFactor);
+				BPTree<Long, Long> expected = new BPTree<>(branchingFactor);
+
+				for (long i = 0; i < 5000; i++) {
+					long key = rnd.nextInt(2000) - 1000;
+					tree.insert(key, Long.valueOf(i));
+					expected.insert(key, i);
+				}
+
+				Assert.assertEquals(expected.size(), tree.size());
+				Assert.assertEquals(expected.toString(), tree.toString());
+
+				for (long key = -1001; key <= 1001; key++) {
+					Assert.assertEquals(expected.get(key), tree.get(key));
+					for (String comparator : COMPARATORS)
+						if (key % 97 == 0)
+							Assert.assertEquals(expected.rangeSearch(key, comparator),
+									tree.rangeSearch(key, comparator));
+				}
+
+				Assert.assertEquals(expected.rangeSearch(-100L, true, 100L, false),
+						tree.rangeSearch(-100L, true, 100L, false));
+			}
+
+			LongBPTree<Long> tree = new LongBPTree<>(3);
+			tree.insert(Long.MIN_VALUE, Long.valueOf(1));
+			tree.insert(Long.MAX_VALUE, Long.valueOf(2));
+			Assert.assertEquals(2, tree.rangeSearch(Long.MIN_VALUE, ">=").size());
+			Assert.assertEquals(Long.valueOf(2), tree.get(Long.MAX_VALUE));
+			Assert.assertTrue(tree.rangeSearch((Long) null, ">=").isEmpty());
+			Assert.assertTrue(tree.rangeSearch(0L, "!=").isEmpty());
+			Assert.assertNull(tree.get((Long) null));
+
+			try {
+				tree.insert((Long) null, Long.valueOf(1));
+				fail("insert accepted a null key");
+			} catch (IllegalArgumentException expectedException) {
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 001: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Double keys sort like Double.compareTo, signed zeros, infinities and NaN
+	 * included
+	 */
+	@Test
+	void testBALST_002_double_keys_match_bptree() {
+
+		try {
+
+			double[] special = { -0.0, 0.0, Double.NEGATIVE_INFINITY,
+					Double.POSITIVE_INFINITY, Double.NaN, Double.MIN_VALUE,
+					-Double.MIN_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE };
+
+			for (double key : special)
+				Assert.assertEquals(Double.valueOf(key),
+						Double.valueOf(DoubleBPTree.decode(DoubleBPTree.encode(key))));
+
+			for (int branchingFactor : new int[] { 3, 8, 64 }) {
+				Random rnd = new Random(branchingFactor);
+				DoubleBPTree<Double> tree = new DoubleBPTree<>(branchingFactor);
+				BPTree<Double, Double> expected = new BPTree<>(branchingFactor);
+
+				for (int i = 0; i < 3000; i++) {
+					double key = i < special.length ? special[i]
+							: rnd.nextInt(500) / 4.0 - 60;
+					tree.insert(key, Double.valueOf(i));
+					expected.insert(key, (double) i);
+				}
+
+				Assert.assertEquals(expected.size(), tree.size());
+				Assert.assertEquals(expected.toString(), tree.toString());
+
+				for (int i = 0; i < 200; i++) {
+					double key = i < special.length ? special[i]
+							: rnd.nextInt(600) / 4.0 - 80;
+					Assert.assertEquals(expected.get(key), tree.get(key));
+					for (String comparator : COMPARATORS)
+						Assert.assertEquals(expected.rangeSearch(key, comparator),
+								tree.rangeSearch(key, comparator));
+				}
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 002: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,292 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded cache of get results in front of a BPTree, see
+ * BPTree#enableCache. A hit costs one hash probe instead of a descent from
+ * the root, which pays off when a small set of keys takes most lookups.
+ *
+ * Entries are evicted by CLOCK: every slot has a referenced bit that a hit
+ * sets, and when the cache is full a hand sweeps the slots, clearing set bits
+ * and evicting the first slot whose bit is already clear. Keys that keep
+ * being read survive a sweep, keys read once make room after one, and neither
+ * a hit nor an eviction allocates or reorders anything.
+ *
+ * Results are cached as get returns them, so a key that is absent is cached
+ * as null too. The tree keeps the cache in step with its writes: inserting a
+ * key drops a cached null for it, since the key may be absent, and removing
+ * one of its values drops it whatever it was.
+ *
+ * Keys are found by equals and hashCode, while the tree compares them with
+ * compareTo, so keys must have a compareTo consistent with equals. Keys that
+ * compare equal without being equal, like BigDecimal 1.0 and 1.00, are cached
+ * apart, and a write under one of them does not drop the other: a cached null
+ * would outlive the insert that made it wrong.
+ *
+ * Like the tree, the cache is not thread safe.
+ *
+ * @author Wally Estenson
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public class LookupCache<K, V> {
+
+	// Returned by get when the key is not cached, since null is a valid result
+	static final Object MISS = new Object();
+
+	private final int capacity;
+
+	// Cached keys and the slots holding their results
+	private final Map<K, Slot<K, V>> slots;
+
+	// Every slot ever used, in the order the hand visits them
+	private final List<Slot<K, V>> clock;
+	private int hand;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long invalidations;
+
+	/**
+	 * One cached result and its CLOCK bit. An invalidated slot keeps its
+	 * place on the clock with a null key until the hand reuses it.
+	 */
+	private static final class Slot<K, V> {
+		K key;
+		V value;
+		boolean referenced;
+	}
+
+	/**
+	 * Package constructor
+	 *
+	 * @param capacity most keys to cache, at least 1
+	 */
+	LookupCache(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException(
+					"Illegal cache capacity: " + capacity);
+
+		this.capacity = capacity;
+		this.slots = new HashMap<K, Slot<K, V>>(
+				(int) Math.min(1 << 30, capacity * 4L / 3 + 1));
+		this.clock = new ArrayList<Slot<K, V>>();
+	}
+
+	/**
+	 * Looks up the cached result for a key and marks it referenced
+	 *
+	 * @param key to look up
+	 * @return the cached result, possibly null, or MISS
+	 */
+	Object get(K key) {
+		Slot<K, V> slot = slots.get(key);
+		if (slot == null) {
+			misses++;
+			return MISS;
+		}
+
+		hits++;
+		slot.referenced = true;
+		return slot.value;
+	}
+
+	/**
+	 * Caches the result of a lookup that missed, evicting a key if the cache
+	 * is full
+	 *
+	 * @param key   looked up
+	 * @param value result of get
+	 */
+	void put(K key, V value) {
+		Slot<K, V> slot = slots.get(key);
+		if (slot == null) {
+			slot = freeSlot();
+			slot.key = key;
+			slots.put(key, slot);
+		}
+
+		// new keys start unreferenced, so a key read only once is the first
+		// to go when the hand comes round
+		slot.value = value;
+	}
+
+	/**
+	 * Called when a value is inserted for the key. A cached non-null result
+	 * is the key's first value, which the insert leaves in place.
+	 *
+	 * @param key inserted
+	 */
+	void inserted(K key) {
+		Slot<K, V> slot = slots.get(key);
+		if (slot != null && slot.value == null)
+			drop(slot);
+	}
+
+	/**
+	 * Drops the cached result of a key, if any
+	 *
+	 * @param key whose result may have changed
+	 */
+	void invalidate(K key) {
+		Slot<K, V> slot = slots.get(key);
+		if (slot != null)
+			drop(slot);
+	}
+
+	/**
+	 * Drops every cached result. The statistics are kept.
+	 */
+	public void clear() {
+		slots.clear();
+		clock.clear();
+		hand = 0;
+	}
+
+	/**
+	 * Removes a slot from the index and leaves it on the clock, empty
+	 */
+	private void drop(Slot<K, V> slot) {
+		slots.remove(slot.key);
+		slot.key = null;
+		slot.value = null;
+		slot.referenced = false;
+		invalidations++;
+	}
+
+	/**
+	 * Returns an empty slot: a new one until the clock holds capacity slots,
+	 * then the first one the hand finds empty or unreferenced
+	 */
+	private Slot<K, V> freeSlot() {
+		if (clock.size() < capacity) {
+			Slot<K, V> slot = new Slot<K, V>();
+			clock.add(slot);
+			return slot;
+		}
+
+		while (true) {
+			Slot<K, V> slot = clock.get(hand);
+			hand = hand + 1 == clock.size() ? 0 : hand + 1;
+
+			if (slot.key == null)
+				return slot;
+			if (slot.referenced)
+				slot.referenced = false;
+			else {
+				slots.remove(slot.key);
+				slot.value = null;
+				evictions++;
+				return slot;
+			}
+		}
+	}
+
+	/**
+	 * Returns the most keys the cache holds
+	 *
+	 * @return capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of keys cached
+	 *
+	 * @return size
+	 */
+	public int size() {
+		return slots.size();
+	}
+
+	/**
+	 * Returns the number of lookups answered from the cache
+	 *
+	 * @return hits
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups that went to the tree
+	 *
+	 * @return misses
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the fraction of lookups answered from the cache
+	 *
+	 * @return hit rate in [0, 1], or 0 before the first lookup
+	 */
+	public double getHitRate() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	/**
+	 * Returns the number of keys evicted to make room for others
+	 *
+	 * @return evictions
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the number of cached results dropped because a write changed
+	 * them
+	 *
+	 * @return invalidations
+	 */
+	public long getInvalidations() {
+		return invalidations;
+	}
+
+	/**
+	 * Sets the statistics back to zero. The cached results are kept.
+	 */
+	public void resetStatistics() {
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+		invalidations = 0;
+	}
+
+	/**
+	 * Hands every statistic to a sink as cache.hits, cache.misses,
+	 * cache.hitRate, cache.evictions, cache.invalidations, cache.size and
+	 * cache.capacity
+	 *
+	 * @param sink receives each statistic
+	 */
+	public void publish(MetricsSink sink) {
+		sink.accept("cache.hits", hits);
+		sink.accept("cache.misses", misses);
+		sink.accept("cache.hitRate", getHitRate());
+		sink.accept("cache.evictions", evictions);
+		sink.accept("cache.invalidations", invalidations);
+		sink.accept("cache.size", size());
+		sink.accept("cache.capacity", capacity);
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "size=" + size() + "/" + capacity + ", hitRate="
+				+ String.format("%.3f", getHitRate()) + ", evictions="
+				+ evictions + ", invalidations=" + invalidations;
+	}
+}
@@ -0,0 +1,153 @@
+import static org.junit.Assert.fail;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test Class for LookupCache.java
+ *
+ *
+ * @author Wally Estenson
+ */
+public class LookupCache_Tests {
+
+	/**
+	 * A tree with a cache answers every get like one without, through inserts,
+	 * batches and removals of cached, absent and null-valued keys
+	 */
+	@Test
+	void testBALST_001_cached_gets_follow_writes() {
+
+		try {
+
+			BPTree<Integer, String> cached = new BPTree<>(4);
+			BPTree<Integer, String> plain = new BPTree<>(4);
+			LookupCache<Integer, String> cache = cached.enableCache(40);
+
+			Random rnd = new Random(23);
+			long gets = 0;
+			for (int i = 0; i < 30000; i++) {
+				// skewed: most operations hit the first few keys
+				int key = rnd.nextInt(4) == 0 ? rnd.nextInt(400) : rnd.nextInt(20);
+				String value = i % 50 == 0 ? null : "v" + i;
+
+				switch (rnd.nextInt(10)) {
+				case 0:
+					cached.insert(key, value);
+					plain.insert(key, value);
+					break;
+				case 1:
+					Assert.assertEquals(plain.remove(key), cached.remove(key));
+					break;
+				case 2:
+					Assert.assertEquals(plain.removeAll(key), cached.removeAll(key));
+					break;
+				case 3:
+					List<Map.Entry<Integer, String>> batch = new ArrayList<>();
+					for (int j = 0; j < 5; j++)
+						batch.add(new AbstractMap.SimpleEntry<>(key + j, value));
+					cached.insertAll(batch);
+					plain.insertAll(batch);
+					break;
+				default:
+					Assert.assertEquals(plain.get(key), cached.get(key));
+					gets++;
+				}
+				Assert.assertTrue(cache.size() <= 40);
+			}
+
+			Assert.assertEquals(gets, cache.getHits() + cache.getMisses());
+			Assert.assertTrue(cache.getHitRate() > 0.5);
+			Assert.assertTrue(cache.getEvictions() > 0);
+			Assert.assertTrue(cache.getInvalidations() > 0);
+			Assert.assertEquals(plain.rangeSearch(0, ">="),
+					cached.rangeSearch(0, ">="));
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 001: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * CLOCK gives referenced keys a second chance, and the statistics and
+	 * lifecycle behave as documented
+	 */
+	@Test
+	void testBALST_002_clock_eviction_and_statistics() {
+
+		try {
+
+			BPTree<String, Integer> tree = new BPTree<>(3);
+			for (String key : new String[] { "a", "b", "c", "d" })
+				tree.insert(key, (int) key.charAt(0));
+
+			LookupCache<String, Integer> cache = tree.enableCache(3);
+			Assert.assertSame(cache, tree.enableCache(3));
+			Assert.assertSame(cache, tree.getCache());
+
+			tree.get("a");
+			tree.get("b");
+			tree.get("c");
+			tree.get("a");
+			Assert.assertEquals(1, cache.getHits());
+
+			// the hand clears a's bit and takes b, which was read once
+			tree.get("d");
+			Assert.assertEquals(1, cache.getEvictions());
+			long misses = cache.getMisses();
+			tree.get("a");
+			tree.get("c");
+			Assert.assertEquals(misses, cache.getMisses());
+			tree.get("b");
+			Assert.assertEquals(misses + 1, cache.getMisses());
+
+			// an absent key is cached as null until it is inserted
+			Assert.assertNull(tree.get("e"));
+			Assert.assertNull(tree.get("e"));
+			tree.insert("e", 5);
+			Assert.assertEquals(Integer.valueOf(5), tree.get("e"));
+
+			// a duplicate insert keeps the cached first value
+			long invalidations = cache.getInvalidations();
+			tree.insert("e", 6);
+			Assert.assertEquals(invalidations, cache.getInvalidations());
+			Assert.assertEquals(Integer.valueOf(5), tree.get("e"));
+			tree.remove("e");
+			Assert.assertEquals(Integer.valueOf(6), tree.get("e"));
+
+			Map<String, Double> published = new LinkedHashMap<>();
+			cache.publish(published::put);
+			Assert.assertEquals(cache.getHitRate(), published.get("cache.hitRate"),
+					0);
+			Assert.assertEquals(3, published.get("cache.capacity"), 0);
+			Assert.assertEquals(7, published.size());
+
+			cache.resetStatistics();
+			Assert.assertEquals(0, cache.getHitRate(), 0);
+			cache.clear();
+			Assert.assertEquals(0, cache.size());
+			Assert.assertEquals(Integer.valueOf('a'), tree.get("a"));
+
+			Assert.assertNotSame(cache, tree.enableCache(10));
+			tree.disableCache();
+			Assert.assertNull(tree.getCache());
+			try {
+				tree.enableCache(0);
+				fail("accepted a capacity of 0");
+			} catch (IllegalArgumentException expected) {
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 002: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,261 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Pages in a single file, read and written through memory mappings. The file
+ * starts with a header page recording the page size and page count, followed
+ * by the pages in id order:
+ *
+ * <pre>
+ * 0  magic       int
+ * 4  page size   int
+ * 8  page count  int
+ * </pre>
+ *
+ * Opening an existing file reads only the header; regions of pages are mapped
+ * on first use, so reopening costs the same for any file size. Changes go to
+ * the mapped memory right away, and flush forces the dirty regions and then
+ * the header.
+ *
+ * Flushing is not the only way changes reach the disk: the operating system
+ * writes dirty mapped pages back whenever it likes. A crash between flushes
+ * can therefore leave a torn file, e.g. one page of a split written and the
+ * other not, under a header from the last flush. For a file that survives
+ * crashes, open the store through a LoggedPageStore, which logs every change
+ * before it reaches the mapping and redoes the log on open.
+ *
+ * @author Wally Estenson
+ */
+public class MappedPageStore implements PageStore {
+
+	// Pages per mapping; the file grows by whole regions
+	public static final int DEFAULT_PAGES_PER_REGION = 256;
+
+	// Header page layout, shared with BufferPool
+	static final int MAGIC = 0x42505046;
+	static final int HEADER_MAGIC = 0;
+	static final int HEADER_PAGE_SIZE = 4;
+	static final int HEADER_PAGE_COUNT = 8;
+
+	private final FileChannel channel;
+	private final int pageSize;
+	private final int pagesPerRegion;
+	private final MappedByteBuffer header;
+
+	// mapped regions and page views, created on first use
+	private final List<MappedByteBuffer> regions;
+	private final List<ByteBuffer> pages;
+
+	// regions written since the last flush
+	private final BitSet dirtyRegions;
+
+	private int pageCount;
+
+	/**
+	 * Opens the file, or creates it if it does not exist or is empty
+	 *
+	 * @param file     path of the page file
+	 * @param pageSize bytes per page; must match an existing file
+	 * @throws IOException              if the file cannot be opened
+	 * @throws IllegalArgumentException if the file is not a page file of this
+	 *                                  page size
+	 */
+	public MappedPageStore(Path file, int pageSize) throws IOException {
+		this(file, pageSize, DEFAULT_PAGES_PER_REGION);
+	}
+
+	/**
+	 * Opens the file, or creates it if it does not exist or is empty
+	 *
+	 * @param file           path of the page file
+	 * @param pageSize       bytes per page; must match an existing file
+	 * @param pagesPerRegion pages per mapping
+	 * @throws IOException              if the file cannot be opened
+	 * @throws IllegalArgumentException if the file is not a page file of this
+	 *                                  page size
+	 */
+	public MappedPageStore(Path file, int pageSize, int pagesPerRegion)
+			throws IOException {
+		if (pageSize < HEADER_PAGE_COUNT + Integer.BYTES)
+			throw new IllegalArgumentException("Illegal page size: " + pageSize);
+		if (pagesPerRegion <= 0 || (long) pageSize * pagesPerRegion > Integer.MAX_VALUE)
+			throw new IllegalArgumentException(
+					"Illegal pages per region: " + pagesPerRegion);
+
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.pageSize = pageSize;
+		this.pagesPerRegion = pagesPerRegion;
+		this.regions = new ArrayList<MappedByteBuffer>();
+		this.pages = new ArrayList<ByteBuffer>();
+		this.dirtyRegions = new BitSet();
+
+		try {
+			boolean empty = channel.size() == 0;
+			header = channel.map(FileChannel.MapMode.READ_WRITE, 0, pageSize);
+
+			if (empty) {
+				header.putInt(HEADER_MAGIC, MAGIC);
+				header.putInt(HEADER_PAGE_SIZE, pageSize);
+				header.putInt(HEADER_PAGE_COUNT, 0);
+				header.force();
+			} else if (header.getInt(HEADER_MAGIC) != MAGIC)
+				throw new IllegalArgumentException(file + " is not a page file");
+			else if (header.getInt(HEADER_PAGE_SIZE) != pageSize)
+				throw new IllegalArgumentException(file + " has "
+						+ header.getInt(HEADER_PAGE_SIZE) + " byte pages, not "
+						+ pageSize);
+
+			pageCount = header.getInt(HEADER_PAGE_COUNT);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see PageStore#pageSize()
+	 */
+	@Override
+	public int pageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see PageStore#pageCount()
+	 */
+	@Override
+	public int pageCount() {
+		return pageCount;
+	}
+
+	/**
+	 * (non-Javadoc) The page may hold bytes of a page that was allocated but
+	 * never flushed before a crash, so it is zeroed explicitly
+	 *
+	 * @see PageStore#allocate()
+	 */
+	@Override
+	public int allocate() {
+		int id = pageCount++;
+		ByteBuffer page = pin(id);
+		for (int i = 0; i < pageSize; i += Long.BYTES)
+			page.putLong(i, 0);
+		markDirty(id);
+		return id;
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see PageStore#pin(int)
+	 */
+	@Override
+	public ByteBuffer pin(int id) {
+		if (id < 0 || id >= pageCount)
+			throw new IndexOutOfBoundsException("Page " + id + " of " + pageCount);
+
+		while (pages.size() <= id)
+			pages.add(null);
+
+		ByteBuffer page = pages.get(id);
+		if (page == null) {
+			MappedByteBuffer region = region(id / pagesPerRegion);
+			int offset = id % pagesPerRegion * pageSize;
+			ByteBuffer view = region.duplicate();
+			view.limit(offset + pageSize).position(offset);
+			page = view.slice();
+			pages.set(id, page);
+		}
+		return page;
+	}
+
+	/**
+	 * (non-Javadoc) Pages are always resident
+	 *
+	 * @see PageStore#unpin(int)
+	 */
+	@Override
+	public void unpin(int id) {
+	}
+
+	/**
+	 * Maps a region, growing the file if it ends before it
+	 */
+	private MappedByteBuffer region(int index) {
+		while (regions.size() <= index)
+			regions.add(null);
+
+		MappedByteBuffer region = regions.get(index);
+		if (region == null) {
+			long regionSize = (long) pageSize * pagesPerRegion;
+			try {
+				region = channel.map(FileChannel.MapMode.READ_WRITE,
+						pageSize + index * regionSize, regionSize);
+			} catch (IOException e) {
+				throw new IllegalStateException("Cannot map page region " + index,
+						e);
+			}
+			regions.set(index, region);
+		}
+		return region;
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see PageStore#markDirty(int)
+	 */
+	@Override
+	public void markDirty(int id) {
+		dirtyRegions.set(id / pagesPerRegion);
+	}
+
+	/**
+	 * (non-Javadoc) Pages first, then the header, so a header never counts
+	 * pages that are not on disk
+	 *
+	 * @see PageStore#flush()
+	 */
+	@Override
+	public void flush() throws IOException {
+		for (int i = dirtyRegions.nextSetBit(0); i >= 0; i = dirtyRegions
+				.nextSetBit(i + 1))
+			regions.get(i).force();
+		dirtyRegions.clear();
+
+		header.putInt(HEADER_PAGE_COUNT, pageCount);
+		header.force();
+	}
+
+	/**
+	 * (non-Javadoc) Flushes and closes the file. The mappings stay valid
+	 * until they are garbage collected, but must not be used any more.
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!channel.isOpen())
+			return;
+
+		try {
+			flush();
+		} finally {
+			regions.clear();
+			pages.clear();
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,25 @@
+/**
+ * Receives the metrics of a tree as flat name-value pairs, for exporting them
+ * to a monitoring system other than JMX. Names are dotted, e.g.
+ * "get.p99Nanos" or "level.2.occupancy"; see TreeMetrics#snapshot for the
+ * full list.
+ *
+ * Typical use, from a reporting thread:
+ *
+ * <pre>
+ * tree.getMetrics().publish((name, value) -&gt; registry.gauge(name, value));
+ * </pre>
+ *
+ * @author Wally Estenson
+ */
+@FunctionalInterface
+public interface MetricsSink {
+
+	/**
+	 * Receives one metric
+	 *
+	 * @param name  dotted metric name
+	 * @param value current value
+	 */
+	void accept(String name, double value);
+}
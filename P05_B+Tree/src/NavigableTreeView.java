@@ -0,0 +1,591 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * Read-only NavigableMap view of a BPTree, see BPTree#asNavigableMap. Each
+ * key maps to its first value, as with get, so duplicate keys appear once.
+ *
+ * A view covers the keys between two bounds, in ascending or descending
+ * order; sub-map, head-map, tail-map and descending views are new views of
+ * the same tree. The bounds are kept in ascending terms and every relative
+ * method maps onto the tree's floor, ceiling, lower and higher, so a lookup
+ * costs one descent. Iterating ascending walks the leaf chain; since leaves
+ * only link forward, iterating descending takes a descent per key.
+ *
+ * Methods that would change the map throw UnsupportedOperationException.
+ * size() counts the keys in range, which takes a walk over them.
+ *
+ * @author Wally Estenson
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+class NavigableTreeView<K extends Comparable<K>, V> extends AbstractMap<K, V>
+		implements NavigableMap<K, V> {
+
+	private final BPTree<K, V> tree;
+
+	// bounds in ascending order, null for none
+	private final K low;
+	private final boolean lowInclusive;
+	private final K high;
+	private final boolean highInclusive;
+
+	private final boolean descending;
+
+	/**
+	 * Package constructor
+	 *
+	 * @param tree          viewed
+	 * @param low           lower bound, or null for none
+	 * @param lowInclusive  whether a key equal to low is in range
+	 * @param high          upper bound, or null for none
+	 * @param highInclusive whether a key equal to high is in range
+	 * @param descending    whether the view runs from high to low
+	 */
+	NavigableTreeView(BPTree<K, V> tree, K low, boolean lowInclusive, K high,
+			boolean highInclusive, boolean descending) {
+		this.tree = tree;
+		this.low = low;
+		this.lowInclusive = lowInclusive;
+		this.high = high;
+		this.highInclusive = highInclusive;
+		this.descending = descending;
+	}
+
+	/**
+	 * Returns whether a key lies below the range
+	 */
+	private boolean tooLow(K key) {
+		if (low == null)
+			return false;
+		int comparison = key.compareTo(low);
+		return comparison < 0 || comparison == 0 && !lowInclusive;
+	}
+
+	/**
+	 * Returns whether a key lies above the range
+	 */
+	private boolean tooHigh(K key) {
+		if (high == null)
+			return false;
+		int comparison = key.compareTo(high);
+		return comparison > 0 || comparison == 0 && !highInclusive;
+	}
+
+	/**
+	 * Returns whether a key lies in the range
+	 */
+	private boolean inRange(K key) {
+		return !tooLow(key) && !tooHigh(key);
+	}
+
+	/**
+	 * Returns whether a key lies in the range or on one of its exclusive
+	 * bounds, which is where the bound of a narrower view may go
+	 */
+	private boolean inRange(K key, boolean inclusive) {
+		if (inclusive)
+			return inRange(key);
+		return (low == null || key.compareTo(low) >= 0)
+				&& (high == null || key.compareTo(high) <= 0);
+	}
+
+	// Navigation in ascending terms, within the bounds
+
+	private Map.Entry<K, V> lowest() {
+		Map.Entry<K, V> entry = low == null ? tree.first()
+				: lowInclusive ? tree.ceiling(low) : tree.higher(low);
+		return entry == null || tooHigh(entry.getKey()) ? null : entry;
+	}
+
+	private Map.Entry<K, V> highest() {
+		Map.Entry<K, V> entry = high == null ? tree.last()
+				: highInclusive ? tree.floor(high) : tree.lower(high);
+		return entry == null || tooLow(entry.getKey()) ? null : entry;
+	}
+
+	private Map.Entry<K, V> ceiling(K key) {
+		if (tooLow(key))
+			return lowest();
+		Map.Entry<K, V> entry = tree.ceiling(key);
+		return entry == null || tooHigh(entry.getKey()) ? null : entry;
+	}
+
+	private Map.Entry<K, V> higher(K key) {
+		if (tooLow(key))
+			return lowest();
+		Map.Entry<K, V> entry = tree.higher(key);
+		return entry == null || tooHigh(entry.getKey()) ? null : entry;
+	}
+
+	private Map.Entry<K, V> floor(K key) {
+		if (tooHigh(key))
+			return highest();
+		Map.Entry<K, V> entry = tree.floor(key);
+		return entry == null || tooLow(entry.getKey()) ? null : entry;
+	}
+
+	private Map.Entry<K, V> lower(K key) {
+		if (tooHigh(key))
+			return highest();
+		Map.Entry<K, V> entry = tree.lower(key);
+		return entry == null || tooLow(entry.getKey()) ? null : entry;
+	}
+
+	/**
+	 * Returns the key of an entry, or null for none
+	 */
+	private static <K> K key(Map.Entry<K, ?> entry) {
+		return entry == null ? null : entry.getKey();
+	}
+
+	/**
+	 * Returns the key of an entry, which must exist
+	 */
+	private static <K> K existingKey(Map.Entry<K, ?> entry) {
+		if (entry == null)
+			throw new NoSuchElementException();
+		return entry.getKey();
+	}
+
+	/**
+	 * Casts a key looked up through the Map interface
+	 */
+	@SuppressWarnings("unchecked")
+	private static <K> K cast(Object key) {
+		return (K) Objects.requireNonNull(key);
+	}
+
+	/**
+	 * Creates a view of the same tree between new bounds in ascending terms
+	 */
+	private NavigableTreeView<K, V> view(K low, boolean lowInclusive, K high,
+			boolean highInclusive, boolean descending) {
+		return new NavigableTreeView<K, V>(tree, low, lowInclusive, high,
+				highInclusive, descending);
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractMap#get(java.lang.Object)
+	 */
+	@Override
+	public V get(Object key) {
+		K k = cast(key);
+		return inRange(k) ? tree.get(k) : null;
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractMap#containsKey(java.lang.Object)
+	 */
+	@Override
+	public boolean containsKey(Object key) {
+		K k = cast(key);
+		Map.Entry<K, V> entry = inRange(k) ? tree.ceiling(k) : null;
+		return entry != null && entry.getKey().compareTo(k) == 0;
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractMap#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		return lowest() == null;
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractMap#entrySet()
+	 */
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return new AbstractSet<Map.Entry<K, V>>() {
+
+			@Override
+			public Iterator<Map.Entry<K, V>> iterator() {
+				return descending ? descendingEntries() : ascendingEntries();
+			}
+
+			@Override
+			public int size() {
+				int count = 0;
+				for (Iterator<Map.Entry<K, V>> entries = iterator(); entries
+						.hasNext(); entries.next())
+					count++;
+				return count;
+			}
+
+			@Override
+			public boolean isEmpty() {
+				return NavigableTreeView.this.isEmpty();
+			}
+		};
+	}
+
+	/**
+	 * Walks the leaf chain through a cursor over the range, skipping the
+	 * later values of duplicate keys
+	 */
+	private Iterator<Map.Entry<K, V>> ascendingEntries() {
+		RangeCursor<K, V> cursor = tree.cursor(low, lowInclusive, high,
+				highInclusive);
+
+		return new Iterator<Map.Entry<K, V>>() {
+
+			Map.Entry<K, V> next = advance(null);
+
+			Map.Entry<K, V> advance(K previous) {
+				while (cursor.advance())
+					if (previous == null
+							|| cursor.getKey().compareTo(previous) != 0)
+						return new AbstractMap.SimpleImmutableEntry<K, V>(
+								cursor.getKey(), cursor.getValue());
+				return null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public Map.Entry<K, V> next() {
+				if (next == null)
+					throw new NoSuchElementException();
+				Map.Entry<K, V> entry = next;
+				next = advance(entry.getKey());
+				return entry;
+			}
+		};
+	}
+
+	/**
+	 * Steps down from the highest key with one lower lookup per key
+	 */
+	private Iterator<Map.Entry<K, V>> descendingEntries() {
+		return new Iterator<Map.Entry<K, V>>() {
+
+			Map.Entry<K, V> next = highest();
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public Map.Entry<K, V> next() {
+				if (next == null)
+					throw new NoSuchElementException();
+				Map.Entry<K, V> entry = next;
+				next = lower(entry.getKey());
+				return entry;
+			}
+		};
+	}
+
+	@Override
+	public Map.Entry<K, V> lowerEntry(K key) {
+		K k = cast(key);
+		return descending ? higher(k) : lower(k);
+	}
+
+	@Override
+	public K lowerKey(K key) {
+		return key(lowerEntry(key));
+	}
+
+	@Override
+	public Map.Entry<K, V> floorEntry(K key) {
+		K k = cast(key);
+		return descending ? ceiling(k) : floor(k);
+	}
+
+	@Override
+	public K floorKey(K key) {
+		return key(floorEntry(key));
+	}
+
+	@Override
+	public Map.Entry<K, V> ceilingEntry(K key) {
+		K k = cast(key);
+		return descending ? floor(k) : ceiling(k);
+	}
+
+	@Override
+	public K ceilingKey(K key) {
+		return key(ceilingEntry(key));
+	}
+
+	@Override
+	public Map.Entry<K, V> higherEntry(K key) {
+		K k = cast(key);
+		return descending ? lower(k) : higher(k);
+	}
+
+	@Override
+	public K higherKey(K key) {
+		return key(higherEntry(key));
+	}
+
+	@Override
+	public Map.Entry<K, V> firstEntry() {
+		return descending ? highest() : lowest();
+	}
+
+	@Override
+	public Map.Entry<K, V> lastEntry() {
+		return descending ? lowest() : highest();
+	}
+
+	@Override
+	public K firstKey() {
+		return existingKey(firstEntry());
+	}
+
+	@Override
+	public K lastKey() {
+		return existingKey(lastEntry());
+	}
+
+	@Override
+	public Map.Entry<K, V> pollFirstEntry() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Map.Entry<K, V> pollLastEntry() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Comparator<? super K> comparator() {
+		return descending ? Collections.reverseOrder() : null;
+	}
+
+	@Override
+	public NavigableMap<K, V> descendingMap() {
+		return view(low, lowInclusive, high, highInclusive, !descending);
+	}
+
+	@Override
+	public NavigableSet<K> navigableKeySet() {
+		return new KeySet();
+	}
+
+	@Override
+	public NavigableSet<K> keySet() {
+		return navigableKeySet();
+	}
+
+	@Override
+	public NavigableSet<K> descendingKeySet() {
+		return descendingMap().navigableKeySet();
+	}
+
+	@Override
+	public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive,
+			K toKey, boolean toInclusive) {
+		K from = cast(fromKey);
+		K to = cast(toKey);
+
+		// in ascending terms the bounds swap places in a descending view
+		if (descending)
+			return view(to, toInclusive, from, fromInclusive, true)
+					.checkedWithin(this);
+		return view(from, fromInclusive, to, toInclusive, false)
+				.checkedWithin(this);
+	}
+
+	@Override
+	public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+		K to = cast(toKey);
+		if (descending)
+			return view(to, inclusive, high, highInclusive, true)
+					.checkedWithin(this);
+		return view(low, lowInclusive, to, inclusive, false).checkedWithin(this);
+	}
+
+	@Override
+	public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+		K from = cast(fromKey);
+		if (descending)
+			return view(low, lowInclusive, from, inclusive, true)
+					.checkedWithin(this);
+		return view(from, inclusive, high, highInclusive, false)
+				.checkedWithin(this);
+	}
+
+	/**
+	 * Checks that a narrower view's bounds are in order and inside the view
+	 * it was made from
+	 *
+	 * @return this view
+	 * @throws IllegalArgumentException if a bound is out of range
+	 */
+	private NavigableTreeView<K, V> checkedWithin(NavigableTreeView<K, V> outer) {
+		if (low != null && high != null && low.compareTo(high) > 0)
+			throw new IllegalArgumentException("Bounds out of order");
+		if (low != null && !outer.inRange(low, lowInclusive)
+				|| high != null && !outer.inRange(high, highInclusive))
+			throw new IllegalArgumentException("Bound out of range");
+		return this;
+	}
+
+	@Override
+	public SortedMap<K, V> subMap(K fromKey, K toKey) {
+		return subMap(fromKey, true, toKey, false);
+	}
+
+	@Override
+	public SortedMap<K, V> headMap(K toKey) {
+		return headMap(toKey, false);
+	}
+
+	@Override
+	public SortedMap<K, V> tailMap(K fromKey) {
+		return tailMap(fromKey, true);
+	}
+
+	/**
+	 * Keys of the view, in its order; every method goes through the map
+	 */
+	private class KeySet extends AbstractSet<K> implements NavigableSet<K> {
+
+		@Override
+		public Iterator<K> iterator() {
+			Iterator<Map.Entry<K, V>> entries = entrySet().iterator();
+			return new Iterator<K>() {
+
+				@Override
+				public boolean hasNext() {
+					return entries.hasNext();
+				}
+
+				@Override
+				public K next() {
+					return entries.next().getKey();
+				}
+			};
+		}
+
+		@Override
+		public Iterator<K> descendingIterator() {
+			return descendingSet().iterator();
+		}
+
+		@Override
+		public int size() {
+			return NavigableTreeView.this.size();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return NavigableTreeView.this.isEmpty();
+		}
+
+		@Override
+		public boolean contains(Object key) {
+			return containsKey(key);
+		}
+
+		@Override
+		public K lower(K key) {
+			return lowerKey(key);
+		}
+
+		@Override
+		public K floor(K key) {
+			return floorKey(key);
+		}
+
+		@Override
+		public K ceiling(K key) {
+			return ceilingKey(key);
+		}
+
+		@Override
+		public K higher(K key) {
+			return higherKey(key);
+		}
+
+		@Override
+		public K first() {
+			return firstKey();
+		}
+
+		@Override
+		public K last() {
+			return lastKey();
+		}
+
+		@Override
+		public K pollFirst() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public K pollLast() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Comparator<? super K> comparator() {
+			return NavigableTreeView.this.comparator();
+		}
+
+		@Override
+		public NavigableSet<K> descendingSet() {
+			return descendingMap().navigableKeySet();
+		}
+
+		@Override
+		public NavigableSet<K> subSet(K fromElement, boolean fromInclusive,
+				K toElement, boolean toInclusive) {
+			return subMap(fromElement, fromInclusive, toElement, toInclusive)
+					.navigableKeySet();
+		}
+
+		@Override
+		public NavigableSet<K> headSet(K toElement, boolean inclusive) {
+			return headMap(toElement, inclusive).navigableKeySet();
+		}
+
+		@Override
+		public NavigableSet<K> tailSet(K fromElement, boolean inclusive) {
+			return tailMap(fromElement, inclusive).navigableKeySet();
+		}
+
+		@Override
+		public SortedSet<K> subSet(K fromElement, K toElement) {
+			return subSet(fromElement, true, toElement, false);
+		}
+
+		@Override
+		public SortedSet<K> headSet(K toElement) {
+			return headSet(toElement, false);
+		}
+
+		@Override
+		public SortedSet<K> tailSet(K fromElement) {
+			return tailSet(fromElement, true);
+		}
+	}
+}
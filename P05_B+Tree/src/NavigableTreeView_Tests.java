@@ -0,0 +1,175 @@
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test Class for NavigableTreeView.java
+ *
+ *
+ * @author Wally Estenson
+ */
+public class NavigableTreeView_Tests {
+
+	/**
+	 * Every view, bounded or not, ascending or descending, answers like the
+	 * same view of a TreeMap holding each key's first value
+	 */
+	@Test
+	void testBALST_001_views_match_tree_map() {
+
+		try {
+
+			Random rnd = new Random(25);
+			BPTree<Integer, Integer> tree = new BPTree<>(4, 6);
+			TreeMap<Integer, Integer> expected = new TreeMap<>();
+			for (int i = 0; i < 3000; i++) {
+				int key = rnd.nextInt(1000) * 3;
+				tree.insert(key, i);
+				expected.putIfAbsent(key, i);
+			}
+
+			NavigableMap<Integer, Integer> map = tree.asNavigableMap();
+			List<NavigableMap<Integer, Integer>> actualViews = views(map);
+			List<NavigableMap<Integer, Integer>> expectedViews = views(expected);
+			for (int v = 0; v < actualViews.size(); v++)
+				assertSameMap(expectedViews.get(v), actualViews.get(v), rnd);
+
+			// views of views, and the key sets
+			assertSameMap(
+					expected.descendingMap().subMap(2400, true, 300, false)
+							.headMap(1200, true),
+					map.descendingMap().subMap(2400, true, 300, false)
+							.headMap(1200, true), rnd);
+			Assert.assertEquals(
+					new ArrayList<>(expected.navigableKeySet().subSet(30, 90)),
+					new ArrayList<>(map.navigableKeySet().subSet(30, 90)));
+			Assert.assertEquals(
+					new ArrayList<>(expected.headMap(500, false).descendingKeySet()),
+					new ArrayList<>(map.headMap(500, false).descendingKeySet()));
+			Assert.assertEquals(expected.navigableKeySet().floor(1001),
+					map.navigableKeySet().floor(1001));
+
+			// the view follows the tree
+			tree.insert(-7, 1);
+			Assert.assertEquals(Integer.valueOf(-7), map.firstKey());
+			Assert.assertTrue(map.headMap(0).containsKey(-7));
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 001: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * The view is read-only and refuses bounds outside itself
+	 */
+	@Test
+	void testBALST_002_read_only_and_bounds() {
+
+		try {
+
+			BPTree<Integer, Integer> tree = new BPTree<>(3);
+			for (int i = 0; i < 20; i++)
+				tree.insert(i, i);
+			NavigableMap<Integer, Integer> map = tree.asNavigableMap();
+			NavigableMap<Integer, Integer> middle = map.subMap(5, true, 15, false);
+
+			for (Runnable change : Arrays.<Runnable>asList(() -> map.put(1, 1),
+					() -> map.remove(1), () -> map.pollFirstEntry(),
+					() -> map.navigableKeySet().pollLast(), () -> map.clear(),
+					() -> map.firstEntry().setValue(3))) {
+				try {
+					change.run();
+					fail("changed a read-only view");
+				} catch (UnsupportedOperationException expected) {
+				}
+			}
+
+			try {
+				middle.tailMap(16, true);
+				fail("accepted a bound outside the view");
+			} catch (IllegalArgumentException expected) {
+			}
+			try {
+				map.subMap(10, 5);
+				fail("accepted bounds out of order");
+			} catch (IllegalArgumentException expected) {
+			}
+			try {
+				map.get(null);
+				fail("accepted a null key");
+			} catch (NullPointerException expected) {
+			}
+
+			// an exclusive bound may sit on the view's own exclusive end
+			Assert.assertEquals(10, middle.headMap(15, false).size());
+			Assert.assertTrue(map.subMap(7, 7).isEmpty());
+			Assert.assertEquals(0, new BPTree<Integer, Integer>(3).asNavigableMap()
+					.size());
+			try {
+				new BPTree<Integer, Integer>(3).asNavigableMap().firstKey();
+				fail("found the first key of an empty map");
+			} catch (java.util.NoSuchElementException expected) {
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 002: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * The same set of views of any navigable map
+	 */
+	private static List<NavigableMap<Integer, Integer>> views(
+			NavigableMap<Integer, Integer> map) {
+		return Arrays.asList(map, map.descendingMap(),
+				map.subMap(300, true, 2400, false),
+				map.subMap(301, false, 2399, true), map.headMap(1500, true),
+				map.tailMap(1500, false), map.headMap(-1, true),
+				map.descendingMap().subMap(2400, false, 300, true),
+				map.descendingMap().headMap(600, true),
+				map.descendingMap().tailMap(600, false));
+	}
+
+	/**
+	 * Compares iteration, size, ends, lookups and navigation of two maps
+	 */
+	private static void assertSameMap(NavigableMap<Integer, Integer> expected,
+			NavigableMap<Integer, Integer> actual, Random rnd) {
+		Assert.assertEquals(new ArrayList<>(expected.entrySet()),
+				new ArrayList<>(actual.entrySet()));
+		Assert.assertEquals(expected.size(), actual.size());
+		Assert.assertEquals(expected.isEmpty(), actual.isEmpty());
+		Assert.assertEquals(expected.firstEntry(), actual.firstEntry());
+		Assert.assertEquals(expected.lastEntry(), actual.lastEntry());
+		Assert.assertEquals(new ArrayList<>(expected.descendingKeySet()),
+				new ArrayList<>(actual.descendingKeySet()));
+		Assert.assertEquals(expected, actual);
+
+		for (int i = 0; i < 300; i++) {
+			int key = rnd.nextInt(3100) - 50;
+			Assert.assertEquals(expected.get(key), actual.get(key));
+			Assert.assertEquals(expected.containsKey(key), actual.containsKey(key));
+			Assert.assertEquals(expected.lowerEntry(key), actual.lowerEntry(key));
+			Assert.assertEquals(expected.floorEntry(key), actual.floorEntry(key));
+			Assert.assertEquals(expected.ceilingKey(key), actual.ceilingKey(key));
+			Assert.assertEquals(expected.higherKey(key), actual.higherKey(key));
+		}
+
+		Iterator<Integer> keys = actual.keySet().iterator();
+		for (Integer key : expected.keySet())
+			Assert.assertEquals(key, keys.next());
+		Assert.assertFalse(keys.hasNext());
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * Branching factor and leaf capacity for a BPTree, given directly or worked
+ * out from the size of keys and values and a target size for nodes.
+ *
+ * The two are tuned apart because nodes are used differently: a get visits
+ * one internal node per level and binary searches it, so internal nodes pay
+ * off while they fit a few cache lines, whereas a range scan walks along the
+ * leaves and slows down with every link it follows, so leaves pay off when
+ * they are long, up to a page or so. A node of nodeBytes holds
+ * nodeBytes / (keyBytes + REFERENCE_BYTES) children when internal and
+ * nodeBytes / (keyBytes + valueBytes) keys when a leaf.
+ *
+ * @author Wally Estenson
+ */
+public class NodeSizing {
+
+	// Node sizes are rounded up to whole cache lines
+	public static final int CACHE_LINE_BYTES = 64;
+
+	// A common node size for scan-heavy leaves
+	public static final int PAGE_BYTES = 4096;
+
+	// Size of a child pointer in an internal node
+	public static final int REFERENCE_BYTES = 8;
+
+	private final int branchingFactor;
+	private final int leafCapacity;
+
+	/**
+	 * Public constructor
+	 *
+	 * @param branchingFactor most children of an internal node, at least 3
+	 * @param leafCapacity    most keys of a leaf, at least 2
+	 */
+	public NodeSizing(int branchingFactor, int leafCapacity) {
+		if (branchingFactor <= 2)
+			throw new IllegalArgumentException(
+					"Illegal branching factor: " + branchingFactor);
+		if (leafCapacity <= 1)
+			throw new IllegalArgumentException(
+					"Illegal leaf capacity: " + leafCapacity);
+
+		this.branchingFactor = branchingFactor;
+		this.leafCapacity = leafCapacity;
+	}
+
+	/**
+	 * Sizes internal nodes and leaves to the same number of bytes
+	 *
+	 * @param keyBytes   bytes of a key, e.g. 8 for a Long or the
+	 *                   Serializer size of a typical key
+	 * @param valueBytes bytes of a value, or REFERENCE_BYTES when leaves only
+	 *                   point to values
+	 * @param nodeBytes  target node size, rounded up to whole cache lines
+	 * @return sizing
+	 */
+	public static NodeSizing forNodeBytes(int keyBytes, int valueBytes,
+			int nodeBytes) {
+		return forNodeBytes(keyBytes, valueBytes, nodeBytes, nodeBytes);
+	}
+
+	/**
+	 * Sizes internal nodes and leaves to their own numbers of bytes, e.g. a
+	 * few cache lines for internal nodes and a page for leaves
+	 *
+	 * @param keyBytes      bytes of a key, e.g. 8 for a Long or the
+	 *                      Serializer size of a typical key
+	 * @param valueBytes    bytes of a value, or REFERENCE_BYTES when leaves
+	 *                      only point to values
+	 * @param internalBytes target internal node size, rounded up to whole
+	 *                      cache lines
+	 * @param leafBytes     target leaf size, rounded up to whole cache lines
+	 * @return sizing
+	 */
+	public static NodeSizing forNodeBytes(int keyBytes, int valueBytes,
+			int internalBytes, int leafBytes) {
+		if (keyBytes <= 0 || valueBytes < 0)
+			throw new IllegalArgumentException(
+					"Illegal entry size: " + keyBytes + " + " + valueBytes);
+		if (internalBytes <= 0 || leafBytes <= 0)
+			throw new IllegalArgumentException(
+					"Illegal node size: " + internalBytes + ", " + leafBytes);
+
+		// nodes too small to hold the minimum get the minimum
+		int internal = (int) (roundToCacheLines(internalBytes)
+				/ (keyBytes + REFERENCE_BYTES));
+		int leaf = (int) (roundToCacheLines(leafBytes)
+				/ Math.max(1, keyBytes + valueBytes));
+		return new NodeSizing(Math.max(3, internal), Math.max(2, leaf));
+	}
+
+	/**
+	 * Rounds a size up to a multiple of CACHE_LINE_BYTES
+	 */
+	private static long roundToCacheLines(int bytes) {
+		return ((long) bytes + CACHE_LINE_BYTES - 1) / CACHE_LINE_BYTES
+				* CACHE_LINE_BYTES;
+	}
+
+	/**
+	 * Returns the most children of an internal node
+	 *
+	 * @return branching factor
+	 */
+	public int getBranchingFactor() {
+		return branchingFactor;
+	}
+
+	/**
+	 * Returns the most keys of a leaf
+	 *
+	 * @return leaf capacity
+	 */
+	public int getLeafCapacity() {
+		return leafCapacity;
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "branchingFactor=" + branchingFactor + ", leafCapacity="
+				+ leafCapacity;
+	}
+}
@@ -0,0 +1,143 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pages in direct memory, outside the Java heap. Pages are carved out of
+ * direct ByteBuffer chunks of several pages each, so the heap holds only one
+ * small buffer view per page while the contents stay invisible to the
+ * garbage collector.
+ *
+ * Direct memory is limited by -XX:MaxDirectMemorySize, which defaults to the
+ * maximum heap size.
+ *
+ * @author Wally Estenson
+ */
+public class OffHeapPageStore implements PageStore {
+
+	// Pages per direct buffer; larger chunks mean fewer native allocations
+	public static final int DEFAULT_PAGES_PER_CHUNK = 256;
+
+	private final int pageSize;
+	private final int pagesPerChunk;
+
+	// views of every page, indexed by id
+	private final List<ByteBuffer> pages;
+
+	// chunk the next pages are carved from
+	private ByteBuffer chunk;
+
+	/**
+	 * Public constructor
+	 *
+	 * @param pageSize bytes per page
+	 */
+	public OffHeapPageStore(int pageSize) {
+		this(pageSize, DEFAULT_PAGES_PER_CHUNK);
+	}
+
+	/**
+	 * Public constructor
+	 *
+	 * @param pageSize      bytes per page
+	 * @param pagesPerChunk pages per direct buffer allocation
+	 */
+	public OffHeapPageStore(int pageSize, int pagesPerChunk) {
+		if (pageSize <= 0)
+			throw new IllegalArgumentException("Illegal page size: " + pageSize);
+		if (pagesPerChunk <= 0 || (long) pageSize * pagesPerChunk > Integer.MAX_VALUE)
+			throw new IllegalArgumentException(
+					"Illegal pages per chunk: " + pagesPerChunk);
+
+		this.pageSize = pageSize;
+		this.pagesPerChunk = pagesPerChunk;
+		this.pages = new ArrayList<ByteBuffer>();
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see PageStore#pageSize()
+	 */
+	@Override
+	public int pageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see PageStore#pageCount()
+	 */
+	@Override
+	public int pageCount() {
+		return pages.size();
+	}
+
+	/**
+	 * (non-Javadoc) Direct buffers start out zeroed
+	 *
+	 * @see PageStore#allocate()
+	 */
+	@Override
+	public int allocate() {
+		int id = pages.size();
+		int slot = id % pagesPerChunk;
+		if (slot == 0)
+			chunk = ByteBuffer.allocateDirect(pageSize * pagesPerChunk);
+
+		chunk.limit(slot * pageSize + pageSize).position(slot * pageSize);
+		pages.add(chunk.slice().order(ByteOrder.nativeOrder()));
+		return id;
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see PageStore#pin(int)
+	 */
+	@Override
+	public ByteBuffer pin(int id) {
+		return pages.get(id);
+	}
+
+	/**
+	 * (non-Javadoc) Pages are always resident
+	 *
+	 * @see PageStore#unpin(int)
+	 */
+	@Override
+	public void unpin(int id) {
+	}
+
+	/**
+	 * (non-Javadoc) Nothing to write back to
+	 *
+	 * @see PageStore#markDirty(int)
+	 */
+	@Override
+	public void markDirty(int id) {
+	}
+
+	/**
+	 * (non-Javadoc) Nothing to write back to
+	 *
+	 * @see PageStore#flush()
+	 */
+	@Override
+	public void flush() {
+	}
+
+	/**
+	 * (non-Javadoc) Drops the pages; their memory is freed once the
+	 * collector finds the chunks unreachable
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() {
+		pages.clear();
+		chunk = null;
+	}
+}
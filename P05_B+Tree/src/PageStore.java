@@ -0,0 +1,83 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-size pages addressed by id, where PagedBPTree keeps its nodes. Page
+ * ids are handed out densely from 0, so an id is just an index.
+ *
+ * A page is read or written between pin and unpin, which lets a store that
+ * caches pages (BufferPool) know which ones it must not evict. Writers mark
+ * the pages they change dirty; flush makes every change since the last flush
+ * durable, for stores that have anything to make durable.
+ *
+ * @author Wally Estenson
+ */
+public interface PageStore extends Closeable {
+
+	/**
+	 * Returns the size of every page in bytes
+	 *
+	 * @return page size
+	 */
+	int pageSize();
+
+	/**
+	 * Returns the number of pages allocated so far
+	 *
+	 * @return page count
+	 */
+	int pageCount();
+
+	/**
+	 * Allocates a zeroed page
+	 *
+	 * @return id of the new page, equal to the page count before the call
+	 */
+	int allocate();
+
+	/**
+	 * Pins a page and returns a buffer over exactly it, from index 0 to
+	 * pageSize. Callers use absolute gets and puts only, and only until the
+	 * matching unpin. Pins nest.
+	 *
+	 * @param id of an allocated page
+	 * @return page buffer
+	 */
+	ByteBuffer pin(int id);
+
+	/**
+	 * Releases one pin of a page
+	 *
+	 * @param id of a pinned page
+	 */
+	void unpin(int id);
+
+	/**
+	 * Records that a page was changed, so the next flush writes it back
+	 *
+	 * @param id of a pinned page
+	 */
+	void markDirty(int id);
+
+	/**
+	 * Starts a change: the page writes up to the matching endChange belong
+	 * together, like the pages of a split. Stores without a log ignore it.
+	 */
+	default void beginChange() {
+	}
+
+	/**
+	 * Ends the change started by beginChange. A LoggedPageStore logs its page
+	 * writes as one record before any of them reaches the store below.
+	 */
+	default void endChange() {
+	}
+
+	/**
+	 * Writes every page changed since the last flush back to storage
+	 *
+	 * @throws IOException if the storage cannot be written
+	 */
+	void flush() throws IOException;
+}
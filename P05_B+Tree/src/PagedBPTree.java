@@ -0,0 +1,784 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * B+ tree whose nodes live in fixed-size pages of a PageStore, addressed by
+ * page id instead of Java references. Keys and values are written into the
+ * pages by Serializers, so with an OffHeapPageStore the entries take no heap
+ * at all and the garbage collector has nothing to trace but the page views.
+ *
+ * Nodes are slotted pages. A header is followed by a directory of entry
+ * offsets in key order, growing up, while the entries themselves fill the
+ * page from the end down:
+ *
+ * <pre>
+ * 0  type        byte, LEAF or INTERNAL
+ * 2  count       u16, number of entries
+ * 4  link        int, next leaf, or the leftmost child of an internal page
+ * 8  free end    u16, offset of the lowest entry
+ * 10 slots       u16 entry offset per entry
+ * ...            entry = u16 key length, u16 payload length, key, payload
+ * </pre>
+ *
+ * A leaf entry's payload is its value; an internal entry's payload is the id
+ * of the child to the right of its key. Because fanout is set by bytes
+ * rather than a branching factor, variable-length keys and values just mean
+ * fewer entries per page. Page 0 is a meta page holding the root page id,
+ * the size and the page size, so a tree in a persistent store such as
+ * MappedPageStore reopens by reading one page. Leaf next links are page ids
+ * too, and survive a reopen like everything else.
+ *
+ * Duplicate keys are separate adjacent entries in insertion order. Inserts
+ * route past equal separators, and lookups route to the leftmost page that
+ * can hold a key and walk right from there.
+ *
+ * Every page is pinned while it is read or written and unpinned right after,
+ * so a BufferPool can evict anything but the path in use: an insert holds
+ * at most the pages from the root to its leaf plus one split sibling, and a
+ * lookup or range scan one page at a time. The meta page stays pinned while
+ * the tree is open.
+ *
+ * Each insert is one change of the store, between beginChange and endChange.
+ * A page file on its own is only safe as of its last flush, since a crash
+ * can leave part of a split on disk; in a LoggedPageStore every insert is
+ * logged before it reaches the file and is redone when the file is opened.
+ *
+ * @author Wally Estenson
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public class PagedBPTree<K extends Comparable<K>, V>
+		implements BPTreeADT<K, V>, Closeable {
+
+	// Page size of the store created by the convenience constructor
+	public static final int DEFAULT_PAGE_SIZE = 4096;
+
+	// Smallest and largest supported pages; offsets are stored as u16
+	public static final int MIN_PAGE_SIZE = 128;
+	public static final int MAX_PAGE_SIZE = 32768;
+
+	// Meta page layout
+	private static final int META_PAGE = 0;
+	private static final int MAGIC = 0x42505452;
+	private static final int META_MAGIC = 0;
+	private static final int META_ROOT = 4;
+	private static final int META_SIZE = 8;
+	private static final int META_PAGE_SIZE = 12;
+
+	// Node page layout
+	private static final int TYPE = 0;
+	private static final int COUNT = 2;
+	private static final int LINK = 4;
+	private static final int FREE_END = 8;
+	private static final int SLOTS = 10;
+	private static final int SLOT = 2;
+	private static final int ENTRY_HEADER = 4;
+
+	private static final byte LEAF = 0;
+	private static final byte INTERNAL = 1;
+	private static final int NO_PAGE = -1;
+
+	private final PageStore store;
+	private final Serializer<K> keySerializer;
+	private final Serializer<V> valueSerializer;
+
+	// Largest entry accepted, slot included; small enough that a split always
+	// leaves room for one more
+	private final int maxEntrySize;
+
+	// Copy of a page being split
+	private final ByteBuffer scratch;
+
+	// Meta page, pinned for the life of the tree
+	private final ByteBuffer meta;
+
+	private int root;
+	private int size;
+
+	/**
+	 * Public constructor for a tree in an OffHeapPageStore of
+	 * DEFAULT_PAGE_SIZE pages
+	 *
+	 * @param keySerializer   writes keys into pages
+	 * @param valueSerializer writes values into pages
+	 */
+	public PagedBPTree(Serializer<K> keySerializer,
+			Serializer<V> valueSerializer) {
+		this(new OffHeapPageStore(DEFAULT_PAGE_SIZE), keySerializer,
+				valueSerializer);
+	}
+
+	/**
+	 * Public constructor. An empty store gets a new, empty tree; a store that
+	 * already holds a tree is opened from its meta page.
+	 *
+	 * @param store           pages of the tree
+	 * @param keySerializer   writes keys into pages
+	 * @param valueSerializer writes values into pages
+	 * @throws IllegalArgumentException if the page size is out of range or the
+	 *                                  store holds something else
+	 */
+	public PagedBPTree(PageStore store, Serializer<K> keySerializer,
+			Serializer<V> valueSerializer) {
+		if (store == null || keySerializer == null || valueSerializer == null)
+			throw new IllegalArgumentException();
+
+		int pageSize = store.pageSize();
+		if (pageSize < MIN_PAGE_SIZE || pageSize > MAX_PAGE_SIZE)
+			throw new IllegalArgumentException("Illegal page size: " + pageSize);
+
+		this.store = store;
+		this.keySerializer = keySerializer;
+		this.valueSerializer = valueSerializer;
+		this.maxEntrySize = (pageSize - SLOTS) / 4;
+
+		// creating the tree is a change like any insert
+		store.beginChange();
+		boolean empty = store.pageCount() == 0;
+		if (empty)
+			store.allocate();
+
+		this.meta = store.pin(META_PAGE);
+		this.scratch = ByteBuffer.allocate(pageSize).order(meta.order());
+
+		if (empty) {
+			root = newPage(LEAF);
+			size = 0;
+			meta.putInt(META_MAGIC, MAGIC);
+			meta.putInt(META_PAGE_SIZE, pageSize);
+			writeMeta();
+		} else {
+			if (meta.getInt(META_MAGIC) != MAGIC
+					|| meta.getInt(META_PAGE_SIZE) != pageSize) {
+				store.unpin(META_PAGE);
+				store.endChange();
+				throw new IllegalArgumentException(meta.getInt(META_MAGIC) != MAGIC
+						? "Store does not hold a tree"
+						: "Tree was written with a different page size");
+			}
+			root = meta.getInt(META_ROOT);
+			size = meta.getInt(META_SIZE);
+		}
+		store.endChange();
+	}
+
+	/**
+	 * Inserts the key and value in the appropriate nodes in the tree If the key
+	 * is null, throw IllegalArgumentException
+	 *
+	 * Note: key-value pairs with duplicate keys can be inserted into the tree.
+	 * Values must be non-null, since they are serialized.
+	 *
+	 * @param key
+	 * @param value
+	 * @throws IllegalArgumentException if key or value is null, or the entry
+	 *                                  is too large for a quarter page
+	 */
+	@Override
+	public void insert(K key, V value) {
+
+		// do not allow null key
+		if (key == null || value == null)
+			throw new IllegalArgumentException();
+
+		int keyLength = keySerializer.size(key);
+		int valueLength = valueSerializer.size(value);
+
+		// separators may be the same key with a 4-byte child id instead
+		if (entrySize(keyLength, Math.max(valueLength, Integer.BYTES)) > maxEntrySize)
+			throw new IllegalArgumentException("Entry too large for page size "
+					+ store.pageSize() + ": " + (keyLength + valueLength) + " bytes");
+
+		store.beginChange();
+		Split split = insert(root, key, keyLength, value, valueLength);
+
+		// grow the tree by one level when the root splits
+		if (split != null) {
+			int root2 = newPage(INTERNAL);
+			ByteBuffer page = store.pin(root2);
+			page.putInt(LINK, root);
+			addChild(page, 0, split);
+			store.markDirty(root2);
+			store.unpin(root2);
+			root = root2;
+		}
+
+		size++;
+		writeMeta();
+		store.endChange();
+	}
+
+	/**
+	 * Inserts into the subtree at pageId
+	 *
+	 * @return the split of this page, for the parent to add; or null
+	 */
+	private Split insert(int pageId, K key, int keyLength, V value,
+			int valueLength) {
+
+		ByteBuffer page = store.pin(pageId);
+		try {
+			return insert(pageId, page, key, keyLength, value, valueLength);
+		} finally {
+			store.unpin(pageId);
+		}
+	}
+
+	/**
+	 * Inserts into the subtree at pageId, whose page the caller has pinned
+	 *
+	 * @return the split of this page, for the parent to add; or null
+	 */
+	private Split insert(int pageId, ByteBuffer page, K key, int keyLength,
+			V value, int valueLength) {
+
+		if (page.get(TYPE) == INTERNAL) {
+			int childIndex = search(page, key, true);
+			Split childSplit = insert(getChild(page, childIndex), key, keyLength,
+					value, valueLength);
+			if (childSplit == null)
+				return null;
+
+			int needed = entrySize(childSplit.keyLength, Integer.BYTES);
+			if (freeSpace(page) >= needed) {
+				addChild(page, childIndex, childSplit);
+				store.markDirty(pageId);
+				return null;
+			}
+
+			// the middle entry moves up; children up to it stay on the left
+			Split split = split(pageId, page);
+			int leftCount = getCount(page);
+			if (childIndex <= leftCount)
+				addChild(page, childIndex, childSplit);
+			else {
+				addChild(store.pin(split.page), childIndex - leftCount - 1,
+						childSplit);
+				store.unpin(split.page);
+			}
+			return split;
+		}
+
+		// after the key's duplicates, so they stay in insertion order
+		int index = search(page, key, true);
+		if (freeSpace(page) >= entrySize(keyLength, valueLength)) {
+			putValue(page, index, key, keyLength, value, valueLength);
+			store.markDirty(pageId);
+			return null;
+		}
+
+		// an insert at the split point stays left so it cannot precede the
+		// separator
+		Split split = split(pageId, page);
+		int leftCount = getCount(page);
+		if (index <= leftCount)
+			putValue(page, index, key, keyLength, value, valueLength);
+		else {
+			putValue(store.pin(split.page), index - leftCount, key, keyLength,
+					value, valueLength);
+			store.unpin(split.page);
+		}
+		return split;
+	}
+
+	/**
+	 * Moves the upper half of a page, by bytes, into a new right sibling. A
+	 * leaf's separator is the sibling's first key; an internal page's middle
+	 * entry moves up, and its child becomes the sibling's leftmost child.
+	 *
+	 * @param pageId of the full page
+	 * @param page   the full page, pinned by the caller
+	 * @return separator and sibling for the parent
+	 */
+	private Split split(int pageId, ByteBuffer page) {
+
+		byte type = page.get(TYPE);
+		int count = getCount(page);
+
+		// pick the entry where half of the used bytes are behind us
+		int used = store.pageSize() - SLOTS - freeSpace(page);
+		int middle = 0;
+		for (int bytes = 0; middle < count && bytes * 2 < used; middle++)
+			bytes += entrySize(page, middle);
+
+		if (type == INTERNAL)
+			middle = Math.max(1, Math.min(middle, count - 2));
+		else
+			middle = Math.max(1, Math.min(middle, count - 1));
+
+		scratch.clear();
+		scratch.put(page.duplicate().clear());
+
+		int siblingId = newPage(type);
+		ByteBuffer sibling = store.pin(siblingId);
+
+		// rebuild this page from the copy with the lower half only
+		int link = page.getInt(LINK);
+		clearPage(page, type);
+		page.putInt(LINK, link);
+		for (int i = 0; i < middle; i++)
+			copyEntry(scratch, i, page, i);
+
+		Split split = new Split();
+		split.page = siblingId;
+
+		int first = middle;
+		if (type == INTERNAL) {
+			int offset = getOffset(scratch, middle);
+			sibling.putInt(LINK, getChild(scratch, middle + 1));
+			split.key = scratch;
+			split.keyOffset = offset + ENTRY_HEADER;
+			split.keyLength = scratch.getChar(offset);
+			first++;
+		} else {
+			sibling.putInt(LINK, link);
+			page.putInt(LINK, siblingId);
+		}
+
+		for (int i = first; i < count; i++)
+			copyEntry(scratch, i, sibling, i - first);
+
+		// a leaf separator is read from the sibling once it is filled
+		if (type == LEAF) {
+			int offset = getOffset(sibling, 0);
+			split.key = sibling;
+			split.keyOffset = offset + ENTRY_HEADER;
+			split.keyLength = sibling.getChar(offset);
+		}
+
+		// detach the key from the scratch copy before it is reused
+		byte[] separator = new byte[split.keyLength];
+		ByteBuffer source = split.key.duplicate();
+		source.position(split.keyOffset);
+		source.get(separator);
+		split.key = ByteBuffer.wrap(separator).order(scratch.order());
+		split.keyOffset = 0;
+
+		// the caller adds one more entry to one of the two, already dirty
+		store.markDirty(pageId);
+		store.markDirty(siblingId);
+		store.unpin(siblingId);
+		return split;
+	}
+
+	/**
+	 * Gets the values that satisfy the given range search arguments.
+	 *
+	 * Value of comparator can be one of these: "<", "<=", "==", ">=", ">"
+	 *
+	 * If key is null or not found, return empty list. If comparator is null,
+	 * empty, or not according to required form, return empty list.
+	 *
+	 * @param key        to be searched
+	 * @param comparator is a string
+	 * @return list of values that are the result of the range search; if
+	 *         nothing found, return empty list
+	 */
+	@Override
+	public List<V> rangeSearch(K key, String comparator) {
+
+		// must have valid key and comparator arguments
+		if (key == null || comparator == null)
+			return new ArrayList<V>();
+
+		if (comparator.contentEquals("<"))
+			return rangeSearch(null, false, key, false);
+		else if (comparator.contentEquals("<="))
+			return rangeSearch(null, false, key, true);
+		else if (comparator.contentEquals("=="))
+			return rangeSearch(key, true, key, true);
+		else if (comparator.contentEquals(">="))
+			return rangeSearch(key, true, null, false);
+		else if (comparator.contentEquals(">"))
+			return rangeSearch(key, false, null, false);
+		else
+			return new ArrayList<V>();
+	}
+
+	/**
+	 * Gets the values of all keys between low and high, in key order. The
+	 * search descends once to low and walks the leaves until it passes high.
+	 *
+	 * A null bound leaves that side of the range open.
+	 *
+	 * @param low           lower bound, or null for none
+	 * @param lowInclusive  whether a key equal to low is in range
+	 * @param high          upper bound, or null for none
+	 * @param highInclusive whether a key equal to high is in range
+	 * @return list of values in range; if nothing found, return empty list
+	 */
+	public List<V> rangeSearch(K low, boolean lowInclusive, K high,
+			boolean highInclusive) {
+
+		List<V> filtered = new ArrayList<V>();
+
+		int pageId = findLeaf(low, !lowInclusive);
+		int next;
+		boolean first = true;
+
+		// one leaf pinned at a time along the chain
+		while (pageId != NO_PAGE) {
+			ByteBuffer page = store.pin(pageId);
+			try {
+				int index = 0;
+				if (first && low != null)
+					index = search(page, low, !lowInclusive);
+				first = false;
+
+				for (int count = getCount(page); index < count; index++) {
+					if (high != null) {
+						int comparison = compareKey(page, index, high);
+						if (comparison > 0 || (comparison == 0 && !highInclusive))
+							return filtered;
+					}
+					filtered.add(getValue(page, index));
+				}
+				next = page.getInt(LINK);
+			} finally {
+				store.unpin(pageId);
+			}
+			pageId = next;
+		}
+		return filtered;
+	}
+
+	/**
+	 * Returns the value of the first leaf with a matching key. If key is null,
+	 * return null. If key is not found, return null. For a duplicate key this
+	 * is the value that was inserted first.
+	 *
+	 * @param key to find
+	 * @return value of the first leaf matching key
+	 */
+	@Override
+	public V get(K key) {
+		if (key == null)
+			return null;
+
+		int pageId = findLeaf(key, false);
+		int next;
+		boolean first = true;
+
+		// the key may start on the next leaf
+		while (pageId != NO_PAGE) {
+			ByteBuffer page = store.pin(pageId);
+			try {
+				int index = first ? search(page, key, false) : 0;
+				first = false;
+
+				if (index < getCount(page))
+					return compareKey(page, index, key) == 0
+							? getValue(page, index)
+							: null;
+				next = page.getInt(LINK);
+			} finally {
+				store.unpin(pageId);
+			}
+			pageId = next;
+		}
+		return null;
+	}
+
+	/**
+	 * Return the number of leaves in the tree
+	 *
+	 * @return number of leaves
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the store the tree's pages live in
+	 *
+	 * @return page store
+	 */
+	public PageStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Makes every insert so far durable, if the store is persistent. In a
+	 * LoggedPageStore inserts are durable already, and flush empties the log.
+	 *
+	 * @throws IOException if the store cannot be written
+	 */
+	public void flush() throws IOException {
+		store.flush();
+	}
+
+	/**
+	 * Flushes and closes the store. The tree must not be used afterwards.
+	 *
+	 * @throws IOException if the store cannot be written
+	 */
+	@Override
+	public void close() throws IOException {
+		store.unpin(META_PAGE);
+		store.close();
+	}
+
+	/**
+	 * Returns a string representation for the tree, in the same format as
+	 * BPTree
+	 *
+	 * @return a string representation
+	 */
+	@Override
+	public String toString() {
+		Queue<List<Integer>> queue = new LinkedList<List<Integer>>();
+		List<Integer> rootLevel = new ArrayList<Integer>();
+		rootLevel.add(root);
+		queue.add(rootLevel);
+		StringBuilder sb = new StringBuilder();
+		while (!queue.isEmpty()) {
+			Queue<List<Integer>> nextQueue = new LinkedList<List<Integer>>();
+			while (!queue.isEmpty()) {
+				List<Integer> nodes = queue.remove();
+				sb.append('{');
+				Iterator<Integer> it = nodes.iterator();
+				while (it.hasNext()) {
+					int pageId = it.next();
+					ByteBuffer page = store.pin(pageId);
+					List<K> keys = new ArrayList<K>();
+					for (int i = 0; i < getCount(page); i++)
+						keys.add(getKey(page, i));
+					sb.append(keys.toString());
+					if (it.hasNext())
+						sb.append(", ");
+					if (page.get(TYPE) == INTERNAL) {
+						List<Integer> children = new ArrayList<Integer>();
+						for (int i = 0; i <= getCount(page); i++)
+							children.add(getChild(page, i));
+						nextQueue.add(children);
+					}
+					store.unpin(pageId);
+				}
+				sb.append('}');
+				if (!queue.isEmpty())
+					sb.append(", ");
+				else {
+					sb.append('\n');
+				}
+			}
+			queue = nextQueue;
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Descends to a leaf
+	 *
+	 * @param key   to route, or null for the leftmost leaf
+	 * @param upper whether to route past separators equal to key
+	 * @return id of the leaf page, not pinned
+	 */
+	private int findLeaf(K key, boolean upper) {
+		int pageId = root;
+		while (true) {
+			ByteBuffer page = store.pin(pageId);
+			int child;
+			try {
+				if (page.get(TYPE) != INTERNAL)
+					return pageId;
+				child = getChild(page, key == null ? 0 : search(page, key, upper));
+			} finally {
+				store.unpin(pageId);
+			}
+			pageId = child;
+		}
+	}
+
+	/**
+	 * Binary searches the keys of a page
+	 *
+	 * @param upper false for the first key >= key, true for the first key >
+	 *              key
+	 * @return entry index, or count if there is none; for an internal page
+	 *         also the index of the child to descend into
+	 */
+	private int search(ByteBuffer page, K key, boolean upper) {
+		int low = 0;
+		int high = getCount(page);
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			int comparison = compareKey(page, mid, key);
+			if (comparison < 0 || (upper && comparison == 0))
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Writes the meta page
+	 */
+	private void writeMeta() {
+		meta.putInt(META_ROOT, root);
+		meta.putInt(META_SIZE, size);
+		store.markDirty(META_PAGE);
+	}
+
+	/**
+	 * Allocates an empty node page
+	 */
+	private int newPage(byte type) {
+		int id = store.allocate();
+		clearPage(store.pin(id), type);
+		store.markDirty(id);
+		store.unpin(id);
+		return id;
+	}
+
+	/**
+	 * Resets a page to an empty node
+	 */
+	private void clearPage(ByteBuffer page, byte type) {
+		page.put(TYPE, type);
+		page.putChar(COUNT, (char) 0);
+		page.putInt(LINK, NO_PAGE);
+		page.putChar(FREE_END, (char) store.pageSize());
+	}
+
+	private static int getCount(ByteBuffer page) {
+		return page.getChar(COUNT);
+	}
+
+	private static int getOffset(ByteBuffer page, int index) {
+		return page.getChar(SLOTS + SLOT * index);
+	}
+
+	private static int freeSpace(ByteBuffer page) {
+		return page.getChar(FREE_END) - SLOTS - SLOT * getCount(page);
+	}
+
+	/**
+	 * Bytes an entry takes, slot included
+	 */
+	private static int entrySize(int keyLength, int payloadLength) {
+		return SLOT + ENTRY_HEADER + keyLength + payloadLength;
+	}
+
+	private static int entrySize(ByteBuffer page, int index) {
+		int offset = getOffset(page, index);
+		return entrySize(page.getChar(offset), page.getChar(offset + 2));
+	}
+
+	private static int getPayloadOffset(ByteBuffer page, int index) {
+		int offset = getOffset(page, index);
+		return offset + ENTRY_HEADER + page.getChar(offset);
+	}
+
+	/**
+	 * Returns child i of an internal page, 0 being its link
+	 */
+	private static int getChild(ByteBuffer page, int index) {
+		return index == 0 ? page.getInt(LINK)
+				: page.getInt(getPayloadOffset(page, index - 1));
+	}
+
+	private K getKey(ByteBuffer page, int index) {
+		int offset = getOffset(page, index);
+		return keySerializer.read(page, offset + ENTRY_HEADER,
+				page.getChar(offset));
+	}
+
+	private int compareKey(ByteBuffer page, int index, K key) {
+		int offset = getOffset(page, index);
+		return keySerializer.compare(page, offset + ENTRY_HEADER,
+				page.getChar(offset), key);
+	}
+
+	private V getValue(ByteBuffer page, int index) {
+		int offset = getOffset(page, index);
+		return valueSerializer.read(page, getPayloadOffset(page, index),
+				page.getChar(offset + 2));
+	}
+
+	/**
+	 * Makes room for an entry at index, which the caller has checked fits
+	 *
+	 * @return offset of the entry's key
+	 */
+	private static int reserve(ByteBuffer page, int index, int keyLength,
+			int payloadLength) {
+		int count = getCount(page);
+		int offset = page.getChar(FREE_END) - ENTRY_HEADER - keyLength
+				- payloadLength;
+
+		for (int i = count; i > index; i--)
+			page.putChar(SLOTS + SLOT * i, page.getChar(SLOTS + SLOT * (i - 1)));
+		page.putChar(SLOTS + SLOT * index, (char) offset);
+		page.putChar(COUNT, (char) (count + 1));
+		page.putChar(FREE_END, (char) offset);
+
+		page.putChar(offset, (char) keyLength);
+		page.putChar(offset + 2, (char) payloadLength);
+		return offset + ENTRY_HEADER;
+	}
+
+	private void putValue(ByteBuffer page, int index, K key, int keyLength,
+			V value, int valueLength) {
+		int offset = reserve(page, index, keyLength, valueLength);
+		keySerializer.write(page, offset, key);
+		valueSerializer.write(page, offset + keyLength, value);
+	}
+
+	/**
+	 * Adds a split child's separator to an internal page, with the new page as
+	 * the child right of it
+	 */
+	private static void addChild(ByteBuffer page, int index, Split split) {
+		int offset = reserve(page, index, split.keyLength, Integer.BYTES);
+		ByteBuffer target = page.duplicate();
+		target.position(offset);
+		ByteBuffer source = split.key.duplicate();
+		source.position(split.keyOffset).limit(split.keyOffset + split.keyLength);
+		target.put(source);
+		page.putInt(offset + split.keyLength, split.page);
+	}
+
+	/**
+	 * Appends a raw entry of one page to another at index
+	 */
+	private static void copyEntry(ByteBuffer from, int fromIndex, ByteBuffer to,
+			int toIndex) {
+		int offset = getOffset(from, fromIndex);
+		int keyLength = from.getChar(offset);
+		int payloadLength = from.getChar(offset + 2);
+
+		int target = reserve(to, toIndex, keyLength, payloadLength);
+		ByteBuffer source = from.duplicate();
+		source.position(offset + ENTRY_HEADER)
+				.limit(offset + ENTRY_HEADER + keyLength + payloadLength);
+		ByteBuffer destination = to.duplicate();
+		destination.position(target);
+		destination.put(source);
+	}
+
+	/**
+	 * Separator and new right page produced by a split
+	 *
+	 * @author Wally Estenson
+	 */
+	private static final class Split {
+
+		// serialized separator at keyOffset
+		ByteBuffer key;
+		int keyOffset;
+		int keyLength;
+
+		// id of the new right sibling
+		int page;
+	}
+}
@@ -0,0 +1,248 @@
+import static org.junit.Assert.fail;
+
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test Class for PagedBPTree.java, checked against BPTree
+ *
+ *
+ * @author Wally Estenson
+ */
+public class PagedBPTree_Tests {
+
+	private static final String[] COMPARATORS = { "<", "<=", "==", ">=", ">" };
+
+	/**
+	 * Fixed-length keys and values, duplicates included, on pages small
+	 * enough to build a deep tree
+	 */
+	@Test
+	void testBALST_001_fixed_length_entries_match_bptree() {
+
+		try {
+
+			for (int pageSize : new int[] { 128, 512, 4096 }) {
+				Random rnd = new Random(pageSize);
+				PagedBPTree<Long, Long> tree = new PagedBPTree<>(
+						new OffHeapPageStore(pageSize, 16), Serializer.LONG,
+						Serializer.LONG);
+				BPTree<Long, Long> expected = new BPTree<>(8);
+
+				for (long i = 0; i < 20000; i++) {
+					Long key = (long) rnd.nextInt(5000) - 2500;
+					tree.insert(key, i);
+					expected.insert(key, i);
+				}
+
+				Assert.assertEquals(expected.size(), tree.size());
+				for (long key = -2501; key <= 2501; key++) {
+					Assert.assertEquals(expected.get(key), tree.get(key));
+					if (key % 101 == 0)
+						for (String comparator : COMPARATORS)
+							Assert.assertEquals(expected.rangeSearch(key, comparator),
+									tree.rangeSearch(key, comparator));
+				}
+
+				Assert.assertEquals(expected.rangeSearch(-10L, false, 10L, true),
+						tree.rangeSearch(-10L, false, 10L, true));
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 001: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Variable-length string keys and values, a store reopened from its meta
+	 * page, and the argument checks
+	 */
+	@Test
+	void testBALST_002_variable_length_entries() {
+
+		try {
+
+			Random rnd = new Random(2);
+			OffHeapPageStore store = new OffHeapPageStore(512);
+			PagedBPTree<String, String> tree = new PagedBPTree<>(store,
+					Serializer.STRING, Serializer.STRING);
+			BPTree<String, String> expected = new BPTree<>(8);
+
+			for (int i = 0; i < 5000; i++) {
+				StringBuilder key = new StringBuilder();
+				for (int length = 1 + rnd.nextInt(40); key.length() < length;)
+					key.append((char) ('a' + rnd.nextInt(4)));
+				String value = "v" + i + "\u00e9".repeat(rnd.nextInt(20));
+				tree.insert(key.toString(), value);
+				expected.insert(key.toString(), value);
+			}
+
+			Assert.assertEquals(expected.size(), tree.size());
+			Assert.assertEquals(expected.rangeSearch("", ">="),
+					tree.rangeSearch("", ">="));
+			for (String key : new String[] { "a", "ab", "abcd", "c", "dddd" })
+				for (String comparator : COMPARATORS)
+					Assert.assertEquals(expected.rangeSearch(key, comparator),
+							tree.rangeSearch(key, comparator));
+
+			// the meta page is enough to open the same pages again
+			PagedBPTree<String, String> reopened = new PagedBPTree<>(store,
+					Serializer.STRING, Serializer.STRING);
+			Assert.assertEquals(tree.size(), reopened.size());
+			Assert.assertEquals(tree.toString(), reopened.toString());
+
+			Assert.assertNull(tree.get(null));
+			Assert.assertTrue(tree.rangeSearch(null, ">=").isEmpty());
+			Assert.assertTrue(tree.rangeSearch("a", "!=").isEmpty());
+
+			for (String[] entry : new String[][] { { null, "v" }, { "k", null },
+					{ "k", "x".repeat(200) } }) {
+				try {
+					tree.insert(entry[0], entry[1]);
+					fail("insert accepted " + entry[0] + ", " + entry[1]);
+				} catch (IllegalArgumentException expectedException) {
+				}
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 002: " + e.getMessage());
+		}
+	}
+
+
+	/**
+	 * A tree in a page file reopens from its header with the same contents,
+	 * including inserts made after the first reopen
+	 */
+	@Test
+	void testBALST_003_page_file_reopen(@TempDir Path directory) {
+
+		try {
+
+			Path file = directory.resolve("tree.pages");
+			Random rnd = new Random(3);
+			BPTree<Long, String> expected = new BPTree<>(8);
+
+			for (int session = 0; session < 3; session++) {
+				try (PagedBPTree<Long, String> tree = new PagedBPTree<>(
+						new MappedPageStore(file, 1024, 8), Serializer.LONG,
+						Serializer.STRING)) {
+
+					Assert.assertEquals(expected.size(), tree.size());
+					Assert.assertEquals(expected.rangeSearch(Long.MIN_VALUE, ">="),
+							tree.rangeSearch(Long.MIN_VALUE, ">="));
+
+					for (int i = 0; i < 4000; i++) {
+						Long key = (long) rnd.nextInt(3000);
+						String value = session + ":" + i;
+						tree.insert(key, value);
+						expected.insert(key, value);
+					}
+					tree.flush();
+
+					for (long key = 0; key < 3000; key += 7)
+						Assert.assertEquals(expected.get(key), tree.get(key));
+				}
+			}
+
+			try {
+				new MappedPageStore(file, 2048).close();
+				fail("opened a page file with the wrong page size");
+			} catch (IllegalArgumentException expectedException) {
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 003: " + e.getMessage());
+		}
+	}
+
+
+	/**
+	 * A tree many times larger than the buffer pool, reopened through the
+	 * pool and through a mapped store, with every pin released
+	 */
+	@Test
+	void testBALST_004_buffer_pool_smaller_than_tree(@TempDir Path directory) {
+
+		try {
+
+			Path file = directory.resolve("tree.pages");
+			Random rnd = new Random(4);
+			BPTree<Long, String> expected = new BPTree<>(8);
+
+			BufferPool pool = new BufferPool(file, 512, 16 * 512);
+			try (PagedBPTree<Long, String> tree = new PagedBPTree<>(pool,
+					Serializer.LONG, Serializer.STRING)) {
+				for (int i = 0; i < 20000; i++) {
+					Long key = (long) rnd.nextInt(10000);
+					String value = "v" + i;
+					tree.insert(key, value);
+					expected.insert(key, value);
+				}
+
+				Assert.assertTrue(pool.pageCount() > 10 * pool.getFrameCount());
+				Assert.assertEquals(1, pool.getPinnedFrames());
+				Assert.assertTrue(pool.getEvictions() > 0);
+				Assert.assertTrue(pool.getWriteBacks() > 0);
+
+				for (long key = -1; key <= 10000; key++)
+					Assert.assertEquals(expected.get(key), tree.get(key));
+				for (long key = 0; key < 10000; key += 997)
+					for (String comparator : COMPARATORS)
+						Assert.assertEquals(expected.rangeSearch(key, comparator),
+								tree.rangeSearch(key, comparator));
+
+				Assert.assertTrue(pool.getHits() > 0);
+				Assert.assertTrue(pool.getMisses() > 0);
+				Assert.assertEquals(1, pool.getPinnedFrames());
+			}
+
+			// the same file opens with either store
+			try (PagedBPTree<Long, String> tree = new PagedBPTree<>(
+					new MappedPageStore(file, 512), Serializer.LONG,
+					Serializer.STRING)) {
+				Assert.assertEquals(expected.size(), tree.size());
+				Assert.assertEquals(expected.rangeSearch(0L, ">="),
+						tree.rangeSearch(0L, ">="));
+				tree.insert(10000L, "mapped");
+				expected.insert(10000L, "mapped");
+			}
+			try (PagedBPTree<Long, String> tree = new PagedBPTree<>(
+					new BufferPool(file, 512, 32 * 512), Serializer.LONG,
+					Serializer.STRING)) {
+				Assert.assertEquals(expected.rangeSearch(0L, ">="),
+						tree.rangeSearch(0L, ">="));
+			}
+
+			try {
+				new BufferPool(file, 512, 15 * 512).close();
+				fail("opened a buffer pool below the minimum frame count");
+			} catch (IllegalArgumentException expectedException) {
+			}
+
+			// an allocation that finds every frame pinned adds no page
+			try (BufferPool pinned = new BufferPool(directory.resolve("pinned"),
+					512, 16 * 512)) {
+				for (int i = 0; i < pinned.getFrameCount(); i++)
+					pinned.pin(pinned.allocate());
+				try {
+					pinned.allocate();
+					fail("allocated a page without a frame");
+				} catch (IllegalStateException expectedException) {
+				}
+				Assert.assertEquals(pinned.getFrameCount(), pinned.pageCount());
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 004: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/**
+ * A lazy, forward-only view of the entries of a BPTree range search. The
+ * cursor walks the leaf chain one entry at a time, so nothing is copied up
+ * front and the caller can stop whenever it has seen enough. The cursor
+ * object itself holds the current entry, so advancing allocates nothing.
+ * 
+ * A cursor is only valid while the tree is not modified.
+ * 
+ * Typical use:
+ * 
+ * <pre>
+ * RangeCursor&lt;K, V&gt; cursor = tree.cursor(key, "&gt;=");
+ * while (cursor.advance())
+ * 	use(cursor.getKey(), cursor.getValue());
+ * </pre>
+ * 
+ * @author Wally Estenson
+ *
+ * @param <K> key type of the tree
+ * @param <V> value type of the tree
+ */
+public interface RangeCursor<K, V> {
+
+	/**
+	 * Moves to the next entry in the range
+	 * 
+	 * @return true if there is a current entry, false once the range (or the
+	 *         cursor's limit) is used up
+	 */
+	boolean advance();
+
+	/**
+	 * Returns the key of the current entry
+	 * 
+	 * @return key
+	 * @throws IllegalStateException if advance has not returned true
+	 */
+	K getKey();
+
+	/**
+	 * Returns the value of the current entry
+	 * 
+	 * @return value
+	 * @throws IllegalStateException if advance has not returned true
+	 */
+	V getValue();
+}
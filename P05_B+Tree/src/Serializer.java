@@ -0,0 +1,150 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes keys or values of one type into pages of a PagedBPTree and reads
+ * them back. The tree stores the length of every serialized key and value, so
+ * a format does not have to delimit itself, and variable-length types are as
+ * easy to add as fixed-length ones.
+ *
+ * Offsets are absolute positions in the page buffer; implementations must not
+ * move its position or limit.
+ *
+ * @author Wally Estenson
+ *
+ * @param <T> type written
+ */
+public interface Serializer<T> {
+
+	/**
+	 * Returns the number of bytes write will use for the object
+	 *
+	 * @param object to serialize, not null
+	 * @return length in bytes
+	 */
+	int size(T object);
+
+	/**
+	 * Writes the object at offset
+	 *
+	 * @param page   buffer to write into
+	 * @param offset first byte
+	 * @param object to serialize, not null
+	 */
+	void write(ByteBuffer page, int offset, T object);
+
+	/**
+	 * Reads an object written by write
+	 *
+	 * @param page   buffer to read from
+	 * @param offset first byte
+	 * @param length value returned by size when it was written
+	 * @return the object
+	 */
+	T read(ByteBuffer page, int offset, int length);
+
+	/**
+	 * Compares the serialized key at offset with a key, like compareTo. The
+	 * default reads the key back; fixed-width types override it to compare
+	 * without creating an object.
+	 *
+	 * @param page   buffer to read from
+	 * @param offset first byte
+	 * @param length value returned by size when it was written
+	 * @param key    to compare with
+	 * @return negative, zero or positive as the stored key is less than, equal
+	 *         to or greater than key
+	 */
+	@SuppressWarnings("unchecked")
+	default int compare(ByteBuffer page, int offset, int length, T key) {
+		return ((Comparable<T>) read(page, offset, length)).compareTo(key);
+	}
+
+	/**
+	 * 8-byte longs
+	 */
+	Serializer<Long> LONG = new Serializer<Long>() {
+		public int size(Long object) {
+			return Long.BYTES;
+		}
+
+		public void write(ByteBuffer page, int offset, Long object) {
+			page.putLong(offset, object);
+		}
+
+		public Long read(ByteBuffer page, int offset, int length) {
+			return page.getLong(offset);
+		}
+
+		public int compare(ByteBuffer page, int offset, int length, Long key) {
+			return Long.compare(page.getLong(offset), key);
+		}
+	};
+
+	/**
+	 * 4-byte ints
+	 */
+	Serializer<Integer> INTEGER = new Serializer<Integer>() {
+		public int size(Integer object) {
+			return Integer.BYTES;
+		}
+
+		public void write(ByteBuffer page, int offset, Integer object) {
+			page.putInt(offset, object);
+		}
+
+		public Integer read(ByteBuffer page, int offset, int length) {
+			return page.getInt(offset);
+		}
+
+		public int compare(ByteBuffer page, int offset, int length,
+				Integer key) {
+			return Integer.compare(page.getInt(offset), key);
+		}
+	};
+
+	/**
+	 * 8-byte doubles, ordered like Double.compareTo
+	 */
+	Serializer<Double> DOUBLE = new Serializer<Double>() {
+		public int size(Double object) {
+			return Double.BYTES;
+		}
+
+		public void write(ByteBuffer page, int offset, Double object) {
+			page.putDouble(offset, object);
+		}
+
+		public Double read(ByteBuffer page, int offset, int length) {
+			return page.getDouble(offset);
+		}
+
+		public int compare(ByteBuffer page, int offset, int length,
+				Double key) {
+			return Double.compare(page.getDouble(offset), key);
+		}
+	};
+
+	/**
+	 * Strings as UTF-8, of any length that fits a page entry
+	 */
+	Serializer<String> STRING = new Serializer<String>() {
+		public int size(String object) {
+			return object.getBytes(StandardCharsets.UTF_8).length;
+		}
+
+		public void write(ByteBuffer page, int offset, String object) {
+			ByteBuffer target = page.duplicate();
+			target.position(offset);
+			target.put(object.getBytes(StandardCharsets.UTF_8));
+		}
+
+		public String read(ByteBuffer page, int offset, int length) {
+			byte[] bytes = new byte[length];
+			ByteBuffer source = page.duplicate();
+			source.position(offset);
+			source.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	};
+}
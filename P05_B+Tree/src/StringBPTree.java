@@ -0,0 +1,778 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * B+ tree specialized for String keys that share long prefixes, such as item
+ * ids. Each leaf stores the prefix common to all of its keys once, and only
+ * the rest of every key, packed into a single char[]; a leaf of keys like
+ * "item-000123..." keeps a few chars per key instead of a String object each.
+ * Searches compare against the prefix once and then against the packed
+ * suffixes in place, without building Strings.
+ *
+ * Internal nodes hold suffix-truncated separators instead of copies of leaf
+ * keys: a leaf split pushes up the shortest string that sorts above the last
+ * key on the left and no higher than the first key on the right, which is
+ * usually a few chars longer than the common prefix of the two.
+ *
+ * Behaves like BPTree<String, V>: duplicate keys share a leaf slot in
+ * insertion order, and rangeSearch takes the same comparators.
+ *
+ * @author Wally Estenson
+ *
+ * @param <V> value
+ */
+public class StringBPTree<V> implements BPTreeADT<String, V> {
+
+	// Root of the tree
+	private Node root;
+	private int size;
+
+	// Branching factor is the number of children nodes
+	// for internal nodes of the tree
+	private final int branchingFactor;
+
+	/**
+	 * Public constructor
+	 *
+	 * @param branchingFactor
+	 */
+	public StringBPTree(int branchingFactor) {
+		if (branchingFactor <= 2)
+			throw new IllegalArgumentException(
+					"Illegal branching factor: " + branchingFactor);
+
+		this.branchingFactor = branchingFactor;
+		root = new LeafNode();
+		size = 0;
+	}
+
+	/**
+	 * Inserts the key and value in the appropriate nodes in the tree If the key
+	 * is null, throw IllegalArgumentException
+	 *
+	 * Note: key-value pairs with duplicate keys can be inserted into the tree.
+	 * The values of a key share one leaf slot in insertion order.
+	 *
+	 * @param key
+	 * @param value
+	 */
+	@Override
+	public void insert(String key, V value) {
+
+		// do not allow null key
+		if (key == null)
+			throw new IllegalArgumentException();
+
+		root.insert(key, value);
+		size++;
+
+		// grow the tree by one level when the root splits
+		if (root.isOverflow()) {
+			Node sibling = root.split();
+
+			InternalNode root2 = new InternalNode();
+			root2.keys[0] = root.getSeparator(sibling);
+			root2.children[0] = root;
+			root2.children[1] = sibling;
+			root2.count = 1;
+			root = root2;
+		}
+	}
+
+	/**
+	 * Gets the values that satisfy the given range search arguments.
+	 *
+	 * Value of comparator can be one of these: "<", "<=", "==", ">=", ">"
+	 *
+	 * If key is null, return empty list. If comparator is null, empty, or not
+	 * according to required form, return empty list.
+	 *
+	 * @param key        to be searched
+	 * @param comparator is a string
+	 * @return list of values that are the result of the range search; if
+	 *         nothing found, return empty list
+	 */
+	@Override
+	public List<V> rangeSearch(String key, String comparator) {
+
+		// must have valid key and comparator arguments
+		if (key == null || comparator == null)
+			return new ArrayList<V>();
+
+		if (comparator.contentEquals("<"))
+			return rangeSearch(null, false, key, false);
+		else if (comparator.contentEquals("<="))
+			return rangeSearch(null, false, key, true);
+		else if (comparator.contentEquals("=="))
+			return rangeSearch(key, true, key, true);
+		else if (comparator.contentEquals(">="))
+			return rangeSearch(key, true, null, false);
+		else if (comparator.contentEquals(">"))
+			return rangeSearch(key, false, null, false);
+		else
+			return new ArrayList<V>();
+	}
+
+	/**
+	 * Gets the values of all keys between low and high, in key order. The
+	 * search descends once to low and walks the leaves until it passes high.
+	 *
+	 * A null bound leaves that side of the range open.
+	 *
+	 * @param low           lower bound, or null for none
+	 * @param lowInclusive  whether a key equal to low is in range
+	 * @param high          upper bound, or null for none
+	 * @param highInclusive whether a key equal to high is in range
+	 * @return list of values in range; if nothing found, return empty list
+	 */
+	public List<V> rangeSearch(String low, boolean lowInclusive, String high,
+			boolean highInclusive) {
+
+		List<V> filtered = new ArrayList<V>();
+
+		LeafNode leaf;
+		int index = 0;
+		if (low == null)
+			leaf = root.findLeaf("");
+		else {
+			leaf = root.findLeaf(low);
+			index = leaf.findIndex(low);
+			if (index < 0)
+				index = -index - 1;
+			else if (!lowInclusive)
+				index++;
+		}
+
+		while (leaf != null) {
+			for (; index < leaf.count; index++) {
+				if (high != null) {
+					int comparison = leaf.compareKey(index, high);
+					if (comparison > 0 || (comparison == 0 && !highInclusive))
+						return filtered;
+				}
+				leaf.addValues(index, filtered);
+			}
+			leaf = leaf.next;
+			index = 0;
+		}
+
+		return filtered;
+	}
+
+	/**
+	 * Returns the value of the first leaf with a matching key. If key is null,
+	 * return null. If key is not found, return null. For a duplicate key this
+	 * is the value that was inserted first.
+	 *
+	 * @param key to find
+	 * @return value of the first leaf matching key
+	 */
+	@Override
+	public V get(String key) {
+		if (key == null)
+			return null;
+
+		LeafNode leaf = root.findLeaf(key);
+		int index = leaf.findIndex(key);
+
+		return index >= 0 ? leaf.getFirstValue(index) : null;
+	}
+
+	/**
+	 * Return the number of leaves in the tree. Every value counts, including
+	 * each value of a duplicate key.
+	 *
+	 * @return number of leaves
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns a string representation for the tree, in the same format as
+	 * BPTree. Leaves show their whole keys, internal nodes their truncated
+	 * separators.
+	 *
+	 * @return a string representation
+	 */
+	@Override
+	public String toString() {
+		Queue<List<Node>> queue = new LinkedList<List<Node>>();
+		queue.add(Arrays.asList(root));
+		StringBuilder sb = new StringBuilder();
+		while (!queue.isEmpty()) {
+			Queue<List<Node>> nextQueue = new LinkedList<List<Node>>();
+			while (!queue.isEmpty()) {
+				List<Node> nodes = queue.remove();
+				sb.append('{');
+				Iterator<Node> it = nodes.iterator();
+				while (it.hasNext()) {
+					Node node = it.next();
+					sb.append(node.toString());
+					if (it.hasNext())
+						sb.append(", ");
+					if (node instanceof StringBPTree.InternalNode)
+						nextQueue.add(((InternalNode) node).getChildren());
+				}
+				sb.append('}');
+				if (!queue.isEmpty())
+					sb.append(", ");
+				else {
+					sb.append('\n');
+				}
+			}
+			queue = nextQueue;
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the shortest string that sorts above low and no higher than
+	 * high: high cut one char past the common prefix of the two
+	 *
+	 * @param low  last key left of the separator
+	 * @param high first key right of it, above low
+	 * @return separator
+	 */
+	static String shortestSeparator(String low, String high) {
+		int common = commonPrefixLength(low, high, Math.min(low.length(),
+				high.length()));
+		return high.substring(0, common + 1);
+	}
+
+	/**
+	 * Returns the length of the common prefix of two strings, up to limit
+	 */
+	private static int commonPrefixLength(String a, String b, int limit) {
+		int length = 0;
+		while (length < limit && a.charAt(length) == b.charAt(length))
+			length++;
+		return length;
+	}
+
+	/**
+	 * Any type of node in the tree
+	 *
+	 * @author Wally Estenson
+	 */
+	private abstract class Node {
+
+		// number of keys in the node
+		int count;
+
+		/**
+		 * Inserts key and value in the appropriate leaf node, splitting
+		 * children that overflow. This node itself is split by its parent.
+		 *
+		 * @param key
+		 * @param value
+		 */
+		abstract void insert(String key, V value);
+
+		/**
+		 * Moves the upper half of this node into a new right sibling
+		 *
+		 * @return Node
+		 */
+		abstract Node split();
+
+		/**
+		 * Gets the key the parent separates this node and the sibling from
+		 * its last split with
+		 *
+		 * @param sibling returned by split
+		 * @return separator
+		 */
+		abstract String getSeparator(Node sibling);
+
+		/**
+		 * Gets the leaf whose key range would hold the key
+		 *
+		 * @param key to route
+		 * @return leaf node
+		 */
+		abstract LeafNode findLeaf(String key);
+
+		/**
+		 * Check if node is overflow based on branch factor
+		 *
+		 * @return boolean
+		 */
+		abstract boolean isOverflow();
+	} // End of abstract class Node
+
+	/**
+	 * Internal node holding count separators and count + 1 children. The
+	 * array has one spare slot so a node can overflow by one before it is
+	 * split.
+	 *
+	 * @author Wally Estenson
+	 */
+	private class InternalNode extends Node {
+
+		// keys[0..count) in ascending order
+		final String[] keys;
+
+		// children[0..count]
+		final Object[] children;
+
+		// key that moved up to the parent in the last split
+		String pushedUp;
+
+		/**
+		 * Package constructor
+		 */
+		InternalNode() {
+			keys = new String[branchingFactor];
+			children = new Object[branchingFactor + 1];
+		}
+
+		/**
+		 * Returns the child at index
+		 */
+		@SuppressWarnings("unchecked")
+		Node getChild(int index) {
+			return (Node) children[index];
+		}
+
+		/**
+		 * Gets the index of the child whose subtree would hold the key
+		 */
+		int getChildIndex(String key) {
+			int index = Arrays.binarySearch(keys, 0, count, key);
+			return index >= 0 ? index + 1 : -index - 1;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see StringBPTree.Node#isOverflow()
+		 */
+		boolean isOverflow() {
+			return count + 1 > branchingFactor;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see StringBPTree.Node#findLeaf(String)
+		 */
+		LeafNode findLeaf(String key) {
+			return getChild(getChildIndex(key)).findLeaf(key);
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see StringBPTree.Node#insert(String, Object)
+		 */
+		void insert(String key, V value) {
+
+			int childIndex = getChildIndex(key);
+			Node child = getChild(childIndex);
+			child.insert(key, value);
+
+			// if inserted node caused overflow, we must split
+			if (child.isOverflow()) {
+				Node sibling = child.split();
+
+				System.arraycopy(keys, childIndex, keys, childIndex + 1,
+						count - childIndex);
+				System.arraycopy(children, childIndex + 1, children,
+						childIndex + 2, count - childIndex);
+				keys[childIndex] = child.getSeparator(sibling);
+				children[childIndex + 1] = sibling;
+				count++;
+			}
+		}
+
+		/**
+		 * (non-Javadoc) The middle key moves up to the parent
+		 *
+		 * @see StringBPTree.Node#split()
+		 */
+		Node split() {
+
+			int begining = count / 2 + 1;
+
+			// create new split node with the second half of keys and children
+			InternalNode node = new InternalNode();
+			node.count = count - begining;
+			System.arraycopy(keys, begining, node.keys, 0, node.count);
+			System.arraycopy(children, begining, node.children, 0,
+					node.count + 1);
+
+			// drop the moved entries so they are not kept alive twice
+			pushedUp = keys[begining - 1];
+			Arrays.fill(keys, begining - 1, count, null);
+			Arrays.fill(children, begining, count + 1, null);
+			count = begining - 1;
+			return node;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see StringBPTree.Node#getSeparator(StringBPTree.Node)
+		 */
+		String getSeparator(Node sibling) {
+			return pushedUp;
+		}
+
+		/**
+		 * Returns the children in use, for toString
+		 */
+		List<Node> getChildren() {
+			List<Node> list = new ArrayList<Node>();
+			for (int i = 0; i <= count; i++)
+				list.add(getChild(i));
+			return list;
+		}
+
+		/**
+		 * Converts keys to string for testing purposes
+		 */
+		public String toString() {
+			return Arrays.asList(keys).subList(0, count).toString();
+		}
+	} // End of class InternalNode
+
+	/**
+	 * Leaf node holding count keys and their value slots. Every key is prefix
+	 * followed by its suffix, and the suffixes are packed in key order:
+	 * suffix i is chars[ends[i - 1]..ends[i]), starting at 0 for the first.
+	 * The prefix is always the longest one the keys share.
+	 *
+	 * @author Wally Estenson
+	 */
+	private class LeafNode extends Node {
+
+		// common prefix of the keys
+		String prefix;
+
+		// packed suffixes and the end of each
+		char[] chars;
+		final int[] ends;
+
+		// values[i] is the only value of key i, or Postings
+		final Object[] values;
+
+		// Reference to the next leaf node
+		LeafNode next;
+
+		/**
+		 * Package constructor
+		 */
+		LeafNode() {
+			prefix = "";
+			chars = new char[0];
+			ends = new int[branchingFactor];
+			values = new Object[branchingFactor];
+		}
+
+		/**
+		 * Returns the start of suffix i in chars
+		 */
+		private int start(int index) {
+			return index == 0 ? 0 : ends[index - 1];
+		}
+
+		/**
+		 * Rebuilds the key at index
+		 *
+		 * @return key
+		 */
+		String getKey(int index) {
+			int start = start(index);
+			return prefix.concat(
+					String.valueOf(chars, start, ends[index] - start));
+		}
+
+		/**
+		 * Compares suffix i with key from offset on, like compareTo
+		 */
+		private int compareSuffix(int index, String key, int offset) {
+			int start = start(index);
+			int length = ends[index] - start;
+			int keyLength = key.length() - offset;
+
+			for (int i = 0, n = Math.min(length, keyLength); i < n; i++) {
+				int difference = chars[start + i] - key.charAt(offset + i);
+				if (difference != 0)
+					return difference;
+			}
+			return length - keyLength;
+		}
+
+		/**
+		 * Compares the key at index with key, like compareTo
+		 *
+		 * @return negative, zero or positive as the stored key is less than,
+		 *         equal to or greater than key
+		 */
+		int compareKey(int index, String key) {
+			int length = prefix.length();
+			for (int i = 0, n = Math.min(length, key.length()); i < n; i++) {
+				int difference = prefix.charAt(i) - key.charAt(i);
+				if (difference != 0)
+					return difference;
+			}
+
+			// key ends inside the prefix, so the stored key is longer
+			if (key.length() < length)
+				return 1;
+			return compareSuffix(index, key, length);
+		}
+
+		/**
+		 * Binary searches the keys. A key without the prefix sorts before or
+		 * after all of them, so only keys with it are compared by suffix.
+		 *
+		 * @param key to search for
+		 * @return index of the key if it exists, otherwise (-(insertion point)
+		 *         - 1) like Arrays.binarySearch
+		 */
+		int findIndex(String key) {
+			if (!key.startsWith(prefix))
+				return key.compareTo(prefix) < 0 ? -1 : -(count + 1);
+
+			int offset = prefix.length();
+			int low = 0;
+			int high = count - 1;
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				int comparison = compareSuffix(middle, key, offset);
+				if (comparison < 0)
+					low = middle + 1;
+				else if (comparison > 0)
+					high = middle - 1;
+				else
+					return middle;
+			}
+			return -(low + 1);
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see StringBPTree.Node#isOverflow()
+		 */
+		boolean isOverflow() {
+			return count > branchingFactor - 1;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see StringBPTree.Node#findLeaf(String)
+		 */
+		LeafNode findLeaf(String key) {
+			return this;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 *
+		 * @see StringBPTree.Node#insert(String, Object)
+		 */
+		void insert(String key, V value) {
+
+			int index = findIndex(key);
+
+			// add the value after the key's existing values
+			if (index >= 0) {
+				values[index] = Postings.append(values[index], value);
+				return;
+			}
+
+			index = -index - 1;
+
+			// a key without the prefix shortens it for every key
+			if (count == 0)
+				prefix = key;
+			else if (!key.startsWith(prefix))
+				setPrefix(prefix.substring(0, commonPrefixLength(prefix, key,
+						Math.min(prefix.length(), key.length()))));
+
+			int offset = prefix.length();
+			int length = key.length() - offset;
+			int start = start(index);
+			int used = start(count);
+			if (used + length > chars.length)
+				chars = Arrays.copyOf(chars,
+						Math.max(used + length, 2 * chars.length));
+
+			System.arraycopy(chars, start, chars, start + length, used - start);
+			key.getChars(offset, key.length(), chars, start);
+			for (int i = count; i > index; i--)
+				ends[i] = ends[i - 1] + length;
+			ends[index] = start + length;
+
+			System.arraycopy(values, index, values, index + 1, count - index);
+			values[index] = value;
+			count++;
+		}
+
+		/**
+		 * Moves chars from the end of the prefix into every suffix
+		 *
+		 * @param shorter prefix of the current prefix
+		 */
+		private void setPrefix(String shorter) {
+			String moved = prefix.substring(shorter.length());
+			int used = start(count);
+			char[] packed = new char[used + count * moved.length()];
+
+			int from = 0;
+			int to = 0;
+			for (int i = 0; i < count; i++) {
+				moved.getChars(0, moved.length(), packed, to);
+				to += moved.length();
+				System.arraycopy(chars, from, packed, to, ends[i] - from);
+				to += ends[i] - from;
+				from = ends[i];
+				ends[i] = to;
+			}
+
+			chars = packed;
+			prefix = shorter;
+		}
+
+		/**
+		 * Replaces the keys with the given ones, under their longest common
+		 * prefix
+		 *
+		 * @param keys  in ascending order
+		 * @param count of keys to take
+		 */
+		private void setKeys(String[] keys, int count) {
+			prefix = count == 0 ? ""
+					: keys[0].substring(0, commonPrefixLength(keys[0],
+							keys[count - 1], Math.min(keys[0].length(),
+									keys[count - 1].length())));
+
+			int offset = prefix.length();
+			int used = 0;
+			for (int i = 0; i < count; i++)
+				used += keys[i].length() - offset;
+
+			chars = new char[used];
+			int to = 0;
+			for (int i = 0; i < count; i++) {
+				keys[i].getChars(offset, keys[i].length(), chars, to);
+				to += keys[i].length() - offset;
+				ends[i] = to;
+			}
+			this.count = count;
+		}
+
+		/**
+		 * (non-Javadoc) Both halves get their own, usually longer, prefix
+		 *
+		 * @see StringBPTree.Node#split()
+		 */
+		Node split() {
+
+			LeafNode node = new LeafNode();
+			int begining = count / 2;
+
+			String[] keys = new String[count];
+			for (int i = 0; i < count; i++)
+				keys[i] = getKey(i);
+
+			// transfer key values pairs to new node
+			node.setKeys(Arrays.copyOfRange(keys, begining, count),
+					count - begining);
+			System.arraycopy(values, begining, node.values, 0, node.count);
+
+			// clear the old values from the original node
+			Arrays.fill(values, begining, count, null);
+			setKeys(keys, begining);
+
+			node.next = next;
+			next = node;
+			return node;
+		}
+
+		/**
+		 * (non-Javadoc) The shortest string between the two leaves
+		 *
+		 * @see StringBPTree.Node#getSeparator(StringBPTree.Node)
+		 */
+		String getSeparator(Node sibling) {
+			return shortestSeparator(getKey(count - 1),
+					((LeafNode) sibling).getKey(0));
+		}
+
+		/**
+		 * Returns the first value of the key at index
+		 */
+		@SuppressWarnings("unchecked")
+		V getFirstValue(int index) {
+			Object slot = values[index];
+			if (slot instanceof Postings)
+				return (V) ((Postings) slot).get(0);
+			return (V) slot;
+		}
+
+		/**
+		 * Adds every value of the key at index to the list
+		 */
+		@SuppressWarnings("unchecked")
+		void addValues(int index, List<V> list) {
+			Object slot = values[index];
+			if (slot instanceof Postings) {
+				for (Object value : (Postings) slot)
+					list.add((V) value);
+			} else
+				list.add((V) slot);
+		}
+
+		/**
+		 * Converts keys to string for testing purposes
+		 */
+		public String toString() {
+			StringBuilder sb = new StringBuilder("[");
+			for (int i = 0; i < count; i++) {
+				if (i > 0)
+					sb.append(", ");
+				sb.append(getKey(i));
+			}
+			return sb.append(']').toString();
+		}
+	} // End of class LeafNode
+
+	/**
+	 * Values of a key that was inserted more than once, in insertion order.
+	 * A distinct class so that a list stored as a single value is never
+	 * mistaken for one.
+	 *
+	 * @author Wally Estenson
+	 */
+	private static final class Postings extends ArrayList<Object> {
+
+		private static final long serialVersionUID = 1L;
+
+		Postings(Object first, Object second) {
+			super(2);
+			add(first);
+			add(second);
+		}
+
+		/**
+		 * Returns the slot with value added after the slot's values
+		 */
+		static Object append(Object slot, Object value) {
+			if (slot instanceof Postings) {
+				((Postings) slot).add(value);
+				return slot;
+			}
+			return new Postings(slot, value);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test Class for StringBPTree.java, checked against BPTree
+ *
+ *
+ * @author Wally Estenson
+ */
+public class StringBPTree_Tests {
+
+	private static final String[] COMPARATORS = { "<", "<=", "==", ">=", ">" };
+
+	/**
+	 * Item ids with long shared prefixes, keys that are prefixes of other
+	 * keys and duplicates give the same searches as BPTree
+	 */
+	@Test
+	void testBALST_001_string_keys_match_bptree() {
+
+		try {
+
+			for (int branchingFactor : new int[] { 3, 4, 5, 16, 128 }) {
+				Random rnd = new Random(branchingFactor);
+				StringBPTree<Integer> tree = new StringBPTree<>(branchingFactor);
+				BPTree<String, Integer> expected = new BPTree<>(branchingFactor);
+
+				String[] prefixes = { "", "item-", "item-00", "item-0042",
+						"order/2019/12/", "\u00e9t\u00e9-" };
+				for (int i = 0; i < 5000; i++) {
+					String key = prefixes[rnd.nextInt(prefixes.length)];
+					if (rnd.nextInt(10) > 0)
+						key += rnd.nextInt(3000);
+					tree.insert(key, i);
+					expected.insert(key, i);
+				}
+
+				Assert.assertEquals(expected.size(), tree.size());
+				Assert.assertEquals(expected.rangeSearch("", ">="),
+						tree.rangeSearch("", ">="));
+
+				for (int i = 0; i < 500; i++) {
+					String key = prefixes[rnd.nextInt(prefixes.length)]
+							+ (i % 2 == 0 ? rnd.nextInt(3000) : "");
+					Assert.assertEquals(expected.get(key), tree.get(key));
+					for (String comparator : COMPARATORS)
+						if (i % 13 == 0)
+							Assert.assertEquals(expected.rangeSearch(key, comparator),
+									tree.rangeSearch(key, comparator));
+				}
+
+				Assert.assertEquals(
+						expected.rangeSearch("item-00", false, "item-1", true),
+						tree.rangeSearch("item-00", false, "item-1", true));
+				Assert.assertEquals(
+						expected.rangeSearch("order", true, "item", true),
+						tree.rangeSearch("order", true, "item", true));
+
+				// same leaves, shorter separators
+				Assert.assertTrue(
+						tree.toString().length() < expected.toString().length());
+			}
+
+			StringBPTree<Integer> tree = new StringBPTree<>(3);
+			Assert.assertNull(tree.get(null));
+			Assert.assertTrue(tree.rangeSearch(null, ">=").isEmpty());
+			Assert.assertTrue(tree.rangeSearch("a", "!=").isEmpty());
+			try {
+				tree.insert(null, 1);
+				fail("inserted a null key");
+			} catch (IllegalArgumentException expectedException) {
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 001: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * The separator is the shortest string between the two keys
+	 */
+	@Test
+	void testBALST_002_shortest_separator() {
+
+		try {
+
+			Assert.assertEquals("item-0043",
+					StringBPTree.shortestSeparator("item-00421", "item-00430"));
+			Assert.assertEquals("ab", StringBPTree.shortestSeparator("a", "abc"));
+			Assert.assertEquals("b", StringBPTree.shortestSeparator("azzz", "b"));
+
+			Random rnd = new Random(2);
+			for (int i = 0; i < 10000; i++) {
+				String low = Integer.toString(rnd.nextInt(100000), 3);
+				String high = Integer.toString(rnd.nextInt(100000), 3);
+				if (low.compareTo(high) >= 0)
+					continue;
+				String separator = StringBPTree.shortestSeparator(low, high);
+				Assert.assertTrue(low.compareTo(separator) < 0);
+				Assert.assertTrue(separator.compareTo(high) <= 0);
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 002: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,443 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and histograms recorded by a BPTree while its metrics are enabled,
+ * see BPTree#enableMetrics. A tree without metrics only pays a null check per
+ * operation; with them, insert, get and rangeSearch read the clock twice and
+ * update a histogram.
+ *
+ * What is recorded:
+ * <ul>
+ * <li>latency histograms of insert, get and rangeSearch</li>
+ * <li>leaf, internal and root splits, and splits per inserted entry</li>
+ * <li>key comparisons made while routing, per operation</li>
+ * <li>leaves visited by each rangeSearch</li>
+ * </ul>
+ * The shape of the tree, from BPTree#getStatistics, is read on demand.
+ *
+ * Counters may be read and exported from any thread. The structural figures
+ * walk the tree, which is not thread safe, so they are only consistent when
+ * nobody writes meanwhile.
+ *
+ * @author Wally Estenson
+ */
+public class TreeMetrics implements TreeMetricsMXBean {
+
+	// JMX domain the metrics are registered under
+	public static final String DOMAIN = "BPTree";
+
+	// Operation latencies in nanoseconds, and leaves per range search
+	final Histogram insertNanos = new Histogram();
+	final Histogram getNanos = new Histogram();
+	final Histogram rangeSearchNanos = new Histogram();
+	final Histogram rangeSearchLeaves = new Histogram();
+
+	// entries inserted by insert or insertAll, and removals that found one
+	final LongAdder inserts = new LongAdder();
+	final LongAdder removes = new LongAdder();
+
+	// keys looked up by getAll, which are not timed one by one
+	final LongAdder batchGets = new LongAdder();
+
+	final LongAdder leafSplits = new LongAdder();
+	final LongAdder internalSplits = new LongAdder();
+	final LongAdder rootSplits = new LongAdder();
+	final LongAdder comparisons = new LongAdder();
+
+	private final Supplier<TreeStatistics> statistics;
+
+	// set while registered with the platform MBean server
+	private ObjectName objectName;
+
+	/**
+	 * Package constructor
+	 *
+	 * @param statistics walks the tree the metrics are recorded for
+	 */
+	TreeMetrics(Supplier<TreeStatistics> statistics) {
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Returns the histogram of insert latencies in nanoseconds
+	 *
+	 * @return insert latencies
+	 */
+	public Histogram getInsertLatency() {
+		return insertNanos;
+	}
+
+	/**
+	 * Returns the histogram of get latencies in nanoseconds
+	 *
+	 * @return get latencies
+	 */
+	public Histogram getGetLatency() {
+		return getNanos;
+	}
+
+	/**
+	 * Returns the histogram of rangeSearch latencies in nanoseconds
+	 *
+	 * @return rangeSearch latencies
+	 */
+	public Histogram getRangeSearchLatency() {
+		return rangeSearchNanos;
+	}
+
+	/**
+	 * Returns the histogram of leaves visited per rangeSearch
+	 *
+	 * @return leaves per range search
+	 */
+	public Histogram getRangeSearchLeaves() {
+		return rangeSearchLeaves;
+	}
+
+	/**
+	 * Returns the current shape of the tree
+	 *
+	 * @return statistics
+	 * @see BPTree#getStatistics()
+	 */
+	public TreeStatistics getStatistics() {
+		return statistics.get();
+	}
+
+	/**
+	 * (non-Javadoc) Entries, so a batch of insertAll counts each of its
+	 * entries; only single inserts are timed
+	 *
+	 * @see TreeMetricsMXBean#getInserts()
+	 */
+	@Override
+	public long getInserts() {
+		return inserts.sum();
+	}
+
+	/**
+	 * (non-Javadoc) Keys, so a batch of getAll counts each of its non-null
+	 * keys; only single gets are timed
+	 *
+	 * @see TreeMetricsMXBean#getGets()
+	 */
+	@Override
+	public long getGets() {
+		return getNanos.getCount() + batchGets.sum();
+	}
+
+	@Override
+	public long getRangeSearches() {
+		return rangeSearchNanos.getCount();
+	}
+
+	@Override
+	public long getRemoves() {
+		return removes.sum();
+	}
+
+	@Override
+	public long getLeafSplits() {
+		return leafSplits.sum();
+	}
+
+	@Override
+	public long getInternalSplits() {
+		return internalSplits.sum();
+	}
+
+	/**
+	 * (non-Javadoc) Splits of the root, each of which adds a level
+	 *
+	 * @see TreeMetricsMXBean#getRootSplits()
+	 */
+	@Override
+	public long getRootSplits() {
+		return rootSplits.sum();
+	}
+
+	@Override
+	public double getSplitsPerInsert() {
+		return ratio(leafSplits.sum() + internalSplits.sum(), inserts.sum());
+	}
+
+	/**
+	 * (non-Javadoc) Every key comparison of the node searches, including the
+	 * ones of removes and batches
+	 *
+	 * @see TreeMetricsMXBean#getComparisons()
+	 */
+	@Override
+	public long getComparisons() {
+		return comparisons.sum();
+	}
+
+	/**
+	 * (non-Javadoc) Comparisons over inserted entries, gets, range searches
+	 * and removes; splits add a few comparisons of their own
+	 *
+	 * @see TreeMetricsMXBean#getComparisonsPerOperation()
+	 */
+	@Override
+	public double getComparisonsPerOperation() {
+		return ratio(comparisons.sum(), inserts.sum() + getGets()
+				+ rangeSearchNanos.getCount() + removes.sum());
+	}
+
+	@Override
+	public long getLeavesScanned() {
+		return rangeSearchLeaves.getTotal();
+	}
+
+	@Override
+	public double getLeavesPerRangeSearch() {
+		return rangeSearchLeaves.getMean();
+	}
+
+	@Override
+	public double getInsertMeanNanos() {
+		return insertNanos.getMean();
+	}
+
+	@Override
+	public long getInsertP50Nanos() {
+		return insertNanos.getPercentile(50);
+	}
+
+	@Override
+	public long getInsertP99Nanos() {
+		return insertNanos.getPercentile(99);
+	}
+
+	@Override
+	public double getGetMeanNanos() {
+		return getNanos.getMean();
+	}
+
+	@Override
+	public long getGetP50Nanos() {
+		return getNanos.getPercentile(50);
+	}
+
+	@Override
+	public long getGetP99Nanos() {
+		return getNanos.getPercentile(99);
+	}
+
+	@Override
+	public double getRangeSearchMeanNanos() {
+		return rangeSearchNanos.getMean();
+	}
+
+	@Override
+	public long getRangeSearchP50Nanos() {
+		return rangeSearchNanos.getPercentile(50);
+	}
+
+	@Override
+	public long getRangeSearchP99Nanos() {
+		return rangeSearchNanos.getPercentile(99);
+	}
+
+	@Override
+	public int getBranchingFactor() {
+		return statistics.get().getBranchingFactor();
+	}
+
+	@Override
+	public int getLeafCapacity() {
+		return statistics.get().getLeafCapacity();
+	}
+
+	@Override
+	public int getHeight() {
+		return statistics.get().getHeight();
+	}
+
+	@Override
+	public long[] getNodesPerLevel() {
+		return statistics.get().getNodesPerLevel();
+	}
+
+	@Override
+	public double getLeafOccupancy() {
+		return statistics.get().getLeafOccupancy();
+	}
+
+	@Override
+	public double getAverageOccupancy() {
+		return statistics.get().getAverageOccupancy();
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see TreeMetricsMXBean#reset()
+	 */
+	@Override
+	public void reset() {
+		insertNanos.reset();
+		getNanos.reset();
+		rangeSearchNanos.reset();
+		rangeSearchLeaves.reset();
+		inserts.reset();
+		removes.reset();
+		batchGets.reset();
+		leafSplits.reset();
+		internalSplits.reset();
+		rootSplits.reset();
+		comparisons.reset();
+	}
+
+	/**
+	 * Returns every metric by name, counters first, then latencies, then the
+	 * shape of the tree. The shape takes a walk over every node.
+	 *
+	 * Names: inserts, gets, rangeSearches, removes, leafSplits,
+	 * internalSplits, rootSplits, splitsPerInsert, comparisons,
+	 * comparisonsPerOperation, leavesScanned, leavesPerRangeSearch;
+	 * insert|get|rangeSearch .meanNanos|.p50Nanos|.p99Nanos|.maxNanos;
+	 * branchingFactor, leafCapacity, size, height, nodes, leafOccupancy,
+	 * averageOccupancy, and level.N.nodes|.keys|.occupancy for each level N
+	 * from the root.
+	 *
+	 * @return metrics in a fixed order
+	 */
+	public Map<String, Double> snapshot() {
+		Map<String, Double> metrics = new LinkedHashMap<String, Double>();
+
+		metrics.put("inserts", (double) getInserts());
+		metrics.put("gets", (double) getGets());
+		metrics.put("rangeSearches", (double) getRangeSearches());
+		metrics.put("removes", (double) getRemoves());
+		metrics.put("leafSplits", (double) getLeafSplits());
+		metrics.put("internalSplits", (double) getInternalSplits());
+		metrics.put("rootSplits", (double) getRootSplits());
+		metrics.put("splitsPerInsert", getSplitsPerInsert());
+		metrics.put("comparisons", (double) getComparisons());
+		metrics.put("comparisonsPerOperation", getComparisonsPerOperation());
+		metrics.put("leavesScanned", (double) getLeavesScanned());
+		metrics.put("leavesPerRangeSearch", getLeavesPerRangeSearch());
+
+		putLatency(metrics, "insert", insertNanos);
+		putLatency(metrics, "get", getNanos);
+		putLatency(metrics, "rangeSearch", rangeSearchNanos);
+
+		TreeStatistics shape = statistics.get();
+		metrics.put("branchingFactor", (double) shape.getBranchingFactor());
+		metrics.put("leafCapacity", (double) shape.getLeafCapacity());
+		metrics.put("size", (double) shape.getSize());
+		metrics.put("height", (double) shape.getHeight());
+		metrics.put("nodes", (double) shape.getNodeCount());
+		metrics.put("leafOccupancy", shape.getLeafOccupancy());
+		metrics.put("averageOccupancy", shape.getAverageOccupancy());
+
+		long[] nodes = shape.getNodesPerLevel();
+		long[] keys = shape.getKeysPerLevel();
+		for (int level = 0; level < shape.getHeight(); level++) {
+			metrics.put("level." + level + ".nodes", (double) nodes[level]);
+			metrics.put("level." + level + ".keys", (double) keys[level]);
+			metrics.put("level." + level + ".occupancy",
+					shape.getOccupancy(level));
+		}
+		return metrics;
+	}
+
+	/**
+	 * Hands every metric of snapshot to the sink, in the same order
+	 *
+	 * @param sink receives the metrics
+	 */
+	public void publish(MetricsSink sink) {
+		for (Map.Entry<String, Double> metric : snapshot().entrySet())
+			sink.accept(metric.getKey(), metric.getValue());
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server as
+	 * BPTree:type=TreeMetrics,name=&lt;name&gt;, so JConsole or any JMX
+	 * client can read them
+	 *
+	 * @param name distinguishes the tree from others
+	 * @return name the metrics are registered under
+	 * @throws IllegalStateException if they are already registered, or the
+	 *                               name is taken
+	 */
+	public synchronized ObjectName register(String name) {
+		if (objectName != null)
+			throw new IllegalStateException(
+					"Metrics are already registered as " + objectName);
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName registered = new ObjectName(DOMAIN + ":type=TreeMetrics,name="
+					+ ObjectName.quote(name));
+			server.registerMBean(this, registered);
+			objectName = registered;
+			return registered;
+		} catch (JMException e) {
+			throw new IllegalStateException("Cannot register metrics " + name, e);
+		}
+	}
+
+	/**
+	 * Removes the metrics from the platform MBean server, if registered
+	 */
+	public synchronized void unregister() {
+		if (objectName == null)
+			return;
+
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (JMException e) {
+			throw new IllegalStateException(
+					"Cannot unregister metrics " + objectName, e);
+		} finally {
+			objectName = null;
+		}
+	}
+
+	/**
+	 * Adds the mean, median, 99th percentile and maximum of a latency
+	 */
+	private static void putLatency(Map<String, Double> metrics, String name,
+			Histogram histogram) {
+		metrics.put(name + ".meanNanos", histogram.getMean());
+		metrics.put(name + ".p50Nanos", (double) histogram.getPercentile(50));
+		metrics.put(name + ".p99Nanos", (double) histogram.getPercentile(99));
+		metrics.put(name + ".maxNanos", (double) histogram.getPercentile(100));
+	}
+
+	/**
+	 * Divides, with 0 for nothing over nothing
+	 */
+	private static double ratio(long numerator, long denominator) {
+		return denominator == 0 ? 0 : (double) numerator / denominator;
+	}
+
+	/**
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "inserts=" + getInserts() + ", gets=" + getGets()
+				+ ", rangeSearches=" + getRangeSearches() + ", removes="
+				+ getRemoves() + ", splits=" + (getLeafSplits()
+						+ getInternalSplits())
+				+ ", comparisonsPerOperation="
+				+ String.format("%.2f", getComparisonsPerOperation())
+				+ "\ninsert: " + insertNanos + "\nget: " + getNanos
+				+ "\nrangeSearch: " + rangeSearchNanos + "\nleaves per scan: "
+				+ rangeSearchLeaves;
+	}
+}
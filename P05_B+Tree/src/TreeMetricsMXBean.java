@@ -0,0 +1,67 @@
+/**
+ * JMX view of TreeMetrics, registered with TreeMetrics#register. Latencies
+ * are in nanoseconds; the structural attributes walk the tree on every read.
+ *
+ * @author Wally Estenson
+ */
+public interface TreeMetricsMXBean {
+
+	long getInserts();
+
+	long getGets();
+
+	long getRangeSearches();
+
+	long getRemoves();
+
+	long getLeafSplits();
+
+	long getInternalSplits();
+
+	long getRootSplits();
+
+	double getSplitsPerInsert();
+
+	long getComparisons();
+
+	double getComparisonsPerOperation();
+
+	long getLeavesScanned();
+
+	double getLeavesPerRangeSearch();
+
+	double getInsertMeanNanos();
+
+	long getInsertP50Nanos();
+
+	long getInsertP99Nanos();
+
+	double getGetMeanNanos();
+
+	long getGetP50Nanos();
+
+	long getGetP99Nanos();
+
+	double getRangeSearchMeanNanos();
+
+	long getRangeSearchP50Nanos();
+
+	long getRangeSearchP99Nanos();
+
+	int getBranchingFactor();
+
+	int getLeafCapacity();
+
+	int getHeight();
+
+	long[] getNodesPerLevel();
+
+	double getLeafOccupancy();
+
+	double getAverageOccupancy();
+
+	/**
+	 * Sets every counter and histogram back to zero
+	 */
+	void reset();
+}
@@ -0,0 +1,235 @@
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test Class for TreeMetrics.java and Histogram.java
+ *
+ *
+ * @author Wally Estenson
+ */
+public class TreeMetrics_Tests {
+
+	/**
+	 * Percentiles land within one sub-bucket of the exact value, and bucket
+	 * bounds tile the longs without gaps
+	 */
+	@Test
+	void testBALST_001_histogram_percentiles() {
+
+		try {
+
+			Histogram histogram = new Histogram();
+			Assert.assertEquals(0, histogram.getPercentile(99));
+			Assert.assertEquals(0, histogram.getMean(), 0);
+
+			for (long value = 1; value <= 10000; value++)
+				histogram.record(value);
+
+			Assert.assertEquals(10000, histogram.getCount());
+			Assert.assertEquals(5000.5, histogram.getMean(), 1e-9);
+			for (double percentile : new double[] { 1, 50, 90, 99, 100 }) {
+				long exact = (long) (percentile * 100);
+				long estimate = histogram.getPercentile(percentile);
+				Assert.assertTrue(estimate >= exact);
+				Assert.assertTrue(
+						estimate <= exact + exact / Histogram.SUB_BUCKETS + 1);
+			}
+
+			// every value falls in the bucket whose bounds surround it
+			Random rnd = new Random(1);
+			for (int i = 0; i < 100000; i++) {
+				long value = i < 1000 ? i : rnd.nextLong() >>> (1 + rnd.nextInt(63));
+				int bucket = Histogram.bucket(value);
+				Assert.assertTrue(value <= Histogram.upperBound(bucket));
+				if (bucket > 0)
+					Assert.assertTrue(value > Histogram.upperBound(bucket - 1));
+			}
+			Assert.assertEquals(Long.MAX_VALUE,
+					Histogram.upperBound(Histogram.bucket(Long.MAX_VALUE)));
+
+			histogram.reset();
+			Assert.assertEquals(0, histogram.getCount());
+			try {
+				histogram.getPercentile(101);
+				fail("accepted a percentile above 100");
+			} catch (IllegalArgumentException expected) {
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 001: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Count operations, splits, comparisons and scanned leaves of a tree with
+	 * metrics, and nothing once they are disabled
+	 */
+	@Test
+	void testBALST_002_operation_metrics() {
+
+		try {
+
+			BPTree<Integer, Integer> tree = new BPTree<>(4);
+			Assert.assertNull(tree.getMetrics());
+
+			TreeMetrics metrics = tree.enableMetrics();
+			Assert.assertSame(metrics, tree.enableMetrics());
+
+			for (int i = 0; i < 1000; i++)
+				tree.insert(i, i);
+			for (int i = 0; i < 500; i++)
+				Assert.assertEquals(Integer.valueOf(i), tree.get(i));
+			Assert.assertEquals(100, tree.rangeSearch(100, true, 200, false).size());
+			Assert.assertEquals(1000, tree.rangeSearch(0, ">=").size());
+
+			// every leaf but the first comes from a split, and every internal
+			// node from a split or a new root, which adds a level
+			TreeStatistics statistics = tree.getStatistics();
+			Assert.assertEquals(statistics.getLeafCount() - 1,
+					metrics.getLeafSplits());
+			Assert.assertEquals(statistics.getHeight() - 1,
+					metrics.getRootSplits());
+			Assert.assertEquals(
+					statistics.getNodeCount() - statistics.getLeafCount(),
+					metrics.getInternalSplits() + metrics.getRootSplits());
+
+			// a whole-tree scan reads every leaf
+			long leaves = statistics.getLeafCount();
+			Assert.assertEquals(leaves, metrics.getRangeSearchLeaves()
+					.getPercentile(100), leaves / Histogram.SUB_BUCKETS);
+			Assert.assertTrue(metrics.getLeavesScanned() > leaves);
+
+			Assert.assertEquals(Integer.valueOf(7), tree.remove(7));
+			Assert.assertNull(tree.remove(7));
+
+			Assert.assertEquals(1000, metrics.getInserts());
+			Assert.assertEquals(500, metrics.getGets());
+			Assert.assertEquals(2, metrics.getRangeSearches());
+			Assert.assertEquals(1, metrics.getRemoves());
+			Assert.assertEquals(1000, metrics.getInsertLatency().getCount());
+
+			// a few comparisons per level, never more than the node search
+			// can take
+			double perOperation = metrics.getComparisonsPerOperation();
+			Assert.assertTrue(perOperation >= statistics.getHeight());
+			Assert.assertTrue(perOperation <= 3 * statistics.getHeight());
+
+			// batches count their entries and split evenly
+			tree.insertAll(
+					Collections.nCopies(50, new AbstractMap.SimpleEntry<>(2000, 0)));
+			Assert.assertEquals(1050, metrics.getInserts());
+			Assert.assertEquals(1000, metrics.getInsertLatency().getCount());
+
+			// multi-gets count each non-null key, and keep the ratio per get
+			double before = metrics.getComparisonsPerOperation();
+			List<Integer> probes = new ArrayList<>();
+			for (int key = 0; key < 2000; key += 4)
+				probes.add(key);
+			probes.add(null);
+			tree.getAll(probes);
+			Assert.assertEquals(1000, metrics.getGets());
+			Assert.assertEquals(500, metrics.getGetLatency().getCount());
+			Assert.assertTrue(
+					metrics.getComparisonsPerOperation() <= before * 1.5);
+
+			tree.disableMetrics();
+			Assert.assertNull(tree.getMetrics());
+			tree.insert(5000, 0);
+			tree.get(5000);
+			Assert.assertEquals(1050, metrics.getInserts());
+			Assert.assertEquals(1000, metrics.getGets());
+
+			metrics.reset();
+			Assert.assertEquals(0, metrics.getInserts());
+			Assert.assertEquals(0, metrics.getComparisons());
+			Assert.assertEquals(0, metrics.getSplitsPerInsert(), 0);
+
+			// a new tree of a different shape reports its own structure
+			TreeMetrics other = new BPTree<Integer, Integer>(3).enableMetrics();
+			Assert.assertEquals(1, other.getHeight());
+			Assert.assertEquals(3, other.getBranchingFactor());
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 002: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Export through a sink and through the platform MBean server
+	 */
+	@Test
+	void testBALST_003_sink_and_jmx() {
+
+		try {
+
+			BPTree<Integer, Integer> tree = new BPTree<>(8);
+			TreeMetrics metrics = tree.enableMetrics();
+			Random rnd = new Random(3);
+			for (int i = 0; i < 5000; i++)
+				tree.insert(rnd.nextInt(), i);
+			for (int i = 0; i < 100; i++)
+				tree.get(rnd.nextInt());
+
+			Map<String, Double> published = new LinkedHashMap<>();
+			metrics.publish(published::put);
+			Assert.assertEquals(metrics.snapshot(), published);
+			Assert.assertEquals(5000, published.get("inserts"), 0);
+			Assert.assertEquals(100, published.get("gets"), 0);
+			Assert.assertTrue(published.get("insert.p99Nanos") > 0);
+			Assert.assertTrue(published.get("insert.p50Nanos") <= published
+					.get("insert.p99Nanos"));
+			int height = tree.getStatistics().getHeight();
+			Assert.assertEquals(height, published.get("height"), 0);
+			Assert.assertEquals(1, published.get("level.0.nodes"), 0);
+			Assert.assertTrue(
+					published.containsKey("level." + (height - 1) + ".occupancy"));
+			Assert.assertFalse(published.containsKey("level." + height + ".nodes"));
+
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = metrics.register("orders by id");
+			try {
+				Assert.assertTrue(server.isRegistered(name));
+				Assert.assertEquals(5000L, server.getAttribute(name, "Inserts"));
+				Assert.assertEquals(height, server.getAttribute(name, "Height"));
+				Assert.assertArrayEquals(tree.getStatistics().getNodesPerLevel(),
+						(long[]) server.getAttribute(name, "NodesPerLevel"));
+
+				try {
+					metrics.register("again");
+					fail("registered twice");
+				} catch (IllegalStateException expected) {
+				}
+
+				server.invoke(name, "reset", null, null);
+				Assert.assertEquals(0, metrics.getInserts());
+			} finally {
+				metrics.unregister();
+			}
+			Assert.assertFalse(server.isRegistered(name));
+
+			// the name is free again
+			metrics.register("orders by id");
+			metrics.unregister();
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 003: " + e.getMessage());
+		}
+	}
+}
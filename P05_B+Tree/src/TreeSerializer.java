@@ -0,0 +1,304 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Writes a BPTree to a stream in a compact binary format and reads it back,
+ * for shipping a built index to another process. Keys and values are written
+ * by their Serializer, so any type the page files support works here too.
+ *
+ * Writing streams the entries from a cursor over the leaves, in key order,
+ * and reading feeds them straight into the bulk load constructor, so neither
+ * side holds more than one entry besides the tree itself, and loading costs
+ * O(N) instead of N inserts.
+ *
+ * The format, version 2; counts and lengths are unsigned varints:
+ *
+ * <pre>
+ * magic             int
+ * version           int
+ * branching factor  int
+ * leaf capacity     int, absent in version 1 where it is branching factor - 1
+ * entries           varint
+ * entry*            key length + 1, or 0 to repeat the previous key
+ *                   key, unless repeated
+ *                   value length + 1, or 0 for a null value
+ *                   value
+ * checksum          int, CRC-32 of the entries
+ * </pre>
+ *
+ * The values of a duplicate key follow each other in insertion order and
+ * repeat the key with a single byte.
+ *
+ * @author Wally Estenson
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public class TreeSerializer<K extends Comparable<K>, V> {
+
+	// Format version written, and the newest one read
+	public static final int VERSION = 2;
+
+	private static final int MAGIC = 0x42505446;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	// Length written for a repeated key or a null value
+	private static final int NONE = 0;
+
+	private final Serializer<K> keySerializer;
+	private final Serializer<V> valueSerializer;
+
+	/**
+	 * Public constructor
+	 *
+	 * @param keySerializer   writes keys
+	 * @param valueSerializer writes values
+	 */
+	public TreeSerializer(Serializer<K> keySerializer,
+			Serializer<V> valueSerializer) {
+		if (keySerializer == null || valueSerializer == null)
+			throw new IllegalArgumentException();
+
+		this.keySerializer = keySerializer;
+		this.valueSerializer = valueSerializer;
+	}
+
+	/**
+	 * Writes every entry of the tree, together with its node sizes.
+	 * The stream is flushed but not closed. The tree must not be modified
+	 * meanwhile.
+	 *
+	 * @param tree to write
+	 * @param out  stream to write to
+	 * @throws IOException if the stream cannot be written
+	 */
+	public void write(BPTree<K, V> tree, OutputStream out) throws IOException {
+		BufferedOutputStream buffered = new BufferedOutputStream(out,
+				BUFFER_SIZE);
+		DataOutputStream header = new DataOutputStream(buffered);
+		header.writeInt(MAGIC);
+		header.writeInt(VERSION);
+		header.writeInt(tree.getBranchingFactor());
+		header.writeInt(tree.getLeafCapacity());
+		writeVarint(header, tree.size());
+
+		CheckedOutputStream checked = new CheckedOutputStream(buffered,
+				new CRC32());
+		DataOutputStream data = new DataOutputStream(checked);
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+
+		RangeCursor<K, V> cursor = tree.cursor(null, true, null, true);
+		K previous = null;
+		while (cursor.advance()) {
+
+			// the values of a key share its slot, and so the key object
+			K key = cursor.getKey();
+			if (key == previous)
+				writeVarint(data, NONE);
+			else
+				buffer = writeObject(data, buffer, keySerializer, key);
+			previous = key;
+
+			V value = cursor.getValue();
+			if (value == null)
+				writeVarint(data, NONE);
+			else
+				buffer = writeObject(data, buffer, valueSerializer, value);
+		}
+
+		// the checksum covers the entries only
+		header.writeInt((int) checked.getChecksum().getValue());
+		buffered.flush();
+	}
+
+	/**
+	 * Reads a tree written by write, with the node sizes it was written with
+	 * and packed nodes
+	 *
+	 * @param in stream to read from; buffered reads may go past the end of
+	 *           the tree
+	 * @return the tree
+	 * @throws IOException if the stream cannot be read, is not a tree, or is
+	 *                     cut short or corrupt
+	 */
+	public BPTree<K, V> read(InputStream in) throws IOException {
+		return read(in, BPTree.DEFAULT_FILL_FACTOR);
+	}
+
+	/**
+	 * Reads a tree written by write, with the node sizes it was written with
+	 *
+	 * @param in         stream to read from; buffered reads may go past the
+	 *                   end of the tree
+	 * @param fillFactor fraction of each node to fill, in (0, 1]
+	 * @return the tree
+	 * @throws IOException if the stream cannot be read, is not a tree, or is
+	 *                     cut short or corrupt
+	 */
+	public BPTree<K, V> read(InputStream in, double fillFactor)
+			throws IOException {
+		if (!(fillFactor > 0 && fillFactor <= 1))
+			throw new IllegalArgumentException(
+					"Illegal fill factor: " + fillFactor);
+
+		BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+		DataInputStream header = new DataInputStream(buffered);
+		if (header.readInt() != MAGIC)
+			throw new IOException("Not a serialized tree");
+		int version = header.readInt();
+		if (version < 1 || version > VERSION)
+			throw new IOException("Unsupported tree format version " + version);
+		int branchingFactor = header.readInt();
+		int leafCapacity = version == 1 ? branchingFactor - 1
+				: header.readInt();
+		long entries = readVarint(header);
+		if (entries > Integer.MAX_VALUE)
+			throw new IOException("Serialized tree has a corrupt size");
+
+		CheckedInputStream checked = new CheckedInputStream(buffered,
+				new CRC32());
+		EntryReader reader = new EntryReader(new DataInputStream(checked),
+				entries);
+
+		// corrupt entries can fail anywhere in a serializer or the bulk load,
+		// before the checksum is reached
+		BPTree<K, V> tree;
+		try {
+			tree = new BPTree<K, V>(branchingFactor, leafCapacity, reader,
+					fillFactor);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} catch (RuntimeException e) {
+			throw new IOException("Serialized tree is corrupt", e);
+		}
+
+		int checksum = (int) checked.getChecksum().getValue();
+		if (header.readInt() != checksum)
+			throw new IOException("Serialized tree fails its checksum");
+		return tree;
+	}
+
+	/**
+	 * Reads the entries one at a time as the bulk load asks for them
+	 */
+	private class EntryReader implements Iterator<Map.Entry<K, V>> {
+
+		final DataInputStream in;
+		long remaining;
+		ByteBuffer buffer;
+		K key;
+
+		EntryReader(DataInputStream in, long entries) {
+			this.in = in;
+			this.remaining = entries;
+			this.buffer = ByteBuffer.allocate(256);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return remaining > 0;
+		}
+
+		@Override
+		public Map.Entry<K, V> next() {
+			if (remaining == 0)
+				throw new NoSuchElementException();
+
+			try {
+				int keyLength = (int) readVarint(in);
+				if (keyLength != NONE)
+					key = readObject(keySerializer, keyLength - 1);
+				else if (key == null)
+					throw new IOException("Serialized tree repeats a missing key");
+
+				int valueLength = (int) readVarint(in);
+				V value = valueLength == NONE ? null
+						: readObject(valueSerializer, valueLength - 1);
+
+				remaining--;
+				return new AbstractMap.SimpleImmutableEntry<K, V>(key, value);
+			} catch (EOFException e) {
+				throw new UncheckedIOException(
+						new IOException("Serialized tree is cut short", e));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		/**
+		 * Reads length bytes and hands them to the serializer
+		 */
+		<T> T readObject(Serializer<T> serializer, int length)
+				throws IOException {
+			if (length < 0)
+				throw new IOException("Serialized tree has a corrupt length");
+			if (buffer.capacity() < length)
+				buffer = ByteBuffer.allocate(
+						Math.max(length, 2 * buffer.capacity()));
+
+			in.readFully(buffer.array(), 0, length);
+			return serializer.read(buffer, 0, length);
+		}
+	}
+
+	/**
+	 * Writes an object behind its length + 1
+	 *
+	 * @return the buffer, grown if the object did not fit
+	 */
+	private static <T> ByteBuffer writeObject(DataOutputStream out,
+			ByteBuffer buffer, Serializer<T> serializer, T object)
+			throws IOException {
+		int length = serializer.size(object);
+		if (buffer.capacity() < length)
+			buffer = ByteBuffer.allocate(Math.max(length, 2 * buffer.capacity()));
+
+		serializer.write(buffer, 0, object);
+		writeVarint(out, length + 1);
+		out.write(buffer.array(), 0, length);
+		return buffer;
+	}
+
+	/**
+	 * Writes a non-negative number in 7-bit groups, low group first, with the
+	 * high bit set on all but the last
+	 */
+	static void writeVarint(DataOutputStream out, long value)
+			throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	/**
+	 * Reads a number written by writeVarint
+	 */
+	static long readVarint(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Serialized tree has a corrupt varint");
+	}
+}
@@ -0,0 +1,178 @@
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test Class for TreeSerializer.java
+ *
+ *
+ * @author Wally Estenson
+ */
+public class TreeSerializer_Tests {
+
+	/**
+	 * Write trees with duplicate keys and null values and read them back with
+	 * the same entries, branching factor and searches
+	 */
+	@Test
+	void testBALST_001_round_trip() {
+
+		try {
+
+			TreeSerializer<Long, String> serializer = new TreeSerializer<>(
+					Serializer.LONG, Serializer.STRING);
+
+			for (int branchingFactor : new int[] { 3, 16, 200 }) {
+				Random rnd = new Random(branchingFactor);
+				BPTree<Long, String> tree = new BPTree<>(branchingFactor);
+				Set<Long> distinct = new HashSet<>();
+				int valueBytes = 0;
+				for (int i = 0; i < 20000; i++) {
+					long key = rnd.nextInt(8000) - 4000;
+					String value = i % 97 == 0 ? null : "item-" + i;
+					tree.insert(key, value);
+					distinct.add(key);
+					valueBytes += value == null ? 1 : 1 + value.length();
+				}
+
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				serializer.write(tree, out);
+				BPTree<Long, String> copy = serializer
+						.read(new ByteArrayInputStream(out.toByteArray()));
+
+				Assert.assertEquals(branchingFactor, copy.getBranchingFactor());
+				Assert.assertEquals(tree.size(), copy.size());
+				Assert.assertEquals(tree.rangeSearch(Long.MIN_VALUE, ">="),
+						copy.rangeSearch(Long.MIN_VALUE, ">="));
+				for (long key = -4000; key < 4000; key += 37) {
+					Assert.assertEquals(tree.get(key), copy.get(key));
+					Assert.assertEquals(tree.rangeSearch(key, "=="),
+							copy.rangeSearch(key, "=="));
+					Assert.assertEquals(tree.rank(key), copy.rank(key));
+				}
+
+				// a 9-byte key per distinct key and a byte for each repeat
+				Assert.assertEquals(16 + 3 + valueBytes + 9 * distinct.size()
+						+ (20000 - distinct.size()) + 4, out.size());
+
+				// a lower fill factor leaves room in the leaves
+				BPTree<Long, String> loose = serializer.read(
+						new ByteArrayInputStream(out.toByteArray()), 0.5);
+				Assert.assertEquals(tree.size(), loose.size());
+				Assert.assertTrue(loose.getStatistics().getLeafCount() > copy
+						.getStatistics().getLeafCount());
+			}
+
+			// an empty tree
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			serializer.write(new BPTree<Long, String>(5), out);
+			BPTree<Long, String> empty = serializer
+					.read(new ByteArrayInputStream(out.toByteArray()));
+			Assert.assertEquals(0, empty.size());
+			Assert.assertEquals(5, empty.getBranchingFactor());
+
+			// sizes survive a round trip, and version 1 streams, which have no
+			// leaf capacity, get the one that goes with their branching factor
+			BPTree<Long, String> sized = new BPTree<>(9, 40);
+			for (long key = 0; key < 500; key++)
+				sized.insert(key, "item");
+			out = new ByteArrayOutputStream();
+			serializer.write(sized, out);
+			byte[] written = out.toByteArray();
+			BPTree<Long, String> copy = serializer
+					.read(new ByteArrayInputStream(written));
+			Assert.assertEquals(9, copy.getBranchingFactor());
+			Assert.assertEquals(40, copy.getLeafCapacity());
+
+			ByteArrayOutputStream version1 = new ByteArrayOutputStream();
+			version1.write(written, 0, 12);
+			version1.write(written, 16, written.length - 16);
+			byte[] old = version1.toByteArray();
+			ByteBuffer.wrap(old).putInt(4, 1);
+			copy = serializer.read(new ByteArrayInputStream(old));
+			Assert.assertEquals(9, copy.getBranchingFactor());
+			Assert.assertEquals(8, copy.getLeafCapacity());
+			Assert.assertEquals(sized.rangeSearch(0L, ">="),
+					copy.rangeSearch(0L, ">="));
+
+			// varints round trip at the group boundaries
+			for (long value : new long[] { 0, 127, 128, 16383, 16384,
+					Integer.MAX_VALUE, Long.MAX_VALUE }) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				TreeSerializer.writeVarint(new java.io.DataOutputStream(bytes),
+						value);
+				Assert.assertEquals(value, TreeSerializer.readVarint(
+						new java.io.DataInputStream(
+								new ByteArrayInputStream(bytes.toByteArray()))));
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 001: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Reject streams that are not trees, come from a newer version, are cut
+	 * short or have flipped bits
+	 */
+	@Test
+	void testBALST_002_damaged_input() {
+
+		try {
+
+			TreeSerializer<Integer, Integer> serializer = new TreeSerializer<>(
+					Serializer.INTEGER, Serializer.INTEGER);
+			BPTree<Integer, Integer> tree = new BPTree<>(8);
+			for (int i = 0; i < 5000; i++)
+				tree.insert(i, i * 3);
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			serializer.write(tree, out);
+			byte[] bytes = out.toByteArray();
+
+			byte[] notATree = "not a tree at all".getBytes();
+			assertUnreadable(serializer, notATree, "Not a serialized tree");
+
+			byte[] newer = bytes.clone();
+			ByteBuffer.wrap(newer).putInt(4, TreeSerializer.VERSION + 1);
+			assertUnreadable(serializer, newer, "Unsupported");
+
+			byte[] truncated = java.util.Arrays.copyOf(bytes, bytes.length / 2);
+			assertUnreadable(serializer, truncated, "cut short");
+
+			// a flipped bit in a value only shows in the checksum
+			byte[] flipped = bytes.clone();
+			flipped[bytes.length / 2] ^= 0x10;
+			assertUnreadable(serializer, flipped, "");
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Unexpected exception 002: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Reads the bytes and expects an IOException mentioning the message
+	 */
+	private static void assertUnreadable(
+			TreeSerializer<Integer, Integer> serializer, byte[] bytes,
+			String message) {
+		try {
+			serializer.read(new ByteArrayInputStream(bytes));
+			fail("read a damaged tree");
+		} catch (IOException expected) {
+			Assert.assertTrue(expected.getMessage(),
+					expected.getMessage().contains(message));
+		}
+	}
+}
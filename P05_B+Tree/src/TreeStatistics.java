@@ -0,0 +1,175 @@
+/**
+ * Shape of a BPTree at one moment: its height, and per level the number of
+ * nodes and the keys they hold. Occupancy is keys over key slots, so a level
+ * that keeps splitting sits near one half and a bulk loaded one near its fill
+ * factor; together with the split rate in TreeMetrics it shows whether a
+ * branching factor fits the workload. Level 0 is the root, the last level the
+ * leaves.
+ *
+ * @author Wally Estenson
+ */
+public class TreeStatistics {
+
+	private final int branchingFactor;
+	private final int leafCapacity;
+	private final int size;
+	private final long[] nodes;
+	private final long[] keys;
+
+	/**
+	 * Package constructor
+	 *
+	 * @param branchingFactor of the tree
+	 * @param leafCapacity    of the tree
+	 * @param size            entries in the tree
+	 * @param nodes           nodes per level, root first
+	 * @param keys            keys per level, root first
+	 */
+	TreeStatistics(int branchingFactor, int leafCapacity, int size,
+			long[] nodes, long[] keys) {
+		this.branchingFactor = branchingFactor;
+		this.leafCapacity = leafCapacity;
+		this.size = size;
+		this.nodes = nodes;
+		this.keys = keys;
+	}
+
+	/**
+	 * Returns the branching factor of the tree
+	 *
+	 * @return branching factor
+	 */
+	public int getBranchingFactor() {
+		return branchingFactor;
+	}
+
+	/**
+	 * Returns the most keys a leaf of the tree holds
+	 *
+	 * @return leaf capacity
+	 */
+	public int getLeafCapacity() {
+		return leafCapacity;
+	}
+
+	/**
+	 * Returns the number of entries, counting each value of a duplicate key
+	 *
+	 * @return size
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of levels, 1 for a tree that is a single leaf
+	 *
+	 * @return height
+	 */
+	public int getHeight() {
+		return nodes.length;
+	}
+
+	/**
+	 * Returns the number of nodes on each level, root first
+	 *
+	 * @return nodes per level
+	 */
+	public long[] getNodesPerLevel() {
+		return nodes.clone();
+	}
+
+	/**
+	 * Returns the number of keys on each level, root first. Leaf keys are
+	 * distinct keys, so they can be fewer than the entries.
+	 *
+	 * @return keys per level
+	 */
+	public long[] getKeysPerLevel() {
+		return keys.clone();
+	}
+
+	/**
+	 * Returns the number of nodes in the tree
+	 *
+	 * @return node count
+	 */
+	public long getNodeCount() {
+		long count = 0;
+		for (long levelNodes : nodes)
+			count += levelNodes;
+		return count;
+	}
+
+	/**
+	 * Returns the number of leaves
+	 *
+	 * @return leaf count
+	 */
+	public long getLeafCount() {
+		return nodes[nodes.length - 1];
+	}
+
+	/**
+	 * Returns the fraction of the key slots of a level in use. Every internal
+	 * node has branchingFactor - 1 of them, every leaf leafCapacity.
+	 *
+	 * @param level 0 for the root
+	 * @return occupancy in [0, 1]
+	 */
+	public double getOccupancy(int level) {
+		return (double) keys[level] / (nodes[level] * slots(level));
+	}
+
+	/**
+	 * Returns the fraction of the key slots of the leaves in use, which is
+	 * where nearly all of the tree's memory goes
+	 *
+	 * @return leaf occupancy in [0, 1]
+	 */
+	public double getLeafOccupancy() {
+		return getOccupancy(nodes.length - 1);
+	}
+
+	/**
+	 * Returns the fraction of all key slots in use, over every node
+	 *
+	 * @return average occupancy in [0, 1]
+	 */
+	public double getAverageOccupancy() {
+		long used = 0;
+		long slots = 0;
+		for (int level = 0; level < nodes.length; level++) {
+			used += keys[level];
+			slots += nodes[level] * slots(level);
+		}
+		return (double) used / slots;
+	}
+
+	/**
+	 * Returns the key slots of a node on a level
+	 */
+	private int slots(int level) {
+		return level == nodes.length - 1 ? leafCapacity : branchingFactor - 1;
+	}
+
+	/**
+	 * (non-Javadoc) One line per level
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("height=").append(getHeight()).append(", size=").append(size)
+				.append(", branchingFactor=").append(branchingFactor)
+				.append(", leafCapacity=").append(leafCapacity).append('\n');
+		for (int level = 0; level < nodes.length; level++)
+			sb.append("level ").append(level).append(": nodes=")
+					.append(nodes[level]).append(", keys=").append(keys[level])
+					.append(", occupancy=")
+					.append(String.format("%.3f", getOccupancy(level)))
+					.append('\n');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,378 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of opaque records with group commit. Every record gets a
+ * log sequence number (lsn), the file offset just past it, and a record is
+ * durable once the log has been forced to disk up to its lsn.
+ *
+ * Appends only copy the record into a buffer. A writer that needs its record
+ * durable calls sync, and whichever writer gets there first becomes the
+ * leader: it takes the whole buffer, writes it and forces it with one fsync,
+ * while the writers that arrive meanwhile append into a second buffer and
+ * wait. When the leader is done, everything it wrote is durable and the next
+ * waiter leads the following group. The cost of an fsync is shared by every
+ * record appended while the previous one was in progress.
+ *
+ * commit adds a batching policy on top: it only syncs once syncEvery records
+ * are waiting, so a single writer can trade a bounded window of lost records
+ * for fewer fsyncs. With syncEvery 1 every commit is durable.
+ *
+ * The file is a magic number followed by the records:
+ *
+ * <pre>
+ * 0  length   int, bytes of data
+ * 4  crc      int, CRC-32 of data
+ * 8  data
+ * </pre>
+ *
+ * Opening a log reads every record back in order. A record cut short,
+ * failing its checksum or of length 0 can only be the tail of a write that a
+ * crash interrupted, e.g. a file that grew before its data reached the disk,
+ * so reading stops there and the file is truncated to the last whole record.
+ * Records are never empty.
+ *
+ * @author Wally Estenson
+ */
+public class WriteAheadLog implements Closeable {
+
+	// Records waiting before commit syncs, by default every one
+	public static final int DEFAULT_SYNC_EVERY = 1;
+
+	// Buffered bytes at which commit syncs regardless of syncEvery
+	public static final int MAX_BUFFERED_BYTES = 1 << 20;
+
+	private static final int MAGIC = 0x4250574C;
+	private static final int HEADER = Integer.BYTES;
+	private static final int RECORD_HEADER = 2 * Integer.BYTES;
+
+	private final FileChannel channel;
+	private final int syncEvery;
+	private final CRC32 crc;
+
+	// records appended since the last sync started, and the buffer the
+	// leader is writing
+	private ByteBuffer pending;
+	private ByteBuffer spare;
+	private int pendingRecords;
+
+	// end of the last appended record, and of the last durable one
+	private long appendedLsn;
+	private long durableLsn;
+
+	// a leader is writing, up to writingLsn
+	private boolean syncing;
+	private long writingLsn;
+
+	// a write failed, leaving a gap that later records must not follow
+	private boolean failed;
+
+	private long appends;
+	private long syncs;
+
+	/**
+	 * Opens the log, or creates it if it does not exist or is empty, and
+	 * skips the records already in it
+	 *
+	 * @param file      path of the log
+	 * @param syncEvery records waiting before commit syncs
+	 * @throws IOException if the file cannot be opened or is not a log
+	 */
+	public WriteAheadLog(Path file, int syncEvery) throws IOException {
+		this(file, syncEvery, record -> {
+		});
+	}
+
+	/**
+	 * Opens the log, or creates it if it does not exist or is empty, and
+	 * passes the data of every record already in it to replay, in order
+	 *
+	 * @param file      path of the log
+	 * @param syncEvery records waiting before commit syncs
+	 * @param replay    receives each record; the buffer is only valid during
+	 *                  the call
+	 * @throws IOException if the file cannot be opened or is not a log
+	 */
+	public WriteAheadLog(Path file, int syncEvery, Consumer<ByteBuffer> replay)
+			throws IOException {
+		if (syncEvery <= 0)
+			throw new IllegalArgumentException("Illegal sync every: " + syncEvery);
+
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.syncEvery = syncEvery;
+		this.crc = new CRC32();
+		this.pending = ByteBuffer.allocate(4096);
+		this.spare = ByteBuffer.allocate(4096);
+
+		try {
+			if (channel.size() == 0) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(0, MAGIC);
+				while (header.hasRemaining())
+					channel.write(header, header.position());
+				channel.force(true);
+				appendedLsn = HEADER;
+			} else
+				appendedLsn = recover(file, replay);
+			durableLsn = appendedLsn;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads every whole record and truncates whatever follows them
+	 *
+	 * @return end of the last whole record
+	 */
+	private long recover(Path file, Consumer<ByteBuffer> replay)
+			throws IOException {
+		long size = channel.size();
+		long end = HEADER;
+
+		// the stream shares the channel's position, and must not close it
+		channel.position(0);
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+
+		if (size < HEADER || in.readInt() != MAGIC)
+			throw new IOException(file + " is not a write-ahead log");
+
+		byte[] data = new byte[256];
+		try {
+			while (end + RECORD_HEADER <= size) {
+				int length = in.readInt();
+				int checksum = in.readInt();
+				// append never writes an empty record, and an empty record's
+				// checksum is 0, so a zeroed tail would otherwise pass
+				if (length <= 0 || length > size - end - RECORD_HEADER)
+					break;
+
+				if (data.length < length)
+					data = new byte[Math.max(length, 2 * data.length)];
+				in.readFully(data, 0, length);
+
+				crc.reset();
+				crc.update(data, 0, length);
+				if ((int) crc.getValue() != checksum)
+					break;
+
+				replay.accept(ByteBuffer.wrap(data, 0, length).slice());
+				end += RECORD_HEADER + length;
+			}
+		} catch (EOFException e) {
+			// torn tail, handled below
+		}
+
+		if (end < size) {
+			channel.truncate(end);
+			channel.force(true);
+		}
+		return end;
+	}
+
+	/**
+	 * Appends a record to the buffer. The record is not durable until a sync
+	 * covers its lsn.
+	 *
+	 * @param data of the record, from its position to its limit; not
+	 *             modified and not empty
+	 * @return lsn of the record
+	 */
+	public synchronized long append(ByteBuffer data) {
+		int length = data.remaining();
+		if (length == 0)
+			throw new IllegalArgumentException("Empty log record");
+		if (pending.remaining() < RECORD_HEADER + length) {
+			ByteBuffer grown = ByteBuffer.allocate(
+					Math.max(2 * pending.capacity(),
+							pending.position() + RECORD_HEADER + length));
+			pending.flip();
+			pending = grown.put(pending);
+		}
+
+		crc.reset();
+		crc.update(data.duplicate());
+		pending.putInt(length).putInt((int) crc.getValue()).put(data.duplicate());
+
+		pendingRecords++;
+		appends++;
+		appendedLsn += RECORD_HEADER + length;
+		return appendedLsn;
+	}
+
+	/**
+	 * Makes the record at lsn durable if syncEvery records are waiting, or
+	 * the buffer has grown past MAX_BUFFERED_BYTES; otherwise leaves it for a
+	 * later sync
+	 *
+	 * @param lsn of an appended record
+	 * @throws IOException if the log cannot be written
+	 */
+	public void commit(long lsn) throws IOException {
+		synchronized (this) {
+			if (lsn <= durableLsn)
+				return;
+
+			// a record the leader already took costs no extra fsync to wait for
+			boolean writing = syncing && lsn <= writingLsn;
+			if (!writing && pendingRecords < syncEvery
+					&& pending.position() < MAX_BUFFERED_BYTES)
+				return;
+		}
+		sync(lsn);
+	}
+
+	/**
+	 * Makes every appended record durable
+	 *
+	 * @throws IOException if the log cannot be written
+	 */
+	public void sync() throws IOException {
+		long lsn;
+		synchronized (this) {
+			lsn = appendedLsn;
+		}
+		sync(lsn);
+	}
+
+	/**
+	 * Makes the records up to lsn durable, either by leading a group commit
+	 * or by waiting for the one in progress to cover lsn
+	 *
+	 * @param lsn of an appended record
+	 * @throws IOException if the log cannot be written
+	 */
+	public void sync(long lsn) throws IOException {
+		ByteBuffer batch;
+		long end;
+
+		synchronized (this) {
+			while (lsn > durableLsn && syncing) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted waiting for a log sync", e);
+				}
+			}
+			if (lsn <= durableLsn)
+				return;
+			if (failed)
+				throw new IOException("The log failed an earlier write");
+
+			// lead: take the buffer, let the others append into the spare
+			syncing = true;
+			batch = pending;
+			pending = spare;
+			spare = null;
+			pendingRecords = 0;
+			end = appendedLsn;
+			writingLsn = end;
+		}
+
+		boolean written = false;
+		try {
+			batch.flip();
+			long offset = end - batch.remaining();
+			while (batch.hasRemaining())
+				offset += channel.write(batch, offset);
+			channel.force(false);
+			written = true;
+		} finally {
+			synchronized (this) {
+				batch.clear();
+				spare = batch;
+				syncing = false;
+				if (written) {
+					durableLsn = end;
+					syncs++;
+				} else
+					failed = true;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Drops every record, for a caller that has made what they record durable
+	 * somewhere else. Records appended but not yet synced are dropped too, and
+	 * lsns start over from the first record.
+	 *
+	 * @throws IOException if the log cannot be truncated
+	 */
+	public synchronized void reset() throws IOException {
+		while (syncing) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted waiting for a log sync", e);
+			}
+		}
+		if (failed)
+			throw new IOException("The log failed an earlier write");
+
+		channel.truncate(HEADER);
+		channel.force(true);
+		pending.clear();
+		pendingRecords = 0;
+		appendedLsn = HEADER;
+		durableLsn = HEADER;
+	}
+
+	/**
+	 * Returns the number of records appended since the log was opened
+	 *
+	 * @return appends
+	 */
+	public synchronized long getAppends() {
+		return appends;
+	}
+
+	/**
+	 * Returns the number of fsyncs since the log was opened
+	 *
+	 * @return syncs
+	 */
+	public synchronized long getSyncs() {
+		return syncs;
+	}
+
+	/**
+	 * Returns the lsn up to which records are durable
+	 *
+	 * @return durable lsn
+	 */
+	public synchronized long getDurableLsn() {
+		return durableLsn;
+	}
+
+	/**
+	 * (non-Javadoc) Syncs every appended record and closes the file
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!channel.isOpen())
+			return;
+
+		try {
+			sync();
+		} finally {
+			channel.close();
+		}
+	}
+}